@@ -0,0 +1,85 @@
+package com.example.app.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic CSV input for the benchmarks
+ */
+public final class CsvGenerator {
+
+    private static final long SEED = 42L;
+
+    private CsvGenerator() {
+    }
+
+    public static List<String> columnNames(int columns) {
+        List<String> names = new ArrayList<>(columns);
+        for (int i = 0; i < columns; i++) {
+            names.add("col_" + i);
+        }
+        return names;
+    }
+
+    /**
+     * Builds rows cycling through integer, decimal and text columns. With quoted set,
+     * text values contain delimiters, quotes and line breaks so they must be quoted.
+     */
+    public static List<List<Object>> rows(int rows, int columns, boolean quoted) {
+        Random random = new Random(SEED);
+        List<List<Object>> data = new ArrayList<>(rows);
+        for (int r = 0; r < rows; r++) {
+            List<Object> row = new ArrayList<>(columns);
+            for (int c = 0; c < columns; c++) {
+                switch (c % 3) {
+                    case 0:
+                        row.add(String.valueOf(random.nextInt(1_000_000)));
+                        break;
+                    case 1:
+                        row.add(String.valueOf(random.nextDouble() * 1000));
+                        break;
+                    default:
+                        row.add(quoted
+                                ? "name, \"" + random.nextInt(10_000) + "\"\nline two"
+                                : "name_" + random.nextInt(10_000));
+                }
+            }
+            data.add(row);
+        }
+        return data;
+    }
+
+    /**
+     * Writes a CSV file with a header row and the generated rows
+     */
+    public static Path writeFile(Path directory, int rows, int columns, boolean quoted) throws IOException {
+        Path file = Files.createTempFile(directory, "bench_" + rows + "x" + columns + "_", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(String.join(",", columnNames(columns)));
+            writer.write('\n');
+            for (List<Object> row : rows(rows, columns, quoted)) {
+                for (int c = 0; c < row.size(); c++) {
+                    if (c > 0) {
+                        writer.write(',');
+                    }
+                    String value = (String) row.get(c);
+                    if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+                        writer.write('"');
+                        writer.write(value.replace("\"", "\"\""));
+                        writer.write('"');
+                    } else {
+                        writer.write(value);
+                    }
+                }
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.app.benchmarks;
+
+import com.example.app.model.TableInfo;
+import com.example.app.service.FlatFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of the flat file read/write paths over generated CSVs of varying
+ * width, quoting and size. Each invocation processes the whole file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatFileServiceBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"4", "32"})
+    public int columns;
+
+    @Param({"false", "true"})
+    public boolean quoted;
+
+    private final FlatFileService flatFileService = new FlatFileService();
+    private Path directory;
+    private Path inputFile;
+    private Path outputFile;
+    private List<String> headers;
+    private List<List<Object>> data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("flatfile-bench");
+        inputFile = CsvGenerator.writeFile(directory, rows, columns, quoted);
+        outputFile = directory.resolve("output.csv");
+        headers = CsvGenerator.columnNames(columns);
+        data = CsvGenerator.rows(rows, columns, quoted);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int processFileDataInBatches(Blackhole blackhole) throws IOException {
+        return flatFileService.processFileDataInBatches(
+                inputFile.toString(), ",", headers, 1000, blackhole::consume);
+    }
+
+    @Benchmark
+    public TableInfo readFileSchema() throws IOException {
+        return flatFileService.readFileSchema(inputFile.toString(), ",");
+    }
+
+    @Benchmark
+    public int countLines() throws IOException {
+        return flatFileService.countLines(inputFile.toString());
+    }
+
+    @Benchmark
+    public int writeToFile() throws IOException {
+        return flatFileService.writeToFile(outputFile.toString(), headers, data, ",");
+    }
+}
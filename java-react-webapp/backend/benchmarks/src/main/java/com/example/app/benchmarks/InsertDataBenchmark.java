@@ -0,0 +1,67 @@
+package com.example.app.benchmarks;
+
+import com.example.app.model.ConnectionConfig;
+import com.example.app.service.ClickHouseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row-to-statement binding cost of ClickHouseService.insertData for one batch,
+ * against a stub JDBC connection that discards everything
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertDataBenchmark {
+
+    @Param({"1000", "10000"})
+    public int batchSize;
+
+    @Param({"4", "32"})
+    public int columns;
+
+    private final StubJdbc.Sink sink = new StubJdbc.Sink();
+    private ClickHouseService clickHouseService;
+    private ConnectionConfig config;
+    private List<String> columnNames;
+    private List<List<Object>> batch;
+
+    @Setup
+    public void setUp() {
+        clickHouseService = new ClickHouseService() {
+            @Override
+            protected Connection getConnection(ConnectionConfig config) {
+                return StubJdbc.connection(sink);
+            }
+        };
+        config = new ConnectionConfig();
+        config.setHost("localhost");
+        config.setPort(8123);
+        config.setDatabase("default");
+        config.setUser("default");
+        columnNames = CsvGenerator.columnNames(columns);
+        batch = CsvGenerator.rows(batchSize, columns, false);
+    }
+
+    @Benchmark
+    public int insertData() throws SQLException {
+        return clickHouseService.insertData(config, "bench_table", columnNames, batch);
+    }
+}
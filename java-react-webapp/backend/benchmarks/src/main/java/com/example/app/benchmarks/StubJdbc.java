@@ -0,0 +1,91 @@
+package com.example.app.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+
+/**
+ * In-memory JDBC stand-in that accepts every statement and discards the data,
+ * so benchmarks measure the binding code rather than a server
+ */
+public final class StubJdbc {
+
+    private StubJdbc() {
+    }
+
+    /**
+     * A sink for bound values so the JIT can't drop the binding work
+     */
+    public static class Sink {
+        public long valuesBound;
+        public long rowsExecuted;
+        public long checksum;
+    }
+
+    public static Connection connection(Sink sink) {
+        return (Connection) Proxy.newProxyInstance(
+                StubJdbc.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return preparedStatement(sink);
+                        case "isValid":
+                        case "getAutoCommit":
+                            return true;
+                        case "isClosed":
+                            return false;
+                        case "close":
+                        case "setAutoCommit":
+                        case "commit":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException("Stub connection: " + method.getName());
+                    }
+                });
+    }
+
+    private static PreparedStatement preparedStatement(Sink sink) {
+        int[] pendingBatch = new int[1];
+        return (PreparedStatement) Proxy.newProxyInstance(
+                StubJdbc.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2) {
+                        sink.valuesBound++;
+                        sink.checksum += args[1] != null ? args[1].hashCode() : 0;
+                        return null;
+                    }
+                    switch (name) {
+                        case "executeUpdate":
+                            sink.rowsExecuted++;
+                            return 1;
+                        case "addBatch":
+                            pendingBatch[0]++;
+                            return null;
+                        case "executeBatch":
+                        case "executeLargeBatch": {
+                            int rows = pendingBatch[0];
+                            pendingBatch[0] = 0;
+                            sink.rowsExecuted += rows;
+                            int[] counts = new int[rows];
+                            Arrays.fill(counts, 1);
+                            if ("executeLargeBatch".equals(name)) {
+                                return Arrays.stream(counts).asLongStream().toArray();
+                            }
+                            return counts;
+                        }
+                        case "clearParameters":
+                        case "clearBatch":
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        default:
+                            throw new UnsupportedOperationException("Stub statement: " + name);
+                    }
+                });
+    }
+}
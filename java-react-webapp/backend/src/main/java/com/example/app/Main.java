@@ -1,11 +1,15 @@
 package com.example.app;
 
+import com.example.app.logging.Logger;
+import com.example.app.util.ThreadPools;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.webapp.WebAppContext;
 
 import java.io.File;
 
 public class Main {
+    private static final Logger log = Logger.getLogger(Main.class);
+    
     public static void main(String[] args) throws Exception {
         // Create and configure a Jetty server instance
         Server server = new Server(8080);
@@ -32,7 +36,7 @@ public class Main {
         
         // Start the server
         server.start();
-        System.out.println("Server started on port 8080. Press Ctrl+C to stop.");
+        log.info("Server started, press Ctrl+C to stop", "port", 8080, "ingestThreads", ThreadPools.getMode());
         server.join();
     }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package com.example.app.logging;
+
+import com.example.app.metrics.Counter;
+import com.example.app.metrics.MetricsRegistry;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Moves console output off the logging threads. Events go into a fixed-size ring
+ * (an array-backed queue) with a non-blocking offer; a single daemon thread drains
+ * it in batches and writes to stdout (DEBUG/INFO) or stderr (WARN/ERROR). When the
+ * ring is full the event is dropped and counted rather than stalling the caller.
+ */
+final class AsyncLogWriter {
+
+    private static final int RING_CAPACITY = 8192;
+    private static final int DRAIN_BATCH = 512;
+
+    private static final AsyncLogWriter INSTANCE = new AsyncLogWriter(System.out, System.err);
+
+    private final BlockingQueue<LogEvent> ring = new ArrayBlockingQueue<>(RING_CAPACITY);
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Counter dropped;
+    private final Counter written;
+
+    private AsyncLogWriter(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        this.dropped = registry.counter("log_events_dropped_total", "Log events dropped because the ring was full");
+        this.written = registry.counter("log_events_written_total", "Log events written to the console");
+        registry.gauge("log_ring_queued_events", "Log events waiting to be written", ring::size);
+
+        Thread writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-writer-shutdown"));
+    }
+
+    static AsyncLogWriter getInstance() {
+        return INSTANCE;
+    }
+
+    void submit(LogEvent event) {
+        if (!ring.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        List<LogEvent> batch = new ArrayList<>(DRAIN_BATCH);
+        while (true) {
+            try {
+                batch.add(ring.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ring.drainTo(batch, DRAIN_BATCH - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes whatever is still queued, used when the JVM exits
+     */
+    private synchronized void drain() {
+        List<LogEvent> remaining = new ArrayList<>();
+        ring.drainTo(remaining);
+        write(remaining);
+    }
+
+    private synchronized void write(List<LogEvent> events) {
+        for (LogEvent event : events) {
+            PrintStream target = event.level.compareTo(LogLevel.WARN) >= 0 ? err : out;
+            target.print(format(event));
+        }
+        out.flush();
+        err.flush();
+        written.add(events.size());
+    }
+
+    /**
+     * Renders an event as one logfmt-style line (plus a stack trace if there is an error):
+     * {@code 2024-05-01T10:15:30.123Z INFO [worker-1] IngestService op=... msg="..." rows=1000}
+     */
+    static String format(LogEvent event) {
+        StringBuilder line = new StringBuilder(128)
+                .append(Instant.ofEpochMilli(event.timestampMillis)).append(' ')
+                .append(event.level).append(" [").append(event.threadName).append("] ")
+                .append(event.loggerName);
+        if (event.operationId != null) {
+            line.append(" op=").append(event.operationId);
+        }
+        line.append(" msg=");
+        appendValue(line, event.message);
+        Object[] fields = event.fields;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=');
+            appendValue(line, fields[i + 1]);
+        }
+        if (event.error != null) {
+            line.append(" error=");
+            appendValue(line, String.valueOf(event.error));
+        }
+        line.append(System.lineSeparator());
+        if (event.error != null) {
+            StringWriter trace = new StringWriter();
+            event.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+
+    private static void appendValue(StringBuilder line, Object value) {
+        String text = String.valueOf(value);
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                default: line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.app.logging;
+
+/**
+ * Per-thread logging context. While a scope is open, every event logged on the
+ * thread is tagged with the operation ID, so the lines of concurrent ingest jobs
+ * can be told apart.
+ *
+ * <pre>
+ * try (LogContext.Scope scope = LogContext.withOperation(operationId)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class LogContext {
+
+    private static final ThreadLocal<String> operationId = new ThreadLocal<>();
+
+    private LogContext() {
+    }
+
+    public static String getOperationId() {
+        return operationId.get();
+    }
+
+    public static Scope withOperation(String id) {
+        String previous = operationId.get();
+        operationId.set(id);
+        return () -> {
+            if (previous == null) {
+                operationId.remove();
+            } else {
+                operationId.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Restores the previous context when closed
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
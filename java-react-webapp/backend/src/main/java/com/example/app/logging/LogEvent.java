@@ -0,0 +1,26 @@
+package com.example.app.logging;
+
+/**
+ * One log call, captured on the calling thread and formatted later by the writer thread
+ */
+final class LogEvent {
+    final long timestampMillis;
+    final LogLevel level;
+    final String threadName;
+    final String loggerName;
+    final String operationId;
+    final String message;
+    final Object[] fields;
+    final Throwable error;
+
+    LogEvent(LogLevel level, String loggerName, String message, Object[] fields, Throwable error) {
+        this.timestampMillis = System.currentTimeMillis();
+        this.level = level;
+        this.threadName = Thread.currentThread().getName();
+        this.loggerName = loggerName;
+        this.operationId = LogContext.getOperationId();
+        this.message = message;
+        this.fields = fields;
+        this.error = error;
+    }
+}
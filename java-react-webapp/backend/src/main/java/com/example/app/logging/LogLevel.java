@@ -0,0 +1,22 @@
+package com.example.app.logging;
+
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    /**
+     * Parses a level name, falling back to INFO for anything unrecognised
+     */
+    public static LogLevel fromName(String name) {
+        if (name != null) {
+            for (LogLevel level : values()) {
+                if (level.name().equalsIgnoreCase(name.trim())) {
+                    return level;
+                }
+            }
+        }
+        return INFO;
+    }
+}
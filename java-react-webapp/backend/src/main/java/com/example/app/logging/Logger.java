@@ -0,0 +1,106 @@
+package com.example.app.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured, asynchronous logger. Messages are constant text and details go in
+ * key/value fields, e.g. {@code log.info("Batch inserted", "rows", 1000, "ms", 42)}.
+ * Calls only capture the event and hand it to the background writer, so they never
+ * wait on console I/O.
+ *
+ * The threshold comes from the {@code app.log.level} system property (default INFO).
+ */
+public class Logger {
+
+    private static final LogLevel THRESHOLD = LogLevel.fromName(System.getProperty("app.log.level"));
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final String name;
+
+    Logger(String name) {
+        this.name = name;
+    }
+
+    public static Logger getLogger(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    public void debug(String message, Object... fields) {
+        log(LogLevel.DEBUG, message, null, fields);
+    }
+
+    public void info(String message, Object... fields) {
+        log(LogLevel.INFO, message, null, fields);
+    }
+
+    public void warn(String message, Object... fields) {
+        log(LogLevel.WARN, message, null, fields);
+    }
+
+    public void warn(String message, Throwable error, Object... fields) {
+        log(LogLevel.WARN, message, error, fields);
+    }
+
+    public void error(String message, Object... fields) {
+        log(LogLevel.ERROR, message, null, fields);
+    }
+
+    public void error(String message, Throwable error, Object... fields) {
+        log(LogLevel.ERROR, message, error, fields);
+    }
+
+    /**
+     * Returns a view of this logger that writes at most one event per interval and
+     * drops the rest, reporting how many were skipped on the next event it writes.
+     * Keep one per call site, e.g. in a static field.
+     */
+    public Logger rateLimited(long intervalMs) {
+        return new RateLimitedLogger(name, intervalMs);
+    }
+
+    void log(LogLevel level, String message, Throwable error, Object[] fields) {
+        if (isEnabled(level)) {
+            AsyncLogWriter.getInstance().submit(new LogEvent(level, name, message,
+                    fields != null ? fields : NO_FIELDS, error));
+        }
+    }
+
+    private static class RateLimitedLogger extends Logger {
+        private final long intervalNanos;
+        private final AtomicLong nextAllowedNanos = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong suppressed = new AtomicLong();
+
+        RateLimitedLogger(String name, long intervalMs) {
+            super(name);
+            this.intervalNanos = intervalMs * 1_000_000L;
+        }
+
+        @Override
+        void log(LogLevel level, String message, Throwable error, Object[] fields) {
+            if (!isEnabled(level)) {
+                return;
+            }
+            long now = System.nanoTime();
+            long allowed = nextAllowedNanos.get();
+            if ((allowed != Long.MIN_VALUE && now - allowed < 0)
+                    || !nextAllowedNanos.compareAndSet(allowed, now + intervalNanos)) {
+                suppressed.incrementAndGet();
+                return;
+            }
+            long skipped = suppressed.getAndSet(0);
+            if (skipped > 0) {
+                int pairs = fields.length & ~1;
+                Object[] withCount = Arrays.copyOf(fields, pairs + 2);
+                withCount[pairs] = "suppressed";
+                withCount[pairs + 1] = skipped;
+                fields = withCount;
+            }
+            super.log(level, message, error, fields);
+        }
+    }
+}
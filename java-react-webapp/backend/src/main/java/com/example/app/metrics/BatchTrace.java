@@ -0,0 +1,123 @@
+package com.example.app.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timeline of one batch: named spans (System.nanoTime() start and end, and the
+ * thread that recorded them) plus the rows and bytes it carried. Built by the
+ * threads that handle the batch and added to the operation's trace ring once it is done.
+ */
+public class BatchTrace {
+
+    /** Reading and tokenizing input until the batch is full */
+    public static final String READ = "read";
+    /** Batch ready but not yet sent */
+    public static final String QUEUE_WAIT = "queue_wait";
+    /** From sending an insert until ClickHouse acknowledged it */
+    public static final String INSERT = "insert";
+    /** From sending a query until its rows arrived */
+    public static final String QUERY = "query";
+    /** Writing rows to the output file */
+    public static final String WRITE = "write";
+    /** A whole HTTP stream copied between ClickHouse and disk */
+    public static final String TRANSFER = "transfer";
+
+    /**
+     * A named interval within the batch
+     */
+    public static class Span {
+        private final String name;
+        private final String threadName;
+        private final long startNanos;
+        private final long endNanos;
+
+        Span(String name, String threadName, long startNanos, long endNanos) {
+            this.name = name;
+            this.threadName = threadName;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getEndNanos() {
+            return endNanos;
+        }
+    }
+
+    private final List<Span> spans = new ArrayList<>(4);
+    private final Map<String, Object> args = new LinkedHashMap<>();
+    private long index = -1;
+    private long rows;
+    private long bytes;
+    private long readyNanos;
+
+    public BatchTrace span(String name, long startNanos, long endNanos) {
+        spans.add(new Span(name, Thread.currentThread().getName(), startNanos, endNanos));
+        return this;
+    }
+
+    /**
+     * Marks the batch as ready to send; the gap until the insert starts is queue wait
+     */
+    public void markReady(long nanos) {
+        this.readyNanos = nanos;
+    }
+
+    public long getReadyNanos() {
+        return readyNanos;
+    }
+
+    /**
+     * Adds a detail shown with the batch, e.g. CPU time spent parsing
+     */
+    public BatchTrace arg(String name, Object value) {
+        args.put(name, value);
+        return this;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    void setIndex(long index) {
+        this.index = index;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    public Map<String, Object> getArgs() {
+        return args;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+}
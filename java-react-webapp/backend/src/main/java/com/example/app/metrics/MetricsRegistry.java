@@ -0,0 +1,173 @@
+package com.example.app.metrics;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms, rendered in
+ * the Prometheus text exposition format by {@link #writePrometheus(Writer)}.
+ *
+ * Metrics are identified by name plus label pairs, e.g.
+ * {@code counter("ingest_rows_total", "...", "direction", "import")}. Looking a
+ * metric up is a map lookup, so hot paths should keep the returned object.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private static class Family {
+        private final String type;
+        private final String help;
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    MetricsRegistry() {
+        registerJvmMetrics();
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, "counter", help).children
+                .computeIfAbsent(labelString(labels), key -> new Counter());
+    }
+
+    /**
+     * Durations exposed as a Prometheus summary in seconds, with quantiles from the HDR histogram
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, "summary", help).children
+                .computeIfAbsent(labelString(labels), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers (or replaces) a gauge whose value is read when metrics are scraped
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, "gauge", help).children.put(labelString(labels), value);
+    }
+
+    /**
+     * Unregisters one metric, e.g. a gauge for something that no longer exists
+     */
+    public void remove(String name, String... labels) {
+        String key = labelString(labels);
+        families.computeIfPresent(name, (familyName, family) -> {
+            family.children.remove(key);
+            return family.children.isEmpty() ? null : family;
+        });
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, key -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    public void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.write("# HELP " + name + " " + family.help + "\n");
+            out.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(out, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    writeSample(out, name, labels, ((LongSupplier) metric).getAsLong());
+                } else {
+                    writeSummary(out, name, labels, ((LatencyHistogram) metric).snapshot());
+                }
+            }
+        }
+    }
+
+    private void writeSummary(Writer out, String name, String labels, Histogram histogram) throws IOException {
+        for (double quantile : QUANTILES) {
+            String quantileLabels = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + quantile + "\"";
+            double value = histogram.getTotalCount() == 0
+                    ? Double.NaN
+                    : histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND;
+            writeSample(out, name, quantileLabels, value);
+        }
+        writeSample(out, name + "_sum", labels,
+                histogram.getMean() * histogram.getTotalCount() / NANOS_PER_SECOND);
+        writeSample(out, name + "_count", labels, histogram.getTotalCount());
+    }
+
+    private static void writeSample(Writer out, String name, String labels, Object value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                  .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                  .append('"');
+        }
+        return result.toString();
+    }
+
+    private void registerJvmMetrics() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        gauge("jvm_memory_heap_used_bytes", "Heap memory in use",
+                () -> memory.getHeapMemoryUsage().getUsed());
+        gauge("jvm_memory_heap_max_bytes", "Maximum heap size",
+                () -> memory.getHeapMemoryUsage().getMax());
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gauge("jvm_gc_collections", "Collections run by each garbage collector",
+                    gc::getCollectionCount, "gc", gc.getName());
+            gauge("jvm_gc_time_ms", "Time spent in each garbage collector",
+                    gc::getCollectionTime, "gc", gc.getName());
+        }
+        gauge("jvm_threads_live", "Live JVM threads",
+                () -> ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    /**
+     * Total collections and collection time across all collectors, used for per-operation GC deltas
+     */
+    static long[] gcTotals() {
+        long count = 0;
+        long timeMs = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+            timeMs += Math.max(gc.getCollectionTime(), 0);
+        }
+        return new long[] {count, timeMs};
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.app.metrics;
+
+import com.example.app.model.MetricsSummary;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stage timings and byte counts for one ingest operation. Latency distributions are
+ * only kept process-wide, in one histogram per direction and stage shared by every
+ * operation, which /api/metrics reports; an operation itself only counts its samples
+ * and sums their time, so {@link #summarize()} gives its count, total, mean and max.
+ * The per-batch timeline is kept in the operation's {@link OperationTrace}.
+ */
+public class OperationMetrics {
+
+    /** Reading and tokenizing CSV records */
+    public static final String PARSE = "parse";
+    /** Turning parsed records into row lists for a batch */
+    public static final String BATCH_BUILD = "batch_build";
+    /** Sending a batch to ClickHouse and waiting for the reply */
+    public static final String INSERT = "insert";
+    /** Fetching a batch of rows from ClickHouse */
+    public static final String QUERY = "query";
+    /** Writing a batch of rows to the output file */
+    public static final String WRITE = "write";
+    /** A whole HTTP stream copied between ClickHouse and disk */
+    public static final String TRANSFER = "transfer";
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final MetricsRegistry registry;
+    private final String direction;
+    private final Map<String, StageTotals> stages = new ConcurrentSkipListMap<>();
+    private final Counter bytesRead = new Counter();
+    private final Counter bytesSent = new Counter();
+    private final Counter bytesWritten = new Counter();
+    private final long[] gcAtStart;
+    private final OperationTrace trace;
+
+    /**
+     * @param direction "import" (file to ClickHouse), "export" (ClickHouse to file) or "copy"
+     *                  (ClickHouse to ClickHouse), used as a label
+     */
+    public OperationMetrics(String direction) {
+        this(MetricsRegistry.getInstance(), direction);
+    }
+
+    OperationMetrics(MetricsRegistry registry, String direction) {
+        this.registry = registry;
+        this.direction = direction;
+        this.gcAtStart = MetricsRegistry.gcTotals();
+        this.trace = new OperationTrace(direction);
+        registry.counter("ingest_operations_started_total", "Ingest operations started",
+                "direction", direction).increment();
+    }
+
+    /**
+     * Records the time spent in a stage since startNanos (a System.nanoTime() value)
+     */
+    public void recordStage(String stage, long startNanos) {
+        recordStageNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public void recordStageNanos(String stage, long nanos) {
+        StageTotals totals = stages.computeIfAbsent(stage, key -> new StageTotals(registry.histogram(
+                "ingest_stage_seconds", "Time per batch spent in each ingest stage",
+                "direction", direction, "stage", key)));
+        totals.record(nanos);
+    }
+
+    /**
+     * Starts the timeline of a batch on the calling thread; pass it to {@link #recordBatch} when done
+     */
+    public BatchTrace startBatch() {
+        return new BatchTrace();
+    }
+
+    public void recordBatch(BatchTrace batch) {
+        trace.record(batch);
+    }
+
+    public OperationTrace getTrace() {
+        return trace;
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+        registry.counter("ingest_bytes_total", "Bytes moved by ingest operations", "kind", "read").add(bytes);
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+        registry.counter("ingest_bytes_total", "Bytes moved by ingest operations", "kind", "sent").add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+        registry.counter("ingest_bytes_total", "Bytes moved by ingest operations", "kind", "written").add(bytes);
+    }
+
+    /**
+     * Records the outcome of the operation in the process-wide counters
+     */
+    public void finish(boolean success, long rows) {
+        registry.counter("ingest_rows_total", "Rows moved by ingest operations",
+                "direction", direction).add(rows);
+        registry.counter("ingest_operations_finished_total", "Ingest operations finished",
+                "direction", direction, "status", success ? "completed" : "error").increment();
+    }
+
+    public MetricsSummary summarize() {
+        MetricsSummary summary = new MetricsSummary();
+        for (Map.Entry<String, StageTotals> stage : stages.entrySet()) {
+            StageTotals totals = stage.getValue();
+            long count = totals.count.get();
+            long totalNanos = totals.totalNanos.get();
+            MetricsSummary.StageTiming timing = new MetricsSummary.StageTiming();
+            timing.setCount(count);
+            timing.setTotalMs(totalNanos / NANOS_PER_MILLI);
+            timing.setMeanMs(count > 0 ? totalNanos / NANOS_PER_MILLI / count : 0);
+            timing.setMaxMs(totals.maxNanos.get() / NANOS_PER_MILLI);
+            summary.getStages().put(stage.getKey(), timing);
+        }
+        summary.setBytesRead(bytesRead.get());
+        summary.setBytesSent(bytesSent.get());
+        summary.setBytesWritten(bytesWritten.get());
+        long[] gcNow = MetricsRegistry.gcTotals();
+        summary.setGcCount(gcNow[0] - gcAtStart[0]);
+        summary.setGcTimeMs(gcNow[1] - gcAtStart[1]);
+        return summary;
+    }
+
+    /**
+     * One stage's samples in this operation, and the shared histogram they also go to
+     */
+    private static final class StageTotals {
+        private final LatencyHistogram shared;
+        private final Counter count = new Counter();
+        private final Counter totalNanos = new Counter();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        StageTotals(LatencyHistogram shared) {
+            this.shared = shared;
+        }
+
+        void record(long nanos) {
+            shared.record(nanos);
+            count.increment();
+            totalNanos.add(nanos);
+            if (nanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+        }
+    }
+}
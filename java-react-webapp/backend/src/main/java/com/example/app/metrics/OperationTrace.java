@@ -0,0 +1,150 @@
+package com.example.app.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-batch timeline of one ingest operation, kept in a fixed-size ring so a long
+ * load holds at most {@code capacity} batches; the oldest are overwritten and counted
+ * as dropped. Times are rendered in microseconds since the operation started.
+ */
+public class OperationTrace {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final String direction;
+    private final long startNanos = System.nanoTime();
+    private final long startTimeMillis = System.currentTimeMillis();
+    private final BatchTrace[] ring;
+    private long recorded;
+
+    public OperationTrace(String direction) {
+        this(direction, DEFAULT_CAPACITY);
+    }
+
+    public OperationTrace(String direction, int capacity) {
+        this.direction = direction;
+        this.ring = new BatchTrace[capacity];
+    }
+
+    /**
+     * Adds a finished batch, numbering it in completion order
+     */
+    public synchronized void record(BatchTrace batch) {
+        batch.setIndex(recorded);
+        ring[(int) (recorded % ring.length)] = batch;
+        recorded++;
+    }
+
+    /**
+     * Returns the batches still in the ring, oldest first
+     */
+    public synchronized List<BatchTrace> getBatches() {
+        int size = (int) Math.min(recorded, ring.length);
+        List<BatchTrace> batches = new ArrayList<>(size);
+        for (long i = recorded - size; i < recorded; i++) {
+            batches.add(ring[(int) (i % ring.length)]);
+        }
+        return batches;
+    }
+
+    public synchronized long getDroppedBatches() {
+        return Math.max(0, recorded - ring.length);
+    }
+
+    /**
+     * Plain timeline: one entry per batch with its spans, rows and bytes
+     */
+    public Map<String, Object> toTimeline(String operationId) {
+        List<BatchTrace> batches = getBatches();
+        List<Map<String, Object>> entries = new ArrayList<>(batches.size());
+        for (BatchTrace batch : batches) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("batch", batch.getIndex());
+            entry.put("rows", batch.getRows());
+            entry.put("bytes", batch.getBytes());
+            List<Map<String, Object>> spans = new ArrayList<>(batch.getSpans().size());
+            for (BatchTrace.Span span : batch.getSpans()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("name", span.getName());
+                item.put("thread", span.getThreadName());
+                item.put("startUs", micros(span.getStartNanos()));
+                item.put("durationUs", (span.getEndNanos() - span.getStartNanos()) / 1000);
+                spans.add(item);
+            }
+            entry.put("spans", spans);
+            entry.putAll(batch.getArgs());
+            entries.add(entry);
+        }
+        Map<String, Object> timeline = new LinkedHashMap<>();
+        timeline.put("operationId", operationId);
+        timeline.put("direction", direction);
+        timeline.put("startTime", startTimeMillis);
+        timeline.put("droppedBatches", getDroppedBatches());
+        timeline.put("batches", entries);
+        return timeline;
+    }
+
+    /**
+     * Chrome trace event format, loadable in chrome://tracing or Perfetto. Each span is
+     * a complete ("X") event on the track of the thread that recorded it.
+     */
+    public Map<String, Object> toChromeTrace(String operationId) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        Map<String, Integer> threadIds = new HashMap<>();
+        for (BatchTrace batch : getBatches()) {
+            for (BatchTrace.Span span : batch.getSpans()) {
+                Integer tid = threadIds.get(span.getThreadName());
+                if (tid == null) {
+                    tid = threadIds.size() + 1;
+                    threadIds.put(span.getThreadName(), tid);
+                    Map<String, Object> meta = new LinkedHashMap<>();
+                    meta.put("name", "thread_name");
+                    meta.put("ph", "M");
+                    meta.put("pid", 1);
+                    meta.put("tid", tid);
+                    meta.put("args", singleton("name", span.getThreadName()));
+                    events.add(meta);
+                }
+                Map<String, Object> args = new LinkedHashMap<>();
+                args.put("batch", batch.getIndex());
+                args.put("rows", batch.getRows());
+                args.put("bytes", batch.getBytes());
+                args.putAll(batch.getArgs());
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("name", span.getName());
+                event.put("cat", direction);
+                event.put("ph", "X");
+                event.put("ts", micros(span.getStartNanos()));
+                event.put("dur", Math.max(1, (span.getEndNanos() - span.getStartNanos()) / 1000));
+                event.put("pid", 1);
+                event.put("tid", tid);
+                event.put("args", args);
+                events.add(event);
+            }
+        }
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("operationId", operationId);
+        metadata.put("startTime", startTimeMillis);
+        metadata.put("droppedBatches", getDroppedBatches());
+
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        trace.put("metadata", metadata);
+        return trace;
+    }
+
+    private long micros(long nanos) {
+        return (nanos - startNanos) / 1000;
+    }
+
+    private static Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(key, value);
+        return map;
+    }
+}
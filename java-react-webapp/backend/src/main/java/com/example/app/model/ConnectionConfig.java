@@ -1,11 +1,20 @@
 package com.example.app.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.List;
+
 public class ConnectionConfig {
     private String host;
     private int port;
     private String database;
     private String user;
     private String jwtToken;
+    private List<ShardConfig> shards;  // Inserts go straight to these shards' local tables instead of through host
+    private String shardingKey;  // Column whose value picks a row's shard; without one each block goes to the next shard
+    private String localTableSuffix = "";  // Appended to the table name to get each shard's local table, e.g. "_local"
+    private List<String> replicas;  // Other "host:port"s with the same data; requests are spread over them and host
+    private String loadBalancing;  // "round_robin" (default), "least_loaded" or "latency"
     
     // Getters and setters
     public String getHost() {
@@ -47,4 +56,49 @@ public class ConnectionConfig {
     public void setJwtToken(String jwtToken) {
         this.jwtToken = jwtToken;
     }
+    
+    public List<ShardConfig> getShards() {
+        return shards;
+    }
+    
+    public void setShards(List<ShardConfig> shards) {
+        this.shards = shards;
+    }
+    
+    public String getShardingKey() {
+        return shardingKey;
+    }
+    
+    public void setShardingKey(String shardingKey) {
+        this.shardingKey = shardingKey;
+    }
+    
+    public String getLocalTableSuffix() {
+        return localTableSuffix;
+    }
+    
+    public void setLocalTableSuffix(String localTableSuffix) {
+        this.localTableSuffix = localTableSuffix;
+    }
+    
+    public List<String> getReplicas() {
+        return replicas;
+    }
+    
+    public void setReplicas(List<String> replicas) {
+        this.replicas = replicas;
+    }
+    
+    public String getLoadBalancing() {
+        return loadBalancing;
+    }
+    
+    public void setLoadBalancing(String loadBalancing) {
+        this.loadBalancing = loadBalancing;
+    }
+    
+    @JsonIgnore
+    public boolean isSharded() {
+        return shards != null && !shards.isEmpty();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.example.app.model;
+
+/**
+ * Progress of one file of a multi-file import
+ */
+public class FileProgress {
+    private String filePath;
+    private long fileSize;
+    private volatile String status = "pending"; // "pending", "running", "inserting", "completed", "skipped", "tailing", "error"
+    private volatile long recordsProcessed;
+    private volatile long totalRecords;
+    private volatile long bytesProcessed;
+    private volatile String message;
+    
+    public String getFilePath() {
+        return filePath;
+    }
+    
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+    
+    public long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public long getRecordsProcessed() {
+        return recordsProcessed;
+    }
+    
+    public void setRecordsProcessed(long recordsProcessed) {
+        this.recordsProcessed = recordsProcessed;
+    }
+    
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+    
+    public void setTotalRecords(long totalRecords) {
+        this.totalRecords = totalRecords;
+    }
+    
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+    
+    public void setBytesProcessed(long bytesProcessed) {
+        this.bytesProcessed = bytesProcessed;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
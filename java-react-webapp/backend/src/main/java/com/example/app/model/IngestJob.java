@@ -0,0 +1,56 @@
+package com.example.app.model;
+
+import java.util.List;
+
+/**
+ * An ingest operation queued in a shared job store, split into tasks that any
+ * worker can lease: one per file of a multi-file import, one per partition of a
+ * parallel export, or a single task for everything else
+ */
+public class IngestJob {
+    private String jobId;
+    private IngestRequest request;
+    private long createdAt;
+    private List<JobTask> tasks;
+    private boolean stopRequested;  // Set when asked to stop; workers stop its watch tasks
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public IngestRequest getRequest() {
+        return request;
+    }
+    
+    public void setRequest(IngestRequest request) {
+        this.request = request;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public List<JobTask> getTasks() {
+        return tasks;
+    }
+    
+    public void setTasks(List<JobTask> tasks) {
+        this.tasks = tasks;
+    }
+    
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+    
+    public void setStopRequested(boolean stopRequested) {
+        this.stopRequested = stopRequested;
+    }
+}
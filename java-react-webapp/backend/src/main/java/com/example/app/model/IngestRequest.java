@@ -1,19 +1,56 @@
 package com.example.app.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
 import java.util.List;
 
 public class IngestRequest {
     private String sourceType; // "ClickHouse" or "FlatFile"
     private ConnectionConfig connectionConfig;
     private String tableName;
-    private List<String> selectedColumns;
+    private List<String> selectedColumns;  // With joins, qualified as "table.column"
+    private List<JoinTable> joins;  // Tables joined to tableName inside ClickHouse
     
     // For File to ClickHouse
-    private String sourceFilePath;
+    private String sourceFilePath;  // A file, a directory or a glob such as /data/2024-01-01/*.csv
+    private List<String> sourceFilePaths;  // Several files, directories or globs loaded as one operation
+    private int fileParallelism = 4;  // Files read at once when loading several files
+    private boolean compressedPassthrough;  // Send a single .gz/.zst/.lz4 file to ClickHouse without decompressing
+    private int insertParallelism = 1;  // Number of insert blocks in flight at once
+    private boolean watch;  // Keep following the sourceFilePath directory, loading rows as files grow
+    private String watchFilePattern = "*.csv";  // Files in the watched directory to follow
+    private int flushRows = 10000;  // Watch mode: insert once this many rows are buffered...
+    private long flushIntervalMs = 1000;  // ...or once the oldest buffered row is this old
+    private long pollIntervalMs = 1000;  // Watch mode: how often to look for changes without change events
+    private String offsetsFile;  // Watch mode: where committed file offsets are kept, to resume after a restart
+    private long skipRecords;  // Resuming a single file: records an interrupted run already inserted
     
     // For ClickHouse to File
     private String targetFilePath;
     private String delimiter = ",";  // Default delimiter
+    private String exportFormat = "CSV";  // "CSV", "TSV", "Native", "RowBinary" or "Parquet"
+    private String exportCompression = "none";  // "none", "gzip", "zstd" or "lz4"
+    private String exportMode = "rows";  // "rows" (decode via JDBC) or "direct" (copy ClickHouse's output to disk)
+    private int exportParallelism = 1;  // Number of concurrent export streams
+    private String partitionStrategy = "hash";  // "partition", "key-range" or "hash"
+    private String shardOutput = "files";  // "files" (one file per shard) or "concat" (single ordered file)
+    private String filter;  // ClickHouse boolean expression rows must match, e.g. "event_date >= '2024-01-01'"
+    private Double sampleRatio;  // Read a SAMPLE of this fraction of the rows (the table needs a sampling key)
+    private String orderBy;  // Columns to order rows by, e.g. "event_time DESC"
+    private long limit;  // Export at most this many rows; 0 exports all
+    private String watermarkColumn;  // Export only rows from the last run's maximum up to below the current one, e.g. an insert time
+    private String watermark;  // Starting watermark when no earlier run has saved one
+    private String watermarkFile;  // Where the watermark is kept between runs; defaults to <targetFilePath>.watermark.json
+    private String incrementalOutput = "roll";  // "roll" (a new numbered file per run) or "append" (to targetFilePath)
+    
+    // For ClickHouse to ClickHouse
+    private ConnectionConfig targetConnectionConfig;  // Server to copy tableName to
+    private String targetTableName;  // Existing table to insert into; defaults to tableName
+    private String copyMode = "stream";  // "stream" (Native through this app), "remote" (INSERT ... SELECT FROM remote()) or "auto"
+    private String remoteCollection;  // Named collection on the target holding the source's address and credentials
+    private String remoteAddress;  // host:port the target reaches the source on, if no collection; defaults to <host>:9000
+    private int copyParallelism = 4;  // Concurrent streams, split by partition, when copying through this app
     
     public String getSourceType() {
         return sourceType;
@@ -47,6 +84,14 @@ public class IngestRequest {
         this.selectedColumns = selectedColumns;
     }
     
+    public List<JoinTable> getJoins() {
+        return joins;
+    }
+    
+    public void setJoins(List<JoinTable> joins) {
+        this.joins = joins;
+    }
+    
     public String getSourceFilePath() {
         return sourceFilePath;
     }
@@ -55,6 +100,86 @@ public class IngestRequest {
         this.sourceFilePath = sourceFilePath;
     }
     
+    public List<String> getSourceFilePaths() {
+        return sourceFilePaths;
+    }
+    
+    public void setSourceFilePaths(List<String> sourceFilePaths) {
+        this.sourceFilePaths = sourceFilePaths;
+    }
+    
+    public int getFileParallelism() {
+        return fileParallelism;
+    }
+    
+    public void setFileParallelism(int fileParallelism) {
+        this.fileParallelism = fileParallelism;
+    }
+    
+    public boolean isCompressedPassthrough() {
+        return compressedPassthrough;
+    }
+    
+    public void setCompressedPassthrough(boolean compressedPassthrough) {
+        this.compressedPassthrough = compressedPassthrough;
+    }
+    
+    public int getInsertParallelism() {
+        return insertParallelism;
+    }
+    
+    public void setInsertParallelism(int insertParallelism) {
+        this.insertParallelism = insertParallelism;
+    }
+    
+    public boolean isWatch() {
+        return watch;
+    }
+    
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+    
+    public String getWatchFilePattern() {
+        return watchFilePattern;
+    }
+    
+    public void setWatchFilePattern(String watchFilePattern) {
+        this.watchFilePattern = watchFilePattern;
+    }
+    
+    public int getFlushRows() {
+        return flushRows;
+    }
+    
+    public void setFlushRows(int flushRows) {
+        this.flushRows = flushRows;
+    }
+    
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+    
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+    
+    public void setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+    
+    public String getOffsetsFile() {
+        return offsetsFile;
+    }
+    
+    public void setOffsetsFile(String offsetsFile) {
+        this.offsetsFile = offsetsFile;
+    }
+    
     public String getTargetFilePath() {
         return targetFilePath;
     }
@@ -70,4 +195,205 @@ public class IngestRequest {
     public void setDelimiter(String delimiter) {
         this.delimiter = delimiter;
     }
+    
+    public String getExportFormat() {
+        return exportFormat;
+    }
+    
+    public void setExportFormat(String exportFormat) {
+        this.exportFormat = exportFormat;
+    }
+    
+    public String getExportCompression() {
+        return exportCompression;
+    }
+    
+    public void setExportCompression(String exportCompression) {
+        this.exportCompression = exportCompression;
+    }
+    
+    public String getExportMode() {
+        return exportMode;
+    }
+    
+    public void setExportMode(String exportMode) {
+        this.exportMode = exportMode;
+    }
+    
+    public int getExportParallelism() {
+        return exportParallelism;
+    }
+    
+    public void setExportParallelism(int exportParallelism) {
+        this.exportParallelism = exportParallelism;
+    }
+    
+    public String getPartitionStrategy() {
+        return partitionStrategy;
+    }
+    
+    public void setPartitionStrategy(String partitionStrategy) {
+        this.partitionStrategy = partitionStrategy;
+    }
+    
+    public String getShardOutput() {
+        return shardOutput;
+    }
+    
+    public void setShardOutput(String shardOutput) {
+        this.shardOutput = shardOutput;
+    }
+    
+    public String getFilter() {
+        return filter;
+    }
+    
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+    
+    public Double getSampleRatio() {
+        return sampleRatio;
+    }
+    
+    public void setSampleRatio(Double sampleRatio) {
+        this.sampleRatio = sampleRatio;
+    }
+    
+    public String getOrderBy() {
+        return orderBy;
+    }
+    
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+    
+    public long getLimit() {
+        return limit;
+    }
+    
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+    
+    public String getWatermarkColumn() {
+        return watermarkColumn;
+    }
+    
+    public void setWatermarkColumn(String watermarkColumn) {
+        this.watermarkColumn = watermarkColumn;
+    }
+    
+    public String getWatermark() {
+        return watermark;
+    }
+    
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+    
+    public String getWatermarkFile() {
+        return watermarkFile;
+    }
+    
+    public void setWatermarkFile(String watermarkFile) {
+        this.watermarkFile = watermarkFile;
+    }
+    
+    public String getIncrementalOutput() {
+        return incrementalOutput;
+    }
+    
+    public void setIncrementalOutput(String incrementalOutput) {
+        this.incrementalOutput = incrementalOutput;
+    }
+    
+    public ConnectionConfig getTargetConnectionConfig() {
+        return targetConnectionConfig;
+    }
+    
+    public void setTargetConnectionConfig(ConnectionConfig targetConnectionConfig) {
+        this.targetConnectionConfig = targetConnectionConfig;
+    }
+    
+    public String getTargetTableName() {
+        return targetTableName;
+    }
+    
+    public void setTargetTableName(String targetTableName) {
+        this.targetTableName = targetTableName;
+    }
+    
+    public String getCopyMode() {
+        return copyMode;
+    }
+    
+    public void setCopyMode(String copyMode) {
+        this.copyMode = copyMode;
+    }
+    
+    public String getRemoteCollection() {
+        return remoteCollection;
+    }
+    
+    public void setRemoteCollection(String remoteCollection) {
+        this.remoteCollection = remoteCollection;
+    }
+    
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+    
+    public void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+    
+    public int getCopyParallelism() {
+        return copyParallelism;
+    }
+    
+    public void setCopyParallelism(int copyParallelism) {
+        this.copyParallelism = copyParallelism;
+    }
+    
+    public long getSkipRecords() {
+        return skipRecords;
+    }
+    
+    public void setSkipRecords(long skipRecords) {
+        this.skipRecords = skipRecords;
+    }
+    
+    /**
+     * All configured sources: sourceFilePaths followed by sourceFilePath
+     */
+    @JsonIgnore
+    public List<String> getSources() {
+        List<String> sources = new ArrayList<>();
+        if (sourceFilePaths != null) {
+            sources.addAll(sourceFilePaths);
+        }
+        if (sourceFilePath != null && !sourceFilePath.isEmpty()) {
+            sources.add(sourceFilePath);
+        }
+        return sources;
+    }
+    
+    @JsonIgnore
+    public boolean isIncrementalExport() {
+        return watermarkColumn != null && !watermarkColumn.isEmpty();
+    }
+    
+    /**
+     * True if the request copies tableName to another ClickHouse server rather than to a file
+     */
+    @JsonIgnore
+    public boolean isTableCopy() {
+        return targetConnectionConfig != null;
+    }
+    
+    @JsonIgnore
+    public boolean isDirectExport() {
+        return "direct".equalsIgnoreCase(exportMode);
+    }
 }
\ No newline at end of file
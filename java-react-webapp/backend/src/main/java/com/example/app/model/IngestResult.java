@@ -1,25 +1,32 @@
 package com.example.app.model;
 
+import java.util.List;
 import java.util.UUID;
 
 public class IngestResult {
     private boolean success;
-    private int recordsProcessed;
+    private long recordsProcessed;
     private String message;
     private long executionTimeMs;
     private String operationId;
-    private int totalRecords;
+    private long totalRecords;
     private int estimatedTotal;
     private double recordsPerSecond;
-    private String status = "running"; // "running", "completed", "error"
+    private String status = "running"; // "queued" (jobs waiting for a worker), "running", "completed", "error"
     private long startTime;
+    private long bytesProcessed;
+    private long totalBytes;
+    private List<ShardProgress> shards;
+    private List<FileProgress> files;
+    private String watermark;  // Incremental exports: the highest watermark value exported so far
+    private MetricsSummary metrics;
     
     public IngestResult() {
         this.operationId = UUID.randomUUID().toString();
         this.startTime = System.currentTimeMillis();
     }
     
-    public IngestResult(boolean success, int recordsProcessed, String message) {
+    public IngestResult(boolean success, long recordsProcessed, String message) {
         this.success = success;
         this.recordsProcessed = recordsProcessed;
         this.message = message;
@@ -35,11 +42,11 @@ public class IngestResult {
         this.success = success;
     }
     
-    public int getRecordsProcessed() {
+    public long getRecordsProcessed() {
         return recordsProcessed;
     }
     
-    public void setRecordsProcessed(int recordsProcessed) {
+    public void setRecordsProcessed(long recordsProcessed) {
         this.recordsProcessed = recordsProcessed;
     }
     
@@ -67,11 +74,11 @@ public class IngestResult {
         this.operationId = operationId;
     }
     
-    public int getTotalRecords() {
+    public long getTotalRecords() {
         return totalRecords;
     }
     
-    public void setTotalRecords(int totalRecords) {
+    public void setTotalRecords(long totalRecords) {
         this.totalRecords = totalRecords;
     }
     
@@ -107,4 +114,55 @@ public class IngestResult {
     public void setStartTime(long startTime) {
         this.startTime = startTime;
     }
+    
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+    
+    public void setBytesProcessed(long bytesProcessed) {
+        this.bytesProcessed = bytesProcessed;
+    }
+    
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+    
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+    
+    public List<ShardProgress> getShards() {
+        return shards;
+    }
+    
+    public void setShards(List<ShardProgress> shards) {
+        this.shards = shards;
+    }
+    
+    public List<FileProgress> getFiles() {
+        return files;
+    }
+    
+    public void setFiles(List<FileProgress> files) {
+        this.files = files;
+    }
+    
+    public String getWatermark() {
+        return watermark;
+    }
+    
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+    
+    /**
+     * Stage timings for the operation, filled in when it finishes
+     */
+    public MetricsSummary getMetrics() {
+        return metrics;
+    }
+    
+    public void setMetrics(MetricsSummary metrics) {
+        this.metrics = metrics;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.example.app.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * One leasable part of an {@link IngestJob} and the progress its worker last published
+ */
+public class JobTask {
+    private String jobId;
+    private int index;
+    private String label;  // The file or partition filter the task covers
+    private IngestRequest request;  // The part of the job's request this task runs
+    private String status = "queued";  // "queued", "running", "completed", "error"
+    private String worker;  // Worker holding (or that last held) the lease
+    private int attempts;  // Times a worker has claimed the task
+    private IngestResult result;  // Latest progress published by the worker
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public int getIndex() {
+        return index;
+    }
+    
+    public void setIndex(int index) {
+        this.index = index;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+    
+    public void setLabel(String label) {
+        this.label = label;
+    }
+    
+    public IngestRequest getRequest() {
+        return request;
+    }
+    
+    public void setRequest(IngestRequest request) {
+        this.request = request;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public String getWorker() {
+        return worker;
+    }
+    
+    public void setWorker(String worker) {
+        this.worker = worker;
+    }
+    
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    
+    public IngestResult getResult() {
+        return result;
+    }
+    
+    public void setResult(IngestResult result) {
+        this.result = result;
+    }
+    
+    @JsonIgnore
+    public boolean isFinished() {
+        return "completed".equals(status) || "error".equals(status);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.app.model;
+
+import java.util.List;
+
+/**
+ * A table joined to an export's main table. leftKeys name columns of the tables before
+ * it, as "table.column" (a bare column belongs to the main table); rightKeys are the
+ * matching columns of this table, in the same order.
+ */
+public class JoinTable {
+    private String tableName;
+    private String alias;  // Name used to qualify this table's columns; defaults to the table name
+    private String type = "LEFT";  // "INNER", "LEFT", "RIGHT" or "FULL", optionally followed by "ANY", "ALL", "SEMI" or "ANTI"
+    private List<String> leftKeys;
+    private List<String> rightKeys;
+    
+    public String getTableName() {
+        return tableName;
+    }
+    
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+    
+    public String getAlias() {
+        return alias;
+    }
+    
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public void setType(String type) {
+        this.type = type;
+    }
+    
+    public List<String> getLeftKeys() {
+        return leftKeys;
+    }
+    
+    public void setLeftKeys(List<String> leftKeys) {
+        this.leftKeys = leftKeys;
+    }
+    
+    public List<String> getRightKeys() {
+        return rightKeys;
+    }
+    
+    public void setRightKeys(List<String> rightKeys) {
+        this.rightKeys = rightKeys;
+    }
+}
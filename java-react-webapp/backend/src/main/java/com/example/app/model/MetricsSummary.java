@@ -0,0 +1,110 @@
+package com.example.app.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where an operation spent its time: per-stage sample counts and durations, bytes
+ * moved and the garbage collection that happened while it ran. Latency percentiles
+ * across all operations are on /api/metrics.
+ */
+public class MetricsSummary {
+    private Map<String, StageTiming> stages = new LinkedHashMap<>();
+    private long bytesRead;
+    private long bytesSent;
+    private long bytesWritten;
+    private long gcCount;
+    private long gcTimeMs;
+
+    /**
+     * Latency of one pipeline stage (parse, batch_build, insert, query, write, transfer).
+     * Each sample is one batch, or the whole transfer for direct streams.
+     */
+    public static class StageTiming {
+        private long count;
+        private double totalMs;
+        private double meanMs;
+        private double maxMs;
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public double getTotalMs() {
+            return totalMs;
+        }
+
+        public void setTotalMs(double totalMs) {
+            this.totalMs = totalMs;
+        }
+
+        public double getMeanMs() {
+            return meanMs;
+        }
+
+        public void setMeanMs(double meanMs) {
+            this.meanMs = meanMs;
+        }
+
+        public double getMaxMs() {
+            return maxMs;
+        }
+
+        public void setMaxMs(double maxMs) {
+            this.maxMs = maxMs;
+        }
+    }
+
+    public Map<String, StageTiming> getStages() {
+        return stages;
+    }
+
+    public void setStages(Map<String, StageTiming> stages) {
+        this.stages = stages;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /** Collections across the whole JVM while the operation ran */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public void setGcCount(long gcCount) {
+        this.gcCount = gcCount;
+    }
+
+    public long getGcTimeMs() {
+        return gcTimeMs;
+    }
+
+    public void setGcTimeMs(long gcTimeMs) {
+        this.gcTimeMs = gcTimeMs;
+    }
+}
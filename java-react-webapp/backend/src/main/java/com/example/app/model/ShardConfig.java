@@ -0,0 +1,28 @@
+package com.example.app.model;
+
+import java.util.List;
+
+/**
+ * One shard of a cluster: its replicas as "host:port" (the port defaults to the
+ * connection's) and its weight, as in the cluster's remote_servers definition
+ */
+public class ShardConfig {
+    private int weight = 1;
+    private List<String> replicas;
+    
+    public int getWeight() {
+        return weight;
+    }
+    
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+    
+    public List<String> getReplicas() {
+        return replicas;
+    }
+    
+    public void setReplicas(List<String> replicas) {
+        this.replicas = replicas;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.app.model;
+
+/**
+ * Progress of one shard of a parallel export
+ */
+public class ShardProgress {
+    private int shardIndex;
+    private String filter;
+    private String filePath;
+    private volatile String status = "pending"; // "pending", "running", "completed", "error"
+    private volatile long recordsProcessed;
+    private volatile long totalRecords;
+    private volatile long bytesProcessed;
+    private volatile String message;
+    
+    public int getShardIndex() {
+        return shardIndex;
+    }
+    
+    public void setShardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+    
+    public String getFilter() {
+        return filter;
+    }
+    
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+    
+    public String getFilePath() {
+        return filePath;
+    }
+    
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public long getRecordsProcessed() {
+        return recordsProcessed;
+    }
+    
+    public void setRecordsProcessed(long recordsProcessed) {
+        this.recordsProcessed = recordsProcessed;
+    }
+    
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+    
+    public void setTotalRecords(long totalRecords) {
+        this.totalRecords = totalRecords;
+    }
+    
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+    
+    public void setBytesProcessed(long bytesProcessed) {
+        this.bytesProcessed = bytesProcessed;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
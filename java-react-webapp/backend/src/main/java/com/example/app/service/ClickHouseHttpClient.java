@@ -0,0 +1,425 @@
+package com.example.app.service;
+
+import com.example.app.model.ConnectionConfig;
+import com.example.app.util.CompressionType;
+import com.example.app.util.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Minimal client for the ClickHouse HTTP interface, used where raw bytes should
+ * go to or come from the server without being decoded through JDBC
+ */
+public class ClickHouseHttpClient {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+
+    private final ReplicaBalancer replicaBalancer = ReplicaBalancer.getInstance();
+    // The replica each open connection to a balanced server went to
+    private final Map<HttpURLConnection, Lease> leases = new ConcurrentHashMap<>();
+
+
+    /**
+     * Sends an INSERT statement with the request body read from the given stream.
+     * The body is passed through untouched, so compressed input only needs the
+     * matching Content-Encoding.
+     *
+     * @return the parsed X-ClickHouse-Summary header (empty if the server sent none)
+     */
+    public Map<String, String> insert(ConnectionConfig config, String sql, Map<String, String> settings,
+                                      InputStream body, String contentEncoding, LongConsumer bytesSent)
+            throws IOException {
+        HttpURLConnection connection = openConnection(config, sql, settings, request -> {
+            request.setRequestMethod("POST");
+            request.setDoOutput(true);
+            request.setChunkedStreamingMode(STREAM_CHUNK_SIZE);
+            if (contentEncoding != null) {
+                request.setRequestProperty("Content-Encoding", contentEncoding);
+            }
+        });
+
+        try {
+            try (OutputStream out = connection.getOutputStream()) {
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                    if (bytesSent != null) {
+                        bytesSent.accept(total);
+                    }
+                }
+            }
+            checkResponse(connection);
+            return parseSummary(connection.getHeaderField("X-ClickHouse-Summary"));
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * Runs a statement that takes no data, e.g. INSERT ... SELECT, and waits for it to finish
+     *
+     * @return the parsed X-ClickHouse-Summary header (empty if the server sent none)
+     */
+    public Map<String, String> execute(ConnectionConfig config, String sql, Map<String, String> settings)
+            throws IOException {
+        HttpURLConnection connection = openConnection(config, sql, settings,
+                request -> request.setRequestMethod("POST"));
+        try {
+            checkResponse(connection);
+            connection.getInputStream().transferTo(OutputStream.nullOutputStream());
+            return parseSummary(connection.getHeaderField("X-ClickHouse-Summary"));
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * Runs a query and returns the raw response body as it arrives, e.g. to pass it on
+     * to another server's INSERT. The connection is released when the stream is closed.
+     */
+    public InputStream query(ConnectionConfig config, String sql, Map<String, String> settings,
+                             ExportListener listener) throws IOException {
+        Map<String, String> querySettings = new LinkedHashMap<>();
+        if (settings != null) {
+            querySettings.putAll(settings);
+        }
+        querySettings.put("send_progress_in_http_headers", "1");
+
+        HttpURLConnection connection = openConnection(config, sql, querySettings,
+                request -> request.setRequestMethod("POST"));
+        try {
+            checkResponse(connection);
+            reportServerProgress(connection, listener);
+            return new FilterInputStream(connection.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release(connection);
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            release(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Receives progress while a query result is copied to disk
+     */
+    public interface ExportListener {
+
+        /**
+         * Called with the latest X-ClickHouse-Progress values sent before the body
+         */
+        default void onServerProgress(long readRows, long totalRowsToRead) {
+        }
+
+
+        void onBytesWritten(long bytesWritten);
+
+        /**
+         * Called once the result is on disk with the records the file got, for formats
+         * whose records are counted as they are copied (CSV, TSV)
+         */
+        default void onRecordsWritten(long records) {
+        }
+    }
+
+    /**
+     * Runs a query and writes the raw response body to a file. If compression is
+     * requested, ClickHouse is asked to compress the response so the bytes can be
+     * written as they arrive; if the server doesn't honour that we compress locally.
+     * Uncompressed or server-compressed responses are moved into the file with
+     * FileChannel.transferFrom, so the payload is never decoded in the JVM.
+     *
+     * With a record counter (may be null) every byte of the body passes through it. The
+     * response is then requested uncompressed and compressed locally, since the counter
+     * has to see the rendered text.
+     *
+     * @return the number of bytes written to the file
+     */
+    public long exportToFile(ConnectionConfig config, String sql, Map<String, String> settings,
+                             Path target, CompressionType compression, RecordCounter records,
+                             ExportListener listener)
+            throws IOException {
+        Map<String, String> querySettings = new LinkedHashMap<>();
+        if (settings != null) {
+            querySettings.putAll(settings);
+        }
+        querySettings.put("send_progress_in_http_headers", "1");
+        boolean requestCompressed = compression.isCompressed() && records == null;
+        if (requestCompressed) {
+            querySettings.put("enable_http_compression", "1");
+        }
+
+        HttpURLConnection connection = openConnection(config, sql, querySettings, request -> {
+            request.setRequestMethod("POST");
+            if (requestCompressed) {
+                request.setRequestProperty("Accept-Encoding", compression.getContentEncoding());
+            }
+        });
+
+        try {
+            checkResponse(connection);
+            reportServerProgress(connection, listener);
+            boolean serverCompressed = requestCompressed &&
+                    compression.getContentEncoding().equalsIgnoreCase(connection.getContentEncoding());
+
+            try (InputStream in = records != null ? counting(connection.getInputStream(), records)
+                    : connection.getInputStream()) {
+                if (!compression.isCompressed() || serverCompressed) {
+                    return transferToFile(in, target, listener);
+                }
+                return compressToFile(in, target, compression, listener);
+            }
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static InputStream counting(InputStream in, RecordCounter records) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    records.update(buffer, offset, read);
+                }
+                return read;
+            }
+        };
+    }
+
+    private long transferToFile(InputStream in, Path target, ExportListener listener) throws IOException {
+        long position = 0;
+        try (ReadableByteChannel source = Channels.newChannel(in);
+             FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred;
+            while ((transferred = file.transferFrom(source, position, STREAM_CHUNK_SIZE)) > 0) {
+                position += transferred;
+                listener.onBytesWritten(position);
+            }
+        }
+        return position;
+    }
+
+    private long compressToFile(InputStream in, Path target, CompressionType compression,
+                                ExportListener listener) throws IOException {
+        long total = 0;
+        try (OutputStream out = compression.compress(Files.newOutputStream(target))) {
+            byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+                listener.onBytesWritten(total);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Passes the last X-ClickHouse-Progress header (if any) to the listener
+     */
+    private void reportServerProgress(HttpURLConnection connection, ExportListener listener) {
+        // getHeaderField returns the last value of a repeated header, i.e. the newest progress
+        Map<String, String> progress = parseSummary(connection.getHeaderField("X-ClickHouse-Progress"));
+        long readRows = parseLong(progress.get("read_rows"));
+        long totalRows = parseLong(progress.get("total_rows_to_read"));
+        if (readRows > 0 || totalRows > 0) {
+            listener.onServerProgress(readRows, totalRows);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Sets a request's method and headers, which can't change once it has connected
+     */
+    interface RequestSetup {
+        void configure(HttpURLConnection connection) throws IOException;
+    }
+
+    /**
+     * Opens a connection for a query, with the statement in the URL and credentials in headers.
+     * With replicas configured it goes to the first replica {@link ReplicaBalancer} offers
+     * that the request connects to, which stays busy until {@link #release} is called.
+     * {@link #checkResponse} reports to the replica whether, and how quickly, it answered.
+     */
+    HttpURLConnection openConnection(ConnectionConfig config, String sql, Map<String, String> settings,
+                                     RequestSetup setup) throws IOException {
+        if (!ReplicaBalancer.isBalanced(config)) {
+            HttpURLConnection connection = openDirect(config, sql, settings);
+            setup.configure(connection);
+            return connection;
+        }
+        IOException lastFailure = null;
+        for (ReplicaBalancer.Endpoint endpoint : replicaBalancer.order(config)) {
+            HttpURLConnection connection = openDirect(ReplicaBalancer.configFor(config, endpoint), sql, settings);
+            setup.configure(connection);
+            long start = System.nanoTime();
+            try {
+                // Connecting before anything is sent leaves the next replica to try if this one is down
+                connection.connect();
+            } catch (IOException e) {
+                endpoint.failed();
+                lastFailure = e;
+                continue;
+            }
+            endpoint.acquire();
+            leases.put(connection, new Lease(endpoint, start));
+            return connection;
+        }
+        throw new IOException("No replica of " + config.getHost() + " is reachable: " + lastFailure.getMessage(),
+                lastFailure);
+    }
+
+    /**
+     * Closes the connection and frees its replica, if it went to one. A request that ends
+     * without a response counts as a failure of the replica.
+     */
+    void release(HttpURLConnection connection) {
+        connection.disconnect();
+        Lease lease = leases.remove(connection);
+        if (lease != null) {
+            lease.endpoint.release();
+            if (!lease.answered) {
+                lease.endpoint.failed();
+            }
+        }
+    }
+
+    private HttpURLConnection openDirect(ConnectionConfig config, String sql, Map<String, String> settings)
+            throws IOException {
+        boolean secure = config.getJwtToken() != null && !config.getJwtToken().isEmpty();
+
+        StringBuilder url = new StringBuilder(secure ? "https://" : "http://")
+                .append(config.getHost()).append(':').append(config.getPort()).append("/?");
+        Map<String, String> params = new LinkedHashMap<>();
+        if (config.getDatabase() != null && !config.getDatabase().isEmpty()) {
+            params.put("database", config.getDatabase());
+        }
+        if (settings != null) {
+            params.putAll(settings);
+        }
+        params.put("query", sql);
+        boolean first = true;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!first) {
+                url.append('&');
+            }
+            url.append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8))
+               .append('=')
+               .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8));
+            first = false;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url.toString()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        if (config.getUser() != null) {
+            connection.setRequestProperty("X-ClickHouse-User", config.getUser());
+        }
+        if (secure) {
+            connection.setRequestProperty("X-ClickHouse-Key", config.getJwtToken());
+        }
+        return connection;
+    }
+
+    /**
+     * Throws with the server's error text if the response is not a success
+     */
+    void checkResponse(HttpURLConnection connection) throws IOException {
+        Lease lease = leases.get(connection);
+        // An uploaded body's transfer time isn't the replica's response time
+        long sent = lease == null || connection.getDoOutput() ? System.nanoTime() : lease.start;
+        int status = connection.getResponseCode();
+        if (lease != null && status != HttpURLConnection.HTTP_UNAVAILABLE) {
+            // Any other answer, a query error included, shows the replica is up
+            lease.answered = true;
+            lease.endpoint.succeeded(System.nanoTime() - sent);
+        }
+        if (status == HttpURLConnection.HTTP_OK) {
+            return;
+        }
+        String error = "";
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            try (InputStream in = errorStream) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                in.transferTo(buffer);
+                error = buffer.toString(StandardCharsets.UTF_8).trim();
+            }
+        }
+        throw new IOException("ClickHouse returned HTTP " + status + ": " + error);
+    }
+
+    Map<String, String> parseSummary(String header) {
+        if (header == null || header.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<?, ?> raw = JsonCodec.read(header, Map.class);
+            Map<String, String> summary = new HashMap<>();
+            for (Map.Entry<?, ?> entry : raw.entrySet()) {
+                summary.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+            return summary;
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * The replica a request went to, when it connected, and whether the replica answered
+     */
+    private static final class Lease {
+        private final ReplicaBalancer.Endpoint endpoint;
+        private final long start;
+        private volatile boolean answered;
+
+        private Lease(ReplicaBalancer.Endpoint endpoint, long start) {
+            this.endpoint = endpoint;
+            this.start = start;
+        }
+    }
+}
@@ -1,22 +1,52 @@
 package com.example.app.service;
 
+import com.clickhouse.client.ClickHouseException;
 import com.clickhouse.jdbc.ClickHouseDataSource;
+import com.clickhouse.jdbc.ClickHouseStatement;
+import com.example.app.logging.Logger;
 import com.example.app.model.ColumnInfo;
 import com.example.app.model.ConnectionConfig;
 import com.example.app.model.TableInfo;
+import com.example.app.util.CompressionType;
+import com.example.app.util.RunningStatements;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
 
 public class ClickHouseService {
+
+    private static final Logger log = Logger.getLogger(ClickHouseService.class);
+    
+    private final ClickHouseHttpClient httpClient = new ClickHouseHttpClient();
+    private final PreviewCache previewCache = PreviewCache.getInstance();
+    private final ShardRouter shardRouter = new ShardRouter(this);
+    private final ReplicaBalancer replicaBalancer = ReplicaBalancer.getInstance();
     
     public boolean testConnection(ConnectionConfig config) {
         try (Connection connection = getConnection(config)) {
             return connection.isValid(5);
         } catch (SQLException e) {
-            System.err.println("Connection test failed: " + e.getMessage());
+            log.warn("Connection test failed", "host", config.getHost(), "error", e.getMessage());
             return false;
         }
     }
@@ -25,7 +55,7 @@ public class ClickHouseService {
         List<String> tables = new ArrayList<>();
         
         try (Connection connection = getConnection(config);
-             Statement stmt = connection.createStatement();
+             Statement stmt = RunningStatements.register(connection.createStatement());
              ResultSet rs = stmt.executeQuery("SHOW TABLES FROM " + config.getDatabase())) {
             
             while (rs.next()) {
@@ -53,7 +83,7 @@ public class ClickHouseService {
         }
         
         try (Connection connection = getConnection(config);
-            Statement stmt = connection.createStatement();
+            Statement stmt = RunningStatements.register(connection.createStatement());
             ResultSet rs = stmt.executeQuery("DESCRIBE " + fullTableName)) {
             
             while (rs.next()) {
@@ -69,25 +99,40 @@ public class ClickHouseService {
         return tableInfo;
     }
     
+    /**
+     * Checks that each selected column of a query without joins is a column of its table;
+     * SelectQuery already limits joined queries to plain "table.column" names
+     *
+     * @throws IllegalArgumentException naming the first column the table doesn't have
+     */
+    public void requireColumns(ConnectionConfig config, SelectQuery query) throws SQLException {
+        if (query.hasJoins() || query.getColumns() == null) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (ColumnInfo column : getTableSchema(config, query.getTableName()).getColumns()) {
+            names.add(column.getName());
+        }
+        for (String column : query.getColumns()) {
+            if (!names.contains(column)) {
+                throw new IllegalArgumentException("Table " + query.getTableName() + " has no column " + column);
+            }
+        }
+    }
+    
     public List<List<Object>> queryData(ConnectionConfig config, String tableName, List<String> columns) throws SQLException {
+        return queryData(config, new SelectQuery(tableName, columns));
+    }
+    
+    /**
+     * Reads every row the query selects; its filter, sample and limit are applied by ClickHouse
+     */
+    public List<List<Object>> queryData(ConnectionConfig config, SelectQuery selectQuery) throws SQLException {
         List<List<Object>> data = new ArrayList<>();
-        
-        String columnList = String.join(", ", columns);
-        
-        // Check if tableName already has database prefix
-        String fullTableName;
-        if (tableName.contains(".")) {
-            // Table name already has database prefix
-            fullTableName = tableName;
-        } else {
-            // Add database prefix
-            fullTableName = config.getDatabase() + "." + tableName;
-        }
-        
-        String query = "SELECT " + columnList + " FROM " + fullTableName;
+        String query = selectQuery.toSql(tableNames(config));
         
         try (Connection connection = getConnection(config);
-            Statement stmt = connection.createStatement();
+            Statement stmt = RunningStatements.register(connection.createStatement());
             ResultSet rs = stmt.executeQuery(query)) {
             
             ResultSetMetaData metaData = rs.getMetaData();
@@ -105,8 +150,42 @@ public class ClickHouseService {
         return data;
     }
     
+    /**
+     * Streams every row the query selects from a single result set, for a query such as
+     * a join that can't be paged without running it again for each page
+     *
+     * @return the number of rows read
+     */
+    public long streamData(ConnectionConfig config, SelectQuery selectQuery, RowSink sink)
+            throws SQLException, IOException {
+        return executeQuery(config, selectQuery.toSql(tableNames(config)), sink);
+    }
+    
+    /**
+     * Inserts the rows as one block, or with shards configured, one block per shard
+     * straight into the shards' local tables
+     */
     public int insertData(ConnectionConfig config, String tableName, 
                         List<String> columns, List<List<Object>> data) throws SQLException {
+        return insertData(config, tableName, columns, data, null);
+    }
+
+    /**
+     * Inserts the rows as one block sent with deduplicationToken (may be null) as its
+     * insert_deduplication_token, so a table with insert deduplication keeps a block
+     * retried with the same token only once. A sharded connection sends each shard's
+     * part of the block with the token suffixed by the shard's index.
+     */
+    public int insertData(ConnectionConfig config, String tableName, List<String> columns,
+                          List<List<Object>> data, String deduplicationToken) throws SQLException {
+        if (config.isSharded()) {
+            invalidatePreviews(config, tableName);
+            try {
+                return shardRouter.insert(config, tableName, columns, data, deduplicationToken);
+            } finally {
+                invalidatePreviews(config, tableName);
+            }
+        }
         String columnList = String.join(", ", columns);
         StringBuilder placeholders = new StringBuilder();
         for (int i = 0; i < columns.size(); i++) {
@@ -129,21 +208,267 @@ public class ClickHouseService {
         
         int rowsInserted = 0;
         
+        invalidatePreviews(config, tableName);
         try (Connection connection = getConnection(config);
             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             
+            if (deduplicationToken != null) {
+                pstmt.unwrap(ClickHouseStatement.class).getRequest()
+                        .set("insert_deduplication_token", deduplicationToken);
+            }
+            // Send the whole batch as one insert block rather than one request per row
             for (List<Object> row : data) {
                 for (int i = 0; i < row.size(); i++) {
                     pstmt.setObject(i + 1, row.get(i));
                 }
-                
-                rowsInserted += pstmt.executeUpdate();
+                pstmt.addBatch();
             }
+            for (int count : pstmt.executeBatch()) {
+                rowsInserted += count;
+            }
+        } finally {
+            invalidatePreviews(config, tableName);
         }
         
         return rowsInserted;
     }
-    private Connection getConnection(ConnectionConfig config) throws SQLException {
+
+    /**
+     * Streams a compressed CSV file to ClickHouse as-is and lets the server decompress it.
+     * Columns are matched by the file's header row; extra file columns are skipped.
+     *
+     * @return the number of rows ClickHouse reports as written
+     */
+    public long insertCompressedFile(ConnectionConfig config, String tableName, List<String> columns,
+                                     Path filePath, String delimiter, CompressionType compression,
+                                     LongConsumer bytesSent) throws IOException {
+        String sql = "INSERT INTO " + getFullTableName(config, tableName) +
+                " (" + String.join(", ", columns) + ") FORMAT CSVWithNames";
+
+        Map<String, String> settings = new HashMap<>();
+        settings.put("input_format_with_names_use_header", "1");
+        settings.put("input_format_skip_unknown_fields", "1");
+        settings.put("format_csv_delimiter", delimiter);
+
+        invalidatePreviews(config, tableName);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(filePath), 256 * 1024)) {
+            Map<String, String> summary = httpClient.insert(
+                    config, sql, settings, in, compression.getContentEncoding(), bytesSent);
+            String writtenRows = summary.get("written_rows");
+            return writtenRows != null ? Long.parseLong(writtenRows) : -1;
+        } finally {
+            invalidatePreviews(config, tableName);
+        }
+    }
+
+    /**
+     * Exports columns of a table to a file in a format rendered by ClickHouse itself
+     * (CSV/TSV with names, Native, RowBinary, Parquet), streaming the response straight to disk.
+     *
+     * @return the number of bytes written
+     */
+    public long exportToFile(ConnectionConfig config, String tableName, List<String> columns,
+                             ExportFormat format, CompressionType compression, String delimiter,
+                             Path targetPath, ClickHouseHttpClient.ExportListener listener) throws IOException {
+        return exportToFile(config, new SelectQuery(tableName, columns), format, true,
+                compression, delimiter, targetPath, listener);
+    }
+
+    /**
+     * Exports the result of a query to a file rendered by ClickHouse. With withHeader false
+     * the header-less variant of the format is used, so the file can be appended to another.
+     * CSV and TSV records are counted as they are copied and reported to the listener.
+     *
+     * @return the number of bytes written
+     */
+    public long exportToFile(ConnectionConfig config, SelectQuery query, ExportFormat format, boolean withHeader,
+                             CompressionType compression, String delimiter,
+                             Path targetPath, ClickHouseHttpClient.ExportListener listener) throws IOException {
+        String outputFormat = withHeader ? format.getClickHouseFormat() : format.getHeaderlessFormat();
+        if (outputFormat == null) {
+            throw new IllegalArgumentException(format + " output can't be split into concatenated chunks");
+        }
+        String sql = query.toSql(tableNames(config)) + " FORMAT " + outputFormat;
+
+        Map<String, String> settings = new HashMap<>();
+        if (format == ExportFormat.CSV && delimiter != null && !delimiter.isEmpty()) {
+            settings.put("format_csv_delimiter", delimiter);
+        }
+        if (format == ExportFormat.PARQUET) {
+            // Parquet compresses its own column chunks, so apply the codec inside the file
+            settings.put("output_format_parquet_compression_method",
+                    compression.isCompressed() ? compression.name().toLowerCase() : "none");
+            compression = CompressionType.NONE;
+        }
+
+        RecordCounter records = RecordCounter.canCount(format) ? new RecordCounter(format, withHeader) : null;
+        long bytes = httpClient.exportToFile(config, sql, settings, targetPath, compression, records, listener);
+        if (records != null) {
+            listener.onRecordsWritten(records.getRecords());
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the row count of each active partition, from system.parts metadata
+     * (no table scan), in partition order
+     */
+    public Map<String, Long> getPartitionRowCounts(ConnectionConfig config, String tableName) throws SQLException {
+        String[] parts = splitTableName(config, tableName);
+        Map<String, Long> rowCounts = new LinkedHashMap<>();
+        
+        try (Connection connection = getConnection(config);
+            PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT partition_id, sum(rows) FROM system.parts " +
+                    "WHERE database = ? AND table = ? AND active " +
+                    "GROUP BY partition_id ORDER BY partition_id")) {
+            pstmt.setString(1, parts[0]);
+            pstmt.setString(2, parts[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rowCounts.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        }
+        
+        return rowCounts;
+    }
+
+    /**
+     * Returns the table's sorting key expression (e.g. "event_date, user_id"), or an empty string
+     */
+    public String getSortingKey(ConnectionConfig config, String tableName) throws SQLException {
+        String[] parts = splitTableName(config, tableName);
+        
+        try (Connection connection = getConnection(config);
+            PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT sorting_key FROM system.tables WHERE database = ? AND name = ?")) {
+            pstmt.setString(1, parts[0]);
+            pstmt.setString(2, parts[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getString(1) != null ? rs.getString(1) : "";
+            }
+        }
+    }
+
+    /**
+     * Returns approximate quantile boundaries of a column, converted back to the column's
+     * type and rendered as text so they can be used as literals in range predicates
+     */
+    public List<String> getColumnQuantiles(ConnectionConfig config, String tableName, String column,
+                                           String columnType, int buckets) throws SQLException {
+        StringBuilder levels = new StringBuilder();
+        for (int i = 1; i < buckets; i++) {
+            if (i > 1) levels.append(", ");
+            levels.append((double) i / buckets);
+        }
+        String query = "SELECT arrayJoin(arrayMap(x -> toString(CAST(x, '" + columnType.replace("'", "\\'") + "')), " +
+                "quantiles(" + levels + ")(`" + column + "`))) FROM " + getFullTableName(config, tableName);
+        
+        List<String> boundaries = new ArrayList<>();
+        for (List<Object> row : executeQuery(config, query)) {
+            boundaries.add(String.valueOf(row.get(0)));
+        }
+        return boundaries;
+    }
+
+    /**
+     * Opens a JDBC connection. With replicas configured it goes to the first replica
+     * {@link ReplicaBalancer} offers that accepts it, and the replica counts as busy
+     * until the connection is closed. Each statement run on the connection reports to the
+     * replica whether, and how quickly, it answered.
+     */
+    protected Connection getConnection(ConnectionConfig config) throws SQLException {
+        if (!ReplicaBalancer.isBalanced(config)) {
+            return openConnection(config);
+        }
+        SQLException lastFailure = null;
+        for (ReplicaBalancer.Endpoint endpoint : replicaBalancer.order(config)) {
+            long start = System.nanoTime();
+            endpoint.acquire();
+            try {
+                Connection connection = openConnection(ReplicaBalancer.configFor(config, endpoint));
+                // Opening runs a query for the server's settings, so it is the handshake
+                endpoint.checked(System.nanoTime() - start);
+                return releasingOnClose(connection, endpoint);
+            } catch (SQLException e) {
+                endpoint.release();
+                endpoint.failed();
+                lastFailure = e;
+                log.warn("Replica refused the connection, trying the next one", "replica", endpoint,
+                        "error", e.getMessage());
+            }
+        }
+        throw new SQLException("No replica of " + config.getHost() + " accepted the connection: "
+                + lastFailure.getMessage(), lastFailure);
+    }
+
+    private static Connection releasingOnClose(Connection connection, ReplicaBalancer.Endpoint endpoint) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                        endpoint.release();
+                    }
+                    Object result = invoke(method, connection, args);
+                    return result instanceof Statement
+                            ? reportingTo(endpoint, (Statement) result, method.getReturnType()) : result;
+                });
+    }
+
+    /**
+     * Wraps a replica's statement so that every execute call reports its outcome to the replica
+     */
+    private static Statement reportingTo(ReplicaBalancer.Endpoint endpoint, Statement statement, Class<?> type) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[] { type }, (proxy, method, args) -> {
+                    if (!method.getName().startsWith("execute")) {
+                        return invoke(method, statement, args);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        Object result = invoke(method, statement, args);
+                        endpoint.succeeded(System.nanoTime() - start);
+                        return result;
+                    } catch (SQLException e) {
+                        if (isUnreachable(e)) {
+                            endpoint.failed();
+                        } else {
+                            // A query error is still an answer
+                            endpoint.succeeded(System.nanoTime() - start);
+                        }
+                        throw e;
+                    }
+                });
+    }
+
+    /**
+     * True if the driver couldn't reach the server or got no answer in time. Errors the
+     * server sent carry its own error code.
+     */
+    private static boolean isUnreachable(SQLException e) {
+        int code = e.getErrorCode();
+        if (code == ClickHouseException.ERROR_NETWORK || code == ClickHouseException.ERROR_POCO
+                || code == ClickHouseException.ERROR_UNKNOWN) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Connection openConnection(ConnectionConfig config) throws SQLException {
         String url = String.format("jdbc:clickhouse://%s:%d/%s", 
                 config.getHost(), config.getPort(), config.getDatabase());
         
@@ -194,12 +519,13 @@ public class ClickHouseService {
             
             createTableSQL.append(") ENGINE = MergeTree() ORDER BY tuple()");
             
-            try (Statement stmt = connection.createStatement()) {
+            try (Statement stmt = RunningStatements.register(connection.createStatement())) {
                 stmt.execute(createTableSQL.toString());
+                invalidatePreviews(config, tableName);
                 return true;
             }
         } catch (SQLException e) {
-            System.err.println("Failed to create table: " + e.getMessage());
+            log.error("Failed to create table", e, "table", tableName);
             return false;
         }
     }
@@ -208,7 +534,7 @@ public class ClickHouseService {
         List<List<Object>> data = new ArrayList<>();
         
         try (Connection connection = getConnection(config);
-            Statement stmt = connection.createStatement();
+            Statement stmt = RunningStatements.register(connection.createStatement());
             ResultSet rs = stmt.executeQuery(query)) {
             
             ResultSetMetaData metaData = rs.getMetaData();
@@ -226,12 +552,330 @@ public class ClickHouseService {
         return data;
     }
 
-    public int getTableRowCount(ConnectionConfig config, String tableName) throws SQLException {
-        String query = "SELECT count(*) FROM `" + tableName + "`";
+    /**
+     * Runs a query and hands each row to the sink as the driver reads it, so the
+     * result is never held in memory as a whole
+     *
+     * @return the number of rows read
+     */
+    public long executeQuery(ConnectionConfig config, String query, RowSink sink) throws SQLException, IOException {
+        long rows = 0;
+        
+        try (Connection connection = getConnection(config);
+            Statement stmt = RunningStatements.register(connection.createStatement());
+            ResultSet rs = stmt.executeQuery(query)) {
+            
+            int columnCount = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                List<Object> row = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    row.add(rs.getObject(i));
+                }
+                sink.accept(row);
+                rows++;
+            }
+        }
+        
+        return rows;
+    }
+
+    /**
+     * Streams the first maxRows rows of the selected columns. The rows are fetched once
+     * with every column and kept in the {@link PreviewCache}, so selecting different
+     * columns of the same table is answered without querying ClickHouse again.
+     *
+     * @return the number of rows written to the sink
+     */
+    public long previewTable(ConnectionConfig config, String tableName, List<String> selectedColumns, int maxRows,
+                             RowSink sink) throws SQLException, IOException {
+        return previewTable(config, new SelectQuery(tableName, selectedColumns), maxRows, sink);
+    }
+    
+    /**
+     * Streams the first maxRows rows the query selects. Queries without a filter, sample
+     * or ORDER BY are served through the {@link PreviewCache}; the others go to ClickHouse
+     * every time, with their conditions applied there.
+     *
+     * @return the number of rows written to the sink
+     */
+    public long previewTable(ConnectionConfig config, SelectQuery query, int maxRows,
+                             RowSink sink) throws SQLException, IOException {
+        if (query.getLimit() > 0 && query.getLimit() < maxRows) {
+            maxRows = (int) query.getLimit();
+        }
+        String[] parts = splitTableName(config, query.getTableName());
+        // Use proper ClickHouse identifier syntax: `database`.`table` instead of `database.table`
+        String fullTableName = "`" + parts[0] + "`.`" + parts[1] + "`";
+        if (query.isFiltered() || query.isOrdered() || query.hasJoins()) {
+            return executeQuery(config, query.limit(maxRows, 0).toSql(tableNames(config)), sink);
+        }
+        
+        List<List<Object>> rows = null;
+        if (previewCache.isEnabled()) {
+            PreviewCache.Key key = new PreviewCache.Key(config, parts[0], parts[1], maxRows);
+            PreviewCache.Entry entry = previewCache.get(key);
+            if (entry == null) {
+                AtomicLong written = new AtomicLong();
+                entry = fillPreview(config, key, query, fullTableName, maxRows, row -> {
+                    sink.accept(row);
+                    written.incrementAndGet();
+                });
+                if (entry == null) {
+                    return written.get();
+                }
+            }
+            rows = entry.project(query.getColumns());
+        }
+        if (rows == null) {
+            return executeQuery(config, query.limit(maxRows, 0).toSql(tableNames(config)), sink);
+        }
+        for (List<Object> row : rows) {
+            sink.accept(row);
+        }
+        return rows.size();
+    }
+
+    /**
+     * Reads the first maxRows rows with every column and caches them. Once the rows read
+     * so far are estimated to exceed the cache's budget they can't be cached, so they and
+     * the rest are written to the sink as selected instead of being held in memory.
+     *
+     * @return the cached entry, or null if the rows were written to the sink
+     */
+    private PreviewCache.Entry fillPreview(ConnectionConfig config, PreviewCache.Key key, SelectQuery query,
+                                           String fullTableName, int maxRows, RowSink sink)
+            throws SQLException, IOException {
+        long generation = previewCache.getGeneration();
+        try (Connection connection = getConnection(config);
+            Statement stmt = RunningStatements.register(connection.createStatement());
+            ResultSet rs = stmt.executeQuery("SELECT * FROM " + fullTableName + " LIMIT " + maxRows)) {
+            
+            ResultSetMetaData metaData = rs.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            List<String> columns = new ArrayList<>(columnCount);
+            for (int i = 1; i <= columnCount; i++) {
+                columns.add(metaData.getColumnLabel(i));
+            }
+            List<List<Object>> rows = new ArrayList<>();
+            long bytes = PreviewCache.Entry.estimateBytes(columns);
+            int[] indexes = null;
+            while (rs.next()) {
+                List<Object> row = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    row.add(rs.getObject(i));
+                }
+                if (indexes != null) {
+                    sink.accept(PreviewCache.Entry.project(row, indexes));
+                    continue;
+                }
+                rows.add(row);
+                bytes += PreviewCache.Entry.estimateRowBytes(row);
+                if (bytes > previewCache.getMaxBytes()) {
+                    indexes = PreviewCache.Entry.indexesOf(columns, query.getColumns());
+                    if (indexes == null) {
+                        // SELECT * leaves out ALIAS columns, so query the selected ones instead
+                        break;
+                    }
+                    log.debug("Preview too large to cache, streaming it", "table", fullTableName,
+                            "maxRows", maxRows, "budgetBytes", previewCache.getMaxBytes());
+                    for (List<Object> buffered : rows) {
+                        sink.accept(PreviewCache.Entry.project(buffered, indexes));
+                    }
+                    rows = null;
+                }
+            }
+            if (indexes != null) {
+                return null;
+            }
+            if (rows != null && bytes <= previewCache.getMaxBytes()) {
+                PreviewCache.Entry entry = new PreviewCache.Entry(columns, rows);
+                previewCache.put(key, entry, generation);
+                return entry;
+            }
+        }
+        executeQuery(config, query.limit(maxRows, 0).toSql(tableNames(config)), sink);
+        return null;
+    }
+
+    /**
+     * Returns the number of rows in a table. Uses the row count ClickHouse keeps in
+     * system.tables (exact for MergeTree and Memory tables, no scan needed) and only
+     * falls back to count() for engines that don't track it, such as views.
+     */
+    public long getTableRowCount(ConnectionConfig config, String tableName) throws SQLException {
+        String[] parts = splitTableName(config, tableName);
+        
+        try (Connection connection = getConnection(config);
+            PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT total_rows FROM system.tables WHERE database = ? AND name = ?")) {
+            pstmt.setString(1, parts[0]);
+            pstmt.setString(2, parts[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    long totalRows = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        return totalRows;
+                    }
+                }
+            }
+        }
+        
+        String query = "SELECT count() FROM " + getFullTableName(config, tableName);
         List<List<Object>> result = executeQuery(config, query);
         if (result != null && !result.isEmpty() && !result.get(0).isEmpty()) {
-            return ((Number)result.get(0).get(0)).intValue();
+            return ((Number)result.get(0).get(0)).longValue();
         }
         return 0;
     }
+
+    /**
+     * Counts the rows matching the query's conditions
+     */
+    public long countRows(ConnectionConfig config, SelectQuery query) throws SQLException {
+        List<List<Object>> result = executeQuery(config,
+                query.toSql(tableNames(config), "count()"));
+        return result.isEmpty() ? 0 : ((Number) result.get(0).get(0)).longValue();
+    }
+
+    /**
+     * Returns the largest value of a column among the rows matching the query's
+     * conditions, rendered as text so it can be used as a literal in later conditions,
+     * or null if no rows match
+     */
+    public String getMaxValue(ConnectionConfig config, SelectQuery query, String column) throws SQLException {
+        List<List<Object>> result = executeQuery(config, query.toSql(tableNames(config),
+                "count(), toString(max(" + query.quoteColumn(column) + "))"));
+        if (result.isEmpty() || ((Number) result.get(0).get(0)).longValue() == 0) {
+            return null;
+        }
+        return String.valueOf(result.get(0).get(1));
+    }
+
+    /**
+     * Checks that the target server can read the source table through remote(), so a
+     * copy can run as INSERT ... SELECT without the rows passing through this app
+     */
+    public boolean canReadRemote(ConnectionConfig source, String remoteCollection, String remoteAddress,
+                                 String tableName, ConnectionConfig target) {
+        String sql = "SELECT count() FROM " + remoteTable(source, remoteCollection, remoteAddress, tableName)
+                + " WHERE 0";
+        try {
+            httpClient.execute(target, sql, null);
+            return true;
+        } catch (IOException e) {
+            log.info("Target server can't read the source table remotely", "remoteAddress", remoteAddress,
+                    "table", tableName, "error", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Copies the rows of the query into a table on the target server with INSERT ... SELECT
+     * FROM remote(), so the target pulls them from the source over the native protocol
+     *
+     * @return the number of rows the target reports as written, or -1 if it sent no summary
+     */
+    public long copyTableRemote(ConnectionConfig source, SelectQuery query, String remoteCollection,
+                                String remoteAddress, ConnectionConfig target, String targetTable)
+            throws IOException {
+        String sql = "INSERT INTO " + getFullTableName(target, targetTable) + " (" + columnList(query) + ") "
+                + query.toSql(tableName -> remoteTable(source, remoteCollection, remoteAddress, tableName));
+        invalidatePreviews(target, targetTable);
+        try {
+            String writtenRows = httpClient.execute(target, sql, null).get("written_rows");
+            return writtenRows != null ? Long.parseLong(writtenRows) : -1;
+        } finally {
+            invalidatePreviews(target, targetTable);
+        }
+    }
+
+    /**
+     * Copies the rows of the query into a table on the target server by reading them from
+     * the source in Native format and sending the response body on as the INSERT body,
+     * without decoding it
+     *
+     * @return the number of rows the target reports as written, or -1 if it sent no summary
+     */
+    public long copyTableStreaming(ConnectionConfig source, SelectQuery query, ConnectionConfig target,
+                                   String targetTable, ClickHouseHttpClient.ExportListener listener)
+            throws IOException {
+        String selectSql = query.toSql(tableNames(source)) + " FORMAT Native";
+        String insertSql = "INSERT INTO " + getFullTableName(target, targetTable)
+                + " (" + columnList(query) + ") FORMAT Native";
+        invalidatePreviews(target, targetTable);
+        try (InputStream in = httpClient.query(source, selectSql, null, listener)) {
+            Map<String, String> summary = httpClient.insert(target, insertSql, null, in, null,
+                    listener::onBytesWritten);
+            String writtenRows = summary.get("written_rows");
+            return writtenRows != null ? Long.parseLong(writtenRows) : -1;
+        } finally {
+            invalidatePreviews(target, targetTable);
+        }
+    }
+
+    private static String columnList(SelectQuery query) {
+        StringBuilder columns = new StringBuilder();
+        for (String column : query.getColumns()) {
+            if (columns.length() > 0) columns.append(", ");
+            columns.append(query.quoteColumn(column));
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Renders the remote() table function reading a source table; remoteSecure() when the
+     * source is reached over TLS. With a named collection the target server supplies the
+     * source's address and credentials. Without one they are written into the statement,
+     * where the target's query_log and anyone who can list its queries see them.
+     */
+    private String remoteTable(ConnectionConfig source, String remoteCollection, String remoteAddress,
+                               String tableName) {
+        String[] parts = splitTableName(source, tableName);
+        boolean secure = source.getJwtToken() != null && !source.getJwtToken().isEmpty();
+        if (remoteCollection != null && !remoteCollection.isEmpty()) {
+            if (!remoteCollection.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+                throw new IllegalArgumentException("remoteCollection must be a collection name, got "
+                        + remoteCollection);
+            }
+            return (secure ? "remoteSecure(" : "remote(") + remoteCollection
+                    + ", database = " + ExportPartitioner.literal(parts[0])
+                    + ", table = " + ExportPartitioner.literal(parts[1]) + ")";
+        }
+        return (secure ? "remoteSecure(" : "remote(") + ExportPartitioner.literal(remoteAddress)
+                + ", " + ExportPartitioner.literal(parts[0]) + ", " + ExportPartitioner.literal(parts[1])
+                + ", " + ExportPartitioner.literal(source.getUser() != null ? source.getUser() : "default")
+                + ", " + ExportPartitioner.literal(secure ? source.getJwtToken() : "") + ")";
+    }
+
+    /**
+     * Cached previews of a table are stale once this app writes to it. Writers call this
+     * before and after writing: a preview read while the write runs may not show it, and
+     * the generation bump of the second call keeps it from being cached.
+     */
+    private void invalidatePreviews(ConnectionConfig config, String tableName) {
+        String[] parts = splitTableName(config, tableName);
+        previewCache.invalidate(config, parts[0], parts[1]);
+    }
+
+    /**
+     * Splits a possibly database-qualified table name into database and table
+     */
+    private String[] splitTableName(ConnectionConfig config, String tableName) {
+        if (tableName.contains(".")) {
+            return tableName.split("\\.", 2);
+        }
+        return new String[] {config.getDatabase(), tableName};
+    }
+
+    private UnaryOperator<String> tableNames(ConnectionConfig config) {
+        return tableName -> getFullTableName(config, tableName);
+    }
+
+    private String getFullTableName(ConnectionConfig config, String tableName) {
+        // Check if tableName already has database prefix
+        if (tableName.contains(".")) {
+            return tableName;
+        }
+        return config.getDatabase() + "." + tableName;
+    }
 }
\ No newline at end of file
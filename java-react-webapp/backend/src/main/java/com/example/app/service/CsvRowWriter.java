@@ -0,0 +1,115 @@
+package com.example.app.service;
+
+import com.example.app.util.CompressionType;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes CSV or TSV rows, optionally through a gzip/zstd/lz4 compressor
+ */
+public class CsvRowWriter implements RowWriter {
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private final CSVPrinter printer;
+    private final boolean tabSeparated;
+    private long rowsWritten;
+
+    public CsvRowWriter(Path path, List<String> headers, String delimiter,
+                        ExportFormat format, CompressionType compression) throws IOException {
+        OutputStream out = compression.compress(Files.newOutputStream(path));
+        BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+
+        this.tabSeparated = format == ExportFormat.TSV;
+        CSVFormat csvFormat;
+        if (tabSeparated) {
+            // ClickHouse-style TabSeparated: no quoting, values are escaped in writeRow
+            csvFormat = CSVFormat.DEFAULT.builder()
+                .setDelimiter('\t')
+                .setQuote(null)
+                .setRecordSeparator('\n')
+                .setHeader(headers.toArray(new String[0]))
+                .build();
+        } else {
+            csvFormat = CSVFormat.DEFAULT.builder()
+                .setDelimiter(delimiter.charAt(0))
+                .setHeader(headers.toArray(new String[0]))
+                .build();
+        }
+
+        try {
+            this.printer = new CSVPrinter(writer, csvFormat);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeRow(List<Object> row) throws IOException {
+        if (tabSeparated) {
+            Object[] escaped = new Object[row.size()];
+            for (int i = 0; i < escaped.length; i++) {
+                escaped[i] = escapeTabSeparated(row.get(i));
+            }
+            printer.printRecord(escaped);
+        } else {
+            printer.printRecord(row);
+        }
+        rowsWritten++;
+    }
+
+    /**
+     * Escapes a value the way ClickHouse writes TabSeparated: \N for NULL and
+     * backslash escapes for backslash, tab and line breaks
+     */
+    private static String escapeTabSeparated(Object value) {
+        if (value == null) {
+            return "\\N";
+        }
+        String text = value.toString();
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '\\': replacement = "\\\\"; break;
+                case '\t': replacement = "\\t"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(text.length() + 8).append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped != null ? escaped.toString() : text;
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        printer.close();
+    }
+}
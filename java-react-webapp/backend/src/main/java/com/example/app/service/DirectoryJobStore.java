@@ -0,0 +1,294 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.model.IngestJob;
+import com.example.app.model.IngestResult;
+import com.example.app.model.JobTask;
+import com.example.app.util.JsonCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Job store in a directory that every instance can reach, e.g. a shared volume, or a
+ * local directory when several processes run on one host. Each job has its own
+ * subdirectory with job.json (the request), task-N.json per task (its queued state), a
+ * "stop" marker once the job is asked to stop and a "done" marker once every task has
+ * finished.
+ *
+ * Leases are files named task-N.lease-G holding the worker and expiry. A worker claims
+ * generation G+1 of an unleased or expired task by creating that file, which only one
+ * worker can do; the holder renews by rewriting its own file and notices that it lost
+ * the task when a later generation appears. The holder of generation G publishes the
+ * task's progress in task-N.gen-G.json and readers take the newest generation, so a
+ * worker that lost its lease between checking it and writing can't overwrite the
+ * progress of the one that took over. After {@code app.jobs.maxAttempts} (default
+ * 3) claims a task is failed instead of being run again.
+ */
+public class DirectoryJobStore implements JobStore {
+
+    private static final Logger log = Logger.getLogger(DirectoryJobStore.class);
+
+    static final int MAX_ATTEMPTS = Integer.getInteger("app.jobs.maxAttempts", 3);
+    private static final String JOB_FILE = "job.json";
+    private static final String DONE_FILE = "done";
+    private static final String STOP_FILE = "stop";
+    // Job ids become directory names, so they must not reach outside the store
+    private static final Pattern JOB_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern PROGRESS_FILE = Pattern.compile("task-(\\d+)\\.gen-(\\d+)\\.json");
+
+    private final Path root;
+
+    public DirectoryJobStore(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+    }
+
+    @Override
+    public void create(IngestJob job) throws IOException {
+        Path directory = root.resolve(job.getJobId());
+        Files.createDirectories(directory);
+        for (JobTask task : job.getTasks()) {
+            JsonCodec.writeFile(taskFile(directory, task.getIndex(), 0), task);
+        }
+        // Written last: workers ignore a directory without job.json, so they never see half a job
+        IngestJob spec = new IngestJob();
+        spec.setJobId(job.getJobId());
+        spec.setRequest(job.getRequest());
+        spec.setCreatedAt(job.getCreatedAt());
+        JsonCodec.writeFile(directory.resolve(JOB_FILE), spec);
+    }
+
+    @Override
+    public IngestJob get(String jobId) throws IOException {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            return null;
+        }
+        return readJob(root.resolve(jobId));
+    }
+
+    private IngestJob readJob(Path directory) throws IOException {
+        Path jobFile = directory.resolve(JOB_FILE);
+        if (!Files.exists(jobFile)) {
+            return null;
+        }
+        IngestJob job;
+        try (InputStream in = Files.newInputStream(jobFile)) {
+            job = JsonCodec.read(in, IngestJob.class);
+        }
+        Map<Integer, Integer> generations = new HashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "task-*.gen-*.json")) {
+            for (Path entry : entries) {
+                Matcher progress = PROGRESS_FILE.matcher(entry.getFileName().toString());
+                if (progress.matches()) {
+                    generations.merge(Integer.parseInt(progress.group(1)), Integer.parseInt(progress.group(2)),
+                            Math::max);
+                }
+            }
+        }
+        List<JobTask> tasks = new ArrayList<>();
+        for (int i = 0; Files.exists(taskFile(directory, i, 0)); i++) {
+            try (InputStream in = Files.newInputStream(taskFile(directory, i, generations.getOrDefault(i, 0)))) {
+                tasks.add(JsonCodec.read(in, JobTask.class));
+            }
+        }
+        job.setTasks(tasks);
+        job.setStopRequested(Files.exists(directory.resolve(STOP_FILE)));
+        return job;
+    }
+
+    @Override
+    public JobTask claim(String workerId, long leaseMs) throws IOException {
+        List<IngestJob> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path directory : entries) {
+                if (Files.isDirectory(directory) && !Files.exists(directory.resolve(DONE_FILE))) {
+                    IngestJob job = readJob(directory);
+                    if (job != null) {
+                        jobs.add(job);
+                    }
+                }
+            }
+        }
+        jobs.sort(Comparator.comparingLong(IngestJob::getCreatedAt));
+
+        for (IngestJob job : jobs) {
+            Path directory = root.resolve(job.getJobId());
+            boolean finished = true;
+            for (JobTask task : job.getTasks()) {
+                if (task.isFinished()) {
+                    continue;
+                }
+                finished = false;
+                long now = System.currentTimeMillis();
+                Lease lease = currentLease(directory, task.getIndex(), leaseMs);
+                if (lease != null && lease.until > now) {
+                    continue;
+                }
+                int generation = lease != null ? lease.generation + 1 : 1;
+                if (!createLease(directory, task.getIndex(), generation, workerId, now + leaseMs)) {
+                    // Another worker claimed it first
+                    continue;
+                }
+                task.setAttempts(generation);
+                task.setWorker(workerId);
+                if (generation > MAX_ATTEMPTS) {
+                    giveUp(directory, task);
+                    continue;
+                }
+                if (lease != null) {
+                    log.warn("Taking over a task whose lease expired", "job", task.getJobId(),
+                            "task", task.getIndex(), "from", lease.worker, "attempt", generation);
+                }
+                task.setStatus("running");
+                JsonCodec.writeFile(taskFile(directory, task.getIndex(), generation), task);
+                return task;
+            }
+            if (finished) {
+                Files.write(directory.resolve(DONE_FILE), new byte[0]);
+            }
+        }
+        return null;
+    }
+
+    private void giveUp(Path directory, JobTask task) throws IOException {
+        IngestResult result = task.getResult() != null ? task.getResult() : new IngestResult();
+        result.setSuccess(false);
+        result.setStatus("error");
+        result.setMessage("Gave up after " + MAX_ATTEMPTS + " attempts whose workers stopped renewing the lease");
+        task.setResult(result);
+        task.setStatus("error");
+        JsonCodec.writeFile(taskFile(directory, task.getIndex(), task.getAttempts()), task);
+        log.error("Task failed on every attempt", "job", task.getJobId(), "task", task.getIndex(),
+                "label", task.getLabel());
+    }
+
+    @Override
+    public boolean update(JobTask task, String workerId, long leaseMs) throws IOException {
+        Path directory = root.resolve(task.getJobId());
+        Lease lease = currentLease(directory, task.getIndex(), leaseMs);
+        if (lease == null || lease.generation != task.getAttempts() || !workerId.equals(lease.worker)) {
+            return false;
+        }
+        JsonCodec.writeFile(taskFile(directory, task.getIndex(), lease.generation), task);
+        JsonCodec.writeFile(leaseFile(directory, task.getIndex(), lease.generation),
+                leaseContent(workerId, System.currentTimeMillis() + leaseMs));
+        return true;
+    }
+
+    @Override
+    public boolean requestStop(String jobId) throws IOException {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()
+                || !Files.exists(root.resolve(jobId).resolve(JOB_FILE))) {
+            return false;
+        }
+        Path stop = root.resolve(jobId).resolve(STOP_FILE);
+        if (!Files.exists(stop)) {
+            Files.write(stop, new byte[0]);
+        }
+        return true;
+    }
+
+    @Override
+    public void purge(long cutoff) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path directory : entries) {
+                Path done = directory.resolve(DONE_FILE);
+                if (Files.exists(done) && Files.getLastModifiedTime(done).toMillis() < cutoff) {
+                    try (Stream<Path> files = Files.walk(directory)) {
+                        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the task's newest lease, or null if it was never claimed
+     */
+    private Lease currentLease(Path directory, int index, long leaseMs) throws IOException {
+        String prefix = "task-" + index + ".lease-";
+        Path newest = null;
+        int generation = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path entry : entries) {
+                String suffix = entry.getFileName().toString().substring(prefix.length());
+                if (suffix.matches("\\d+") && Integer.parseInt(suffix) > generation) {
+                    generation = Integer.parseInt(suffix);
+                    newest = entry;
+                }
+            }
+        }
+        if (newest == null) {
+            return null;
+        }
+        try {
+            Map<?, ?> content = JsonCodec.read(Files.readString(newest), Map.class);
+            return new Lease(generation, (String) content.get("worker"), ((Number) content.get("until")).longValue());
+        } catch (IOException | RuntimeException e) {
+            // Created but not written yet; it counts as freshly claimed
+            return new Lease(generation, null, Files.getLastModifiedTime(newest).toMillis() + leaseMs);
+        }
+    }
+
+    private static boolean createLease(Path directory, int index, int generation, String workerId, long until)
+            throws IOException {
+        try {
+            Files.write(leaseFile(directory, index, generation),
+                    JsonCodec.write(leaseContent(workerId, until)).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private static Map<String, Object> leaseContent(String workerId, long until) {
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("worker", workerId);
+        content.put("until", until);
+        return content;
+    }
+
+    /**
+     * The task's state as published by the holder of the lease generation, or as
+     * queued for generation 0
+     */
+    private static Path taskFile(Path directory, int index, int generation) {
+        return directory.resolve(generation == 0 ? "task-" + index + ".json"
+                : "task-" + index + ".gen-" + generation + ".json");
+    }
+
+    private static Path leaseFile(Path directory, int index, int generation) {
+        return directory.resolve("task-" + index + ".lease-" + generation);
+    }
+
+    private static final class Lease {
+        private final int generation;
+        private final String worker;
+        private final long until;
+
+        Lease(int generation, String worker, long until) {
+            this.generation = generation;
+            this.worker = worker;
+            this.until = until;
+        }
+    }
+}
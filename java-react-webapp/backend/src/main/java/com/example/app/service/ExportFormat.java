@@ -0,0 +1,74 @@
+package com.example.app.service;
+
+/**
+ * File formats a ClickHouse export can be written in
+ */
+public enum ExportFormat {
+    // Row-based formats, written locally from JDBC rows
+    CSV("CSVWithNames", "CSV", false),
+    TSV("TSVWithNames", "TabSeparated", false),
+    // Binary/columnar formats, produced by ClickHouse itself and streamed to disk
+    NATIVE("Native", "Native", true),
+    ROW_BINARY("RowBinaryWithNamesAndTypes", "RowBinary", true),
+    PARQUET("Parquet", null, true);
+
+    private final String clickHouseFormat;
+    private final String headerlessFormat;
+    private final boolean serverSide;
+
+    ExportFormat(String clickHouseFormat, String headerlessFormat, boolean serverSide) {
+        this.clickHouseFormat = clickHouseFormat;
+        this.headerlessFormat = headerlessFormat;
+        this.serverSide = serverSide;
+    }
+
+    /**
+     * Name of the matching ClickHouse output format (for SELECT ... FORMAT)
+     */
+    public String getClickHouseFormat() {
+        return clickHouseFormat;
+    }
+
+    /**
+     * ClickHouse format for a continuation chunk that is appended to a file already
+     * holding the header, or null if the format can't be concatenated (Parquet)
+     */
+    public String getHeaderlessFormat() {
+        return headerlessFormat;
+    }
+
+    public boolean isConcatenable() {
+        return headerlessFormat != null;
+    }
+
+    /**
+     * Whether the file is produced by ClickHouse rather than by our own row writers
+     */
+    public boolean isServerSide() {
+        return serverSide;
+    }
+
+    /**
+     * Parses a format name from a request, defaulting to CSV
+     */
+    public static ExportFormat fromName(String name) {
+        if (name == null || name.isEmpty()) {
+            return CSV;
+        }
+        switch (name.toLowerCase().replace("_", "").replace("-", "")) {
+            case "csv":
+                return CSV;
+            case "tsv":
+            case "tabseparated":
+                return TSV;
+            case "native":
+                return NATIVE;
+            case "rowbinary":
+                return ROW_BINARY;
+            case "parquet":
+                return PARQUET;
+            default:
+                throw new IllegalArgumentException("Unsupported export format: " + name);
+        }
+    }
+}
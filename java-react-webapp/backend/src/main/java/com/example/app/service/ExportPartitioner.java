@@ -0,0 +1,178 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.model.ColumnInfo;
+import com.example.app.model.ConnectionConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a ClickHouse table into disjoint WHERE filters so an export can run
+ * as several concurrent streams
+ */
+public class ExportPartitioner {
+
+    private static final Logger log = Logger.getLogger(ExportPartitioner.class);
+
+    public static final String BY_PARTITION = "partition";
+    public static final String BY_KEY_RANGE = "key-range";
+    public static final String BY_HASH = "hash";
+
+    private final ClickHouseService clickHouseService;
+
+    public ExportPartitioner(ClickHouseService clickHouseService) {
+        this.clickHouseService = clickHouseService;
+    }
+
+    /**
+     * Plans up to shardCount filters that together cover every row exactly once.
+     * Strategies that don't fit the table (a single partition, a non-numeric key)
+     * fall back to hashing.
+     */
+    public List<String> plan(ConnectionConfig config, String tableName, List<String> columns,
+                             String strategy, int shardCount) throws SQLException {
+        if (BY_PARTITION.equalsIgnoreCase(strategy)) {
+            List<String> filters = planByPartition(config, tableName, shardCount);
+            if (filters.size() > 1) {
+                return filters;
+            }
+            log.info("Table has fewer than 2 partitions, splitting by hash instead", "table", tableName);
+        } else if (BY_KEY_RANGE.equalsIgnoreCase(strategy)) {
+            try {
+                List<String> filters = planByKeyRange(config, tableName, shardCount);
+                if (filters.size() > 1) {
+                    return filters;
+                }
+            } catch (SQLException e) {
+                log.warn("Could not split by key range", "table", tableName, "error", e.getMessage());
+            }
+            log.info("Splitting by hash instead of key range", "table", tableName);
+        }
+        return planByHash(config, tableName, columns, shardCount);
+    }
+
+    /**
+     * Groups active partitions into shardCount buckets of similar size, using the
+     * per-partition row counts from system.parts: largest partitions first, each
+     * into the bucket with the fewest rows so far
+     */
+    List<String> planByPartition(ConnectionConfig config, String tableName, int shardCount) throws SQLException {
+        Map<String, Long> partitionRows = clickHouseService.getPartitionRowCounts(config, tableName);
+        int buckets = Math.min(shardCount, partitionRows.size());
+        List<List<String>> assigned = new ArrayList<>();
+        long[] bucketRows = new long[buckets];
+        for (int i = 0; i < buckets; i++) {
+            assigned.add(new ArrayList<>());
+        }
+
+        List<Map.Entry<String, Long>> largestFirst = new ArrayList<>(partitionRows.entrySet());
+        largestFirst.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<String, Long> partition : largestFirst) {
+            int smallest = 0;
+            for (int i = 1; i < buckets; i++) {
+                if (bucketRows[i] < bucketRows[smallest]) {
+                    smallest = i;
+                }
+            }
+            assigned.get(smallest).add(partition.getKey());
+            bucketRows[smallest] += partition.getValue();
+        }
+
+        List<String> filters = new ArrayList<>();
+        for (List<String> bucket : assigned) {
+            // Keep partitions in id order inside a shard so concatenated output stays ordered
+            Collections.sort(bucket);
+            filters.add(partitionFilter(bucket));
+        }
+        return filters;
+    }
+
+    /**
+     * Splits on quantiles of the first sorting key column, giving contiguous key ranges
+     */
+    List<String> planByKeyRange(ConnectionConfig config, String tableName, int shardCount) throws SQLException {
+        String sortingKey = clickHouseService.getSortingKey(config, tableName);
+        String keyColumn = sortingKey.split(",")[0].trim();
+        if (keyColumn.isEmpty() || !keyColumn.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            // Expressions like toDate(ts) have no column type we can cast boundaries to
+            return new ArrayList<>();
+        }
+
+        String keyType = null;
+        for (ColumnInfo column : clickHouseService.getTableSchema(config, tableName).getColumns()) {
+            if (column.getName().equals(keyColumn)) {
+                keyType = column.getType();
+            }
+        }
+        if (keyType == null) {
+            return new ArrayList<>();
+        }
+
+        // Skewed data can repeat a boundary, which would produce an empty range
+        List<String> boundaries = new ArrayList<>();
+        for (String boundary : clickHouseService.getColumnQuantiles(
+                config, tableName, keyColumn, keyType, shardCount)) {
+            if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary)) {
+                boundaries.add(boundary);
+            }
+        }
+
+        String column = "`" + keyColumn + "`";
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            StringBuilder filter = new StringBuilder();
+            if (i > 0) {
+                filter.append(column).append(" >= ").append(literal(boundaries.get(i - 1)));
+            }
+            if (i < boundaries.size()) {
+                if (i > 0) filter.append(" AND ");
+                filter.append(column).append(" < ").append(literal(boundaries.get(i)));
+            }
+            if (i == 0 && keyType.startsWith("Nullable")) {
+                // NULL keys fall outside every range, so give them to the first shard
+                filter.insert(0, "(").append(") OR ").append(column).append(" IS NULL");
+            }
+            filters.add(filter.toString());
+        }
+        return filters;
+    }
+
+    /**
+     * Assigns rows by cityHash64 of the sorting key (or of the exported columns)
+     */
+    List<String> planByHash(ConnectionConfig config, String tableName, List<String> columns,
+                            int shardCount) throws SQLException {
+        String hashKey = clickHouseService.getSortingKey(config, tableName);
+        if (hashKey.isEmpty()) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) key.append(", ");
+                key.append("`").append(columns.get(i)).append("`");
+            }
+            hashKey = key.toString();
+        }
+
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            filters.add("cityHash64(" + hashKey + ") % " + shardCount + " = " + i);
+        }
+        return filters;
+    }
+
+    static String partitionFilter(List<String> partitionIds) {
+        StringBuilder filter = new StringBuilder("_partition_id IN (");
+        for (int i = 0; i < partitionIds.size(); i++) {
+            if (i > 0) filter.append(", ");
+            filter.append(literal(partitionIds.get(i)));
+        }
+        return filter.append(")").toString();
+    }
+
+    static String literal(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.app.service;
+
+import com.example.app.util.JsonCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What an incremental export remembers between runs: the column it follows, the
+ * value every exported row was below, how many runs wrote output, and in append mode
+ * how long the target file was after the last finished run. Rows equal to the value
+ * weren't exported yet, except for a starting watermark given with the request and
+ * state saved before runs stopped short of their maximum.
+ */
+final class ExportWatermark {
+
+    private final String column;
+    private String value;
+    // Whether rows equal to value were exported too
+    private boolean valueExported;
+    private long runs;
+    // -1 until a run has recorded it
+    private long fileLength = -1;
+
+    private ExportWatermark(String column, String value, boolean valueExported) {
+        this.column = column;
+        this.value = value;
+        this.valueExported = valueExported;
+    }
+
+    /**
+     * Reads the saved state, or starts from initialValue (null exports everything) if
+     * there is none yet
+     */
+    static ExportWatermark load(Path file, String column, String initialValue) throws IOException {
+        if (!Files.exists(file)) {
+            return new ExportWatermark(column, initialValue, true);
+        }
+        Map<?, ?> saved;
+        try (InputStream in = Files.newInputStream(file)) {
+            saved = JsonCodec.read(in, Map.class);
+        }
+        if (!column.equals(saved.get("column"))) {
+            throw new IllegalStateException("Watermark file " + file + " follows column " + saved.get("column")
+                    + ", not " + column);
+        }
+        ExportWatermark watermark = new ExportWatermark(column, (String) saved.get("watermark"),
+                !Boolean.FALSE.equals(saved.get("watermarkExported")));
+        watermark.runs = ((Number) saved.get("runs")).longValue();
+        watermark.fileLength = ((Number) saved.get("fileLength")).longValue();
+        return watermark;
+    }
+
+    void save(Path file) throws IOException {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("column", column);
+        state.put("watermark", value);
+        state.put("watermarkExported", valueExported);
+        state.put("runs", runs);
+        state.put("fileLength", fileLength);
+        JsonCodec.writeFile(file, state);
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    boolean isValueExported() {
+        return valueExported;
+    }
+
+    long getRuns() {
+        return runs;
+    }
+
+    long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Records a finished run that exported everything below value
+     */
+    void advance(String value, long fileLength) {
+        this.value = value;
+        this.valueExported = false;
+        this.fileLength = fileLength;
+        runs++;
+    }
+}
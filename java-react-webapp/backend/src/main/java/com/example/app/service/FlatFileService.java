@@ -1,7 +1,12 @@
 package com.example.app.service;
 
+import com.example.app.logging.Logger;
+import com.example.app.metrics.BatchTrace;
+import com.example.app.metrics.OperationMetrics;
 import com.example.app.model.ColumnInfo;
 import com.example.app.model.TableInfo;
+import com.example.app.util.CompressedFiles;
+import com.example.app.util.CompressionType;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -10,20 +15,31 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class FlatFileService {
 
+    private static final Logger log = Logger.getLogger(FlatFileService.class);
+
     private static final int DEFAULT_BATCH_SIZE = 1000;
 
     /**
@@ -38,7 +54,7 @@ public class FlatFileService {
         
         List<ColumnInfo> columns = new ArrayList<>();
         
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+        try (BufferedReader reader = CompressedFiles.openReader(Paths.get(filePath))) {
             CSVFormat format = CSVFormat.DEFAULT.builder()
                 .setDelimiter(delimiter.charAt(0))
                 .setHeader()
@@ -91,7 +107,7 @@ public class FlatFileService {
             throws IOException {
         List<List<Object>> data = new ArrayList<>();
         
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+        try (BufferedReader reader = CompressedFiles.openReader(Paths.get(filePath))) {
             CSVFormat format = CSVFormat.DEFAULT.builder()
                 .setDelimiter(delimiter.charAt(0))
                 .setHeader()
@@ -137,29 +153,87 @@ public class FlatFileService {
      */
     public int writeToFile(String filePath, List<String> headers, List<List<Object>> data, String delimiter) 
             throws IOException {
-        File file = new File(filePath);
+        return writeToFile(filePath, headers, data, delimiter, ExportFormat.CSV, CompressionType.NONE);
+    }
+    
+    /**
+     * Writes data to a file in the given row format and compression
+     */
+    public int writeToFile(String filePath, List<String> headers, List<List<Object>> data, String delimiter,
+                           ExportFormat format, CompressionType compression) throws IOException {
+        try (RowWriter writer = openRowWriter(filePath, headers, delimiter, format, compression)) {
+            // Write records
+            for (List<Object> row : data) {
+                writer.writeRow(row);
+            }
+        }
         
-        // Create parent directory if it doesn't exist
-        File parentDir = file.getParentFile();
-        if (parentDir != null && !parentDir.exists()) {
-            parentDir.mkdirs();
+        return data.size();
+    }
+    
+    /**
+     * Opens a streaming writer for a row-based export file (CSV or TSV)
+     */
+    public RowWriter openRowWriter(String filePath, List<String> headers, String delimiter,
+                                   ExportFormat format, CompressionType compression) throws IOException {
+        if (format.isServerSide()) {
+            throw new IllegalArgumentException(format + " files are produced by ClickHouse, not by row writers");
         }
         
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
-            CSVFormat format = CSVFormat.DEFAULT.builder()
-                .setDelimiter(delimiter.charAt(0))
-                .setHeader(headers.toArray(new String[0]))
-                .build();
-            
-            try (CSVPrinter csvPrinter = new CSVPrinter(writer, format)) {
-                // Write records
-                for (List<Object> row : data) {
-                    csvPrinter.printRecord(row);
+        createParentDirectories(filePath);
+        return new CsvRowWriter(Paths.get(filePath), headers, delimiter, format, compression);
+    }
+    
+    /**
+     * Concatenates files in order into a target file, copying channel to channel
+     */
+    public long concatenateFiles(List<String> partPaths, String targetPath) throws IOException {
+        long position = 0;
+        try (FileChannel target = FileChannel.open(Paths.get(targetPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String partPath : partPaths) {
+                try (FileChannel part = FileChannel.open(Paths.get(partPath), StandardOpenOption.READ)) {
+                    long size = part.size();
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += part.transferTo(copied, size - copied, target);
+                    }
+                    position += size;
                 }
             }
         }
-        
-        return data.size();
+        return position;
+    }
+    
+    /**
+     * Appends a file to the target after cutting the target back to targetLength, which
+     * drops anything an earlier append that wasn't recorded as finished left behind
+     *
+     * @return the target's new length
+     */
+    public long appendFile(String partPath, String targetPath, long targetLength) throws IOException {
+        try (FileChannel target = FileChannel.open(Paths.get(targetPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileChannel part = FileChannel.open(Paths.get(partPath), StandardOpenOption.READ)) {
+            target.truncate(targetLength);
+            target.position(targetLength);
+            long size = part.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += part.transferTo(copied, size - copied, target);
+            }
+            return target.size();
+        }
+    }
+    
+    /**
+     * Creates the parent directory of an output file if it doesn't exist
+     */
+    public void createParentDirectories(String filePath) {
+        File parentDir = new File(filePath).getAbsoluteFile().getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
     }
     
     private boolean isInteger(String s) {
@@ -194,10 +268,27 @@ public class FlatFileService {
             List<String> columns, 
             int batchSize,
             Consumer<List<List<Object>>> batchProcessor) throws IOException {
+        return processFileDataInBatches(filePath, delimiter, columns, batchSize,
+                (batch, trace) -> batchProcessor.accept(batch), null);
+    }
+
+    /**
+     * Same as above, additionally recording per-batch parse and batch build time
+     * in the given metrics (may be null). Each batch is handed over with its trace,
+     * already holding the read span, for the processor to complete and record;
+     * the trace is null when metrics is.
+     */
+    public int processFileDataInBatches(
+            String filePath, 
+            String delimiter, 
+            List<String> columns, 
+            int batchSize,
+            BiConsumer<List<List<Object>>, BatchTrace> batchProcessor,
+            OperationMetrics metrics) throws IOException {
         
         int totalRecords = 0;
         
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+        try (CountingReader reader = new CountingReader(CompressedFiles.openReader(Paths.get(filePath)))) {
             CSVFormat format = CSVFormat.DEFAULT.builder()
                 .setDelimiter(delimiter.charAt(0))
                 .setHeader()
@@ -208,9 +299,8 @@ public class FlatFileService {
                 // Get header map
                 Map<String, Integer> headerMap = csvParser.getHeaderMap();
                 
-                // Debug headers if needed
-                System.out.println("Available columns in file: " + String.join(", ", headerMap.keySet()));
-                System.out.println("Requested columns: " + String.join(", ", columns));
+                log.debug("Reading file", "file", filePath, "available", String.join(",", headerMap.keySet()),
+                        "requested", String.join(",", columns));
                 
                 // Validate that all requested columns exist
                 List<String> missingColumns = new ArrayList<>();
@@ -221,13 +311,13 @@ public class FlatFileService {
                 }
                 
                 if (!missingColumns.isEmpty()) {
-                    System.out.println("Missing columns: " + String.join(", ", missingColumns));
+                    log.warn("Requested columns missing from file", "file", filePath,
+                            "missing", String.join(",", missingColumns));
                     throw new IOException("Column(s) not found in file: " + 
                             String.join(", ", missingColumns) + 
                             ". Available columns are: " + String.join(", ", headerMap.keySet()));
                 }
                 
-                System.out.println("All requested columns are present in the file.");
 
                 // Map column indices for more efficient lookup
                 int[] columnIndices = new int[columns.size()];
@@ -238,8 +328,44 @@ public class FlatFileService {
                 // Process records in batches
                 List<List<Object>> batch = new ArrayList<>(batchSize);
                 
-                System.out.println("Processing file in batches of " + batchSize + " records.");
-                for (CSVRecord record : csvParser) {
+                log.debug("Processing file in batches", "file", filePath, "batchSize", batchSize);
+                Iterator<CSVRecord> records = csvParser.iterator();
+                // Timestamps are only taken when metrics are wanted; hasNext() is where commons-csv parses
+                long parseNanos = 0;
+                long buildNanos = 0;
+                long mark = metrics != null ? System.nanoTime() : 0;
+                long readStart = mark;
+                // Where the current batch starts: the end of the header, which is where the first record starts
+                long boundary = -1;
+                while (records.hasNext()) {
+                    CSVRecord record = records.next();
+                    long parsed = metrics != null ? System.nanoTime() : 0;
+                    if (boundary < 0) {
+                        boundary = record.getCharacterPosition();
+                    }
+                    
+                    // A full batch goes out once the next record shows where its last one ends
+                    if (batch.size() >= batchSize) {
+                        BatchTrace trace = null;
+                        if (metrics != null) {
+                            recordBatchTimings(metrics, parseNanos, buildNanos);
+                            trace = readTrace(metrics, readStart, mark, parseNanos, buildNanos,
+                                    record.getCharacterPosition() - boundary);
+                        }
+                        boundary = record.getCharacterPosition();
+                        parseNanos = 0;
+                        buildNanos = 0;
+                        batchProcessor.accept(new ArrayList<>(batch), trace); // Pass a copy to be safe
+                        batch.clear();
+                        if (metrics != null) {
+                            // The next batch's read starts with parsing this record, not with the hand-off
+                            long resumed = System.nanoTime();
+                            readStart = resumed - (parsed - mark);
+                            mark = readStart;
+                            parsed = resumed;
+                        }
+                    }
+                    
                     List<Object> row = new ArrayList<>(columns.size());
                     
                     // Add each requested column in order
@@ -251,30 +377,74 @@ public class FlatFileService {
                     
                     batch.add(row);
                     totalRecords++;
-                    
-                    // Process batch when it reaches the batch size
-                    if (batch.size() >= batchSize) {
-                        batchProcessor.accept(new ArrayList<>(batch)); // Pass a copy to be safe
-                        batch.clear();
+                    if (metrics != null) {
+                        long built = System.nanoTime();
+                        parseNanos += parsed - mark;
+                        buildNanos += built - parsed;
+                        mark = built;
                     }
                 }
                 
                 // Process final batch if any
                 if (!batch.isEmpty()) {
-                    batchProcessor.accept(new ArrayList<>(batch));
+                    BatchTrace trace = null;
+                    if (metrics != null) {
+                        long end = System.nanoTime();
+                        parseNanos += end - mark;
+                        recordBatchTimings(metrics, parseNanos, buildNanos);
+                        // The parser has read the whole file, so the last record ends where the input does
+                        trace = readTrace(metrics, readStart, end, parseNanos, buildNanos,
+                                reader.getCharactersRead() - boundary);
+                    }
+                    batchProcessor.accept(new ArrayList<>(batch), trace);
                 }
             }
         }
         
-        System.out.println("Total records processed: " + totalRecords);
+        log.debug("Finished reading file", "file", filePath, "records", totalRecords);
         return totalRecords;
     }
 
+    private static void recordBatchTimings(OperationMetrics metrics, long parseNanos, long buildNanos) {
+        if (metrics != null) {
+            metrics.recordStageNanos(OperationMetrics.PARSE, parseNanos);
+            metrics.recordStageNanos(OperationMetrics.BATCH_BUILD, buildNanos);
+        }
+    }
+
+    /**
+     * Starts a batch trace with its read span. Bytes are characters of decoded input,
+     * from the start of the batch's first record to the end of its last.
+     */
+    private static BatchTrace readTrace(OperationMetrics metrics, long readStart, long ready,
+            long parseNanos, long buildNanos, long bytes) {
+        BatchTrace trace = metrics.startBatch()
+                .span(BatchTrace.READ, readStart, ready)
+                .arg("parseUs", parseNanos / 1000)
+                .arg("buildUs", buildNanos / 1000);
+        trace.setBytes(bytes);
+        trace.markReady(ready);
+        return trace;
+    }
+
     public List<List<Object>> previewFileData(String filePath, String delimiter, List<String> selectedColumns, int maxRows) 
         throws IOException {
         List<List<Object>> data = new ArrayList<>();
+        previewFileData(filePath, delimiter, selectedColumns, maxRows, data::add);
+        return data;
+    }
+
+    /**
+     * Reads up to maxRows rows of the selected columns and hands each to the sink as it
+     * is parsed. Columns missing from the file come back as null.
+     *
+     * @return the number of rows read
+     */
+    public int previewFileData(String filePath, String delimiter, List<String> selectedColumns, int maxRows,
+                               RowSink sink) throws IOException {
+        int rowCount = 0;
         
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+        try (BufferedReader reader = CompressedFiles.openReader(Paths.get(filePath))) {
             CSVFormat format = CSVFormat.DEFAULT.builder()
                 .setDelimiter(delimiter.charAt(0))
                 .setHeader()
@@ -295,7 +465,6 @@ public class FlatFileService {
                 }
                 
                 // Read limited data
-                int rowCount = 0;
                 for (CSVRecord record : csvParser) {
                     if (rowCount >= maxRows) {
                         break;
@@ -312,17 +481,82 @@ public class FlatFileService {
                         }
                     }
                     
-                    data.add(row);
+                    sink.accept(row);
                     rowCount++;
                 }
             }
         }
         
-        return data;
+        return rowCount;
+    }
+
+    /**
+     * Expands import sources into the files to load. A source may be a file, a directory
+     * (its regular, non-hidden files) or a glob such as {@code /data/2024-01-01/*.csv}, where
+     * {@code **} also matches across directories. Files are returned sorted and without
+     * duplicates; a source that matches nothing is an error.
+     */
+    public List<String> resolveSourceFiles(List<String> sources) throws IOException {
+        Set<String> files = new TreeSet<>();
+        for (String source : sources) {
+            List<String> matched = new ArrayList<>();
+            if (isGlob(source)) {
+                matched.addAll(expandGlob(source));
+            } else {
+                Path path = Paths.get(source);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> entries = Files.list(path)) {
+                        entries.filter(FlatFileService::isDataFile)
+                                .forEach(file -> matched.add(file.toString()));
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    matched.add(path.toString());
+                }
+            }
+            if (matched.isEmpty()) {
+                throw new FileNotFoundException("No files found for source: " + source);
+            }
+            files.addAll(matched);
+        }
+        return new ArrayList<>(files);
+    }
+
+    static boolean isGlob(String source) {
+        return source.indexOf('*') >= 0 || source.indexOf('?') >= 0
+                || source.indexOf('[') >= 0 || source.indexOf('{') >= 0;
+    }
+
+    private static List<String> expandGlob(String glob) throws IOException {
+        // Walk from the deepest directory that has no wildcards in it
+        Path pattern = Paths.get(glob).toAbsolutePath().normalize();
+        Path base = pattern.getRoot();
+        int depth = 0;
+        for (Path segment : pattern) {
+            if (depth == 0 && !isGlob(segment.toString())) {
+                base = base.resolve(segment);
+            } else {
+                depth++;
+            }
+        }
+        if (!Files.isDirectory(base)) {
+            return new ArrayList<>();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        int maxDepth = pattern.toString().contains("**") ? Integer.MAX_VALUE : depth;
+        List<String> matched = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(base, maxDepth)) {
+            paths.filter(path -> matcher.matches(path) && isDataFile(path))
+                    .forEach(path -> matched.add(path.toString()));
+        }
+        return matched;
+    }
+
+    private static boolean isDataFile(Path path) {
+        return Files.isRegularFile(path) && !path.getFileName().toString().startsWith(".");
     }
 
     public int countLines(String filePath) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+        try (BufferedReader reader = CompressedFiles.openReader(Paths.get(filePath))) {
             int count = 0;
             while (reader.readLine() != null) {
                 count++;
@@ -330,4 +564,53 @@ public class FlatFileService {
             return count;
         }
     }
+
+    /**
+     * Detects whether a file is gzip, zstd or lz4 compressed
+     */
+    public CompressionType detectCompression(String filePath) throws IOException {
+        return CompressedFiles.detect(Paths.get(filePath));
+    }
+
+    /**
+     * Counts the characters read through it. The parser reads ahead, so the count
+     * is only a record boundary once the parser has reached the end of the input.
+     */
+    private static final class CountingReader extends FilterReader {
+
+        private long charactersRead;
+
+        CountingReader(Reader in) {
+            super(in);
+        }
+
+        long getCharactersRead() {
+            return charactersRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                charactersRead++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                charactersRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            charactersRead += skipped;
+            return skipped;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,431 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.model.FileProgress;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the CSV files of one directory as they grow. Each file is read from its
+ * last committed byte offset, and only up to the end of its last complete record, so a
+ * record the producer is still writing is picked up on a later read. A record that
+ * can't be parsed is skipped with a warning. A quoted value that is still open after
+ * the file has grown past it, or that doesn't end within one chunk, fails the file,
+ * since everything after an unbalanced quote would be read as part of it; producers
+ * are expected to append whole records. Offsets read but not yet
+ * committed are pending until {@link #commit()} is called after the rows are stored;
+ * a failed insert therefore re-reads the same rows rather than losing them.
+ *
+ * Changes are detected with a {@link WatchService} where the file system supports
+ * it; otherwise, or with {@code -Dapp.watch.polling=true}, the directory is rescanned
+ * every poll interval. Each file's first line is its header, and columns are matched
+ * by name as in a regular import.
+ */
+class FolderTailer implements Closeable {
+
+    private static final Logger log = Logger.getLogger(FolderTailer.class);
+    private static final Logger parseLog = log.rateLimited(10000);
+
+    private static final boolean FORCE_POLLING = Boolean.getBoolean("app.watch.polling");
+    // Upper bound on one read, so a large backlog is loaded in several micro-batches
+    private static final int MAX_CHUNK_BYTES = 8 * 1024 * 1024;
+
+    private final Path directory;
+    private final PathMatcher fileMatcher;
+    private final CSVFormat format;
+    private final char delimiter;
+    private final List<String> columns;
+    private final Map<Path, TailState> files = new LinkedHashMap<>();
+    private final Set<Path> changed = new LinkedHashSet<>();
+    private final WatchService watchService;
+    private boolean rescan = true;
+
+    FolderTailer(Path directory, String filePattern, char delimiter, List<String> columns,
+                 Map<String, Long> committedOffsets) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.fileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + filePattern);
+        this.format = CSVFormat.DEFAULT.builder().setDelimiter(delimiter).build();
+        this.delimiter = delimiter;
+        this.columns = columns;
+        for (Map.Entry<String, Long> offset : committedOffsets.entrySet()) {
+            Path file = Path.of(offset.getKey()).toAbsolutePath().normalize();
+            TailState state = new TailState(file);
+            state.committed = offset.getValue();
+            state.pending = offset.getValue();
+            files.put(file, state);
+        }
+        this.watchService = FORCE_POLLING ? null : openWatchService(this.directory);
+    }
+
+    private static WatchService openWatchService(Path directory) {
+        WatchService service = null;
+        try {
+            service = directory.getFileSystem().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Directory can't be watched, polling it instead", "directory", directory,
+                    "error", String.valueOf(e));
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException ignored) {
+                    // Falling back to polling anyway
+                }
+            }
+            return null;
+        }
+    }
+
+    boolean isPolling() {
+        return watchService == null;
+    }
+
+    /**
+     * Returns the files that may have new data, waiting up to timeoutMs for changes
+     * when none are known yet. Every file is checked on the first call, after the watch
+     * service overflows, and on every call in polling mode.
+     */
+    List<Path> awaitChanges(long timeoutMs) throws IOException, InterruptedException {
+        if (changed.isEmpty() && !rescan) {
+            if (watchService == null) {
+                Thread.sleep(timeoutMs);
+                rescan = true;
+            } else {
+                collectEvents(timeoutMs);
+            }
+        }
+        if (rescan) {
+            rescan = watchService == null;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (isTailed(entry)) {
+                        changed.add(entry);
+                    }
+                }
+            }
+        }
+        List<Path> result = new ArrayList<>(changed);
+        changed.clear();
+        return result;
+    }
+
+    private void collectEvents(long timeoutMs) throws InterruptedException {
+        WatchKey key;
+        try {
+            key = watchService.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ClosedWatchServiceException e) {
+            return;
+        }
+        while (key != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan = true;
+                } else {
+                    Path entry = directory.resolve((Path) event.context());
+                    if (isTailed(entry)) {
+                        changed.add(entry);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                throw new IllegalStateException("Watched directory is no longer accessible: " + directory);
+            }
+            key = watchService.poll();
+        }
+    }
+
+    private boolean isTailed(Path entry) {
+        return fileMatcher.matches(entry.getFileName()) && !entry.getFileName().toString().startsWith(".")
+                && Files.isRegularFile(entry);
+    }
+
+    /**
+     * Appends the complete records added to the file since it was last read. Reads at
+     * most one chunk; returns true if more data is already waiting, in which case the
+     * file should be read again without waiting for a change event.
+     */
+    boolean readNewRows(Path file, List<List<Object>> rows) throws IOException {
+        TailState state = files.computeIfAbsent(file, TailState::new);
+        if (state.failed) {
+            return false;
+        }
+        long size = Files.size(file);
+        state.progress.setFileSize(size);
+        if (size < state.pending) {
+            log.warn("File shrank, reading it again from the start", "file", file, "offset", state.pending,
+                    "size", size);
+            state.reset();
+        }
+        if (size == state.pending) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (state.columnIndexes == null && !readHeader(state, channel)) {
+                return false;
+            }
+            int length = (int) Math.min(size - state.pending, MAX_CHUNK_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer, state.pending + buffer.position()) > 0) {
+                // Keep reading until the chunk is full or the file ends
+            }
+            int end = lastRecordEnd(buffer.array(), buffer.position());
+            if (end < 0) {
+                if (lastLineEnd(buffer.array(), buffer.position()) >= 0) {
+                    // A quoted value with a line break that isn't finished yet
+                    openQuotedValue(state, size, !buffer.hasRemaining() && length == MAX_CHUNK_BYTES);
+                }
+                // Otherwise only part of a line so far
+                return false;
+            }
+            List<List<Object>> parsed;
+            try {
+                parsed = parse(state, new String(buffer.array(), 0, end, StandardCharsets.UTF_8));
+            } catch (IOException | UncheckedIOException | IllegalStateException e) {
+                parsed = parseRecords(state, buffer.array(), end);
+            }
+            rows.addAll(parsed);
+            state.pending += end;
+            state.progress.setTotalRecords(state.progress.getTotalRecords() + parsed.size());
+            return state.pending < size;
+        }
+    }
+
+    /**
+     * Waits for the rest of a quoted value that spans lines, unless the chunk is full
+     * or the file has grown since the value was first found open; the file fails then
+     */
+    private void openQuotedValue(TailState state, long size, boolean chunkFull) {
+        if (!chunkFull && (state.openQuoteAt != state.pending || size <= state.openQuoteSize)) {
+            parseLog.debug("Quoted value not finished yet, waiting for more data",
+                    "file", state.progress.getFilePath(), "offset", state.pending);
+            state.openQuoteAt = state.pending;
+            state.openQuoteSize = size;
+            return;
+        }
+        state.failed = true;
+        state.progress.setStatus("error");
+        state.progress.setMessage("Quoted value starting in the record at byte " + state.pending
+                + (chunkFull ? " doesn't end within " + MAX_CHUNK_BYTES + " bytes" : " never ends")
+                + "; check for an unbalanced quote");
+        log.error("Stopped tailing file with an unbalanced quote", "file", state.progress.getFilePath(),
+                "offset", state.pending, "chunkFull", chunkFull);
+    }
+
+    private boolean readHeader(TailState state, FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 64 * 1024));
+        channel.read(buffer, 0);
+        int end = lastLineEnd(buffer.array(), buffer.position());
+        int firstEnd = end < 0 ? -1 : firstLineEnd(buffer.array(), end);
+        if (firstEnd < 0) {
+            return false;
+        }
+        String header = new String(buffer.array(), 0, firstEnd, StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        try (CSVParser parser = CSVParser.parse(header, format)) {
+            for (CSVRecord record : parser) {
+                record.forEach(name -> names.add(name.trim()));
+            }
+        }
+        int[] indexes = new int[columns.size()];
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            indexes[i] = names.indexOf(columns.get(i));
+            if (indexes[i] < 0) {
+                missing.add(columns.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            state.failed = true;
+            state.progress.setStatus("error");
+            state.progress.setMessage("Column(s) not found in file: " + String.join(", ", missing));
+            log.error("Skipping file with missing columns", "file", state.progress.getFilePath(),
+                    "missing", String.join(",", missing));
+            return false;
+        }
+        state.columnIndexes = indexes;
+        if (state.pending == 0) {
+            state.pending = firstEnd;
+        }
+        return true;
+    }
+
+    private List<List<Object>> parse(TailState state, String text) throws IOException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (CSVParser parser = new CSVParser(new StringReader(text), format)) {
+            for (CSVRecord record : parser) {
+                if (record.size() == 1 && record.get(0).isEmpty()) {
+                    continue;
+                }
+                List<Object> row = new ArrayList<>(state.columnIndexes.length);
+                for (int index : state.columnIndexes) {
+                    String value = index < record.size() ? record.get(index) : "";
+                    row.add(value.isEmpty() ? null : value);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Parses the records one at a time, skipping those that can't be parsed
+     */
+    private List<List<Object>> parseRecords(TailState state, byte[] bytes, int length) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (int start = 0; start < length; ) {
+            int end = recordEnd(bytes, start, length);
+            try {
+                rows.addAll(parse(state, new String(bytes, start, end - start, StandardCharsets.UTF_8)));
+            } catch (IOException | UncheckedIOException | IllegalStateException e) {
+                parseLog.warn("Skipping a record that can't be parsed", "file", state.progress.getFilePath(),
+                        "offset", state.pending + start, "error", e.getMessage());
+            }
+            start = end;
+        }
+        return rows;
+    }
+
+    private int lastRecordEnd(byte[] bytes, int length) {
+        int last = -1;
+        for (int end = recordEnd(bytes, 0, length); end > 0; end = recordEnd(bytes, end, length)) {
+            last = end;
+        }
+        return last;
+    }
+
+    /**
+     * Returns the end of the record starting at from: after the first line break that
+     * isn't inside a quoted value, or -1 if the record doesn't end before length.
+     * A quote only opens a value at the start of a field, as in the CSV parser.
+     */
+    private int recordEnd(byte[] bytes, int from, int length) {
+        boolean quoted = false;
+        boolean fieldStart = true;
+        for (int i = from; i < length; i++) {
+            byte b = bytes[i];
+            if (quoted) {
+                if (b == '"') {
+                    if (i + 1 < length && bytes[i + 1] == '"') {
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                }
+            } else if (b == '\n') {
+                return i + 1;
+            } else if (b == '"' && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else {
+                fieldStart = b == delimiter;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int firstLineEnd(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks everything read so far as stored; it won't be read again
+     */
+    void commit() {
+        for (TailState state : files.values()) {
+            long rows = state.progress.getTotalRecords();
+            state.committed = state.pending;
+            state.progress.setRecordsProcessed(rows);
+            state.progress.setBytesProcessed(state.committed);
+        }
+    }
+
+    Map<String, Long> getCommittedOffsets() {
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        for (TailState state : files.values()) {
+            offsets.put(state.progress.getFilePath(), state.committed);
+        }
+        return offsets;
+    }
+
+    List<FileProgress> getProgress() {
+        List<FileProgress> progress = new ArrayList<>(files.size());
+        for (TailState state : files.values()) {
+            progress.add(state.progress);
+        }
+        return progress;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private static final class TailState {
+        private final FileProgress progress = new FileProgress();
+        private int[] columnIndexes;
+        private long committed;
+        private long pending;
+        private boolean failed;
+        // Where a quoted value spanning lines was found open, and the file size then
+        private long openQuoteAt = -1;
+        private long openQuoteSize;
+
+        TailState(Path file) {
+            progress.setFilePath(file.toString());
+            progress.setStatus("tailing");
+        }
+
+        void reset() {
+            columnIndexes = null;
+            committed = 0;
+            pending = 0;
+        }
+    }
+}
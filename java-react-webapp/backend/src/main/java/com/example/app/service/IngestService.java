@@ -1,27 +1,99 @@
 package com.example.app.service;
 
+import com.example.app.logging.LogContext;
+import com.example.app.logging.Logger;
+import com.example.app.metrics.BatchTrace;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.metrics.OperationMetrics;
+import com.example.app.metrics.OperationTrace;
 import com.example.app.model.ConnectionConfig;
+import com.example.app.model.FileProgress;
+import com.example.app.model.IngestJob;
+import com.example.app.model.IngestRequest;
 import com.example.app.model.IngestResult;
+import com.example.app.model.JobTask;
+import com.example.app.model.ShardProgress;
+import com.example.app.util.CompressionType;
+import com.example.app.util.JsonCodec;
+import com.example.app.util.ThreadPools;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.concurrent.atomic.*;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.ArrayList;
 
 public class IngestService {
+    private static final Logger log = Logger.getLogger(IngestService.class);
+    // Per-batch events on the ingest threads are limited so they can't flood the console
+    private static final Logger progressLog = log.rateLimited(5000);
+    private static final Logger batchFailureLog = log.rateLimited(1000);
+    
     private final ClickHouseService clickHouseService;
     private final FlatFileService flatFileService;
     
     // Static map to store ongoing operations
     private static final Map<String, IngestResult> activeOperations = new ConcurrentHashMap<>();
-    private static final long OPERATION_TIMEOUT = 3600000; // 1 hour in milliseconds
+    // Per-batch timelines, dropped together with their operation
+    private static final Map<String, OperationTrace> operationTraces = new ConcurrentHashMap<>();
+    static final long OPERATION_TIMEOUT = 3600000; // 1 hour in milliseconds
+    private static final int MAX_EXPORT_PARALLELISM = 32;
+    private static final int MAX_INSERT_PARALLELISM = 32;
+    private static final int MAX_FILE_PARALLELISM = 32;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int MAX_WATCH_INSERT_ATTEMPTS = 5;
+    private static final long MAX_WATCH_RETRY_DELAY_MS = 30000;
+    // Stop requests for running watch operations
+    private static final Map<String, AtomicBoolean> watchStops = new ConcurrentHashMap<>();
+    private static final AtomicInteger activeExportShards = new AtomicInteger();
+    // Inserts in flight across all operations, however many threads they run on
+    private static final Semaphore insertSlots =
+            new Semaphore(Integer.getInteger("app.ingest.maxInserts", 16), true);
+    
+    static {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("ingest_operations_running", "Ingest operations currently running",
+                () -> activeOperations.values().stream().filter(r -> "running".equals(r.getStatus())).count());
+        registry.gauge("ingest_export_shards_active", "Parallel export streams currently running",
+                activeExportShards::get);
+        registry.gauge("ingest_inserts_waiting", "Insert blocks waiting for one of the app.ingest.maxInserts slots",
+                insertSlots::getQueueLength);
+    }
+    
+    private final ExportPartitioner exportPartitioner;
+    // Where submitted jobs are queued for the workers; null runs operations in-process
+    private final JobStore jobStore;
     
     public IngestService(ClickHouseService clickHouseService, FlatFileService flatFileService) {
+        this(clickHouseService, flatFileService, null);
+    }
+    
+    public IngestService(ClickHouseService clickHouseService, FlatFileService flatFileService, JobStore jobStore) {
         this.clickHouseService = clickHouseService;
         this.flatFileService = flatFileService;
+        this.exportPartitioner = new ExportPartitioner(clickHouseService);
+        this.jobStore = jobStore;
     }
     
     /**
@@ -34,6 +106,7 @@ public class IngestService {
             return ("completed".equals(result.getStatus()) || "error".equals(result.getStatus()))
                 && (result.getStartTime() + result.getExecutionTimeMs() < cutoffTime);
         });
+        operationTraces.keySet().retainAll(activeOperations.keySet());
     }
     
     /**
@@ -41,7 +114,54 @@ public class IngestService {
      */
     public IngestResult getOperationStatus(String operationId) {
         cleanupOldOperations();
-        return activeOperations.get(operationId);
+        IngestResult result = activeOperations.get(operationId);
+        if (result != null || jobStore == null) {
+            return result;
+        }
+        try {
+            IngestJob job = jobStore.get(operationId);
+            return job != null ? jobStatus(job) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read job " + operationId, e);
+        }
+    }
+
+    /**
+     * Get the per-batch trace of an operation, or null if it has none (yet). A queued
+     * job's id gives the trace of its task when it has one and this instance ran it;
+     * the tasks of a job with several are traced as {@code <jobId>-<index>}.
+     */
+    public OperationTrace getOperationTrace(String operationId) {
+        cleanupOldOperations();
+        OperationTrace trace = operationTraces.get(operationId);
+        if (trace != null || jobStore == null) {
+            return trace;
+        }
+        try {
+            IngestJob job = jobStore.get(operationId);
+            return job != null && job.getTasks().size() == 1
+                    ? operationTraces.get(taskOperationId(job.getTasks().get(0))) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read job " + operationId, e);
+        }
+    }
+    
+    /**
+     * The operation id a worker runs a job's task under
+     */
+    static String taskOperationId(JobTask task) {
+        return task.getJobId() + "-" + task.getIndex();
+    }
+
+    /**
+     * Creates the metrics for an operation and publishes its trace
+     */
+    private OperationMetrics startMetrics(IngestResult result, String direction) {
+        OperationMetrics metrics = new OperationMetrics(direction);
+        if (result.getOperationId() != null) {
+            operationTraces.put(result.getOperationId(), metrics.getTrace());
+        }
+        return metrics;
     }
 
     // Update an operation with new data
@@ -63,6 +183,191 @@ public class IngestService {
         activeOperations.put(result.getOperationId(), result);
     }
     
+    /**
+     * Runs a tracked operation to the end: a table copy, an export or an import,
+     * depending on the request. Failures are recorded in the returned result.
+     */
+    public IngestResult runOperation(IngestRequest request, String operationId) {
+        IngestResult result = activeOperations.get(operationId);
+        try {
+            IngestResult finalResult;
+            if ("ClickHouse".equals(request.getSourceType()) && request.isTableCopy()) {
+                // ClickHouse to ClickHouse
+                finalResult = copyTable(request, operationId);
+            } else if ("ClickHouse".equals(request.getSourceType())) {
+                // ClickHouse to Flat File
+                finalResult = streamFromClickHouseToFile(request, operationId);
+            } else if ("FlatFile".equals(request.getSourceType())) {
+                // Flat File to ClickHouse
+                finalResult = streamFromFileToClickHouse(request, operationId);
+            } else {
+                log.warn("Invalid source type", "source", request.getSourceType());
+                result.setSuccess(false);
+                result.setStatus("error");
+                result.setMessage("Invalid source type");
+                return result;
+            }
+            
+            // Update tracked operation with final results
+            updateOperation(finalResult);
+            return finalResult;
+        } catch (Exception e) {
+            log.error("Error processing request", e, "operationId", operationId);
+            result.setSuccess(false);
+            result.setStatus("error");
+            result.setMessage("Error: " + e.getMessage());
+            updateOperation(result);
+            return result;
+        }
+    }
+    
+    public boolean isQueueingJobs() {
+        return jobStore != null;
+    }
+    
+    /**
+     * Queues the request in the job store for the workers, split into tasks: one per
+     * file of a multi-file import, one per partition of a parallel export written as
+     * separate files, otherwise a single task
+     *
+     * @return the job's status; its operationId is the job id
+     */
+    public IngestResult submitJob(IngestRequest request) throws Exception {
+        IngestJob job = new IngestJob();
+        job.setJobId(new IngestResult().getOperationId());
+        job.setRequest(request);
+        job.setCreatedAt(System.currentTimeMillis());
+        List<JobTask> tasks = new ArrayList<>();
+        for (Map.Entry<String, IngestRequest> part : planTasks(request).entrySet()) {
+            JobTask task = new JobTask();
+            task.setJobId(job.getJobId());
+            task.setIndex(tasks.size());
+            task.setLabel(part.getKey());
+            task.setRequest(part.getValue());
+            tasks.add(task);
+        }
+        job.setTasks(tasks);
+        jobStore.create(job);
+        log.info("Job queued", "job", job.getJobId(), "tasks", tasks.size());
+        return jobStatus(job);
+    }
+    
+    /**
+     * Splits a request into the requests of its tasks, keyed by what each one covers
+     */
+    private Map<String, IngestRequest> planTasks(IngestRequest request) throws Exception {
+        Map<String, IngestRequest> parts = new LinkedHashMap<>();
+        if ("FlatFile".equals(request.getSourceType()) && !request.isWatch() && isMultiFileImport(request)) {
+            for (String file : flatFileService.resolveSourceFiles(request.getSources())) {
+                IngestRequest part = copyOf(request);
+                part.setSourceFilePath(file);
+                part.setSourceFilePaths(null);
+                parts.put(file, part);
+            }
+        } else if ("ClickHouse".equals(request.getSourceType()) && !request.isTableCopy()
+                && !request.isIncrementalExport() && request.getExportParallelism() > 1
+                && !"concat".equalsIgnoreCase(request.getShardOutput())
+                && SelectQuery.forRequest(request).canSplitIntoShards()) {
+            List<String> filters = exportPartitioner.plan(request.getConnectionConfig(), request.getTableName(),
+                    request.getSelectedColumns(), request.getPartitionStrategy(),
+                    Math.min(request.getExportParallelism(), MAX_EXPORT_PARALLELISM));
+            String filter = request.getFilter();
+            for (int i = 0; i < filters.size(); i++) {
+                IngestRequest part = copyOf(request);
+                part.setFilter(filter != null && !filter.trim().isEmpty()
+                        ? "(" + filter.trim() + ") AND (" + filters.get(i) + ")" : filters.get(i));
+                part.setExportParallelism(1);
+                part.setTargetFilePath(numberedFilePath(request.getTargetFilePath(), "part", i + 1));
+                parts.put(filters.get(i), part);
+            }
+        }
+        if (parts.isEmpty()) {
+            parts.put(request.getTableName() != null ? request.getTableName() : request.getSourceFilePath(), request);
+        }
+        return parts;
+    }
+    
+    private static IngestRequest copyOf(IngestRequest request) {
+        return JsonCodec.mapper().convertValue(request, IngestRequest.class);
+    }
+    
+    /**
+     * Combines a job's tasks into one status: queued until a task starts, running
+     * until all have finished, then completed or, if any failed, error. Tasks of a
+     * split import are reported as files, those of a split export as shards.
+     */
+    private static IngestResult jobStatus(IngestJob job) {
+        IngestResult status = new IngestResult();
+        status.setOperationId(job.getJobId());
+        status.setStartTime(job.getCreatedAt());
+        boolean started = false;
+        boolean finished = true;
+        List<String> failures = new ArrayList<>();
+        List<FileProgress> files = new ArrayList<>();
+        List<ShardProgress> shards = new ArrayList<>();
+        for (JobTask task : job.getTasks()) {
+            started |= !"queued".equals(task.getStatus());
+            finished &= task.isFinished();
+            IngestResult result = task.getResult() != null ? task.getResult() : new IngestResult();
+            if ("error".equals(task.getStatus())) {
+                failures.add(task.getLabel() + ": " + result.getMessage());
+            }
+            status.setRecordsProcessed(status.getRecordsProcessed() + result.getRecordsProcessed());
+            status.setTotalRecords(status.getTotalRecords() + result.getTotalRecords());
+            status.setBytesProcessed(status.getBytesProcessed() + result.getBytesProcessed());
+            status.setTotalBytes(status.getTotalBytes() + result.getTotalBytes());
+            if ("FlatFile".equals(job.getRequest().getSourceType())) {
+                FileProgress file = new FileProgress();
+                file.setFilePath(task.getLabel());
+                file.setStatus(task.getStatus());
+                file.setRecordsProcessed(result.getRecordsProcessed());
+                file.setTotalRecords(result.getTotalRecords());
+                file.setBytesProcessed(result.getBytesProcessed());
+                file.setFileSize(result.getTotalBytes());
+                file.setMessage(result.getMessage());
+                files.add(file);
+            } else {
+                ShardProgress shard = new ShardProgress();
+                shard.setShardIndex(task.getIndex());
+                shard.setFilter(task.getLabel());
+                shard.setFilePath(task.getRequest().getTargetFilePath());
+                shard.setStatus(task.getStatus());
+                shard.setRecordsProcessed(result.getRecordsProcessed());
+                shard.setTotalRecords(result.getTotalRecords());
+                shard.setBytesProcessed(result.getBytesProcessed());
+                shard.setMessage(result.getMessage());
+                shards.add(shard);
+            }
+        }
+        if (job.getTasks().size() > 1) {
+            status.setFiles(files.isEmpty() ? null : files);
+            status.setShards(shards.isEmpty() ? null : shards);
+        }
+        
+        long elapsedMs = System.currentTimeMillis() - job.getCreatedAt();
+        status.setRecordsPerSecond((double) status.getRecordsProcessed() / Math.max(1, elapsedMs / 1000));
+        if (!finished) {
+            status.setStatus(started ? "running" : "queued");
+            status.setMessage(started ? "Operation running" : "Waiting for a worker");
+        } else {
+            long endTime = job.getCreatedAt();
+            for (JobTask task : job.getTasks()) {
+                IngestResult result = task.getResult();
+                if (result != null) {
+                    endTime = Math.max(endTime, result.getStartTime() + result.getExecutionTimeMs());
+                }
+            }
+            status.setExecutionTimeMs(endTime - job.getCreatedAt());
+            status.setSuccess(failures.isEmpty());
+            status.setStatus(failures.isEmpty() ? "completed" : "error");
+            status.setMessage(failures.isEmpty()
+                    ? "Processed " + status.getRecordsProcessed() + " records in " + job.getTasks().size() + " task(s)"
+                    : failures.size() + " of " + job.getTasks().size() + " task(s) failed: "
+                            + String.join("; ", failures));
+        }
+        return status;
+    }
+    
     /**
      * Ingests data from ClickHouse to a Flat File
      */
@@ -80,11 +385,11 @@ public class IngestService {
         try {
             // Try to get total row count for progress tracking
             try {
-                int totalCount = clickHouseService.getTableRowCount(config, tableName);
+                long totalCount = clickHouseService.getTableRowCount(config, tableName);
                 result.setTotalRecords(totalCount);
             } catch (Exception e) {
                 // If count fails, we'll just proceed without total count
-                System.out.println("Could not get row count: " + e.getMessage());
+                log.warn("Could not get row count", "table", tableName, "error", e.getMessage());
             }
             
             // Query data from ClickHouse
@@ -162,6 +467,36 @@ public class IngestService {
             String tableName,
             List<String> selectedColumns,
             String operationId) {
+        return streamFromFileToClickHouse(sourceFilePath, config, tableName, selectedColumns, operationId, false);
+    }
+    
+    /**
+     * Ingests data from a Flat File to ClickHouse. Compressed files are decompressed
+     * on the fly, or sent to ClickHouse still compressed when compressedPassthrough is set.
+     */
+    public IngestResult streamFromFileToClickHouse(
+            String sourceFilePath,
+            ConnectionConfig config,
+            String tableName,
+            List<String> selectedColumns,
+            String operationId,
+            boolean compressedPassthrough) {
+        IngestRequest request = new IngestRequest();
+        request.setSourceType("FlatFile");
+        request.setSourceFilePath(sourceFilePath);
+        request.setConnectionConfig(config);
+        request.setTableName(tableName);
+        request.setSelectedColumns(selectedColumns);
+        request.setCompressedPassthrough(compressedPassthrough);
+        return streamFromFileToClickHouse(request, operationId);
+    }
+    
+    /**
+     * Ingests data from a Flat File to ClickHouse as described by the request. The file
+     * is parsed on the calling thread; with insertParallelism > 1 up to that many batches
+     * are inserted concurrently, each on its own task thread, while parsing continues.
+     */
+    public IngestResult streamFromFileToClickHouse(IngestRequest request, String operationId) {
         
         // Get the existing operation to update
         final IngestResult result = activeOperations.get(operationId);
@@ -169,10 +504,39 @@ public class IngestService {
             // If not found, create a new one (shouldn't happen)
             throw new IllegalStateException("Operation ID not found: " + operationId);
         }
+        if (request.isWatch()) {
+            return watchFolder(request, operationId);
+        }
         
         final long startTime = System.currentTimeMillis();
+        final OperationMetrics metrics = startMetrics(result, "import");
+        final String sourceFilePath = request.getSourceFilePath();
+        final ConnectionConfig config = request.getConnectionConfig();
+        final String tableName = request.getTableName();
         
         try {
+            if (isMultiFileImport(request)) {
+                importFiles(request, flatFileService.resolveSourceFiles(request.getSources()), result, metrics);
+                finishMetrics(result, metrics);
+                result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return result;
+            }
+            
+            if (request.isCompressedPassthrough() && config.isSharded()) {
+                log.info("Compressed passthrough can't split rows by shard, decoding the file instead",
+                        "file", sourceFilePath);
+            } else if (request.isCompressedPassthrough()) {
+                CompressionType compression = flatFileService.detectCompression(sourceFilePath);
+                if (compression.isCompressed()) {
+                    streamCompressedFileToClickHouse(
+                            sourceFilePath, config, tableName, request.getSelectedColumns(), compression,
+                            result, metrics);
+                    finishMetrics(result, metrics);
+                    result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                    return result;
+                }
+            }
+            
             // For better progress tracking, first count total lines
             try {
                 int totalLines = flatFileService.countLines(sourceFilePath);
@@ -182,51 +546,47 @@ public class IngestService {
                 updateOperation(result);
             } catch (Exception e) {
                 // If we can't count, just continue
-                System.err.println("Could not count lines in file: " + e.getMessage());
+                log.warn("Could not count lines in file", "file", sourceFilePath, "error", e.getMessage());
             }
             
             // Process data in batches for more frequent updates
-            final int batchSize = 1000;
-            final AtomicInteger recordsProcessed = new AtomicInteger(0);
-            final long startTimeMs = System.currentTimeMillis();
-            final ConnectionConfig configFinal = config;
-            final String tableNameFinal = tableName;
-            final List<String> selectedColumnsFinal = new ArrayList<>(selectedColumns);
-            // This method should process file data in batches and call the consumer for each batch
-            flatFileService.processFileDataInBatches(
-                    sourceFilePath, ",", selectedColumnsFinal, batchSize, 
-                    batch -> {
-                        try {
-                            // Insert batch into ClickHouse
-                            int inserted = clickHouseService.insertData(
-                                configFinal, tableNameFinal, selectedColumnsFinal, batch);
-                            recordsProcessed.addAndGet(inserted);
-                            
-                            // Update progress
-                            result.setRecordsProcessed(recordsProcessed.get());
-                            result.setRecordsPerSecond(
-                                    (double) recordsProcessed.get() / 
-                                    Math.max(1, (System.currentTimeMillis() - startTimeMs) / 1000)
-                            );
-                            
-                            // Update the operation
-                            updateOperation(result);
-                        } catch (Exception e) {
-                            System.err.println("Failed to insert batch: " + e.getMessage());
-                            throw new RuntimeException("Failed to insert batch: " + e.getMessage(), e);
-                        }
-                    });
+            final int batchSize = IMPORT_BATCH_SIZE;
+            final List<String> selectedColumns = new ArrayList<>(request.getSelectedColumns());
+            final BatchInserter inserter = new BatchInserter(config, tableName, selectedColumns,
+                    Math.min(Math.max(request.getInsertParallelism(), 1), MAX_INSERT_PARALLELISM), result, metrics);
+            BiConsumer<List<List<Object>>, BatchTrace> batchProcessor = inserter::submit;
+            if (request.getSkipRecords() > 0 && canResume(request)) {
+                log.info("Resuming import after the records already inserted", "file", sourceFilePath,
+                        "records", request.getSkipRecords());
+                inserter.resumeAfter(request.getSkipRecords());
+                batchProcessor = skipping(request.getSkipRecords(), batchProcessor);
+            }
+            if (canResume(request)) {
+                // A rerun sends the blocks after its last checkpoint again, with the same tokens
+                inserter.deduplicateBlocks(result.getOperationId());
+            }
+            try {
+                // This method should process file data in batches and call the consumer for each batch
+                flatFileService.processFileDataInBatches(
+                        sourceFilePath, ",", selectedColumns, batchSize, batchProcessor, metrics);
+                inserter.awaitAll();
+            } finally {
+                inserter.close();
+            }
+            metrics.addBytesRead(new File(sourceFilePath).length());
+            long recordsProcessed = inserter.getRecordsInserted();
+            result.setRecordsProcessed(recordsProcessed);
             
-            System.out.println("Processed " + recordsProcessed.get() + 
-                    " records from " + sourceFilePath + " to ClickHouse");
+            log.info("Import finished", "file", sourceFilePath, "table", tableName,
+                    "records", recordsProcessed);
 
             // Finalize the result
             result.setSuccess(true);
-            result.setMessage("Successfully imported " + recordsProcessed.get() + 
+            result.setMessage("Successfully imported " + recordsProcessed + 
                     " records from " + sourceFilePath + " to ClickHouse");
             result.setStatus("completed");
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Import failed", e, "file", sourceFilePath, "table", tableName);
                 
             // Create a detailed error message
             String errorMessage = e.getMessage();
@@ -246,10 +606,655 @@ public class IngestService {
             updateOperation(result);
         }
         
+        finishMetrics(result, metrics);
         result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
         return result;
     }
     
+    /**
+     * Inserts parsed batches into ClickHouse. With a parallelism of 1 each batch is
+     * inserted on the submitting thread as before; otherwise batches are handed to task
+     * threads. Either way a semaphore caps how many inserts are in flight, so parsers
+     * block (and the batch trace shows queue wait) once ClickHouse falls behind, also
+     * when several file workers submit at once. Inserts also take one of the process-wide
+     * insert slots, so concurrent operations can't add up to more than it allows.
+     *
+     * With {@link #deduplicateBlocks} each block is sent with an insert_deduplication_token
+     * naming the operation and the block's rows in the file, so a table with insert
+     * deduplication stores a block a resumed run inserts again only once.
+     */
+    private class BatchInserter implements AutoCloseable {
+        private final ConnectionConfig config;
+        private final String tableName;
+        private final List<String> columns;
+        private final int parallelism;
+        private final IngestResult result;
+        private final OperationMetrics metrics;
+        private final Semaphore inFlight;
+        private final ExecutorService executor;
+        private final AtomicLong recordsInserted = new AtomicLong();
+        private final AtomicLong recordsSubmitted = new AtomicLong();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private volatile String deduplicationPrefix;
+        private final long startTimeMs = System.currentTimeMillis();
+        
+        BatchInserter(ConnectionConfig config, String tableName, List<String> columns, int parallelism,
+                IngestResult result, OperationMetrics metrics) {
+            this.config = config;
+            this.tableName = tableName;
+            this.columns = columns;
+            this.parallelism = parallelism;
+            this.result = result;
+            this.metrics = metrics;
+            this.inFlight = new Semaphore(parallelism);
+            this.executor = parallelism > 1 ? ThreadPools.newTaskExecutor("ingest-insert", parallelism) : null;
+        }
+        
+        void submit(List<List<Object>> batch, BatchTrace trace) {
+            submit(batch, trace, null);
+        }
+        
+        /**
+         * Inserts the batch, then runs onInserted (may be null) if the insert succeeded
+         */
+        void submit(List<List<Object>> batch, BatchTrace trace, Runnable onInserted) {
+            throwIfFailed();
+            long firstRecord = recordsSubmitted.getAndAdd(batch.size());
+            String prefix = deduplicationPrefix;
+            String token = prefix != null ? prefix + ":" + firstRecord + ":" + batch.size() : null;
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to insert a batch", e);
+            }
+            if (executor == null) {
+                try {
+                    insert(batch, trace, token, onInserted);
+                } finally {
+                    inFlight.release();
+                }
+                return;
+            }
+            String operationId = result.getOperationId();
+            try {
+                executor.execute(() -> {
+                    try (LogContext.Scope scope = LogContext.withOperation(operationId)) {
+                        insert(batch, trace, token, onInserted);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+        
+        private void insert(List<List<Object>> batch, BatchTrace trace, String token, Runnable onInserted) {
+            try {
+                // Insert batch into ClickHouse
+                insertSlots.acquire();
+                long insertStart = System.nanoTime();
+                int inserted;
+                try {
+                    inserted = clickHouseService.insertData(config, tableName, columns, batch, token);
+                } finally {
+                    insertSlots.release();
+                }
+                metrics.recordStage(OperationMetrics.INSERT, insertStart);
+                trace.span(BatchTrace.QUEUE_WAIT, trace.getReadyNanos(), insertStart)
+                        .span(BatchTrace.INSERT, insertStart, System.nanoTime())
+                        .setRows(inserted);
+                metrics.recordBatch(trace);
+                long total = recordsInserted.addAndGet(inserted);
+                if (onInserted != null) {
+                    onInserted.run();
+                }
+                
+                // Update progress
+                result.setRecordsProcessed(total);
+                result.setRecordsPerSecond(
+                        (double) total / 
+                        Math.max(1, (System.currentTimeMillis() - startTimeMs) / 1000)
+                );
+                
+                // Update the operation
+                updateOperation(result);
+                progressLog.debug("Batch inserted", "rows", inserted, "total", total);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to insert a batch", e);
+            } catch (Exception e) {
+                batchFailureLog.error("Failed to insert batch", e, "table", tableName);
+                throw new RuntimeException("Failed to insert batch: " + e.getMessage(), e);
+            }
+        }
+        
+        /**
+         * Waits for the inserts still in flight and rethrows the first failure
+         */
+        void awaitAll() throws InterruptedException {
+            inFlight.acquire(parallelism);
+            inFlight.release(parallelism);
+            throwIfFailed();
+        }
+        
+        long getRecordsInserted() {
+            return recordsInserted.get();
+        }
+        
+        /**
+         * Counts records an earlier run inserted as if this one had
+         */
+        void resumeAfter(long records) {
+            recordsInserted.set(records);
+            recordsSubmitted.set(records);
+            result.setRecordsProcessed(records);
+        }
+        
+        /**
+         * Sends each block with a deduplication token made of prefix and the block's
+         * position in the input; only for inputs that are batched the same way every run
+         */
+        void deduplicateBlocks(String prefix) {
+            deduplicationPrefix = prefix;
+        }
+        
+        private void throwIfFailed() {
+            Exception e = failure.get();
+            if (e != null) {
+                throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            }
+        }
+        
+        @Override
+        public void close() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+    
+    /**
+     * True if an interrupted run of the import can continue after the records it reported
+     * as inserted: a single file inserted one block at a time, in file order, through one
+     * connection
+     */
+    static boolean canResume(IngestRequest request) {
+        return "FlatFile".equals(request.getSourceType()) && !request.isWatch() && !isMultiFileImport(request)
+                && !request.isCompressedPassthrough() && request.getInsertParallelism() <= 1
+                && request.getConnectionConfig() != null && !request.getConnectionConfig().isSharded();
+    }
+    
+    /**
+     * Drops the first records rows before handing batches on
+     */
+    private static BiConsumer<List<List<Object>>, BatchTrace> skipping(
+            long records, BiConsumer<List<List<Object>>, BatchTrace> next) {
+        AtomicLong remaining = new AtomicLong(records);
+        return (batch, trace) -> {
+            long skip = Math.min(remaining.get(), batch.size());
+            if (skip > 0) {
+                remaining.addAndGet(-skip);
+                batch = batch.subList((int) skip, batch.size());
+            }
+            if (!batch.isEmpty()) {
+                next.accept(batch, trace);
+            }
+        };
+    }
+    
+    /**
+     * A request loads several files when it lists sourceFilePaths or its sourceFilePath
+     * is a directory or a glob
+     */
+    private static boolean isMultiFileImport(IngestRequest request) {
+        if (request.getSourceFilePaths() != null && !request.getSourceFilePaths().isEmpty()) {
+            return true;
+        }
+        String path = request.getSourceFilePath();
+        return path != null && (FlatFileService.isGlob(path) || new File(path).isDirectory());
+    }
+    
+    /**
+     * Loads several files into one table as a single operation. Up to fileParallelism
+     * workers each take the next file from a shared queue and parse it; full batches go
+     * straight to the inserter, while the short last batch of each file is pooled with
+     * other files' rows, so a directory of small files becomes a few full insert blocks
+     * rather than one tiny insert per file. Progress is kept per file and in total; after
+     * the first failure no further files are started.
+     */
+    private void importFiles(IngestRequest request, List<String> files, IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        final ConnectionConfig config = request.getConnectionConfig();
+        final String tableName = request.getTableName();
+        final List<String> selectedColumns = new ArrayList<>(request.getSelectedColumns());
+        
+        final List<FileProgress> progress = new ArrayList<>(files.size());
+        long totalBytes = 0;
+        for (String file : files) {
+            FileProgress fileProgress = new FileProgress();
+            fileProgress.setFilePath(file);
+            fileProgress.setFileSize(new File(file).length());
+            totalBytes += fileProgress.getFileSize();
+            progress.add(fileProgress);
+        }
+        result.setFiles(progress);
+        result.setTotalBytes(totalBytes);
+        updateOperation(result);
+        
+        int workers = Math.min(Math.min(Math.max(request.getFileParallelism(), 1), MAX_FILE_PARALLELISM),
+                files.size());
+        log.info("Importing files", "files", files.size(), "bytes", totalBytes, "workers", workers,
+                "table", tableName);
+        
+        final Queue<FileProgress> pending = new ConcurrentLinkedQueue<>(progress);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final AtomicLong bytesRead = new AtomicLong();
+        final String operationId = result.getOperationId();
+        long recordsProcessed;
+        ExecutorService filePool = ThreadPools.newTaskExecutor("ingest-file", workers);
+        try (BatchInserter inserter = new BatchInserter(config, tableName, selectedColumns,
+                Math.min(Math.max(request.getInsertParallelism(), 1), MAX_INSERT_PARALLELISM), result, metrics)) {
+            final BlockCombiner combiner = new BlockCombiner(inserter, IMPORT_BATCH_SIZE);
+            List<Future<?>> tasks = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                tasks.add(filePool.submit(() -> {
+                    try (LogContext.Scope scope = LogContext.withOperation(operationId)) {
+                        FileProgress file;
+                        while (failure.get() == null && (file = pending.poll()) != null) {
+                            try {
+                                importFile(file, selectedColumns, combiner, metrics);
+                                metrics.addBytesRead(file.getFileSize());
+                                result.setBytesProcessed(bytesRead.addAndGet(file.getFileSize()));
+                            } catch (Exception e) {
+                                log.error("File import failed", e, "file", file.getFilePath());
+                                file.setStatus("error");
+                                file.setMessage(e.getMessage());
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            if (failure.get() == null) {
+                combiner.flush();
+                inserter.awaitAll();
+            }
+            recordsProcessed = inserter.getRecordsInserted();
+        } finally {
+            filePool.shutdownNow();
+            for (FileProgress file : pending) {
+                file.setStatus("skipped");
+            }
+        }
+        if (failure.get() != null) {
+            Exception e = failure.get();
+            throw new Exception(e.getMessage() + " (file " + failedFile(progress) + ")", e);
+        }
+        
+        result.setRecordsProcessed(recordsProcessed);
+        result.setTotalRecords(recordsProcessed);
+        log.info("Import finished", "files", files.size(), "table", tableName, "records", recordsProcessed);
+        result.setSuccess(true);
+        result.setMessage("Successfully imported " + recordsProcessed + " records from " + files.size()
+                + " files to ClickHouse");
+        result.setStatus("completed");
+        updateOperation(result);
+    }
+    
+    private void importFile(FileProgress file, List<String> selectedColumns, BlockCombiner combiner,
+            OperationMetrics metrics) throws IOException {
+        file.setStatus("running");
+        int rows = flatFileService.processFileDataInBatches(file.getFilePath(), ",", selectedColumns,
+                IMPORT_BATCH_SIZE, (batch, trace) -> combiner.add(batch, trace, file), metrics);
+        synchronized (file) {
+            file.setTotalRecords(rows);
+            file.setStatus(file.getRecordsProcessed() >= rows ? "completed" : "inserting");
+        }
+    }
+    
+    private static void fileRowsInserted(FileProgress file, long rows) {
+        synchronized (file) {
+            file.setRecordsProcessed(file.getRecordsProcessed() + rows);
+            if ("inserting".equals(file.getStatus()) && file.getRecordsProcessed() >= file.getTotalRecords()) {
+                file.setStatus("completed");
+            }
+        }
+    }
+    
+    private static String failedFile(List<FileProgress> files) {
+        for (FileProgress file : files) {
+            if ("error".equals(file.getStatus())) {
+                return file.getFilePath();
+            }
+        }
+        return "unknown";
+    }
+    
+    /**
+     * Collects the short last batch of each file until a full block is reached.
+     * Full batches pass straight through. Each block remembers how many of its rows
+     * came from which file, to credit them once the block is inserted.
+     */
+    private static class BlockCombiner {
+        private final BatchInserter inserter;
+        private final int blockSize;
+        private List<List<Object>> rows = new ArrayList<>();
+        private Map<FileProgress, Integer> sources = new LinkedHashMap<>();
+        private BatchTrace trace;
+        
+        BlockCombiner(BatchInserter inserter, int blockSize) {
+            this.inserter = inserter;
+            this.blockSize = blockSize;
+        }
+        
+        void add(List<List<Object>> batch, BatchTrace batchTrace, FileProgress file) {
+            if (batch.size() >= blockSize) {
+                inserter.submit(batch, batchTrace, () -> fileRowsInserted(file, batch.size()));
+                return;
+            }
+            List<List<Object>> block;
+            Map<FileProgress, Integer> blockSources;
+            BatchTrace blockTrace;
+            synchronized (this) {
+                rows.addAll(batch);
+                sources.merge(file, batch.size(), Integer::sum);
+                if (trace == null) {
+                    // The block's trace starts with the read span of its first batch
+                    trace = batchTrace;
+                }
+                if (rows.size() < blockSize) {
+                    return;
+                }
+                block = rows;
+                blockSources = sources;
+                blockTrace = trace;
+                reset();
+            }
+            submit(block, blockSources, blockTrace);
+        }
+        
+        void flush() {
+            List<List<Object>> block;
+            Map<FileProgress, Integer> blockSources;
+            BatchTrace blockTrace;
+            synchronized (this) {
+                if (rows.isEmpty()) {
+                    return;
+                }
+                block = rows;
+                blockSources = sources;
+                blockTrace = trace;
+                reset();
+            }
+            submit(block, blockSources, blockTrace);
+        }
+        
+        private void reset() {
+            rows = new ArrayList<>();
+            sources = new LinkedHashMap<>();
+            trace = null;
+        }
+        
+        private void submit(List<List<Object>> block, Map<FileProgress, Integer> blockSources,
+                BatchTrace blockTrace) {
+            if (blockTrace != null) {
+                blockTrace.arg("files", blockSources.size());
+            }
+            inserter.submit(block, blockTrace, () -> blockSources.forEach(IngestService::fileRowsInserted));
+        }
+    }
+    
+    /**
+     * Asks a running watch operation to stop. It inserts what it has buffered and then
+     * completes. With a job store the id may also be a watch job's, running on any
+     * instance or still queued; the stop is kept in the store for the workers. Returns
+     * false if no watch operation or unfinished watch job with that ID exists.
+     */
+    public boolean stopOperation(String operationId) {
+        AtomicBoolean stop = watchStops.get(operationId);
+        if (stop != null) {
+            stop.set(true);
+            return true;
+        }
+        if (jobStore == null) {
+            return false;
+        }
+        try {
+            IngestJob job = jobStore.get(operationId);
+            if (job == null || !job.getRequest().isWatch()
+                    || job.getTasks().stream().allMatch(JobTask::isFinished)) {
+                return false;
+            }
+            return jobStore.requestStop(operationId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not stop job " + operationId, e);
+        }
+    }
+    
+    /**
+     * Follows the CSV files of the request's sourceFilePath directory until stopped,
+     * loading rows as files are created and grow. New complete lines are buffered and
+     * inserted as one micro-batch once flushRows rows are waiting or the oldest is
+     * flushIntervalMs old. File offsets are committed only after their rows are
+     * inserted, and are saved to offsetsFile when one is given, so a restarted watch
+     * resumes where the last one left off. A failed insert is retried with backoff;
+     * the operation fails after {@value #MAX_WATCH_INSERT_ATTEMPTS} attempts.
+     */
+    public IngestResult watchFolder(IngestRequest request, String operationId) {
+        
+        final IngestResult result = activeOperations.get(operationId);
+        if (result == null) {
+            throw new IllegalStateException("Operation ID not found: " + operationId);
+        }
+        
+        final long startTime = System.currentTimeMillis();
+        final OperationMetrics metrics = startMetrics(result, "import");
+        final String directory = request.getSourceFilePath();
+        final List<String> selectedColumns = new ArrayList<>(request.getSelectedColumns());
+        final int flushRows = Math.max(request.getFlushRows(), 1);
+        final long flushIntervalMs = Math.max(request.getFlushIntervalMs(), 0);
+        final long pollIntervalMs = Math.max(request.getPollIntervalMs(), 10);
+        final Path offsetsFile = request.getOffsetsFile() != null && !request.getOffsetsFile().isEmpty()
+                ? Paths.get(request.getOffsetsFile()) : null;
+        final AtomicBoolean stop = new AtomicBoolean();
+        watchStops.put(operationId, stop);
+        
+        try (FolderTailer tailer = new FolderTailer(Paths.get(directory), request.getWatchFilePattern(), ',',
+                selectedColumns, loadOffsets(offsetsFile))) {
+            log.info("Watching directory", "directory", directory, "pattern", request.getWatchFilePattern(),
+                    "changes", tailer.isPolling() ? "polling" : "events", "table", request.getTableName());
+            result.setMessage("Watching " + directory);
+            updateOperation(result);
+            
+            List<List<Object>> buffer = new ArrayList<>();
+            long oldestBufferedAt = 0;
+            Set<Path> unread = new LinkedHashSet<>();
+            while (!stop.get()) {
+                long waitMs = pollIntervalMs;
+                if (!buffer.isEmpty()) {
+                    waitMs = Math.max(0, Math.min(waitMs, oldestBufferedAt + flushIntervalMs - System.currentTimeMillis()));
+                }
+                // Files with data left over from the last round are read again without waiting
+                List<Path> files = unread.isEmpty() ? tailer.awaitChanges(waitMs) : new ArrayList<>(unread);
+                unread.clear();
+                for (Path file : files) {
+                    if (buffer.size() >= flushRows) {
+                        unread.add(file);
+                        continue;
+                    }
+                    int buffered = buffer.size();
+                    long readStart = System.nanoTime();
+                    if (tailer.readNewRows(file, buffer)) {
+                        unread.add(file);
+                    }
+                    if (buffer.size() > buffered) {
+                        metrics.recordStage(OperationMetrics.PARSE, readStart);
+                        if (oldestBufferedAt == 0) {
+                            oldestBufferedAt = System.currentTimeMillis();
+                        }
+                    }
+                }
+                result.setFiles(tailer.getProgress());
+                if (!buffer.isEmpty() && (buffer.size() >= flushRows
+                        || System.currentTimeMillis() - oldestBufferedAt >= flushIntervalMs)) {
+                    flushWatchBatch(request, buffer, tailer, offsetsFile, result, metrics, stop);
+                    buffer = new ArrayList<>();
+                    oldestBufferedAt = 0;
+                }
+            }
+            if (!buffer.isEmpty()) {
+                flushWatchBatch(request, buffer, tailer, offsetsFile, result, metrics, stop);
+            }
+            
+            log.info("Watch stopped", "directory", directory, "records", result.getRecordsProcessed());
+            result.setSuccess(true);
+            result.setMessage("Stopped watching " + directory + " after importing " + result.getRecordsProcessed()
+                    + " records from " + result.getFiles().size() + " files");
+            result.setStatus("completed");
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Watch failed", e, "directory", directory, "table", request.getTableName());
+            result.setSuccess(false);
+            result.setMessage("Watch of " + directory + " failed: " + e.getMessage());
+            result.setStatus("error");
+        } finally {
+            watchStops.remove(operationId);
+        }
+        
+        updateOperation(result);
+        finishMetrics(result, metrics);
+        result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+        return result;
+    }
+    
+    /**
+     * Inserts one micro-batch and commits the file offsets it came from
+     */
+    private void flushWatchBatch(IngestRequest request, List<List<Object>> rows, FolderTailer tailer,
+            Path offsetsFile, IngestResult result, OperationMetrics metrics, AtomicBoolean stop) throws Exception {
+        long retryDelayMs = 1000;
+        for (int attempt = 1; ; attempt++) {
+            BatchTrace trace = metrics.startBatch();
+            long insertStart = System.nanoTime();
+            try {
+                int inserted = clickHouseService.insertData(request.getConnectionConfig(), request.getTableName(),
+                        request.getSelectedColumns(), rows);
+                metrics.recordStage(OperationMetrics.INSERT, insertStart);
+                trace.span(BatchTrace.INSERT, insertStart, System.nanoTime()).setRows(inserted);
+                metrics.recordBatch(trace);
+                
+                long committedBefore = committedBytes(tailer);
+                tailer.commit();
+                saveOffsets(offsetsFile, tailer.getCommittedOffsets());
+                long committed = committedBytes(tailer);
+                metrics.addBytesRead(committed - committedBefore);
+                result.setBytesProcessed(committed);
+                result.setRecordsProcessed(result.getRecordsProcessed() + inserted);
+                result.setFiles(tailer.getProgress());
+                updateOperation(result);
+                progressLog.debug("Micro-batch inserted", "rows", inserted, "total", result.getRecordsProcessed());
+                return;
+            } catch (SQLException e) {
+                if (attempt >= MAX_WATCH_INSERT_ATTEMPTS || stop.get()) {
+                    throw e;
+                }
+                batchFailureLog.warn("Micro-batch insert failed, retrying", e, "attempt", attempt,
+                        "rows", rows.size(), "table", request.getTableName());
+                result.setMessage("Insert failed, retrying: " + e.getMessage());
+                Thread.sleep(retryDelayMs);
+                retryDelayMs = Math.min(retryDelayMs * 2, MAX_WATCH_RETRY_DELAY_MS);
+            }
+        }
+    }
+    
+    private static long committedBytes(FolderTailer tailer) {
+        long bytes = 0;
+        for (long offset : tailer.getCommittedOffsets().values()) {
+            bytes += offset;
+        }
+        return bytes;
+    }
+    
+    private static Map<String, Long> loadOffsets(Path offsetsFile) throws IOException {
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        if (offsetsFile == null || !Files.exists(offsetsFile)) {
+            return offsets;
+        }
+        try (InputStream in = Files.newInputStream(offsetsFile)) {
+            Map<?, ?> saved = JsonCodec.read(in, Map.class);
+            for (Map.Entry<?, ?> entry : saved.entrySet()) {
+                offsets.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+            }
+        }
+        return offsets;
+    }
+    
+    private static void saveOffsets(Path offsetsFile, Map<String, Long> offsets) throws IOException {
+        if (offsetsFile != null) {
+            JsonCodec.writeFile(offsetsFile, offsets);
+        }
+    }
+    
+    /**
+     * Records the operation's outcome and attaches its stage timings to the result
+     */
+    private void finishMetrics(IngestResult result, OperationMetrics metrics) {
+        metrics.finish(result.isSuccess(), result.getRecordsProcessed());
+        result.setMetrics(metrics.summarize());
+    }
+    
+    /**
+     * Sends a compressed file to ClickHouse without decompressing it locally.
+     * Progress is tracked in compressed bytes since rows are only parsed server-side.
+     */
+    private void streamCompressedFileToClickHouse(
+            String sourceFilePath,
+            ConnectionConfig config,
+            String tableName,
+            List<String> selectedColumns,
+            CompressionType compression,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        File sourceFile = new File(sourceFilePath);
+        result.setTotalBytes(sourceFile.length());
+        updateOperation(result);
+        
+        BatchTrace trace = metrics.startBatch();
+        long transferStart = System.nanoTime();
+        long rowsWritten = clickHouseService.insertCompressedFile(
+                config, tableName, selectedColumns, sourceFile.toPath(), ",", compression,
+                bytesSent -> {
+                    metrics.addBytesSent(bytesSent - result.getBytesProcessed());
+                    result.setBytesProcessed(bytesSent);
+                });
+        metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+        metrics.addBytesRead(result.getBytesProcessed());
+        trace.span(BatchTrace.TRANSFER, transferStart, System.nanoTime()).setRows(Math.max(rowsWritten, 0));
+        trace.setBytes(result.getBytesProcessed());
+        metrics.recordBatch(trace);
+        
+        if (rowsWritten >= 0) {
+            result.setRecordsProcessed(rowsWritten);
+            result.setTotalRecords(rowsWritten);
+        }
+        result.setSuccess(true);
+        result.setMessage("Successfully imported " + (rowsWritten >= 0 ? rowsWritten + " records" : "data") +
+                " from " + compression.name().toLowerCase() + " file " + sourceFilePath + " to ClickHouse");
+        result.setStatus("completed");
+        updateOperation(result);
+    }
+    
     // Similarly update the streamFromClickHouseToFile method
     public IngestResult streamFromClickHouseToFile(
             ConnectionConfig config, 
@@ -257,6 +1262,39 @@ public class IngestService {
             List<String> selectedColumns,
             String targetFilePath,
             String operationId) {
+        return streamFromClickHouseToFile(config, tableName, selectedColumns, targetFilePath, operationId,
+                ExportFormat.CSV, CompressionType.NONE);
+    }
+    
+    /**
+     * Exports data from ClickHouse to a file in the given format and compression
+     */
+    public IngestResult streamFromClickHouseToFile(
+            ConnectionConfig config, 
+            String tableName,
+            List<String> selectedColumns,
+            String targetFilePath,
+            String operationId,
+            ExportFormat format,
+            CompressionType compression) {
+        IngestRequest request = new IngestRequest();
+        request.setSourceType("ClickHouse");
+        request.setConnectionConfig(config);
+        request.setTableName(tableName);
+        request.setSelectedColumns(selectedColumns);
+        request.setTargetFilePath(targetFilePath);
+        request.setExportFormat(format.name());
+        request.setExportCompression(compression.name());
+        return streamFromClickHouseToFile(request, operationId);
+    }
+    
+    /**
+     * Exports data from ClickHouse to a file as described by the request.
+     * In "rows" mode CSV/TSV rows are fetched through JDBC and written as each batch
+     * arrives. In "direct" mode, and for binary/columnar formats, ClickHouse renders
+     * the file itself and the HTTP response is copied straight to disk.
+     */
+    public IngestResult streamFromClickHouseToFile(IngestRequest request, String operationId) {
         
         // Get the existing operation to update
         IngestResult result = activeOperations.get(operationId);
@@ -267,71 +1305,123 @@ public class IngestService {
         }
         
         long startTime = System.currentTimeMillis();
+        OperationMetrics metrics = startMetrics(result, "export");
+        ConnectionConfig config = request.getConnectionConfig();
+        String tableName = request.getTableName();
+        List<String> selectedColumns = request.getSelectedColumns();
+        String targetFilePath = request.getTargetFilePath();
         
         try {
-            // Try to get total row count
+            ExportFormat format = ExportFormat.fromName(request.getExportFormat());
+            CompressionType compression = CompressionType.fromName(request.getExportCompression());
+            // Filter, sample, order and limit are all applied by ClickHouse
+            SelectQuery query = SelectQuery.forRequest(request);
+            clickHouseService.requireColumns(config, query);
+            
+            if (request.isIncrementalExport()) {
+                exportIncrementalToFile(request, query, format, compression, result, metrics);
+                finishMetrics(result, metrics);
+                result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return result;
+            }
+            
+            // Try to get total row count; a join's is only known by running it, so joins go without
             try {
-                int totalCount = clickHouseService.getTableRowCount(config, tableName);
-                result.setTotalRecords(totalCount);
-                // Update the operation with total count
-                updateOperation(result);
+                if (!query.hasJoins()) {
+                    long totalCount = query.isFiltered() ? clickHouseService.countRows(config, query)
+                            : clickHouseService.getTableRowCount(config, tableName);
+                    if (query.getLimit() > 0) {
+                        totalCount = Math.min(totalCount, query.getLimit());
+                    }
+                    result.setTotalRecords(totalCount);
+                    // Update the operation with total count
+                    updateOperation(result);
+                }
             } catch (Exception e) {
-                System.err.println("Could not get row count: " + e.getMessage());
+                log.warn("Could not get row count", "table", tableName, "error", e.getMessage());
+            }
+            
+            if (request.getExportParallelism() > 1 && !query.canSplitIntoShards()) {
+                log.info("Ordered, limited or joined export runs as a single stream", "table", tableName,
+                        "orderBy", request.getOrderBy(), "limit", request.getLimit(), "joins", query.hasJoins());
+            } else if (request.getExportParallelism() > 1) {
+                exportPartitionedToFile(request, query, format, compression, result, metrics);
+                finishMetrics(result, metrics);
+                result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return result;
+            }
+            
+            if (format.isServerSide() || request.isDirectExport()) {
+                exportDirectToFile(request, query, format, compression, result, metrics);
+                finishMetrics(result, metrics);
+                result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return result;
             }
             
             // Stream data in batches with progress updates
             int batchSize = 10000;
             int offset = 0;
-            int totalRecords = 0;
-            List<List<Object>> allData = new ArrayList<>();
+            long totalRecords = 0;
+            long limit = query.getLimit();
             
-            // Process in batches for more frequent progress updates
-            while (true) {
-                StringBuilder queryBuilder = new StringBuilder("SELECT ");
-                for (int i = 0; i < selectedColumns.size(); i++) {
-                    if (i > 0) queryBuilder.append(", ");
-                    queryBuilder.append("`").append(selectedColumns.get(i)).append("`");
-                }
-                queryBuilder.append(" FROM `").append(tableName).append("`")
-                        .append(" LIMIT ").append(batchSize)
-                        .append(" OFFSET ").append(offset);
-                
-                List<List<Object>> batch = clickHouseService.executeQuery(config, queryBuilder.toString());
-                
-                if (batch != null && !batch.isEmpty()) {
-                    allData.addAll(batch);
-                    totalRecords += batch.size();
-                    
-                    // Update progress
-                    result.setRecordsProcessed(totalRecords);
-                    result.setRecordsPerSecond(
-                            (double) totalRecords / 
-                            Math.max(1, (System.currentTimeMillis() - startTime) / 1000)
-                    );
-                    
-                    // Update the operation
-                    updateOperation(result);
-                    
-                    if (batch.size() < batchSize) {
-                        // Reached the end
-                        break;
-                    }
-                    
-                    offset += batch.size();
+            try (RowWriter writer = flatFileService.openRowWriter(
+                    targetFilePath, selectedColumns, request.getDelimiter(), format, compression)) {
+                if (query.hasJoins()) {
+                    // Each page would run the whole join again, and an unordered join doesn't
+                    // return its rows in the same order twice, so the join is read in one pass
+                    totalRecords = writeJoinedRows(config, query, writer, result, metrics, startTime);
                 } else {
-                    // No more data
-                    break;
+                    // Process in batches for more frequent progress updates
+                    while (true) {
+                        long pageSize = limit > 0 ? Math.min(batchSize, limit - totalRecords) : batchSize;
+                        
+                        BatchTrace trace = metrics.startBatch();
+                        long queryStart = System.nanoTime();
+                        List<List<Object>> batch = clickHouseService.queryData(config, query.limit(pageSize, offset));
+                        metrics.recordStage(OperationMetrics.QUERY, queryStart);
+                        
+                        if (batch != null && !batch.isEmpty()) {
+                            // Write each batch as it arrives instead of holding the whole table in memory
+                            long writeStart = System.nanoTime();
+                            for (List<Object> row : batch) {
+                                writer.writeRow(row);
+                            }
+                            metrics.recordStage(OperationMetrics.WRITE, writeStart);
+                            trace.span(BatchTrace.QUERY, queryStart, writeStart)
+                                    .span(BatchTrace.WRITE, writeStart, System.nanoTime())
+                                    .setRows(batch.size());
+                            metrics.recordBatch(trace);
+                            totalRecords += batch.size();
+                            
+                            // Update progress
+                            result.setRecordsProcessed(totalRecords);
+                            result.setRecordsPerSecond(
+                                    (double) totalRecords / 
+                                    Math.max(1, (System.currentTimeMillis() - startTime) / 1000)
+                            );
+                            
+                            // Update the operation
+                            updateOperation(result);
+                            
+                            if (batch.size() < pageSize || (limit > 0 && totalRecords >= limit)) {
+                                // Reached the end
+                                break;
+                            }
+                            
+                            offset += batch.size();
+                        } else {
+                            // No more data
+                            break;
+                        }
+                    }
                 }
             }
-            
-            // Write to file
-            int recordsWritten = flatFileService.writeToFile(
-                    targetFilePath, selectedColumns, allData, ",");
+            metrics.addBytesWritten(Files.size(Paths.get(targetFilePath)));
             
             // Finalize the result
             result.setSuccess(true);
-            result.setRecordsProcessed(recordsWritten);
-            result.setMessage("Successfully exported " + recordsWritten + 
+            result.setRecordsProcessed(totalRecords);
+            result.setMessage("Successfully exported " + totalRecords + 
                     " records from ClickHouse to " + targetFilePath);
             result.setStatus("completed");
         } catch (Exception e) {
@@ -341,7 +1431,607 @@ public class IngestService {
             result.setStatus("error");
         }
         
+        finishMetrics(result, metrics);
+        result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+        return result;
+    }
+    
+    /**
+     * Writes the rows of a join as the driver reads them from one result set, updating
+     * progress every 10000 rows
+     */
+    private long writeJoinedRows(
+            ConnectionConfig config,
+            SelectQuery query,
+            RowWriter writer,
+            IngestResult result,
+            OperationMetrics metrics,
+            long startTime) throws Exception {
+        
+        AtomicLong written = new AtomicLong();
+        long queryStart = System.nanoTime();
+        clickHouseService.streamData(config, query, row -> {
+            writer.writeRow(row);
+            long rows = written.incrementAndGet();
+            if (rows % 10000 == 0) {
+                result.setRecordsProcessed(rows);
+                result.setRecordsPerSecond(
+                        (double) rows / Math.max(1, (System.currentTimeMillis() - startTime) / 1000));
+                updateOperation(result);
+            }
+        });
+        // Reading and writing interleave row by row, so the pass is one query span
+        metrics.recordStage(OperationMetrics.QUERY, queryStart);
+        BatchTrace trace = metrics.startBatch().span(BatchTrace.QUERY, queryStart, System.nanoTime());
+        trace.setRows(written.get());
+        metrics.recordBatch(trace);
+        return written.get();
+    }
+    
+    /**
+     * Has ClickHouse render the export file (CSVWithNames, TSVWithNames, Native, RowBinary,
+     * Parquet) and copies the HTTP response to disk without decoding any values.
+     * Progress is tracked in bytes written. CSV and TSV records are counted as the file is
+     * written; for the binary formats the row count taken before the export is reported.
+     * ClickHouse sends its summary header before a streamed result, so it can't be used.
+     */
+    private void exportDirectToFile(
+            IngestRequest request,
+            SelectQuery query,
+            ExportFormat format,
+            CompressionType compression,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        String targetFilePath = request.getTargetFilePath();
+        flatFileService.createParentDirectories(targetFilePath);
+        if (!RecordCounter.canCount(format) && query.hasJoins()) {
+            // Only a CSV or TSV file's records can be counted, and a join wasn't counted up front
+            result.setTotalRecords(clickHouseService.countRows(request.getConnectionConfig(), query));
+            updateOperation(result);
+        }
+        long transferStart = System.nanoTime();
+        AtomicLong writtenRecords = new AtomicLong(-1);
+        long bytesWritten = clickHouseService.exportToFile(
+                request.getConnectionConfig(), query, format, true, compression, request.getDelimiter(),
+                Paths.get(targetFilePath),
+                new ClickHouseHttpClient.ExportListener() {
+                    @Override
+                    public void onRecordsWritten(long records) {
+                        writtenRecords.set(records);
+                    }
+                    
+                    @Override
+                    public void onBytesWritten(long bytes) {
+                        result.setBytesProcessed(bytes);
+                    }
+                });
+        metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+        metrics.addBytesWritten(bytesWritten);
+        long records = writtenRecords.get() >= 0 ? writtenRecords.get() : result.getTotalRecords();
+        if (result.getTotalRecords() == 0) {
+            result.setTotalRecords(records);
+        }
+        BatchTrace trace = metrics.startBatch()
+                .span(BatchTrace.TRANSFER, transferStart, System.nanoTime());
+        trace.setRows(records);
+        trace.setBytes(bytesWritten);
+        metrics.recordBatch(trace);
+        
+        result.setBytesProcessed(bytesWritten);
+        result.setRecordsProcessed(records);
+        result.setSuccess(true);
+        result.setMessage("Successfully exported " + records + " records from ClickHouse to " +
+                targetFilePath + " as " + format.getClickHouseFormat() + " (" + bytesWritten + " bytes)");
+        result.setStatus("completed");
+        updateOperation(result);
+    }
+    
+    /**
+     * Exports only the rows whose watermarkColumn is at or above the watermark saved by
+     * the previous run and below the column's current maximum, then saves that maximum
+     * as the next run's watermark. Rows equal to the maximum wait for a run that sees a
+     * higher value, so rows inserted late with the same value are still picked up, and
+     * the bound is fixed before the export starts, so rows inserted while it runs are
+     * left whole for the next run.
+     * Each run writes a new numbered file next to the target, or with incrementalOutput
+     * "append" adds to the target itself; an append whose watermark was never saved is
+     * cut off again by the next run, so a crash can't duplicate rows.
+     */
+    private void exportIncrementalToFile(
+            IngestRequest request,
+            SelectQuery query,
+            ExportFormat format,
+            CompressionType compression,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        ConnectionConfig config = request.getConnectionConfig();
+        String column = request.getWatermarkColumn();
+        String targetFilePath = request.getTargetFilePath();
+        boolean append = "append".equalsIgnoreCase(request.getIncrementalOutput());
+        if (append && !format.isConcatenable()) {
+            throw new IllegalArgumentException(format + " exports can't be appended to; use incrementalOutput \"roll\"");
+        }
+        if (query.getLimit() > 0) {
+            // The watermark would move past rows the limit cut off, and they'd never be exported
+            throw new IllegalArgumentException("limit can't be combined with watermarkColumn");
+        }
+        Path stateFile = Paths.get(request.getWatermarkFile() != null && !request.getWatermarkFile().isEmpty()
+                ? request.getWatermarkFile() : targetFilePath + ".watermark.json");
+        ExportWatermark watermark = ExportWatermark.load(stateFile, column, request.getWatermark());
+        String from = watermark.getValue();
+        
+        String quotedColumn = query.quoteColumn(column);
+        String lowerBound = watermark.isValueExported() ? " > " : " >= ";
+        if (from != null) {
+            query = query.where(quotedColumn + lowerBound + ExportPartitioner.literal(from));
+        }
+        String to = clickHouseService.getMaxValue(config, query, column);
+        result.setWatermark(from);
+        if (to != null) {
+            query = query.where(quotedColumn + " < " + ExportPartitioner.literal(to));
+            result.setTotalRecords(clickHouseService.countRows(config, query));
+        }
+        if (to == null || result.getTotalRecords() == 0) {
+            // Nothing below the newest value yet; the watermark stays where it is
+            log.info("No new rows since the last export", "table", request.getTableName(), "watermark", from);
+            result.setSuccess(true);
+            result.setMessage("No rows in " + request.getTableName() + " with " + column
+                    + (from != null ? lowerBound.trim() + " " + from : "") + " below "
+                    + (to != null ? to : "the newest value"));
+            result.setStatus("completed");
+            updateOperation(result);
+            return;
+        }
+        updateOperation(result);
+        
+        flatFileService.createParentDirectories(targetFilePath);
+        ClickHouseHttpClient.ExportListener listener = new ClickHouseHttpClient.ExportListener() {
+            @Override
+            public void onServerProgress(long readRows, long totalRowsToRead) {
+            }
+            
+            @Override
+            public void onBytesWritten(long bytes) {
+                result.setBytesProcessed(bytes);
+            }
+        };
+        String outputPath;
+        long fileLength = -1;
+        long transferStart = System.nanoTime();
+        long bytesWritten;
+        if (append) {
+            Path target = Paths.get(targetFilePath);
+            long committedLength = watermark.getFileLength() >= 0 ? watermark.getFileLength()
+                    : Files.exists(target) ? Files.size(target) : 0;
+            Path part = Paths.get(targetFilePath + ".run.tmp");
+            try {
+                bytesWritten = clickHouseService.exportToFile(config, query, format, committedLength == 0,
+                        compression, request.getDelimiter(), part, listener);
+                fileLength = flatFileService.appendFile(part.toString(), targetFilePath, committedLength);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+            outputPath = targetFilePath;
+        } else {
+            outputPath = numberedFilePath(targetFilePath, "run", watermark.getRuns() + 1);
+            bytesWritten = clickHouseService.exportToFile(config, query, format, true, compression,
+                    request.getDelimiter(), Paths.get(outputPath), listener);
+        }
+        metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+        metrics.addBytesWritten(bytesWritten);
+        BatchTrace trace = metrics.startBatch()
+                .span(BatchTrace.TRANSFER, transferStart, System.nanoTime());
+        trace.setRows(result.getTotalRecords());
+        trace.setBytes(bytesWritten);
+        metrics.recordBatch(trace);
+        
+        watermark.advance(to, fileLength);
+        watermark.save(stateFile);
+        log.info("Incremental export finished", "table", request.getTableName(), "from", from, "to", to,
+                "records", result.getTotalRecords(), "file", outputPath);
+        
+        result.setWatermark(to);
+        result.setBytesProcessed(bytesWritten);
+        result.setRecordsProcessed(result.getTotalRecords());
+        result.setSuccess(true);
+        result.setMessage("Exported " + result.getTotalRecords() + " records with " + column
+                + (from != null ? " " + lowerBound.trim() + " " + from : "") + " below " + to + " to "
+                + outputPath);
+        result.setStatus("completed");
+        updateOperation(result);
+    }
+    
+    /**
+     * Exports a table as several concurrent direct streams, one per planned shard filter.
+     * Shards are written to their own files, or to temporary files that are concatenated
+     * in shard order into the target when shardOutput is "concat".
+     */
+    private void exportPartitionedToFile(
+            IngestRequest request,
+            SelectQuery baseQuery,
+            ExportFormat format,
+            CompressionType compression,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        int shardCount = Math.min(request.getExportParallelism(), MAX_EXPORT_PARALLELISM);
+        boolean concatenate = "concat".equalsIgnoreCase(request.getShardOutput());
+        if (concatenate && !format.isConcatenable()) {
+            throw new IllegalArgumentException(format + " exports can't be concatenated; use shardOutput \"files\"");
+        }
+        
+        List<String> filters = exportPartitioner.plan(request.getConnectionConfig(), request.getTableName(),
+                request.getSelectedColumns(), request.getPartitionStrategy(), shardCount);
+        String targetFilePath = request.getTargetFilePath();
+        flatFileService.createParentDirectories(targetFilePath);
+        
+        final List<ShardProgress> shards = new ArrayList<>();
+        for (int i = 0; i < filters.size(); i++) {
+            ShardProgress shard = new ShardProgress();
+            shard.setShardIndex(i);
+            shard.setFilter(filters.get(i));
+            shard.setFilePath(concatenate ? targetFilePath + ".shard-" + i + ".tmp"
+                    : numberedFilePath(targetFilePath, "part", i + 1));
+            shards.add(shard);
+        }
+        result.setShards(shards);
+        updateOperation(result);
+        
+        ExecutorService shardPool = ThreadPools.newTaskExecutor("export-shard", shards.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final ShardProgress shard : shards) {
+                futures.add(shardPool.submit(() -> {
+                    try (LogContext.Scope scope = LogContext.withOperation(result.getOperationId())) {
+                        exportShard(request, baseQuery.where(shard.getFilter()), format, compression,
+                                !concatenate || shard.getShardIndex() == 0, shard, shards, result, metrics);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // One failed shard fails the export; stop the others
+                    shardPool.shutdownNow();
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } catch (Exception e) {
+            shardPool.shutdownNow();
+            shardPool.awaitTermination(10, TimeUnit.SECONDS);
+            // Don't leave half an export behind: temporary and partial part files alike
+            for (ShardProgress shard : shards) {
+                Files.deleteIfExists(Paths.get(shard.getFilePath()));
+            }
+            throw e;
+        } finally {
+            shardPool.shutdownNow();
+        }
+        
+        String outputDescription;
+        if (concatenate) {
+            List<String> shardFiles = new ArrayList<>();
+            for (ShardProgress shard : shards) {
+                shardFiles.add(shard.getFilePath());
+            }
+            long bytes = flatFileService.concatenateFiles(shardFiles, targetFilePath);
+            for (String shardFile : shardFiles) {
+                Files.deleteIfExists(Paths.get(shardFile));
+            }
+            result.setBytesProcessed(bytes);
+            outputDescription = targetFilePath;
+        } else {
+            outputDescription = shards.size() + " files next to " + targetFilePath;
+        }
+        
+        if (RecordCounter.canCount(format)) {
+            long shardRecords = 0;
+            for (ShardProgress shard : shards) {
+                shardRecords += shard.getRecordsProcessed();
+            }
+            result.setRecordsProcessed(shardRecords);
+        } else {
+            // A binary format's records aren't counted per shard; the export's count covers them all
+            result.setRecordsProcessed(result.getTotalRecords());
+        }
+        result.setSuccess(true);
+        result.setMessage("Successfully exported " + result.getRecordsProcessed() + " records from ClickHouse to " +
+                outputDescription + " using " + shards.size() + " parallel streams");
+        result.setStatus("completed");
+        updateOperation(result);
+    }
+    
+    private void exportShard(
+            IngestRequest request,
+            SelectQuery query,
+            ExportFormat format,
+            CompressionType compression,
+            boolean withHeader,
+            ShardProgress shard,
+            List<ShardProgress> allShards,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        shard.setStatus("running");
+        activeExportShards.incrementAndGet();
+        long transferStart = System.nanoTime();
+        try {
+            // CSV and TSV records are counted as they're written; counting each shard up front
+            // would scan the table once more per shard
+            AtomicLong writtenRecords = new AtomicLong(-1);
+            long bytes = clickHouseService.exportToFile(
+                    request.getConnectionConfig(), query, format, withHeader, compression,
+                    request.getDelimiter(), Paths.get(shard.getFilePath()),
+                    new ClickHouseHttpClient.ExportListener() {
+                        @Override
+                        public void onBytesWritten(long bytesWritten) {
+                            shard.setBytesProcessed(bytesWritten);
+                            long totalBytes = 0;
+                            for (ShardProgress other : allShards) {
+                                totalBytes += other.getBytesProcessed();
+                            }
+                            result.setBytesProcessed(totalBytes);
+                        }
+                        
+                        @Override
+                        public void onRecordsWritten(long records) {
+                            writtenRecords.set(records);
+                        }
+                    });
+            metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+            metrics.addBytesWritten(bytes);
+            BatchTrace trace = metrics.startBatch()
+                    .span(BatchTrace.TRANSFER, transferStart, System.nanoTime())
+                    .arg("shard", shard.getShardIndex());
+            if (writtenRecords.get() >= 0) {
+                trace.setRows(writtenRecords.get());
+                shard.setTotalRecords(writtenRecords.get());
+                shard.setRecordsProcessed(writtenRecords.get());
+            }
+            trace.setBytes(bytes);
+            metrics.recordBatch(trace);
+            shard.setBytesProcessed(bytes);
+            shard.setStatus("completed");
+        } catch (Exception e) {
+            shard.setStatus("error");
+            shard.setMessage(e.getMessage());
+            throw new Exception("Shard " + shard.getShardIndex() + " failed: " + e.getMessage(), e);
+        } finally {
+            activeExportShards.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Copies the selected columns of tableName, limited to the rows its filter, sample and
+     * limit select, into an existing table on another ClickHouse server. By default the
+     * source's Native output is passed undecoded into the target's INSERT, in up to
+     * copyParallelism concurrent streams split by partition. With copyMode "remote", or
+     * "auto" when the target server can read the source, the target runs INSERT ... SELECT
+     * FROM remote() and no rows pass through this app; the source's credentials then come
+     * from remoteCollection, or are written into that statement if none is named.
+     */
+    public IngestResult copyTable(IngestRequest request, String operationId) {
+        IngestResult result = activeOperations.get(operationId);
+        if (result == null) {
+            result = new IngestResult();
+            result.setOperationId(operationId);
+        }
+        
+        long startTime = System.currentTimeMillis();
+        OperationMetrics metrics = startMetrics(result, "copy");
+        ConnectionConfig source = request.getConnectionConfig();
+        ConnectionConfig target = request.getTargetConnectionConfig();
+        String tableName = request.getTableName();
+        String targetTable = request.getTargetTableName() != null && !request.getTargetTableName().isEmpty()
+                ? request.getTargetTableName() : tableName;
+        
+        try {
+            SelectQuery query = SelectQuery.forRequest(request);
+            if (query.getColumns() == null || query.getColumns().isEmpty()) {
+                throw new IllegalArgumentException("selectedColumns must list the columns to copy");
+            }
+            if (query.hasJoins()) {
+                throw new IllegalArgumentException("joins can't be combined with a table copy");
+            }
+            clickHouseService.requireColumns(source, query);
+            String mode = request.getCopyMode() != null ? request.getCopyMode().toLowerCase() : "auto";
+            if (!mode.equals("auto") && !mode.equals("remote") && !mode.equals("stream")) {
+                throw new IllegalArgumentException("copyMode must be auto, remote or stream, got " + mode);
+            }
+            
+            try {
+                long totalCount = query.isFiltered() ? clickHouseService.countRows(source, query)
+                        : clickHouseService.getTableRowCount(source, tableName);
+                if (query.getLimit() > 0) {
+                    totalCount = Math.min(totalCount, query.getLimit());
+                }
+                result.setTotalRecords(totalCount);
+                updateOperation(result);
+            } catch (Exception e) {
+                log.warn("Could not get row count", "table", tableName, "error", e.getMessage());
+            }
+            
+            boolean remote = false;
+            String remoteCollection = request.getRemoteCollection() != null && !request.getRemoteCollection().isEmpty()
+                    ? request.getRemoteCollection() : null;
+            String remoteAddress = request.getRemoteAddress();
+            if (!mode.equals("stream")) {
+                if (remoteAddress == null || remoteAddress.isEmpty()) {
+                    boolean secure = source.getJwtToken() != null && !source.getJwtToken().isEmpty();
+                    remoteAddress = source.getHost() + (secure ? ":9440" : ":9000");
+                }
+                remote = clickHouseService.canReadRemote(source, remoteCollection, remoteAddress, tableName, target);
+                if (!remote && mode.equals("remote")) {
+                    throw new IOException("Target server can't read " + tableName + " from "
+                            + (remoteCollection != null ? remoteCollection : remoteAddress));
+                }
+            }
+            
+            if (remote) {
+                long transferStart = System.nanoTime();
+                long rows = clickHouseService.copyTableRemote(source, query, remoteCollection, remoteAddress,
+                        target, targetTable);
+                metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+                BatchTrace trace = metrics.startBatch()
+                        .span(BatchTrace.TRANSFER, transferStart, System.nanoTime())
+                        .arg("mode", "remote");
+                trace.setRows(rows >= 0 ? rows : result.getTotalRecords());
+                metrics.recordBatch(trace);
+                result.setRecordsProcessed(rows >= 0 ? rows : result.getTotalRecords());
+                result.setMessage("Copied " + result.getRecordsProcessed() + " records from " + tableName + " to "
+                        + targetTable + " with INSERT ... SELECT FROM remote("
+                        + (remoteCollection != null ? remoteCollection : "'" + remoteAddress + "'") + ")");
+            } else {
+                int streams = copyStreaming(request, query, targetTable, result, metrics);
+                result.setMessage("Copied " + result.getRecordsProcessed() + " records from " + tableName + " to "
+                        + targetTable + " in Native format using " + streams + " stream(s)");
+            }
+            log.info("Table copy finished", "table", tableName, "targetTable", targetTable,
+                    "mode", remote ? "remote" : "stream", "records", result.getRecordsProcessed());
+            result.setSuccess(true);
+            result.setStatus("completed");
+        } catch (Exception e) {
+            result.setSuccess(false);
+            result.setMessage("Failed to copy table: " + e.getMessage());
+            result.setStatus("error");
+        }
+        
+        finishMetrics(result, metrics);
         result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
         return result;
     }
+    
+    /**
+     * Streams the query's rows from the source into the target table, split by partition
+     * into up to copyParallelism concurrent streams unless the rows must stay in one
+     * ordered or limited stream. A failed stream fails the copy; rows the other streams
+     * already inserted stay in the target.
+     *
+     * @return the number of streams used
+     */
+    private int copyStreaming(
+            IngestRequest request,
+            SelectQuery query,
+            String targetTable,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        int streamCount = Math.min(request.getCopyParallelism(), MAX_EXPORT_PARALLELISM);
+        List<String> filters = new ArrayList<>();
+        if (streamCount > 1 && query.canSplitIntoShards()) {
+            filters.addAll(exportPartitioner.plan(request.getConnectionConfig(), request.getTableName(),
+                    query.getColumns(), ExportPartitioner.BY_PARTITION, streamCount));
+        } else {
+            filters.add(null);
+        }
+        
+        final List<ShardProgress> shards = new ArrayList<>();
+        for (int i = 0; i < filters.size(); i++) {
+            ShardProgress shard = new ShardProgress();
+            shard.setShardIndex(i);
+            shard.setFilter(filters.get(i));
+            shards.add(shard);
+        }
+        result.setShards(shards);
+        updateOperation(result);
+        
+        ExecutorService streamPool = ThreadPools.newTaskExecutor("copy-stream", shards.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final ShardProgress shard : shards) {
+                futures.add(streamPool.submit(() -> {
+                    try (LogContext.Scope scope = LogContext.withOperation(result.getOperationId())) {
+                        copyShard(request, shard.getFilter() != null ? query.where(shard.getFilter()) : query,
+                                targetTable, shard, shards, result, metrics);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    streamPool.shutdownNow();
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            streamPool.shutdownNow();
+        }
+        return shards.size();
+    }
+    
+    private void copyShard(
+            IngestRequest request,
+            SelectQuery query,
+            String targetTable,
+            ShardProgress shard,
+            List<ShardProgress> allShards,
+            IngestResult result,
+            OperationMetrics metrics) throws Exception {
+        
+        shard.setStatus("running");
+        long transferStart = System.nanoTime();
+        try {
+            long rows = clickHouseService.copyTableStreaming(
+                    request.getConnectionConfig(), query, request.getTargetConnectionConfig(), targetTable,
+                    new ClickHouseHttpClient.ExportListener() {
+                        @Override
+                        public void onServerProgress(long readRows, long totalRowsToRead) {
+                            shard.setTotalRecords(totalRowsToRead);
+                        }
+                        
+                        @Override
+                        public void onBytesWritten(long bytesSent) {
+                            shard.setBytesProcessed(bytesSent);
+                            long totalBytes = 0;
+                            for (ShardProgress other : allShards) {
+                                totalBytes += other.getBytesProcessed();
+                            }
+                            result.setBytesProcessed(totalBytes);
+                        }
+                    });
+            metrics.recordStage(OperationMetrics.TRANSFER, transferStart);
+            metrics.addBytesWritten(shard.getBytesProcessed());
+            BatchTrace trace = metrics.startBatch()
+                    .span(BatchTrace.TRANSFER, transferStart, System.nanoTime())
+                    .arg("shard", shard.getShardIndex());
+            // The progress total is what the source scans, not what was copied, so without a
+            // summary from the target the stream's rows stay uncounted
+            shard.setRecordsProcessed(Math.max(rows, 0));
+            trace.setRows(shard.getRecordsProcessed());
+            trace.setBytes(shard.getBytesProcessed());
+            metrics.recordBatch(trace);
+            shard.setStatus("completed");
+            
+            long copied = 0;
+            for (ShardProgress other : allShards) {
+                copied += other.getRecordsProcessed();
+            }
+            result.setRecordsProcessed(copied);
+            updateOperation(result);
+        } catch (Exception e) {
+            shard.setStatus("error");
+            shard.setMessage(e.getMessage());
+            throw new Exception("Stream " + shard.getShardIndex() + " failed: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Names shard and run files after the target, keeping its extensions: out.csv.gz -> out.part-0001.csv.gz
+     */
+    private static String numberedFilePath(String targetFilePath, String label, long number) {
+        File target = new File(targetFilePath);
+        String name = target.getName();
+        int dot = name.indexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String numberedName = String.format("%s.%s-%04d%s", base, label, number, extension);
+        return target.getParentFile() != null
+                ? new File(target.getParentFile(), numberedName).getPath() : numberedName;
+    }
 }
\ No newline at end of file
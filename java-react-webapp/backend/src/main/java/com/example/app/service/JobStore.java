@@ -0,0 +1,80 @@
+package com.example.app.service;
+
+import com.example.app.model.IngestJob;
+import com.example.app.model.JobTask;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Keeps queued ingest jobs and their tasks' progress outside the running operations:
+ * where every backend instance can see them, so any instance can accept a job, run its
+ * tasks or report its status, or in a journal that outlives the process.
+ * Tasks are handed out under leases: a worker that stops renewing its lease (e.g.
+ * because its process died) loses the task to the next worker that asks for one.
+ */
+public interface JobStore {
+
+    /**
+     * Stores a new job with all its tasks queued
+     */
+    void create(IngestJob job) throws IOException;
+
+    /**
+     * Returns the job with its tasks' latest state, or null if it is unknown
+     */
+    IngestJob get(String jobId) throws IOException;
+
+    /**
+     * Leases the oldest job's next queued task, or a task whose lease expired, to the
+     * worker. The returned task is marked running and its attempts include this claim.
+     *
+     * @return the task, or null if none is waiting
+     */
+    JobTask claim(String workerId, long leaseMs) throws IOException;
+
+    /**
+     * Publishes the task's state and extends the worker's lease
+     *
+     * @return false if another worker has taken the task over; nothing is written then
+     */
+    boolean update(JobTask task, String workerId, long leaseMs) throws IOException;
+
+    /**
+     * Records that the job should stop, for the workers to act on when they next publish
+     * progress; {@link #get} reports it from then on
+     *
+     * @return false if the job is unknown
+     */
+    boolean requestStop(String jobId) throws IOException;
+
+    /**
+     * Deletes jobs whose tasks all finished before the cutoff
+     */
+    void purge(long cutoff) throws IOException;
+
+    /**
+     * Opens the store configured with {@code -Dapp.jobs.dir} (a directory shared by the
+     * instances) or {@code -Dapp.jobs.journal} (a journal file of a single instance), or
+     * returns null if neither is configured and jobs run in-process
+     */
+    static JobStore fromSystemProperties() {
+        String directory = System.getProperty("app.jobs.dir");
+        String journal = System.getProperty("app.jobs.journal");
+        boolean shared = directory != null && !directory.isEmpty();
+        boolean journaled = journal != null && !journal.isEmpty();
+        if (shared && journaled) {
+            throw new IllegalArgumentException("Set either app.jobs.dir or app.jobs.journal, not both");
+        }
+        String location = shared ? directory : journal;
+        if (location == null || location.isEmpty()) {
+            return null;
+        }
+        try {
+            return shared ? new DirectoryJobStore(Path.of(location)) : new JournalJobStore(Path.of(location));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open the job store in " + location, e);
+        }
+    }
+}
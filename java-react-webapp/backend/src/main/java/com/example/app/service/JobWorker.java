@@ -0,0 +1,191 @@
+package com.example.app.service;
+
+import com.example.app.logging.LogContext;
+import com.example.app.logging.Logger;
+import com.example.app.model.IngestJob;
+import com.example.app.model.IngestResult;
+import com.example.app.model.JobTask;
+import com.example.app.util.ThreadPools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks from a {@link JobStore}. Every {@code app.jobs.pollMs} (default 500) it
+ * publishes the progress of its running tasks, which also renews their leases, and
+ * claims new tasks while fewer than its thread count are running. A lease lasts
+ * {@code app.jobs.leaseMs} (default 30000), so tasks of a worker that dies are picked
+ * up by another one within that time. They run again from the start, except that an
+ * import of one file (see {@link IngestService#canResume}) continues after the records
+ * last published as inserted; rows inserted after that publication arrive twice.
+ * A job asked to stop (see {@link JobStore#requestStop}) has its running watch tasks
+ * stopped when the worker next publishes their progress, and its queued tasks finish
+ * without running.
+ */
+public class JobWorker implements Closeable {
+
+    private static final Logger log = Logger.getLogger(JobWorker.class);
+    private static final Logger pollLog = log.rateLimited(10000);
+
+    private static final long POLL_MS = Long.getLong("app.jobs.pollMs", 500);
+    private static final long LEASE_MS = Long.getLong("app.jobs.leaseMs", 30000);
+
+    private final IngestService ingestService;
+    private final JobStore jobStore;
+    private final String workerId;
+    private final int threads;
+    private final ExecutorService taskPool;
+    private final ScheduledExecutorService poller;
+    // Only touched by the poller thread
+    private final Map<JobTask, Future<IngestResult>> running = new LinkedHashMap<>();
+    private long lastPurge;
+
+    public JobWorker(IngestService ingestService, JobStore jobStore, String workerId, int threads) {
+        this.ingestService = ingestService;
+        this.jobStore = jobStore;
+        this.workerId = workerId;
+        this.threads = Math.max(1, threads);
+        this.taskPool = ThreadPools.newTaskExecutor("job-task", this.threads);
+        this.poller = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "job-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public JobWorker start() {
+        poller.scheduleWithFixedDelay(this::poll, 0, POLL_MS, TimeUnit.MILLISECONDS);
+        log.info("Job worker started", "worker", workerId, "threads", threads);
+        return this;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    private void poll() {
+        try {
+            publishProgress();
+            while (running.size() < threads) {
+                JobTask task = jobStore.claim(workerId, LEASE_MS);
+                if (task == null) {
+                    break;
+                }
+                startTask(task);
+            }
+            if (System.currentTimeMillis() - lastPurge > IngestService.OPERATION_TIMEOUT / 10) {
+                lastPurge = System.currentTimeMillis();
+                jobStore.purge(lastPurge - IngestService.OPERATION_TIMEOUT);
+            }
+        } catch (IOException | RuntimeException e) {
+            pollLog.warn("Job store unavailable, retrying", "worker", workerId, "error", String.valueOf(e));
+        }
+    }
+
+    private void startTask(JobTask task) throws IOException {
+        String operationId = IngestService.taskOperationId(task);
+        IngestJob job = jobStore.get(task.getJobId());
+        if (job != null && job.isStopRequested()) {
+            IngestResult result = new IngestResult();
+            result.setOperationId(operationId);
+            result.setSuccess(true);
+            result.setStatus("completed");
+            result.setMessage("Stopped before it started");
+            task.setResult(result);
+            task.setStatus("completed");
+            jobStore.update(task, workerId, LEASE_MS);
+            log.info("Task of a stopped job skipped", "job", task.getJobId(), "task", task.getIndex());
+            return;
+        }
+        IngestResult previous = task.getResult();
+        if (previous != null && previous.getRecordsProcessed() > 0 && IngestService.canResume(task.getRequest())) {
+            // An earlier attempt published these records as inserted; continue after them
+            task.getRequest().setSkipRecords(previous.getRecordsProcessed());
+        }
+        IngestResult result = new IngestResult();
+        result.setOperationId(operationId);
+        result.setMessage("Operation started");
+        ingestService.trackOperation(result);
+        task.setResult(result);
+        log.info("Task claimed", "job", task.getJobId(), "task", task.getIndex(), "label", task.getLabel(),
+                "attempt", task.getAttempts(), "skipRecords", task.getRequest().getSkipRecords());
+        running.put(task, taskPool.submit(() -> {
+            try (LogContext.Scope scope = LogContext.withOperation(operationId)) {
+                return ingestService.runOperation(task.getRequest(), operationId);
+            }
+        }));
+    }
+
+    /**
+     * Writes each running task's latest result to the store, and the final one of each
+     * task that finished
+     */
+    private void publishProgress() throws IOException {
+        for (Iterator<Map.Entry<JobTask, Future<IngestResult>>> it = running.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<JobTask, Future<IngestResult>> entry = it.next();
+            JobTask task = entry.getKey();
+            boolean done = entry.getValue().isDone();
+            if (!done && task.getRequest().isWatch()) {
+                IngestJob job = jobStore.get(task.getJobId());
+                if (job != null && job.isStopRequested()) {
+                    ingestService.stopOperation(IngestService.taskOperationId(task));
+                }
+            }
+            if (done) {
+                IngestResult result = finalResult(task, entry.getValue());
+                task.setResult(result);
+                task.setStatus(result.isSuccess() ? "completed" : "error");
+            }
+            if (!jobStore.update(task, workerId, LEASE_MS)) {
+                log.warn("Lost the lease on a task to another worker", "job", task.getJobId(),
+                        "task", task.getIndex());
+                entry.getValue().cancel(true);
+                it.remove();
+            } else if (done) {
+                log.info("Task finished", "job", task.getJobId(), "task", task.getIndex(),
+                        "status", task.getStatus(), "records", task.getResult().getRecordsProcessed());
+                it.remove();
+            }
+        }
+    }
+
+    private static IngestResult finalResult(JobTask task, Future<IngestResult> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            IngestResult result = task.getResult();
+            result.setSuccess(false);
+            result.setStatus("error");
+            result.setMessage("Error: " + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * Stops claiming tasks and interrupts the running ones; their leases expire and
+     * other workers take them over. Waits up to 10 seconds for the worker's threads to
+     * end, so none of them writes to the store after it returns.
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        taskPool.shutdownNow();
+        try {
+            if (!poller.awaitTermination(10, TimeUnit.SECONDS) || !taskPool.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Job worker threads still running after close", "worker", workerId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Job worker stopped", "worker", workerId, "running", running.size());
+    }
+}
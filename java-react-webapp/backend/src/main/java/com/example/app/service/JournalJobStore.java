@@ -0,0 +1,374 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.model.IngestJob;
+import com.example.app.model.IngestResult;
+import com.example.app.model.JobTask;
+import com.example.app.util.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Job store for a single instance whose jobs should survive restarts. Jobs are kept in
+ * memory and every change is appended to a journal file as one JSON line: a new job,
+ * a stop request, a claimed or finished task, and a running task's progress at most every
+ * {@code app.jobs.checkpointMs} (default 5000). New jobs, claims and finished tasks
+ * are synced to disk before the call returns; progress checkpoints are only flushed.
+ *
+ * On startup the journal is replayed, dropping a line torn by a crash, and tasks that
+ * were running are queued again so the worker resumes them (see {@link JobWorker}), or
+ * failed with {@code -Dapp.jobs.resume=false}. The journal is then rewritten with one
+ * line per job, as it is whenever {@code app.jobs.compactEntries} (default 10000) lines
+ * have been superseded, so replay time follows the number of jobs, not their history.
+ */
+public class JournalJobStore implements JobStore, Closeable {
+
+    private static final Logger log = Logger.getLogger(JournalJobStore.class);
+
+    private static final long CHECKPOINT_MS = Long.getLong("app.jobs.checkpointMs", 5000);
+    private static final int COMPACT_ENTRIES = Integer.getInteger("app.jobs.compactEntries", 10000);
+    private static final boolean RESUME = Boolean.parseBoolean(System.getProperty("app.jobs.resume", "true"));
+
+    private final Path journal;
+    // In creation order, which is the order tasks are handed out in
+    private final Map<String, IngestJob> jobs = new LinkedHashMap<>();
+    // Leases only matter while this process runs, so they aren't journaled
+    private final Map<String, Lease> leases = new HashMap<>();
+    private final Map<String, Long> lastCheckpoint = new HashMap<>();
+    private FileChannel channel;
+    private int entries;
+
+    public JournalJobStore(Path journal) throws IOException {
+        this.journal = journal.toAbsolutePath().normalize();
+        if (this.journal.getParent() != null) {
+            Files.createDirectories(this.journal.getParent());
+        }
+        recover();
+    }
+
+    private synchronized void recover() throws IOException {
+        long start = System.currentTimeMillis();
+        int replayed = 0;
+        if (Files.exists(journal)) {
+            byte[] content = Files.readAllBytes(journal);
+            int lineStart = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] != '\n') {
+                    continue;
+                }
+                String line = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                try {
+                    apply(JsonCodec.read(line, Entry.class));
+                    replayed++;
+                } catch (IOException | RuntimeException e) {
+                    // Unparseable, or parseable but not applicable (e.g. a task index the job doesn't have)
+                    log.warn("Skipping unreadable journal line", "journal", journal, "error", String.valueOf(e));
+                }
+            }
+            if (lineStart < content.length) {
+                log.warn("Dropping a journal line torn by a crash", "journal", journal,
+                        "bytes", content.length - lineStart);
+            }
+        }
+
+        int resumed = 0;
+        for (IngestJob job : jobs.values()) {
+            for (JobTask task : job.getTasks()) {
+                if ("running".equals(task.getStatus())) {
+                    interrupted(task);
+                    resumed++;
+                }
+            }
+        }
+        compact();
+        log.info("Job journal recovered", "journal", journal, "jobs", jobs.size(), "entries", replayed,
+                "interruptedTasks", resumed, "resume", RESUME, "ms", System.currentTimeMillis() - start);
+    }
+
+    private void apply(Entry entry) {
+        if (entry.getJob() != null) {
+            jobs.put(entry.getJob().getJobId(), entry.getJob());
+        } else if (entry.getTask() != null) {
+            IngestJob job = jobs.get(entry.getTask().getJobId());
+            if (job != null) {
+                job.getTasks().set(entry.getTask().getIndex(), entry.getTask());
+            }
+        } else if (entry.getStoppedJobId() != null) {
+            IngestJob job = jobs.get(entry.getStoppedJobId());
+            if (job != null) {
+                job.setStopRequested(true);
+            }
+        } else if (entry.getPurgedJobId() != null) {
+            jobs.remove(entry.getPurgedJobId());
+        }
+    }
+
+    /**
+     * Queues a task whose process stopped while running it, or fails it if resuming is off
+     */
+    private static void interrupted(JobTask task) {
+        if (RESUME) {
+            task.setStatus("queued");
+            // The restart isn't the task's fault, so it doesn't use up an attempt
+            task.setAttempts(Math.max(0, task.getAttempts() - 1));
+            return;
+        }
+        IngestResult result = task.getResult() != null ? task.getResult() : new IngestResult();
+        result.setSuccess(false);
+        result.setStatus("error");
+        result.setMessage("Interrupted by a restart");
+        task.setResult(result);
+        task.setStatus("error");
+    }
+
+    @Override
+    public synchronized void create(IngestJob job) throws IOException {
+        IngestJob copy = copyOf(job);
+        jobs.put(copy.getJobId(), copy);
+        Entry entry = new Entry();
+        entry.setJob(copy);
+        append(entry, true);
+    }
+
+    @Override
+    public synchronized IngestJob get(String jobId) {
+        IngestJob job = jobs.get(jobId);
+        return job != null ? copyOf(job) : null;
+    }
+
+    @Override
+    public synchronized JobTask claim(String workerId, long leaseMs) throws IOException {
+        long now = System.currentTimeMillis();
+        for (IngestJob job : jobs.values()) {
+            for (JobTask task : job.getTasks()) {
+                if (task.isFinished()) {
+                    continue;
+                }
+                Lease lease = leases.get(key(task));
+                if ("running".equals(task.getStatus()) && lease != null && lease.until > now) {
+                    continue;
+                }
+                task.setAttempts(task.getAttempts() + 1);
+                task.setWorker(workerId);
+                if (task.getAttempts() > DirectoryJobStore.MAX_ATTEMPTS) {
+                    IngestResult result = task.getResult() != null ? task.getResult() : new IngestResult();
+                    result.setSuccess(false);
+                    result.setStatus("error");
+                    result.setMessage("Gave up after " + DirectoryJobStore.MAX_ATTEMPTS
+                            + " attempts whose workers stopped renewing the lease");
+                    task.setResult(result);
+                    task.setStatus("error");
+                    journalTask(task, true);
+                    log.error("Task failed on every attempt", "job", task.getJobId(), "task", task.getIndex(),
+                            "label", task.getLabel());
+                    continue;
+                }
+                task.setStatus("running");
+                leases.put(key(task), new Lease(workerId, task.getAttempts(), now + leaseMs));
+                // The new attempt's first progress is checkpointed right away
+                lastCheckpoint.remove(key(task));
+                journalTask(task, true);
+                return copyOf(task);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized boolean update(JobTask task, String workerId, long leaseMs) throws IOException {
+        Lease lease = leases.get(key(task));
+        IngestJob job = jobs.get(task.getJobId());
+        if (job == null || lease == null || !lease.worker.equals(workerId) || lease.attempt != task.getAttempts()) {
+            return false;
+        }
+        JobTask copy = copyOf(task);
+        job.getTasks().set(task.getIndex(), copy);
+        long now = System.currentTimeMillis();
+        if (copy.isFinished()) {
+            leases.remove(key(task));
+            lastCheckpoint.remove(key(task));
+            journalTask(copy, true);
+        } else {
+            lease.until = now + leaseMs;
+            Long last = lastCheckpoint.get(key(task));
+            if (last == null || now - last >= CHECKPOINT_MS) {
+                lastCheckpoint.put(key(task), now);
+                journalTask(copy, false);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean requestStop(String jobId) throws IOException {
+        IngestJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+        if (!job.isStopRequested()) {
+            job.setStopRequested(true);
+            Entry entry = new Entry();
+            entry.setStoppedJobId(jobId);
+            append(entry, true);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void purge(long cutoff) throws IOException {
+        for (Iterator<IngestJob> it = jobs.values().iterator(); it.hasNext(); ) {
+            IngestJob job = it.next();
+            long finishedAt = 0;
+            for (JobTask task : job.getTasks()) {
+                if (!task.isFinished()) {
+                    finishedAt = Long.MAX_VALUE;
+                    break;
+                }
+                if (task.getResult() != null) {
+                    finishedAt = Math.max(finishedAt,
+                            task.getResult().getStartTime() + task.getResult().getExecutionTimeMs());
+                }
+            }
+            if (finishedAt < cutoff) {
+                it.remove();
+                Entry entry = new Entry();
+                entry.setPurgedJobId(job.getJobId());
+                append(entry, false);
+            }
+        }
+    }
+
+    private void journalTask(JobTask task, boolean sync) throws IOException {
+        Entry entry = new Entry();
+        entry.setTask(task);
+        append(entry, sync);
+    }
+
+    private void append(Entry entry, boolean sync) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((JsonCodec.write(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        if (++entries > jobs.size() + COMPACT_ENTRIES) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal as one line per job, holding the job with its tasks' state
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (IngestJob job : jobs.values()) {
+            Entry entry = new Entry();
+            entry.setJob(job);
+            content.write((JsonCodec.write(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        entries = jobs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static String key(JobTask task) {
+        return task.getJobId() + "/" + task.getIndex();
+    }
+
+    private static IngestJob copyOf(IngestJob job) {
+        return JsonCodec.mapper().convertValue(job, IngestJob.class);
+    }
+
+    private static JobTask copyOf(JobTask task) {
+        return JsonCodec.mapper().convertValue(task, JobTask.class);
+    }
+
+    private static final class Lease {
+        private final String worker;
+        private final int attempt;
+        private long until;
+
+        Lease(String worker, int attempt, long until) {
+            this.worker = worker;
+            this.attempt = attempt;
+            this.until = until;
+        }
+    }
+
+    /**
+     * One journal line: a job with its tasks, one task's new state, a stopped job or a
+     * purged job
+     */
+    public static final class Entry {
+        private IngestJob job;
+        private JobTask task;
+        private String stoppedJobId;
+        private String purgedJobId;
+
+        public IngestJob getJob() {
+            return job;
+        }
+
+        public void setJob(IngestJob job) {
+            this.job = job;
+        }
+
+        public JobTask getTask() {
+            return task;
+        }
+
+        public void setTask(JobTask task) {
+            this.task = task;
+        }
+
+        public String getStoppedJobId() {
+            return stoppedJobId;
+        }
+
+        public void setStoppedJobId(String stoppedJobId) {
+            this.stoppedJobId = stoppedJobId;
+        }
+
+        public String getPurgedJobId() {
+            return purgedJobId;
+        }
+
+        public void setPurgedJobId(String purgedJobId) {
+            this.purgedJobId = purgedJobId;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.app.service;
+
+import com.example.app.metrics.Counter;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.model.ConnectionConfig;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the first rows of recently previewed ClickHouse tables, with every column, so
+ * that toggling columns in the UI is answered by projecting the cached rows instead of
+ * querying ClickHouse again. Entries are keyed by server, user, table and row limit,
+ * evicted least-recently-used once their estimated size exceeds the byte budget, expire
+ * after a TTL (writes from other clients are not seen otherwise) and are dropped when
+ * this app starts and again when it finishes writing to or creating the table. A
+ * preview larger than the whole budget is streamed rather than cached.
+ *
+ * Sizing comes from system properties: {@code app.preview.cacheBytes} (default 32 MB,
+ * 0 disables the cache) and {@code app.preview.cacheTtlMs} (default 300000).
+ */
+public final class PreviewCache {
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+
+    private static final PreviewCache INSTANCE = new PreviewCache(
+            Long.getLong("app.preview.cacheBytes", DEFAULT_MAX_BYTES),
+            Long.getLong("app.preview.cacheTtlMs", DEFAULT_TTL_MS));
+
+    private final long maxBytes;
+    private final long ttlMs;
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // Bumped by every invalidation, so rows read before a write can't be cached after it
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public static PreviewCache getInstance() {
+        return INSTANCE;
+    }
+
+    private PreviewCache(long maxBytes, long ttlMs) {
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        hits = registry.counter("preview_cache_hits_total", "Previews answered from cached rows");
+        misses = registry.counter("preview_cache_misses_total", "Previews that had to query ClickHouse");
+        evictions = registry.counter("preview_cache_evictions_total",
+                "Cached previews evicted to stay within the byte budget");
+        registry.gauge("preview_cache_bytes", "Estimated size of the cached preview rows", this::getBytes);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * The byte budget, which is also the largest entry that can be cached
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached rows for the key, or null if they are missing or expired
+     */
+    public synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt > ttlMs) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the value to pass to {@link #put}; read it before loading the rows
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the rows unless they alone would exceed the budget or a table was
+     * invalidated since they were read, evicting least recently used entries to make room
+     */
+    public synchronized void put(Key key, Entry entry, long loadGeneration) {
+        if (!isEnabled() || entry.bytes > maxBytes || loadGeneration != generation) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> victim = eldest.next();
+            bytes -= victim.getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Drops every cached preview of the table on the given server, whatever the user or row limit
+     */
+    public synchronized void invalidate(ConnectionConfig config, String database, String table) {
+        generation++;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> cached = it.next();
+            if (cached.getKey().isTable(config, database, table)) {
+                bytes -= cached.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    /**
+     * Identifies one preview: server, user, table and row limit. The selected columns
+     * are deliberately not part of it.
+     */
+    public static final class Key {
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String database;
+        private final String table;
+        private final int maxRows;
+
+        public Key(ConnectionConfig config, String database, String table, int maxRows) {
+            this.host = config.getHost();
+            this.port = config.getPort();
+            this.user = config.getUser();
+            this.database = database;
+            this.table = table;
+            this.maxRows = maxRows;
+        }
+
+        boolean isTable(ConnectionConfig config, String database, String table) {
+            return Objects.equals(host, config.getHost()) && port == config.getPort()
+                    && Objects.equals(this.database, database) && Objects.equals(this.table, table);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return port == other.port && maxRows == other.maxRows && Objects.equals(host, other.host)
+                    && Objects.equals(user, other.user) && Objects.equals(database, other.database)
+                    && Objects.equals(table, other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, user, database, table, maxRows);
+        }
+    }
+
+    /**
+     * The first rows of a table with all of its columns
+     */
+    public static final class Entry {
+        private final List<String> columns;
+        private final List<List<Object>> rows;
+        private final long bytes;
+        private final long loadedAt = System.currentTimeMillis();
+
+        public Entry(List<String> columns, List<List<Object>> rows) {
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = estimateBytes(columns, rows);
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the rows narrowed to the selected columns in the order given, or
+         * null if a column isn't in the cached rows (e.g. an ALIAS column, which
+         * {@code SELECT *} leaves out)
+         */
+        public List<List<Object>> project(List<String> selectedColumns) {
+            int[] indexes = indexesOf(columns, selectedColumns);
+            if (indexes == null) {
+                return null;
+            }
+            List<List<Object>> projected = new ArrayList<>(rows.size());
+            for (List<Object> row : rows) {
+                projected.add(project(row, indexes));
+            }
+            return projected;
+        }
+
+        /**
+         * Returns the position of each selected column among the columns, or null if
+         * one of them is missing
+         */
+        static int[] indexesOf(List<String> columns, List<String> selectedColumns) {
+            int[] indexes = new int[selectedColumns.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = columns.indexOf(selectedColumns.get(i));
+                if (indexes[i] < 0) {
+                    return null;
+                }
+            }
+            return indexes;
+        }
+
+        static List<Object> project(List<Object> row, int[] indexes) {
+            List<Object> values = new ArrayList<>(indexes.length);
+            for (int index : indexes) {
+                values.add(row.get(index));
+            }
+            return values;
+        }
+
+        private static long estimateBytes(List<String> columns, List<List<Object>> rows) {
+            long size = estimateBytes(columns);
+            for (List<Object> row : rows) {
+                size += estimateRowBytes(row);
+            }
+            return size;
+        }
+
+        static long estimateBytes(List<String> columns) {
+            long size = 64;
+            for (String column : columns) {
+                size += 40 + 2L * column.length();
+            }
+            return size;
+        }
+
+        static long estimateRowBytes(List<Object> row) {
+            long size = 32 + 8L * row.size();
+            for (Object value : row) {
+                if (value instanceof CharSequence) {
+                    size += 40 + 2L * ((CharSequence) value).length();
+                } else if (value != null) {
+                    size += 24;
+                }
+            }
+            return size;
+        }
+    }
+}
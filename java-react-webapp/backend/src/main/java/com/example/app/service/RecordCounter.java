@@ -0,0 +1,50 @@
+package com.example.app.service;
+
+/**
+ * Counts the records of CSV or TabSeparated output as its bytes go by: line feeds,
+ * except those inside a quoted CSV value, plus a last record without one. TabSeparated
+ * escapes line feeds in values, so every one there ends a record.
+ */
+final class RecordCounter {
+
+    private final boolean csv;
+    private final boolean withHeader;
+    private boolean quoted;
+    private boolean lineOpen;
+    private long lines;
+
+    /**
+     * @param withHeader whether the first line holds column names rather than a record
+     */
+    RecordCounter(ExportFormat format, boolean withHeader) {
+        this.csv = format == ExportFormat.CSV;
+        this.withHeader = withHeader;
+    }
+
+    /**
+     * Whether the format's records can be counted this way
+     */
+    static boolean canCount(ExportFormat format) {
+        return format == ExportFormat.CSV || format == ExportFormat.TSV;
+    }
+
+    void update(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (csv && b == '"') {
+                // An escaped quote ("") toggles twice
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                lines++;
+                lineOpen = false;
+                continue;
+            }
+            lineOpen = true;
+        }
+    }
+
+    long getRecords() {
+        long total = lines + (lineOpen ? 1 : 0);
+        return Math.max(0, withHeader ? total - 1 : total);
+    }
+}
@@ -0,0 +1,409 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.metrics.Counter;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.model.ConnectionConfig;
+import com.example.app.model.ShardConfig;
+import com.example.app.util.ThreadPools;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads requests over the replicas of a connection (its host plus
+ * {@link ConnectionConfig#getReplicas()}) and keeps failing ones out of rotation.
+ * The order replicas are tried in follows the connection's loadBalancing policy:
+ * "round_robin" (default), "least_loaded" (fewest requests in flight) or "latency"
+ * (lowest average response time of requests and health checks).
+ *
+ * Each replica has a circuit breaker: after {@code app.clickhouse.breakerFailures}
+ * (default 3) failures in a row (requests it didn't answer, or health checks and JDBC
+ * handshakes slower than {@code app.clickhouse.slowMs}, default 5000), it is only tried after every available replica for
+ * {@code app.clickhouse.breakerOpenMs} (default 30000); one more failure after that
+ * opens it again. Every {@code app.clickhouse.healthCheckMs} (default 5000) each known
+ * replica's /ping is requested, all at once, which closes the breaker of a recovered
+ * replica, opens the breaker of one that stopped answering and keeps latencies current.
+ *
+ * A replica no connection has listed for {@code app.clickhouse.replicaIdleMs} (default
+ * 600000) and with no request in flight is forgotten along with its gauges, so replicas
+ * of connections that are no longer used aren't pinged or reported forever.
+ */
+public final class ReplicaBalancer {
+
+    private static final Logger log = Logger.getLogger(ReplicaBalancer.class);
+
+    public static final String ROUND_ROBIN = "round_robin";
+    public static final String LEAST_LOADED = "least_loaded";
+    public static final String LATENCY = "latency";
+
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("app.clickhouse.breakerFailures", 3);
+    private static final long OPEN_MS = Long.getLong("app.clickhouse.breakerOpenMs", 30000);
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("app.clickhouse.slowMs", 5000));
+    private static final long HEALTH_CHECK_MS = Long.getLong("app.clickhouse.healthCheckMs", 5000);
+    private static final long IDLE_MS = Long.getLong("app.clickhouse.replicaIdleMs", 600000);
+    private static final int PING_TIMEOUT_MS = 2000;
+    // Weight of the newest sample in the latency average
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private static final ReplicaBalancer INSTANCE = new ReplicaBalancer();
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Rotation> rotations = new ConcurrentHashMap<>();
+    private final Counter breakersOpened;
+    private final ExecutorService pings = ThreadPools.newTaskExecutor("replica-ping", 8);
+
+    public static ReplicaBalancer getInstance() {
+        return INSTANCE;
+    }
+
+    private ReplicaBalancer() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        breakersOpened = registry.counter("clickhouse_replica_breaker_opened_total",
+                "Times a replica was taken out of rotation");
+        if (HEALTH_CHECK_MS > 0) {
+            ScheduledExecutorService healthChecks = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "replica-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecks.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_MS, HEALTH_CHECK_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * True if the connection lists replicas to spread requests over
+     */
+    public static boolean isBalanced(ConnectionConfig config) {
+        return config.getReplicas() != null && !config.getReplicas().isEmpty();
+    }
+
+    /**
+     * Checks the connection's replicas, its shards' included, and its loadBalancing policy
+     * when a request arrives, rather than when its first query goes out
+     *
+     * @throws IllegalArgumentException naming the first value that isn't valid
+     */
+    public static void validate(ConnectionConfig config) {
+        if (config == null) {
+            return;
+        }
+        policy(config);
+        if (config.getReplicas() != null) {
+            for (String replica : config.getReplicas()) {
+                parseReplica(replica, config.getPort());
+            }
+        }
+        if (config.getShards() != null) {
+            for (ShardConfig shard : config.getShards()) {
+                if (shard.getReplicas() != null) {
+                    for (String replica : shard.getReplicas()) {
+                        parseReplica(replica, config.getPort());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses "host", "host:port", "[ipv6]" or "[ipv6]:port"; the port defaults to defaultPort
+     */
+    static InetSocketAddress parseReplica(String replica, int defaultPort) {
+        String value = replica != null ? replica.trim() : "";
+        String host = value;
+        String port = null;
+        if (value.startsWith("[")) {
+            int end = value.indexOf(']');
+            if (end < 0 || (end + 1 < value.length() && value.charAt(end + 1) != ':')) {
+                throw invalidReplica(replica);
+            }
+            host = value.substring(0, end + 1);
+            port = end + 1 < value.length() ? value.substring(end + 2) : null;
+        } else if (value.indexOf(':') >= 0) {
+            int colon = value.indexOf(':');
+            if (value.indexOf(':', colon + 1) >= 0) {
+                throw new IllegalArgumentException("replica " + replica
+                        + " looks like an IPv6 address; write it in brackets, e.g. [::1]:8123");
+            }
+            host = value.substring(0, colon);
+            port = value.substring(colon + 1);
+        }
+        int number = defaultPort;
+        if (port != null) {
+            try {
+                number = Integer.parseInt(port);
+            } catch (NumberFormatException e) {
+                throw invalidReplica(replica);
+            }
+        }
+        if (host.isEmpty() || "[]".equals(host) || number < 1 || number > 65535) {
+            throw invalidReplica(replica);
+        }
+        return InetSocketAddress.createUnresolved(host, number);
+    }
+
+    private static IllegalArgumentException invalidReplica(String replica) {
+        return new IllegalArgumentException(
+                "replicas must be \"host\" or \"host:port\" with a port from 1 to 65535, got " + replica);
+    }
+
+    private static String policy(ConnectionConfig config) {
+        String policy = config.getLoadBalancing() != null ? config.getLoadBalancing().toLowerCase() : ROUND_ROBIN;
+        if (!ROUND_ROBIN.equals(policy) && !LEAST_LOADED.equals(policy) && !LATENCY.equals(policy)) {
+            throw new IllegalArgumentException("loadBalancing must be round_robin, least_loaded or latency, got "
+                    + config.getLoadBalancing());
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the replicas to try, best first: those whose breaker is closed in policy
+     * order, then the others, soonest to close first
+     */
+    List<Endpoint> order(ConnectionConfig config) {
+        boolean secure = config.getJwtToken() != null && !config.getJwtToken().isEmpty();
+        List<Endpoint> candidates = new ArrayList<>();
+        candidates.add(endpoint(config.getHost(), config.getPort(), secure));
+        for (String replica : config.getReplicas()) {
+            InetSocketAddress address = parseReplica(replica, config.getPort());
+            candidates.add(endpoint(address.getHostString(), address.getPort(), secure));
+        }
+        return order(candidates, policy(config));
+    }
+
+    /**
+     * Returns one shard's replicas to try, best first, by the cluster's loadBalancing policy
+     */
+    List<Endpoint> order(ConnectionConfig cluster, ShardConfig shard) {
+        boolean secure = cluster.getJwtToken() != null && !cluster.getJwtToken().isEmpty();
+        List<Endpoint> candidates = new ArrayList<>();
+        for (String replica : shard.getReplicas()) {
+            InetSocketAddress address = parseReplica(replica, cluster.getPort());
+            candidates.add(endpoint(address.getHostString(), address.getPort(), secure));
+        }
+        return order(candidates, policy(cluster));
+    }
+
+    private List<Endpoint> order(List<Endpoint> candidates, String policy) {
+        // Rotate first so ties (and round robin) spread evenly
+        String key = String.valueOf(candidates);
+        Rotation rotation = rotations.computeIfAbsent(key, k -> new Rotation());
+        rotation.lastUsed = System.currentTimeMillis();
+        int offset = (int) (rotation.next.getAndIncrement() % candidates.size());
+        List<Endpoint> ordered = new ArrayList<>(candidates.subList(offset, candidates.size()));
+        ordered.addAll(candidates.subList(0, offset));
+        if (LEAST_LOADED.equals(policy)) {
+            ordered.sort(Comparator.comparingInt(endpoint -> endpoint.inFlight.get()));
+        } else if (LATENCY.equals(policy)) {
+            ordered.sort(Comparator.comparingLong(endpoint -> endpoint.latencyNanos));
+        }
+
+        long now = System.currentTimeMillis();
+        List<Endpoint> available = new ArrayList<>();
+        List<Endpoint> open = new ArrayList<>();
+        for (Endpoint endpoint : ordered) {
+            (endpoint.isOpen(now) ? open : available).add(endpoint);
+        }
+        open.sort(Comparator.comparingLong(endpoint -> endpoint.openUntil));
+        available.addAll(open);
+        return available;
+    }
+
+    /**
+     * Connection settings for one replica: the connection's credentials and database at its address
+     */
+    static ConnectionConfig configFor(ConnectionConfig config, Endpoint endpoint) {
+        ConnectionConfig replica = new ConnectionConfig();
+        replica.setHost(endpoint.host);
+        replica.setPort(endpoint.port);
+        replica.setDatabase(config.getDatabase());
+        replica.setUser(config.getUser());
+        replica.setJwtToken(config.getJwtToken());
+        return replica;
+    }
+
+    private Endpoint endpoint(String host, int port, boolean secure) {
+        Endpoint found = endpoints.computeIfAbsent((secure ? "https://" : "http://") + host + ":" + port, key -> {
+            Endpoint endpoint = new Endpoint(host, port, secure);
+            MetricsRegistry registry = MetricsRegistry.getInstance();
+            String address = host + ":" + port;
+            registry.gauge("clickhouse_replica_available", "1 if the replica is in rotation, 0 if its breaker is open",
+                    () -> endpoint.isOpen(System.currentTimeMillis()) ? 0 : 1, "replica", address);
+            registry.gauge("clickhouse_replica_in_flight", "Requests currently using the replica",
+                    endpoint.inFlight::get, "replica", address);
+            registry.gauge("clickhouse_replica_latency_ms", "Average replica response time",
+                    () -> TimeUnit.NANOSECONDS.toMillis(endpoint.latencyNanos), "replica", address);
+            return endpoint;
+        });
+        found.lastUsed = System.currentTimeMillis();
+        return found;
+    }
+
+    private void checkHealth() {
+        evictIdle(System.currentTimeMillis() - IDLE_MS);
+        List<Future<?>> checks = new ArrayList<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            checks.add(pings.submit(() -> ping(endpoint)));
+        }
+        // The next round is scheduled once every replica has answered or timed out
+        for (Future<?> check : checks) {
+            try {
+                check.get();
+            } catch (ExecutionException e) {
+                log.warn("Replica health check failed", "error", String.valueOf(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forgets replicas and rotations not used since cutoff, unregistering the replicas' gauges
+     */
+    private void evictIdle(long cutoff) {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        for (String key : endpoints.keySet()) {
+            // Atomic with endpoint(), so a replica listed again gets fresh gauges rather than losing them
+            endpoints.computeIfPresent(key, (k, endpoint) -> {
+                if (endpoint.lastUsed >= cutoff || endpoint.inFlight.get() > 0) {
+                    return endpoint;
+                }
+                String address = endpoint.toString();
+                registry.remove("clickhouse_replica_available", "replica", address);
+                registry.remove("clickhouse_replica_in_flight", "replica", address);
+                registry.remove("clickhouse_replica_latency_ms", "replica", address);
+                log.info("Forgetting idle replica", "replica", address);
+                return null;
+            });
+        }
+        rotations.values().removeIf(rotation -> rotation.lastUsed < cutoff);
+    }
+
+    private static void ping(Endpoint endpoint) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    (endpoint.secure ? "https://" : "http://") + endpoint.host + ":" + endpoint.port + "/ping")
+                    .openConnection();
+            connection.setConnectTimeout(PING_TIMEOUT_MS);
+            connection.setReadTimeout(PING_TIMEOUT_MS);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + connection.getResponseCode());
+                }
+            } finally {
+                connection.disconnect();
+            }
+            boolean wasOpen = endpoint.isOpen(System.currentTimeMillis());
+            endpoint.checked(System.nanoTime() - start);
+            if (wasOpen) {
+                log.info("Replica answers health checks again", "replica", endpoint);
+            }
+        } catch (IOException | RuntimeException e) {
+            endpoint.failed();
+        }
+    }
+
+    /**
+     * Where round robin starts next for one list of replicas
+     */
+    private static final class Rotation {
+        private final AtomicLong next = new AtomicLong();
+        private volatile long lastUsed;
+    }
+
+    /**
+     * One replica's load, latency and breaker state, shared by every connection that lists it
+     */
+    final class Endpoint {
+        private final String host;
+        private final int port;
+        private final boolean secure;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long latencyNanos;
+        private volatile long openUntil;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private int consecutiveFailures;
+
+        private Endpoint(String host, int port, boolean secure) {
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+        }
+
+        boolean isOpen(long now) {
+            return openUntil > now;
+        }
+
+        /**
+         * Marks a request as using this replica until {@link #release()}
+         */
+        void acquire() {
+            inFlight.incrementAndGet();
+        }
+
+        void release() {
+            inFlight.decrementAndGet();
+        }
+
+        /**
+         * Records a request the replica answered, nanos after it was sent. A query may take
+         * as long as it needs, so only {@link #checked} treats a slow answer as a failure.
+         */
+        synchronized void succeeded(long nanos) {
+            recordLatency(nanos);
+            consecutiveFailures = 0;
+            openUntil = 0;
+        }
+
+        /**
+         * Records a health check or handshake; one slower than app.clickhouse.slowMs counts as a failure
+         */
+        synchronized void checked(long nanos) {
+            if (nanos > SLOW_NANOS) {
+                recordLatency(nanos);
+                failed();
+                return;
+            }
+            succeeded(nanos);
+        }
+
+        private void recordLatency(long nanos) {
+            latencyNanos = latencyNanos == 0 ? nanos
+                    : (long) (LATENCY_SMOOTHING * nanos + (1 - LATENCY_SMOOTHING) * latencyNanos);
+        }
+
+        synchronized void failed() {
+            consecutiveFailures++;
+            long now = System.currentTimeMillis();
+            if (consecutiveFailures >= FAILURE_THRESHOLD && !isOpen(now)) {
+                openUntil = now + OPEN_MS;
+                breakersOpened.increment();
+                log.warn("Taking replica out of rotation", "replica", this, "failures", consecutiveFailures,
+                        "ms", OPEN_MS);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.app.service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives rows one at a time as they are read, e.g. to stream a query result
+ * to a response instead of collecting it in a list
+ */
+@FunctionalInterface
+public interface RowSink {
+
+    void accept(List<Object> row) throws IOException;
+}
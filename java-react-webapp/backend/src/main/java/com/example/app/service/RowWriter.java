@@ -0,0 +1,19 @@
+package com.example.app.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for exported rows. Implementations write one row at a time so
+ * exports never need the whole result in memory.
+ */
+public interface RowWriter extends Closeable {
+
+    void writeRow(List<Object> row) throws IOException;
+
+    /**
+     * Number of rows written so far
+     */
+    long getRowsWritten();
+}
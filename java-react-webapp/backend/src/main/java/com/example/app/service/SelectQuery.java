@@ -0,0 +1,341 @@
+package com.example.app.service;
+
+import com.example.app.model.IngestRequest;
+import com.example.app.model.JoinTable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Describes the SELECT behind an export or preview: table, columns, extra WHERE
+ * conditions, and optionally joined tables, a SAMPLE ratio, ORDER BY and LIMIT/OFFSET.
+ * Conditions are ClickHouse expressions ANDed together, each in its own parentheses;
+ * those that come from a request are checked with {@link #validateFilter} first.
+ *
+ * With joins every table is aliased by its name (or the join's alias), columns are
+ * written "table.column" and keep that as their output name, and a bare column
+ * belongs to the main table.
+ */
+public class SelectQuery {
+
+    // A column, optionally backquoted, with an optional direction and NULLS placement
+    private static final Pattern ORDER_ITEM = Pattern.compile(
+            "(?i)(`[^`]+`|[A-Za-z_][A-Za-z0-9_.]*)(\\s+(ASC|DESC))?(\\s+NULLS\\s+(FIRST|LAST))?");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+    private static final Pattern JOIN_TYPE = Pattern.compile("(?i)(INNER|LEFT|RIGHT|FULL)(\\s+(OUTER|ANY|ALL|SEMI|ANTI))?");
+
+    private final String tableName;
+    private final List<String> columns;
+    private final List<String> conditions = new ArrayList<>();
+    private final List<JoinTable> joins = new ArrayList<>();
+    private BigDecimal sampleRatio;
+    private String orderBy;
+    private long limit;
+    private long offset;
+
+    public SelectQuery(String tableName, List<String> columns) {
+        this.tableName = tableName;
+        this.columns = columns;
+    }
+
+    /**
+     * Builds the query an export request asks for, validating its filter, sampleRatio,
+     * orderBy and limit
+     *
+     * @throws IllegalArgumentException if one of them is malformed
+     */
+    public static SelectQuery forRequest(IngestRequest request) {
+        SelectQuery query = new SelectQuery(request.getTableName(), request.getSelectedColumns());
+        if (request.getJoins() != null && !request.getJoins().isEmpty()) {
+            query.addJoins(request.getJoins());
+        }
+        String filter = request.getFilter();
+        if (filter != null && !filter.trim().isEmpty()) {
+            validateFilter(filter);
+            query.conditions.add(filter.trim());
+        }
+        if (request.getSampleRatio() != null) {
+            double ratio = request.getSampleRatio();
+            if (!(ratio > 0 && ratio <= 1)) {
+                throw new IllegalArgumentException("sampleRatio must be above 0 and at most 1, got " + ratio);
+            }
+            query.sampleRatio = BigDecimal.valueOf(ratio);
+        }
+        String orderBy = request.getOrderBy();
+        if (orderBy != null && !orderBy.trim().isEmpty()) {
+            validateOrderBy(orderBy);
+            query.orderBy = orderBy.trim();
+        }
+        if (request.getLimit() < 0) {
+            throw new IllegalArgumentException("limit can't be negative, got " + request.getLimit());
+        }
+        query.limit = request.getLimit();
+        return query;
+    }
+
+    /**
+     * Validates the joins and adds them with their aliases and types normalized
+     */
+    private void addJoins(List<JoinTable> requested) {
+        Set<String> aliases = new HashSet<>();
+        aliases.add(getMainAlias());
+        for (JoinTable join : requested) {
+            if (join.getTableName() == null || !TABLE_NAME.matcher(join.getTableName()).matches()) {
+                throw new IllegalArgumentException("Invalid join table name: " + join.getTableName());
+            }
+            String type = join.getType() != null ? join.getType().trim().replaceAll("\\s+", " ") : "LEFT";
+            if (!JOIN_TYPE.matcher(type).matches()) {
+                throw new IllegalArgumentException("Unsupported join type: " + join.getType());
+            }
+            JoinTable normalized = new JoinTable();
+            normalized.setTableName(join.getTableName());
+            normalized.setAlias(join.getAlias() != null && !join.getAlias().isEmpty() ? join.getAlias()
+                    : unqualified(join.getTableName()));
+            normalized.setType(type.toUpperCase());
+            if (!IDENTIFIER.matcher(normalized.getAlias()).matches() || !aliases.add(normalized.getAlias())) {
+                throw new IllegalArgumentException("Join alias must be a unique name, got: " + normalized.getAlias());
+            }
+            List<String> leftKeys = join.getLeftKeys();
+            List<String> rightKeys = join.getRightKeys();
+            if (leftKeys == null || rightKeys == null || leftKeys.isEmpty() || leftKeys.size() != rightKeys.size()) {
+                throw new IllegalArgumentException("Join with " + join.getTableName()
+                        + " needs leftKeys and rightKeys of the same length");
+            }
+            for (String key : leftKeys) {
+                requireColumn(key, aliases);
+            }
+            for (String key : rightKeys) {
+                if (!IDENTIFIER.matcher(key).matches()) {
+                    throw new IllegalArgumentException("Join rightKeys must be columns of " + join.getTableName()
+                            + ", got: " + key);
+                }
+            }
+            normalized.setLeftKeys(leftKeys);
+            normalized.setRightKeys(rightKeys);
+            joins.add(normalized);
+        }
+        for (String column : columns) {
+            requireColumn(column, aliases);
+        }
+    }
+
+    private void requireColumn(String column, Set<String> aliases) {
+        String[] parts = column.split("\\.", -1);
+        boolean valid = parts.length <= 2 && IDENTIFIER.matcher(parts[parts.length - 1]).matches()
+                && (parts.length == 1 || aliases.contains(parts[0]));
+        if (!valid) {
+            throw new IllegalArgumentException("Column must be \"table.column\" of a joined table, got: " + column);
+        }
+    }
+
+    private String getMainAlias() {
+        return unqualified(tableName);
+    }
+
+    private static String unqualified(String tableName) {
+        return tableName.substring(tableName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Checks that a filter is one expression: quotes and parentheses balanced, no
+     * statement separators or comments. Rendered in parentheses, it therefore can't
+     * close the WHERE clause and append clauses of its own.
+     */
+    public static void validateFilter(String filter) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            char next = i + 1 < filter.length() ? filter.charAt(i + 1) : 0;
+            if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth < 0) {
+                throw new IllegalArgumentException("filter has an unmatched ')'");
+            } else if (c == ';') {
+                throw new IllegalArgumentException("filter must be a single expression without ';'");
+            } else if (c == '#' || (c == '-' && next == '-') || (c == '/' && next == '*')) {
+                throw new IllegalArgumentException("filter can't contain comments");
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("filter has an unterminated " + quote + " quote");
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("filter has an unmatched '('");
+        }
+    }
+
+    /**
+     * Checks that orderBy is a comma-separated list of columns, each optionally followed
+     * by ASC/DESC and NULLS FIRST/LAST
+     */
+    public static void validateOrderBy(String orderBy) {
+        for (String item : orderBy.split(",", -1)) {
+            if (!ORDER_ITEM.matcher(item.trim()).matches()) {
+                throw new IllegalArgumentException("orderBy must list columns with an optional ASC or DESC, got: "
+                        + item.trim());
+            }
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<String> getConditions() {
+        return conditions;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public boolean hasJoins() {
+        return !joins.isEmpty();
+    }
+
+    /**
+     * Renders a column reference; with joins "table.column" becomes `table`.`column`
+     * and a bare column is qualified with the main table
+     */
+    public String quoteColumn(String column) {
+        if (joins.isEmpty()) {
+            return quoteIdentifier(column);
+        }
+        int dot = column.indexOf('.');
+        String table = dot < 0 ? getMainAlias() : column.substring(0, dot);
+        return quoteIdentifier(table) + "." + quoteIdentifier(column.substring(dot + 1));
+    }
+
+    /**
+     * Backquotes a name, escaping backslashes and backquotes in it so it stays one identifier
+     */
+    private static String quoteIdentifier(String name) {
+        return "`" + name.replace("\\", "\\\\").replace("`", "\\`") + "`";
+    }
+
+    /**
+     * True if the query reads only part of the table's rows
+     */
+    public boolean isFiltered() {
+        return !conditions.isEmpty() || sampleRatio != null;
+    }
+
+    public boolean isOrdered() {
+        return orderBy != null;
+    }
+
+    /**
+     * False if the rows have to come in a particular order, stop at a row count or come
+     * from a join (shard filters name the main table's columns), so the query has to
+     * run as one stream
+     */
+    public boolean canSplitIntoShards() {
+        return orderBy == null && limit <= 0 && joins.isEmpty();
+    }
+
+    /**
+     * Returns a copy of this query with one more condition
+     */
+    public SelectQuery where(String condition) {
+        SelectQuery copy = copy();
+        copy.conditions.add(condition);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this query that reads at most limit rows (0 for all) after
+     * skipping offset rows
+     */
+    public SelectQuery limit(long limit, long offset) {
+        SelectQuery copy = copy();
+        copy.limit = limit;
+        copy.offset = offset;
+        return copy;
+    }
+
+    private SelectQuery copy() {
+        SelectQuery copy = new SelectQuery(tableName, columns);
+        copy.conditions.addAll(conditions);
+        copy.joins.addAll(joins);
+        copy.sampleRatio = sampleRatio;
+        copy.orderBy = orderBy;
+        copy.limit = limit;
+        copy.offset = offset;
+        return copy;
+    }
+
+    /**
+     * Renders the statement, qualifying table names with the given function (e.g.
+     * adding the connection's database)
+     */
+    public String toSql(UnaryOperator<String> qualify) {
+        StringBuilder selectList = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) selectList.append(", ");
+            selectList.append(quoteColumn(columns.get(i)));
+            if (!joins.isEmpty()) {
+                selectList.append(" AS ").append(quoteIdentifier(columns.get(i)));
+            }
+        }
+        StringBuilder sql = new StringBuilder(toSql(qualify, selectList.toString()));
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        if (offset > 0) {
+            sql.append(limit > 0 ? "" : " LIMIT " + Long.MAX_VALUE).append(" OFFSET ").append(offset);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Renders the statement with its own select list, e.g. aggregates over the matching
+     * rows. ORDER BY and LIMIT are left out; they don't apply to aggregates.
+     */
+    public String toSql(UnaryOperator<String> qualify, String selectList) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(selectList);
+        sql.append(" FROM ").append(qualify.apply(tableName));
+        if (!joins.isEmpty()) {
+            sql.append(" AS `").append(getMainAlias()).append("`");
+        }
+        if (sampleRatio != null) {
+            sql.append(" SAMPLE ").append(sampleRatio.toPlainString());
+        }
+        for (JoinTable join : joins) {
+            sql.append(" ").append(join.getType()).append(" JOIN ").append(qualify.apply(join.getTableName()))
+                    .append(" AS `").append(join.getAlias()).append("` ON ");
+            for (int i = 0; i < join.getLeftKeys().size(); i++) {
+                if (i > 0) sql.append(" AND ");
+                sql.append(quoteColumn(join.getLeftKeys().get(i))).append(" = `").append(join.getAlias())
+                        .append("`.`").append(join.getRightKeys().get(i)).append("`");
+            }
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE (" : " AND (").append(conditions.get(i)).append(")");
+        }
+        return sql.toString();
+    }
+}
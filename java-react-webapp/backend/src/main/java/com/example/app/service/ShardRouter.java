@@ -0,0 +1,190 @@
+package com.example.app.service;
+
+import com.example.app.logging.Logger;
+import com.example.app.metrics.Counter;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.model.ConnectionConfig;
+import com.example.app.model.ShardConfig;
+import com.example.app.util.ThreadPools;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inserts blocks straight into the local tables of a cluster's shards, so a Distributed
+ * table doesn't have to forward them from one coordinator. Rows are assigned to shards
+ * the way a Distributed table with the same weights does it: the sharding key modulo the
+ * total weight picks a slot, and each shard owns as many consecutive slots as its weight.
+ * Integer keys therefore land where a Distributed table sharded by that column would put
+ * them. Other values (strings, decimals) are hashed with Java's String.hashCode, which
+ * keeps equal keys on one shard but matches no ClickHouse sharding expression, so a
+ * Distributed table over the same shards would place those rows elsewhere. Without a
+ * sharding key each block goes whole to the next shard in turn, or, if it has a
+ * deduplication token, to the shard the token hashes to, so a block sent again lands on
+ * the shard that already has it.
+ *
+ * The shards' blocks are inserted in parallel. Each goes to the first replica that
+ * accepts it, in the order {@link ReplicaBalancer} gives for the cluster's loadBalancing
+ * policy, so a shard replica that keeps failing is taken out of rotation by the same
+ * circuit breaker as any other replica. If every replica of a shard fails the insert fails, while the other
+ * shards keep their rows, so a retried block relies on ClickHouse's insert deduplication
+ * (Replicated tables) not to be stored twice: each shard's part carries the block's
+ * deduplication token with "-shard-" and the shard index appended.
+ */
+class ShardRouter {
+
+    private static final Logger log = Logger.getLogger(ShardRouter.class);
+    private static final Logger failoverLog = log.rateLimited(5000);
+
+    private static final ExecutorService shardPool = ThreadPools.newTaskExecutor("shard-insert", 16);
+    private static final AtomicLong nextBlock = new AtomicLong();
+
+    private static final Counter replicaFailures = MetricsRegistry.getInstance().counter(
+            "clickhouse_replica_insert_failures_total", "Shard inserts a replica failed, moving on to the next one");
+
+    private final ClickHouseService clickHouseService;
+    private final ReplicaBalancer replicaBalancer = ReplicaBalancer.getInstance();
+
+    ShardRouter(ClickHouseService clickHouseService) {
+        this.clickHouseService = clickHouseService;
+    }
+
+    /**
+     * Splits the rows by shard and inserts each shard's part into its local table
+     *
+     * @param deduplicationToken the block's insert_deduplication_token, or null
+     * @return the number of rows inserted
+     */
+    int insert(ConnectionConfig cluster, String tableName, List<String> columns, List<List<Object>> rows,
+               String deduplicationToken) throws SQLException {
+        List<ShardConfig> shards = cluster.getShards();
+        List<List<List<Object>>> parts = split(cluster, columns, rows, deduplicationToken);
+        String localTable = tableName + (cluster.getLocalTableSuffix() != null ? cluster.getLocalTableSuffix() : "");
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            final int shard = i;
+            final List<List<Object>> part = parts.get(i);
+            if (!part.isEmpty()) {
+                String token = deduplicationToken != null ? deduplicationToken + "-shard-" + shard : null;
+                futures.add(shardPool.submit(() -> insertIntoShard(cluster, shard, localTable, columns, part, token)));
+            }
+        }
+
+        int inserted = 0;
+        SQLException failure = null;
+        for (Future<Integer> future : futures) {
+            try {
+                inserted += future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                            : new SQLException(e.getCause().getMessage(), e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while inserting into shards", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the rows of each shard, in shard order
+     */
+    List<List<List<Object>>> split(ConnectionConfig cluster, List<String> columns, List<List<Object>> rows,
+                                   String deduplicationToken) {
+        List<ShardConfig> shards = cluster.getShards();
+        int[] slotOwners = slotOwners(shards);
+        List<List<List<Object>>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+
+        String key = cluster.getShardingKey();
+        if (key == null || key.isEmpty()) {
+            int slot = deduplicationToken != null ? Math.floorMod(deduplicationToken.hashCode(), slotOwners.length)
+                    : (int) (nextBlock.getAndIncrement() % slotOwners.length);
+            int shard = slotOwners[slot];
+            parts.get(shard).addAll(rows);
+            return parts;
+        }
+        int keyIndex = columns.indexOf(key);
+        if (keyIndex < 0) {
+            throw new IllegalArgumentException("Sharding key " + key + " is not one of the inserted columns");
+        }
+        for (List<Object> row : rows) {
+            parts.get(slotOwners[slot(row.get(keyIndex), slotOwners.length)]).add(row);
+        }
+        return parts;
+    }
+
+    /**
+     * Maps each slot to its shard: shard 0 owns the first weight-of-shard-0 slots, and so on
+     */
+    private static int[] slotOwners(List<ShardConfig> shards) {
+        List<Integer> owners = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            for (int w = 0; w < Math.max(1, shards.get(i).getWeight()); w++) {
+                owners.add(i);
+            }
+        }
+        return owners.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The key's slot: an integer key modulo slots, as ClickHouse computes it, otherwise a
+     * local hash of its text that ClickHouse doesn't reproduce
+     */
+    static int slot(Object key, int slots) {
+        if (key == null) {
+            return 0;
+        }
+        if (key instanceof Number && !(key instanceof Double) && !(key instanceof Float)) {
+            return (int) Long.remainderUnsigned(((Number) key).longValue(), slots);
+        }
+        String text = key.toString().trim();
+        try {
+            return (int) Long.remainderUnsigned(Long.parseLong(text), slots);
+        } catch (NumberFormatException e) {
+            return Math.floorMod(text.hashCode(), slots);
+        }
+    }
+
+    private int insertIntoShard(ConnectionConfig cluster, int shard, String localTable, List<String> columns,
+                                List<List<Object>> rows, String deduplicationToken) throws SQLException {
+        ShardConfig shardConfig = cluster.getShards().get(shard);
+        if (shardConfig.getReplicas() == null || shardConfig.getReplicas().isEmpty()) {
+            throw new SQLException("Shard " + shard + " has no replicas");
+        }
+
+        SQLException lastFailure = null;
+        for (ReplicaBalancer.Endpoint replica : replicaBalancer.order(cluster, shardConfig)) {
+            long start = System.nanoTime();
+            replica.acquire();
+            try {
+                int inserted = clickHouseService.insertData(ReplicaBalancer.configFor(cluster, replica),
+                        localTable, columns, rows, deduplicationToken);
+                replica.succeeded(System.nanoTime() - start);
+                return inserted;
+            } catch (SQLException e) {
+                lastFailure = e;
+                replica.failed();
+                replicaFailures.increment();
+                failoverLog.warn("Replica insert failed, trying the next one", "shard", shard, "replica", replica,
+                        "error", e.getMessage());
+            } finally {
+                replica.release();
+            }
+        }
+        throw new SQLException("All replicas of shard " + shard + " failed: " + lastFailure.getMessage(), lastFailure);
+    }
+}
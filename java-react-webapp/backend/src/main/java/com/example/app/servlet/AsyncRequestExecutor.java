@@ -0,0 +1,294 @@
+package com.example.app.servlet;
+
+import com.example.app.logging.Logger;
+import com.example.app.metrics.Counter;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.util.JsonCodec;
+import com.example.app.util.RunningStatements;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking servlet work (JDBC calls, file parsing) on a bounded I/O pool instead
+ * of the Jetty request thread. The request is put in async mode and handed to the pool;
+ * a full pool answers 503, a handler still computing when its deadline passes is
+ * interrupted and answered with 504, and a request the container reports as failed
+ * (e.g. the client went away) is cancelled. Interrupting doesn't stop a thread blocked
+ * in the JDBC driver, so the statements a handler runs are registered through
+ * {@link RunningStatements} and cancelled too, which kills the query on the server.
+ *
+ * The container only notices a client that went away when the response is written, so
+ * a handler computing its result keeps running until it responds or its deadline passes.
+ *
+ * Handlers compute first and call {@link AsyncCall#respond()} before writing anything,
+ * so a timeout never races a response that is already being written.
+ *
+ * Sizing comes from system properties: {@code app.servlet.ioThreads} (default 16),
+ * {@code app.servlet.queueSize} (default 64) and {@code app.servlet.timeoutMs} (default 30000).
+ */
+public final class AsyncRequestExecutor {
+
+    private static final Logger log = Logger.getLogger(AsyncRequestExecutor.class);
+
+    public static final long DEFAULT_TIMEOUT_MS = Long.getLong("app.servlet.timeoutMs", 30000);
+    /** Passed as the timeout for work bounded by the client rather than the server, e.g. uploads */
+    public static final long NO_TIMEOUT = 0;
+
+    private static final int IO_THREADS = Integer.getInteger("app.servlet.ioThreads", 16);
+    private static final int QUEUE_SIZE = Integer.getInteger("app.servlet.queueSize", 64);
+
+    private static final ThreadPoolExecutor ioExecutor = newIoExecutor();
+    private static final ScheduledExecutorService deadlines = newDeadlineTimer();
+
+    private static final Counter rejected;
+    private static final Counter timedOut;
+    private static final Counter cancelled;
+
+    static {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        rejected = registry.counter("servlet_requests_rejected_total", "Requests refused because the I/O pool was full");
+        timedOut = registry.counter("servlet_requests_timed_out_total", "Requests answered 504 after their deadline");
+        cancelled = registry.counter("servlet_requests_cancelled_total", "Requests abandoned by the client or container");
+        registry.gauge("servlet_io_active_threads", "I/O pool threads running a request", ioExecutor::getActiveCount);
+        registry.gauge("servlet_io_queued_requests", "Requests waiting for an I/O pool thread",
+                () -> ioExecutor.getQueue().size());
+    }
+
+    private AsyncRequestExecutor() {
+    }
+
+    /**
+     * Work done for one request on the I/O pool
+     */
+    public interface Handler {
+        void handle(AsyncCall call) throws Exception;
+    }
+
+    /**
+     * Starts async processing of the request and runs the handler on the I/O pool.
+     * Returns immediately; the response is completed by whichever of the handler,
+     * the deadline or a container error finishes first.
+     *
+     * @param timeoutMs time the handler has to start its response, or {@link #NO_TIMEOUT}
+     */
+    public static void dispatch(HttpServletRequest request, HttpServletResponse response, long timeoutMs,
+                                Handler handler) {
+        AsyncContext async = request.startAsync(request, response);
+        // The deadline is enforced here; the container's own timeout would also cut off responses being written
+        async.setTimeout(0);
+        AsyncCall call = new AsyncCall(async);
+        async.addListener(call);
+        try {
+            call.task = ioExecutor.submit(() -> call.run(handler));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("I/O pool full, rejecting request", "uri", request.getRequestURI(),
+                    "queued", ioExecutor.getQueue().size());
+            call.abort(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, please retry");
+            return;
+        }
+        if (timeoutMs > 0) {
+            call.deadline = deadlines.schedule(call::timeout, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * One request in async mode. Its state only moves forward: running, then either
+     * responding and finished, or aborted (timed out, rejected, cancelled).
+     */
+    public static final class AsyncCall implements AsyncListener {
+        private static final int RUNNING = 0;
+        private static final int RESPONDING = 1;
+        private static final int FINISHED = 2;
+        private static final int ABORTED = 3;
+
+        private final AsyncContext async;
+        private final String uri;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final Queue<Statement> statements = new ConcurrentLinkedQueue<>();
+        private volatile Future<?> task;
+        private volatile ScheduledFuture<?> deadline;
+
+        AsyncCall(AsyncContext async) {
+            this.async = async;
+            this.uri = ((HttpServletRequest) async.getRequest()).getRequestURI();
+        }
+
+        public HttpServletRequest getRequest() {
+            return (HttpServletRequest) async.getRequest();
+        }
+
+        /**
+         * Claims the response for the handler. After this the deadline no longer
+         * applies; if the request was already aborted this throws, ending the handler.
+         */
+        public HttpServletResponse respond() {
+            if (!state.compareAndSet(RUNNING, RESPONDING)) {
+                throw new CancellationException("Request was aborted before the response started");
+            }
+            return (HttpServletResponse) async.getResponse();
+        }
+
+        private void run(Handler handler) {
+            RunningStatements.listen(this::track);
+            try {
+                handler.handle(this);
+            } catch (Throwable e) {
+                if (state.get() == ABORTED) {
+                    log.debug("Handler stopped after request was aborted", "uri", uri,
+                            "error", String.valueOf(e));
+                } else if (state.compareAndSet(RUNNING, RESPONDING)) {
+                    log.error("Request handler failed", e, "uri", uri);
+                    writeError((HttpServletResponse) async.getResponse(),
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error: " + e.getMessage());
+                } else {
+                    log.warn("Request handler failed after its response started", e,
+                            "uri", uri);
+                }
+            } finally {
+                RunningStatements.clear();
+                ScheduledFuture<?> pending = deadline;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                if (state.compareAndSet(RUNNING, FINISHED) || state.compareAndSet(RESPONDING, FINISHED)) {
+                    async.complete();
+                }
+            }
+        }
+
+        private void timeout() {
+            if (state.compareAndSet(RUNNING, ABORTED)) {
+                timedOut.increment();
+                cancelTask();
+                log.warn("Request timed out", "uri", uri);
+                writeError((HttpServletResponse) async.getResponse(), HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                        "Request timed out");
+                async.complete();
+            }
+        }
+
+        private void abort(int status, String message) {
+            if (state.compareAndSet(RUNNING, ABORTED)) {
+                writeError((HttpServletResponse) async.getResponse(), status, message);
+                async.complete();
+            }
+        }
+
+        private void track(Statement statement) {
+            if (state.get() == ABORTED) {
+                throw new CancellationException("Request was aborted before the query started");
+            }
+            statements.add(statement);
+        }
+
+        private void cancelTask() {
+            Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+            if (!statements.isEmpty()) {
+                // cancel() sends KILL QUERY and waits for the reply, which mustn't hold up the deadline timer
+                CompletableFuture.runAsync(this::cancelStatements);
+            }
+        }
+
+        private void cancelStatements() {
+            for (Statement statement; (statement = statements.poll()) != null; ) {
+                try {
+                    if (!statement.isClosed()) {
+                        statement.cancel();
+                    }
+                } catch (SQLException e) {
+                    log.debug("Could not cancel query", "uri", uri, "error", String.valueOf(e));
+                }
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // Usually the client disconnected; nobody is waiting for the result any more
+            cancelled.increment();
+            cancelTask();
+            if (state.compareAndSet(RUNNING, ABORTED)) {
+                log.debug("Request cancelled", "uri", uri,
+                        "error", String.valueOf(event.getThrowable()));
+                async.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // Container timeout is disabled in dispatch()
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) {
+        try {
+            if (response.isCommitted()) {
+                return;
+            }
+            response.reset();
+            response.setStatus(status);
+            response.setContentType("application/json");
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", true);
+            body.put("message", message);
+            response.getWriter().write(JsonCodec.write(body));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not write error response", "status", status, "error", String.valueOf(e));
+        }
+    }
+
+    private static ThreadPoolExecutor newIoExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "servlet-io-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledExecutorService newDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "servlet-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
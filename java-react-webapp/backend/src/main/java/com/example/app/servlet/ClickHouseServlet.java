@@ -1,23 +1,22 @@
 package com.example.app.servlet;
 
 import com.example.app.model.ConnectionConfig;
-import com.example.app.model.TableInfo;
 import com.example.app.service.ClickHouseService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.app.service.ReplicaBalancer;
+import com.example.app.servlet.AsyncRequestExecutor.AsyncCall;
+import com.example.app.util.JsonCodec;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
 
-@WebServlet("/api/clickhouse/*")
+@WebServlet(urlPatterns = "/api/clickhouse/*", asyncSupported = true)
 public class ClickHouseServlet extends HttpServlet {
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private final ClickHouseService clickHouseService = new ClickHouseService();
     
     @Override
@@ -30,50 +29,58 @@ public class ClickHouseServlet extends HttpServlet {
             resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No action specified");
             return;
         }
-        
-        // Parse the incoming JSON
-        BufferedReader reader = req.getReader();
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            body.append(line);
+        if (!pathInfo.equals("/connect") && !pathInfo.equals("/tables") && !pathInfo.equals("/schema")) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown action");
+            return;
         }
         
-        resp.setContentType("application/json");
+        // A slow ClickHouse must not hold a request thread; the call runs on the I/O pool
+        AsyncRequestExecutor.dispatch(req, resp, AsyncRequestExecutor.DEFAULT_TIMEOUT_MS,
+                call -> handleAction(call, pathInfo));
+    }
+    
+    private void handleAction(AsyncCall call, String pathInfo) throws IOException {
+        
+        // The body is parsed straight from the request stream
+        InputStream body = call.getRequest().getInputStream();
         
+        int status = HttpServletResponse.SC_OK;
+        Object reply;
         try {
             if (pathInfo.equals("/connect")) {
-                ConnectionConfig config = objectMapper.readValue(body.toString(), ConnectionConfig.class);
+                ConnectionConfig config = JsonCodec.read(body, ConnectionConfig.class);
+                ReplicaBalancer.validate(config);
                 boolean connected = clickHouseService.testConnection(config);
                 
                 if (connected) {
-                    resp.getWriter().write(objectMapper.writeValueAsString(
-                            new ResponseMessage("Connected successfully")));
+                    reply = new ResponseMessage("Connected successfully");
                 } else {
-                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    resp.getWriter().write(objectMapper.writeValueAsString(
-                            new ResponseMessage("Failed to connect")));
+                    status = HttpServletResponse.SC_BAD_REQUEST;
+                    reply = new ResponseMessage("Failed to connect");
                 }
             } else if (pathInfo.equals("/tables")) {
-                ConnectionConfig config = objectMapper.readValue(body.toString(), ConnectionConfig.class);
-                List<String> tables = clickHouseService.getTables(config);
-                resp.getWriter().write(objectMapper.writeValueAsString(tables));
-            } else if (pathInfo.equals("/schema")) {
+                ConnectionConfig config = JsonCodec.read(body, ConnectionConfig.class);
+                ReplicaBalancer.validate(config);
+                reply = clickHouseService.getTables(config);
+            } else {
                 // Parse the request for table and connection details
-                TableRequest tableRequest = objectMapper.readValue(body.toString(), TableRequest.class);
-                TableInfo tableInfo = clickHouseService.getTableSchema(
+                TableRequest tableRequest = JsonCodec.read(body, TableRequest.class);
+                ReplicaBalancer.validate(tableRequest.getConnectionConfig());
+                reply = clickHouseService.getTableSchema(
                         tableRequest.getConnectionConfig(), 
                         tableRequest.getTableName());
-                
-                resp.getWriter().write(objectMapper.writeValueAsString(tableInfo));
-            } else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown action");
             }
+        } catch (IllegalArgumentException e) {
+            status = HttpServletResponse.SC_BAD_REQUEST;
+            reply = new ResponseMessage("Invalid request: " + e.getMessage());
         } catch (Exception e) {
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            resp.getWriter().write(objectMapper.writeValueAsString(
-                    new ResponseMessage("Error: " + e.getMessage())));
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            reply = new ResponseMessage("Error: " + e.getMessage());
         }
+        
+        HttpServletResponse resp = call.respond();
+        resp.setStatus(status);
+        JsonResponses.write(call.getRequest(), resp, reply);
     }
     
     // Simple helper classes for request/response
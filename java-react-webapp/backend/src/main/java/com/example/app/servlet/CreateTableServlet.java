@@ -2,40 +2,30 @@ package com.example.app.servlet;
 
 import com.example.app.model.ConnectionConfig;
 import com.example.app.service.ClickHouseService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.app.service.ReplicaBalancer;
+import com.example.app.util.JsonCodec;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 @WebServlet("/api/create-table")
 public class CreateTableServlet extends HttpServlet {
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private final ClickHouseService clickHouseService = new ClickHouseService();
     
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) 
             throws ServletException, IOException {
         
-        // Parse the incoming JSON
-        BufferedReader reader = req.getReader();
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            body.append(line);
-        }
-        
-        resp.setContentType("application/json");
-        
         try {
-            CreateTableRequest createRequest = objectMapper.readValue(body.toString(), CreateTableRequest.class);
+            // Parse the incoming JSON straight from the request stream
+            CreateTableRequest createRequest = JsonCodec.read(req.getInputStream(), CreateTableRequest.class);
+            ReplicaBalancer.validate(createRequest.getConnection());
             
             // Create the table
             boolean success = clickHouseService.createTable(
@@ -45,17 +35,17 @@ public class CreateTableServlet extends HttpServlet {
                     createRequest.getSourceFilePath());
             
             if (success) {
-                resp.getWriter().write(objectMapper.writeValueAsString(
-                        new ResponseMessage("Table created successfully")));
+                JsonResponses.write(req, resp, new ResponseMessage("Table created successfully"));
             } else {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                resp.getWriter().write(objectMapper.writeValueAsString(
-                        new ResponseMessage("Failed to create table")));
+                JsonResponses.write(req, resp, new ResponseMessage("Failed to create table"));
             }
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            JsonResponses.write(req, resp, new ResponseMessage("Invalid request: " + e.getMessage()));
         } catch (Exception e) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            resp.getWriter().write(objectMapper.writeValueAsString(
-                    new ResponseMessage("Error: " + e.getMessage())));
+            JsonResponses.write(req, resp, new ResponseMessage("Error: " + e.getMessage()));
         }
     }
     
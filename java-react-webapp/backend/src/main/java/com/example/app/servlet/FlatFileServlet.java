@@ -1,8 +1,11 @@
 package com.example.app.servlet;
 
+import com.example.app.logging.Logger;
 import com.example.app.model.TableInfo;
 import com.example.app.service.FlatFileService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.app.servlet.AsyncRequestExecutor.AsyncCall;
+import com.example.app.util.JsonCodec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -11,16 +14,15 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.io.*;
-import com.google.gson.JsonObject;
 
-@WebServlet("/api/flatfile/*")
+@WebServlet(urlPatterns = "/api/flatfile/*", asyncSupported = true)
 @MultipartConfig(
     fileSizeThreshold = 1024 * 1024,      // 1 MB
     maxFileSize = 1024 * 1024 * 10,       // 10 MB
@@ -28,7 +30,8 @@ import com.google.gson.JsonObject;
 )
 public class FlatFileServlet extends HttpServlet {
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Logger log = Logger.getLogger(FlatFileServlet.class);
+
     private final FlatFileService flatFileService = new FlatFileService();
     private final String UPLOAD_DIR = System.getProperty("java.io.tmpdir");
     
@@ -36,30 +39,29 @@ public class FlatFileServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
         
-        response.setContentType("application/json");
-        PrintWriter out = response.getWriter();
-        
         // Get the path info to determine which operation to perform
         String pathInfo = request.getPathInfo();
         
+        // Uploads and parsing run on the I/O pool; an upload is paced by the client, so it has no deadline
         if (pathInfo == null || pathInfo.equals("/") || pathInfo.equals("/upload")) {
             // Handle file upload
-            handleFileUpload(request, response, out);
+            AsyncRequestExecutor.dispatch(request, response, AsyncRequestExecutor.NO_TIMEOUT, this::handleFileUpload);
         } else if (pathInfo.equals("/schema")) {
             // Handle schema request
-            handleSchemaRequest(request, response, out);
+            AsyncRequestExecutor.dispatch(request, response, AsyncRequestExecutor.DEFAULT_TIMEOUT_MS,
+                    this::handleSchemaRequest);
         } else {
             // Unknown endpoint
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            JsonObject error = new JsonObject();
-            error.addProperty("success", false);
-            error.addProperty("message", "Unknown endpoint: " + pathInfo);
-            out.print(error.toString());
+            ObjectNode error = JsonCodec.mapper().createObjectNode();
+            error.put("success", false);
+            error.put("message", "Unknown endpoint: " + pathInfo);
+            JsonResponses.write(request, response, error);
         }
     }
 
-    private void handleFileUpload(HttpServletRequest request, HttpServletResponse response, PrintWriter out) 
-            throws ServletException, IOException {
+    private void handleFileUpload(AsyncCall call) throws IOException {
+        HttpServletRequest request = call.getRequest();
         try {
             // Create a temporary file with a sanitized name
             Part filePart = request.getPart("file");
@@ -81,37 +83,36 @@ public class FlatFileServlet extends HttpServlet {
             }
             
             // Return JSON response with file info
-            JsonObject jsonResponse = new JsonObject();
-            jsonResponse.addProperty("success", true);
-            jsonResponse.addProperty("message", "File uploaded successfully");
-            jsonResponse.addProperty("fileName", originalFileName);
-            jsonResponse.addProperty("filePath", tempFile.getAbsolutePath());
+            ObjectNode jsonResponse = JsonCodec.mapper().createObjectNode();
+            jsonResponse.put("success", true);
+            jsonResponse.put("message", "File uploaded successfully");
+            jsonResponse.put("fileName", originalFileName);
+            jsonResponse.put("filePath", tempFile.getAbsolutePath());
             
-            out.print(jsonResponse.toString());
+            writeJson(call, HttpServletResponse.SC_OK, jsonResponse);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             // Handle error
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            JsonObject jsonResponse = new JsonObject();
-            jsonResponse.addProperty("success", false);
-            jsonResponse.addProperty("message", "Error uploading file: " + e.getMessage());
+            ObjectNode jsonResponse = JsonCodec.mapper().createObjectNode();
+            jsonResponse.put("success", false);
+            jsonResponse.put("message", "Error uploading file: " + e.getMessage());
             
-            out.print(jsonResponse.toString());
+            writeJson(call, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, jsonResponse);
         }
     }
 
-    private void handleSchemaRequest(HttpServletRequest request, HttpServletResponse response, PrintWriter out) 
-            throws IOException {
+    private void handleSchemaRequest(AsyncCall call) throws IOException {
+        HttpServletRequest request = call.getRequest();
         try {
             // Parse request body as JSON
-            BufferedReader reader = request.getReader();
-            FileSchemaRequest schemaRequest = objectMapper.readValue(reader, FileSchemaRequest.class);
+            FileSchemaRequest schemaRequest = JsonCodec.read(request.getInputStream(), FileSchemaRequest.class);
             
             if (schemaRequest.getFilePath() == null || schemaRequest.getFilePath().isEmpty()) {
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                JsonObject error = new JsonObject();
-                error.addProperty("success", false);
-                error.addProperty("message", "Missing file path");
-                out.print(error.toString());
+                ObjectNode error = JsonCodec.mapper().createObjectNode();
+                error.put("success", false);
+                error.put("message", "Missing file path");
+                writeJson(call, HttpServletResponse.SC_BAD_REQUEST, error);
                 return;
             }
             
@@ -122,19 +123,26 @@ public class FlatFileServlet extends HttpServlet {
             );
             
             // Write the response
-            String jsonResponse = objectMapper.writeValueAsString(tableInfo);
-            out.print(jsonResponse);
+            writeJson(call, HttpServletResponse.SC_OK, tableInfo);
             
+        } catch (CancellationException e) {
+            // Timed out or abandoned by the client; the response is already taken care of
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            JsonObject error = new JsonObject();
-            error.addProperty("success", false);
-            error.addProperty("message", "Error reading file schema: " + e.getMessage());
-            out.print(error.toString());
+            log.error("Error reading file schema", e);
+            ObjectNode error = JsonCodec.mapper().createObjectNode();
+            error.put("success", false);
+            error.put("message", "Error reading file schema: " + e.getMessage());
+            writeJson(call, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, error);
         }
     }
     
+    private void writeJson(AsyncCall call, int status, Object body) throws IOException {
+        HttpServletResponse response = call.respond();
+        response.setStatus(status);
+        JsonResponses.write(call.getRequest(), response, body);
+    }
+    
     // Helper method to get the file name from part
     private String getSubmittedFileName(Part part) {
         for (String cd : part.getHeader("content-disposition").split(";")) {
@@ -1,48 +1,123 @@
 package com.example.app.servlet;
 
+import com.example.app.logging.LogContext;
+import com.example.app.logging.Logger;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.metrics.OperationTrace;
 import com.example.app.model.IngestRequest;
 import com.example.app.model.IngestResult;
 import com.example.app.service.ClickHouseService;
+import com.example.app.service.SelectQuery;
 import com.example.app.service.FlatFileService;
 import com.example.app.service.IngestService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.app.service.JobStore;
+import com.example.app.service.JobWorker;
+import com.example.app.service.ReplicaBalancer;
+import com.example.app.util.JsonCodec;
+import com.example.app.util.ThreadPools;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@WebServlet("/api/ingest/*")
+// Loaded at startup so a journaled store resumes interrupted jobs without waiting for a request
+@WebServlet(value = "/api/ingest/*", loadOnStartup = 1)
 public class IngestServlet extends HttpServlet {
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Logger log = Logger.getLogger(IngestServlet.class);
+    // Status is polled continuously while an operation runs; one limiter per call site,
+    // so routine polls can't hide the warnings
+    private static final Logger missingIdLog = log.rateLimited(10000);
+    private static final Logger unknownOperationLog = log.rateLimited(10000);
+    private static final Logger pollLog = log.rateLimited(10000);
+    
+    // Set with -Dapp.jobs.dir to share jobs with other instances, or -Dapp.jobs.journal to
+    // keep them across restarts; null runs them here
+    private final JobStore jobStore = JobStore.fromSystemProperties();
     private final IngestService ingestService = new IngestService(
             new ClickHouseService(), 
-            new FlatFileService());
+            new FlatFileService(),
+            jobStore);
+    private JobWorker jobWorker;
+    
+    private static final int MAX_JOBS = Integer.getInteger("app.ingest.maxJobs", 5);
     
-    private final ExecutorService executorService = Executors.newFixedThreadPool(5);
+    // A virtual thread per job where available, otherwise a small platform pool. Virtual
+    // threads aren't limited by the executor, so jobs take a slot before they start.
+    private final ExecutorService executorService = ThreadPools.newTaskExecutor("ingest-job", MAX_JOBS);
+    private final Semaphore jobSlots = new Semaphore(MAX_JOBS, true);
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("ingest_executor_active_threads", "Ingest worker threads running an operation",
+                runningJobs::get);
+        registry.gauge("ingest_executor_queued_tasks", "Ingest operations waiting for one of the job slots",
+                queuedJobs::get);
+        log.info("Ingest executor ready", "threads", ThreadPools.getMode(), "maxJobs", MAX_JOBS);
+        // Instances started with -Dapp.jobs.worker=false only accept jobs and report status
+        if (jobStore != null && Boolean.parseBoolean(System.getProperty("app.jobs.worker", "true"))) {
+            jobWorker = new JobWorker(ingestService, jobStore, workerId(),
+                    Integer.getInteger("app.jobs.workerThreads", 2)).start();
+        }
+    }
+    
+    private static String workerId() {
+        String configured = System.getProperty("app.jobs.workerId");
+        if (configured != null && !configured.isEmpty()) {
+            return configured;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        } catch (UnknownHostException e) {
+            return "worker-" + ProcessHandle.current().pid();
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        if (jobWorker != null) {
+            jobWorker.close();
+        }
+        if (jobStore instanceof Closeable) {
+            try {
+                ((Closeable) jobStore).close();
+            } catch (IOException e) {
+                log.warn("Failed to close the job store", "error", e.getMessage());
+            }
+        }
+        executorService.shutdownNow();
+        super.destroy();
+    }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) 
             throws ServletException, IOException {
         
-        // Log the request path and parameters
-        System.out.println("GET request to: " + req.getRequestURI());
-        System.out.println("Query parameters: " + req.getQueryString());
-
         String operationId = req.getParameter("operationId");
         resp.setContentType("application/json");
         
         if (operationId == null || operationId.isEmpty()) {
-            System.err.println("Missing required parameter: operationId");
+            missingIdLog.warn("Status request without operationId", "query", req.getQueryString());
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().write(objectMapper.writeValueAsString(
-                    new ResponseMessage("Missing required parameter: operationId")));
+            JsonResponses.write(req, resp, new ResponseMessage("Missing required parameter: operationId"));
+            return;
+        }
+        
+        if ("/trace".equals(req.getPathInfo())) {
+            writeTrace(operationId, req.getParameter("format"), req, resp);
             return;
         }
         
@@ -50,39 +125,76 @@ public class IngestServlet extends HttpServlet {
             IngestResult status = ingestService.getOperationStatus(operationId);
             
             if (status == null) {
-                System.err.println("No operation found with ID: " + operationId);
+                unknownOperationLog.warn("Status requested for unknown operation", "operationId", operationId);
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().write(objectMapper.writeValueAsString(
-                        new ResponseMessage("No operation found with ID: " + operationId)));
+                JsonResponses.write(req, resp, new ResponseMessage("No operation found with ID: " + operationId));
                 return;
             }
-            System.out.println("Operation status: " + status.getStatus());
-            resp.getWriter().write(objectMapper.writeValueAsString(status));
+            pollLog.debug("Status poll", "operationId", operationId, "status", status.getStatus());
+            JsonResponses.write(req, resp, status);
         } catch (Exception e) {
-            System.err.println("Error retrieving operation status: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error retrieving operation status", e, "operationId", operationId);
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            resp.getWriter().write(objectMapper.writeValueAsString(
-                    new ResponseMessage("Error: " + e.getMessage())));
+            JsonResponses.write(req, resp, new ResponseMessage("Error: " + e.getMessage()));
         }
     }
     
+    /**
+     * Serves an operation's per-batch trace for download, as a plain JSON timeline
+     * (format=json, the default) or in Chrome trace event format (format=chrome)
+     */
+    private void writeTrace(String operationId, String format, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        boolean chrome = "chrome".equalsIgnoreCase(format);
+        if (!chrome && format != null && !format.isEmpty() && !"json".equalsIgnoreCase(format)) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            JsonResponses.write(req, resp,
+                    new ResponseMessage("Unsupported trace format: " + format + " (expected json or chrome)"));
+            return;
+        }
+        
+        OperationTrace trace = ingestService.getOperationTrace(operationId);
+        if (trace == null) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            JsonResponses.write(req, resp, new ResponseMessage("No trace found for operation: " + operationId));
+            return;
+        }
+        
+        resp.setHeader("Content-Disposition", "attachment; filename=\"trace-" + operationId
+                + (chrome ? "-chrome" : "") + ".json\"");
+        JsonResponses.write(req, resp,
+                chrome ? trace.toChromeTrace(operationId) : trace.toTimeline(operationId));
+    }
+    
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) 
             throws ServletException, IOException {
         
-        // Parse the incoming JSON
-        BufferedReader reader = req.getReader();
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            body.append(line);
-        }
-        
         resp.setContentType("application/json");
         
+        if ("/stop".equals(req.getPathInfo())) {
+            stopOperation(req.getParameter("operationId"), req, resp);
+            return;
+        }
+        
         try {
-            final IngestRequest request = objectMapper.readValue(body.toString(), IngestRequest.class);
+            // Parse the incoming JSON straight from the request stream
+            final IngestRequest request = JsonCodec.read(req.getInputStream(), IngestRequest.class);
+            ReplicaBalancer.validate(request.getConnectionConfig());
+            ReplicaBalancer.validate(request.getTargetConnectionConfig());
+            if ("ClickHouse".equals(request.getSourceType())) {
+                // Reject a malformed filter, orderBy, sampleRatio or limit before starting the job
+                SelectQuery.forRequest(request);
+            }
+            
+            if (ingestService.isQueueingJobs()) {
+                // A worker on any instance picks the job up
+                IngestResult queued = ingestService.submitJob(request);
+                log.info("Operation queued", "operationId", queued.getOperationId(),
+                        "source", request.getSourceType(), "table", request.getTableName());
+                JsonResponses.write(req, resp, queued);
+                return;
+            }
             
             // Create a result object with operation ID but no data yet
             final IngestResult initialResult = new IngestResult();
@@ -93,57 +205,60 @@ public class IngestServlet extends HttpServlet {
             ingestService.trackOperation(initialResult);
             
             // Return the operation ID immediately
-            resp.getWriter().write(objectMapper.writeValueAsString(initialResult));
+            JsonResponses.write(req, resp, initialResult);
             
             // Process in background
+            queuedJobs.incrementAndGet();
             executorService.submit(() -> {
                 try {
-                    IngestResult finalResult;
-                    
-                    if ("ClickHouse".equals(request.getSourceType())) {
-                        // ClickHouse to Flat File
-                        finalResult = ingestService.streamFromClickHouseToFile(
-                                request.getConnectionConfig(),
-                                request.getTableName(),
-                                request.getSelectedColumns(),
-                                request.getTargetFilePath(),
-                                initialResult.getOperationId());
-                    } else if ("FlatFile".equals(request.getSourceType())) {
-                        // Flat File to ClickHouse
-                        finalResult = ingestService.streamFromFileToClickHouse(
-                                request.getSourceFilePath(),
-                                request.getConnectionConfig(),
-                                request.getTableName(),
-                                request.getSelectedColumns(),
-                                initialResult.getOperationId());
-                    } else {
-                        System.err.println("Invalid source type: " + request.getSourceType());
-                        initialResult.setSuccess(false);
-                        initialResult.setStatus("error");
-                        initialResult.setMessage("Invalid source type");
-                        return;
-                    }
-                    
-                    // Update tracked operation with final results
-                    ingestService.updateOperation(finalResult);
-                } catch (Exception e) {
-                    System.err.println("Error processing request: " + e.getMessage());
-                    e.printStackTrace();
-                    // Update with error
-                    initialResult.setSuccess(false);
-                    initialResult.setStatus("error");
-                    initialResult.setMessage("Error: " + e.getMessage());
-                    ingestService.updateOperation(initialResult);
+                    jobSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    queuedJobs.decrementAndGet();
+                }
+                runningJobs.incrementAndGet();
+                try (LogContext.Scope scope = LogContext.withOperation(initialResult.getOperationId())) {
+                    log.info("Operation started", "source", request.getSourceType(),
+                            "table", request.getTableName());
+                    IngestResult finalResult = ingestService.runOperation(request, initialResult.getOperationId());
+                    log.info("Operation finished", "status", finalResult.getStatus(),
+                            "records", finalResult.getRecordsProcessed(), "ms", finalResult.getExecutionTimeMs());
+                } finally {
+                    runningJobs.decrementAndGet();
+                    jobSlots.release();
                 }
             });
             
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid ingest request", "error", e.getMessage());
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            JsonResponses.write(req, resp, new ResponseMessage("Invalid request: " + e.getMessage()));
         } catch (Exception e) {
-            System.err.println("Error parsing request: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error parsing request", e);
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            resp.getWriter().write(objectMapper.writeValueAsString(
-                    new ResponseMessage("Error: " + e.getMessage())));
+            JsonResponses.write(req, resp, new ResponseMessage("Error: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Stops a watch-folder operation; it inserts its buffered rows before completing
+     */
+    private void stopOperation(String operationId, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (operationId == null || operationId.isEmpty()) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            JsonResponses.write(req, resp, new ResponseMessage("Missing required parameter: operationId"));
+            return;
+        }
+        if (!ingestService.stopOperation(operationId)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            JsonResponses.write(req, resp, new ResponseMessage("No watch operation running with ID: " + operationId));
+            return;
         }
+        log.info("Stop requested", "operationId", operationId);
+        JsonResponses.write(req, resp, new ResponseMessage("Stopping operation " + operationId));
     }
     
     private static class ResponseMessage {
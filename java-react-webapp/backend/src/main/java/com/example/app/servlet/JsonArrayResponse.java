@@ -0,0 +1,63 @@
+package com.example.app.servlet;
+
+import com.example.app.service.RowWriter;
+import com.example.app.servlet.AsyncRequestExecutor.AsyncCall;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streams rows to the response as a JSON array of arrays. The response is only
+ * claimed when the first row arrives (or on close for an empty result), so a query
+ * that fails or times out before producing anything still gets a normal error reply.
+ */
+final class JsonArrayResponse implements RowWriter {
+
+    private final AsyncCall call;
+    private JsonGenerator generator;
+    private long rowsWritten;
+
+    JsonArrayResponse(AsyncCall call) {
+        this.call = call;
+    }
+
+    /**
+     * Whether output has started; after that errors can no longer change the status
+     */
+    boolean isStarted() {
+        return generator != null;
+    }
+
+    @Override
+    public void writeRow(List<Object> row) throws IOException {
+        if (generator == null) {
+            start();
+        }
+        generator.writeStartArray();
+        for (Object value : row) {
+            generator.writeObject(value);
+        }
+        generator.writeEndArray();
+        rowsWritten++;
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (generator == null) {
+            start();
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    private void start() throws IOException {
+        generator = JsonResponses.open(call.getRequest(), call.respond());
+        generator.writeStartArray();
+    }
+}
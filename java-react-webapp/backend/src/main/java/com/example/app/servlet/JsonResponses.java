@@ -0,0 +1,50 @@
+package com.example.app.servlet;
+
+import com.example.app.util.JsonCodec;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes JSON straight to the response stream instead of building a String first,
+ * gzip-compressed when the client accepts it
+ */
+final class JsonResponses {
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private JsonResponses() {
+    }
+
+    /**
+     * Sets the JSON headers and returns a generator on the (possibly compressed) body.
+     * Closing the generator finishes the body.
+     */
+    static JsonGenerator open(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.addHeader("Vary", "Accept-Encoding");
+        OutputStream body = response.getOutputStream();
+        if (acceptsGzip(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = new GZIPOutputStream(body, GZIP_BUFFER_SIZE);
+        }
+        return JsonCodec.mapper().getFactory().createGenerator(body, JsonEncoding.UTF8);
+    }
+
+    static void write(HttpServletRequest request, HttpServletResponse response, Object value) throws IOException {
+        try (JsonGenerator generator = open(request, response)) {
+            JsonCodec.write(generator, value);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+}
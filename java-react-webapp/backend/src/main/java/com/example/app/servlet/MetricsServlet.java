@@ -0,0 +1,27 @@
+package com.example.app.servlet;
+
+import com.example.app.metrics.MetricsRegistry;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exposes process-wide ingest and JVM metrics in the Prometheus text format
+ */
+@WebServlet("/api/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        PrintWriter out = resp.getWriter();
+        MetricsRegistry.getInstance().writePrometheus(out);
+        out.flush();
+    }
+}
@@ -1,79 +1,74 @@
 package com.example.app.servlet;
 
 import com.example.app.model.ConnectionConfig;
+import com.example.app.model.IngestRequest;
+import com.example.app.model.JoinTable;
 import com.example.app.service.ClickHouseService;
 import com.example.app.service.FlatFileService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.app.service.ReplicaBalancer;
+import com.example.app.service.SelectQuery;
+import com.example.app.servlet.AsyncRequestExecutor.AsyncCall;
+import com.example.app.util.JsonCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.List;
 import java.util.Map;
 import java.sql.SQLException;
 
-@WebServlet("/api/preview")
+@WebServlet(urlPatterns = "/api/preview", asyncSupported = true)
 public class PreviewServlet extends HttpServlet {
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private final FlatFileService flatFileService = new FlatFileService();
     private final ClickHouseService clickHouseService = new ClickHouseService();
     
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) 
             throws ServletException, IOException {
+        // Queries and file parsing run on the I/O pool, not the request thread
+        AsyncRequestExecutor.dispatch(req, resp, AsyncRequestExecutor.DEFAULT_TIMEOUT_MS, this::preview);
+    }
+    
+    private void preview(AsyncCall call) throws Exception {
         
         // Parse the incoming JSON
-        BufferedReader reader = req.getReader();
-        Map<String, Object> requestMap = objectMapper.readValue(reader, Map.class);
-        
-        resp.setContentType("application/json");
-        PrintWriter out = resp.getWriter();
+        Map<String, Object> requestMap = JsonCodec.read(call.getRequest().getInputStream(), Map.class);
         
+        // Rows go straight from the ResultSet / CSV parser to the response stream
+        JsonArrayResponse rows = new JsonArrayResponse(call);
         try {
             String sourceType = (String) requestMap.get("sourceType");
             List<String> selectedColumns = (List<String>) requestMap.get("selectedColumns");
             int maxRows = requestMap.containsKey("maxRows") ? 
                     (Integer) requestMap.get("maxRows") : 100;
             
-            List<List<Object>> previewData;
-            
             if ("ClickHouse".equals(sourceType)) {
                 // Preview ClickHouse data
-                ConnectionConfig config = objectMapper.convertValue(
+                ConnectionConfig config = JsonCodec.mapper().convertValue(
                         requestMap.get("connectionConfig"), ConnectionConfig.class);
-                String tableName = (String) requestMap.get("tableName");
-                
-                // Build query with LIMIT clause
-                StringBuilder queryBuilder = new StringBuilder("SELECT ");
-                for (int i = 0; i < selectedColumns.size(); i++) {
-                    if (i > 0) queryBuilder.append(", ");
-                    queryBuilder.append("`").append(selectedColumns.get(i)).append("`");
+                ReplicaBalancer.validate(config);
+                IngestRequest request = new IngestRequest();
+                request.setTableName((String) requestMap.get("tableName"));
+                request.setSelectedColumns(selectedColumns);
+                request.setFilter((String) requestMap.get("filter"));
+                request.setOrderBy((String) requestMap.get("orderBy"));
+                if (requestMap.get("joins") != null) {
+                    request.setJoins(JsonCodec.mapper().convertValue(requestMap.get("joins"),
+                            new TypeReference<List<JoinTable>>() { }));
                 }
-                
-                // Format the table name correctly for ClickHouse
-                String database, table;
-                if (tableName.contains(".")) {
-                    String[] parts = tableName.split("\\.", 2);
-                    database = parts[0];
-                    table = parts[1];
-                } else {
-                    database = config.getDatabase();
-                    table = tableName;
+                if (requestMap.get("sampleRatio") != null) {
+                    request.setSampleRatio(((Number) requestMap.get("sampleRatio")).doubleValue());
                 }
+                SelectQuery query = SelectQuery.forRequest(request);
                 
-                // Use proper ClickHouse identifier syntax: `database`.`table` instead of `database.table`
-                queryBuilder.append(" FROM `").append(database).append("`.`")
-                        .append(table).append("`")
-                        .append(" LIMIT ").append(maxRows);
-                
+                // Served from cached rows when only the column selection changed
                 try {
-                    previewData = clickHouseService.executeQuery(config, queryBuilder.toString());
+                    clickHouseService.previewTable(config, query, maxRows, rows::writeRow);
                 } catch (SQLException e) {
                     throw new ServletException("Error querying ClickHouse: " + e.getMessage(), e);
                 }
@@ -85,14 +80,21 @@ public class PreviewServlet extends HttpServlet {
                     delimiter = ",";  // Default delimiter
                 }
                 
-                previewData = flatFileService.previewFileData(filePath, delimiter, selectedColumns, maxRows);
+                flatFileService.previewFileData(filePath, delimiter, selectedColumns, maxRows, rows::writeRow);
             }
-            
-            out.print(objectMapper.writeValueAsString(previewData));
+            rows.close();
             
         } catch (Exception e) {
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print(objectMapper.writeValueAsString(Map.of(
+            if (rows.isStarted()) {
+                // Part of the array is already on the wire; the status can't change any more
+                throw e;
+            }
+            HttpServletResponse resp = call.respond();
+            resp.setContentType("application/json");
+            // A malformed filter, orderBy or sampleRatio is the client's mistake
+            resp.setStatus(e instanceof IllegalArgumentException
+                    ? HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.getWriter().print(JsonCodec.write(Map.of(
                 "error", true,
                 "message", "Error previewing data: " + e.getMessage()
             )));
@@ -0,0 +1,188 @@
+package com.example.app.util;
+
+import com.example.app.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a decompressing stream on its own thread and hands the decoded chunks
+ * to the reader through a bounded queue, so decompression and CSV parsing overlap.
+ * Only that thread touches the source, including closing it.
+ */
+public class AsyncDecompressingInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_QUEUED_CHUNKS = 16;
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private static final Set<AsyncDecompressingInputStream> openStreams = ConcurrentHashMap.newKeySet();
+
+    static {
+        // Near zero means parsing outpaces decompression; near the limit means the reader is the bottleneck
+        MetricsRegistry.getInstance().gauge("ingest_decompress_queued_chunks",
+                "Decompressed 64KB chunks waiting to be parsed, across open streams",
+                () -> openStreams.stream().mapToLong(stream -> stream.chunks.size()).sum());
+    }
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final Thread worker;
+    private volatile IOException failure;
+    private volatile IOException closeFailure;
+    private volatile boolean closed;
+
+    private byte[] current;
+    private int currentLength;
+    private int position;
+    private boolean finished;
+
+    public AsyncDecompressingInputStream(InputStream source, String name) {
+        this.source = source;
+        this.worker = new Thread(this::pump, "decompress-" + name);
+        this.worker.setDaemon(true);
+        openStreams.add(this);
+        this.worker.start();
+    }
+
+    private void pump() {
+        try {
+            while (!closed) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int filled = 0;
+                // Fill whole chunks so the queue does not fill up with tiny reads
+                while (filled < CHUNK_SIZE) {
+                    int read = source.read(buffer, filled, CHUNK_SIZE - filled);
+                    if (read == -1) {
+                        break;
+                    }
+                    filled += read;
+                }
+                if (filled == 0) {
+                    break;
+                }
+                if (filled < CHUNK_SIZE) {
+                    byte[] trimmed = new byte[filled];
+                    System.arraycopy(buffer, 0, trimmed, 0, filled);
+                    buffer = trimmed;
+                }
+                chunks.put(buffer);
+                if (filled < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Decompression was interrupted");
+        } catch (IOException e) {
+            failure = e;
+        } catch (Throwable e) {
+            // Decoders report corrupt input with unchecked exceptions too, e.g. lz4-java's LZ4Exception
+            failure = new IOException(e.toString(), e);
+        } finally {
+            closeSource();
+            finish();
+        }
+    }
+
+    private void closeSource() {
+        // Keep the interrupt from close() away from the decoder's close
+        boolean interrupted = Thread.interrupted();
+        try {
+            source.close();
+        } catch (IOException e) {
+            closeFailure = e;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the end marker, which the reader waits for, unless the stream was closed
+     */
+    private void finish() {
+        // close() interrupts the worker; anything else still needs the reader woken up
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (!closed && !chunks.offer(END_OF_STREAM, 100, TimeUnit.MILLISECONDS)) {
+                // The reader is behind; keep waiting for room
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (finished) {
+            return false;
+        }
+        try {
+            current = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+        }
+        if (current == END_OF_STREAM) {
+            finished = true;
+            if (failure != null) {
+                throw new IOException("Failed to decompress input: " + failure.getMessage(), failure);
+            }
+            return false;
+        }
+        currentLength = current.length;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || position >= currentLength) && !nextChunk()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if ((current == null || position >= currentLength) && !nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(len, currentLength - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        openStreams.remove(this);
+        // Stops a put() waiting for room; the worker closes the source once its current read returns
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            // The worker still closes the source on its own
+            Thread.currentThread().interrupt();
+        }
+        chunks.clear();
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+}
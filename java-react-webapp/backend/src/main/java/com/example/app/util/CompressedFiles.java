@@ -0,0 +1,64 @@
+package com.example.app.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Opens plain or compressed input files behind the same reader API
+ */
+public final class CompressedFiles {
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private CompressedFiles() {
+    }
+
+    /**
+     * Detects the compression of a file from its magic bytes
+     */
+    public static CompressionType detect(Path path) throws IOException {
+        byte[] header = new byte[CompressionType.MAGIC_LENGTH];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            while (length < header.length) {
+                int read = in.read(header, length, header.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+        }
+        return CompressionType.detect(header, length);
+    }
+
+    /**
+     * Opens a file as a stream of decompressed bytes. Compressed files are
+     * decoded on a background thread while the caller consumes the output.
+     */
+    public static InputStream openDecompressed(Path path) throws IOException {
+        CompressionType type = detect(path);
+        InputStream raw = new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE);
+        if (!type.isCompressed()) {
+            return raw;
+        }
+        try {
+            return new AsyncDecompressingInputStream(type.decompress(raw), path.getFileName().toString());
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file as UTF-8 text, decompressing it if needed
+     */
+    public static BufferedReader openReader(Path path) throws IOException {
+        return new BufferedReader(new InputStreamReader(openDecompressed(path), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.app.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression codecs we can read transparently (detected by their magic bytes)
+ * and write for exports
+ */
+public enum CompressionType {
+    NONE(null, new byte[0]),
+    GZIP("gzip", new byte[] {(byte) 0x1F, (byte) 0x8B}),
+    ZSTD("zstd", new byte[] {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD}),
+    LZ4("lz4", new byte[] {(byte) 0x04, (byte) 0x22, (byte) 0x4D, (byte) 0x18});
+
+    /** Number of leading bytes needed to tell the codecs apart */
+    public static final int MAGIC_LENGTH = 4;
+
+    private final String contentEncoding;
+    private final byte[] magic;
+
+    CompressionType(String contentEncoding, byte[] magic) {
+        this.contentEncoding = contentEncoding;
+        this.magic = magic;
+    }
+
+    /**
+     * Value of the HTTP Content-Encoding header ClickHouse expects for this codec,
+     * or null for uncompressed data
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public boolean isCompressed() {
+        return this != NONE;
+    }
+
+    /**
+     * Parses a codec name from a request ("none", "gzip"/"gz", "zstd"/"zst", "lz4")
+     */
+    public static CompressionType fromName(String name) {
+        if (name == null || name.isEmpty() || "none".equalsIgnoreCase(name)) {
+            return NONE;
+        }
+        switch (name.toLowerCase()) {
+            case "gzip":
+            case "gz":
+                return GZIP;
+            case "zstd":
+            case "zst":
+                return ZSTD;
+            case "lz4":
+                return LZ4;
+            default:
+                throw new IllegalArgumentException("Unsupported compression: " + name);
+        }
+    }
+
+    /**
+     * Detects the codec from the first bytes of a file
+     */
+    public static CompressionType detect(byte[] header, int length) {
+        for (CompressionType type : values()) {
+            if (type.magic.length == 0 || type.magic.length > length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < type.magic.length; i++) {
+                if (header[i] != type.magic[i]) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return type;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Wraps a raw stream with the matching decompressor
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, 64 * 1024);
+            case ZSTD:
+                return new ZstdInputStream(in);
+            case LZ4:
+                return new LZ4FrameInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Wraps a raw stream with the matching compressor
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, 64 * 1024);
+            case ZSTD:
+                return new ZstdOutputStream(out);
+            case LZ4:
+                return new LZ4FrameOutputStream(out);
+            default:
+                return out;
+        }
+    }
+}
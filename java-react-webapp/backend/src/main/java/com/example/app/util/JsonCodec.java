@@ -0,0 +1,111 @@
+package com.example.app.util;
+
+import com.example.app.logging.Logger;
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import com.example.app.model.TableInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The application's single JSON configuration. ObjectMappers are expensive to build and
+ * each one keeps its own serializer cache, so everything shares this one, and the
+ * ObjectReader/ObjectWriter for each type is created once and reused (both are
+ * immutable and thread-safe). Bodies are parsed straight from the request stream.
+ *
+ * The Blackbird module replaces reflective getter/setter calls with generated lambdas,
+ * which mostly helps the status endpoint that every client polls. It can be turned off
+ * with {@code -Dapp.json.blackbird=false}.
+ */
+public final class JsonCodec {
+
+    private static final Logger log = Logger.getLogger(JsonCodec.class);
+
+    private static final boolean BLACKBIRD = Boolean.parseBoolean(System.getProperty("app.json.blackbird", "true"));
+
+    private static final ObjectMapper mapper = newMapper();
+    private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    static {
+        // Resolve the hot model types up front so the first request doesn't pay for it
+        reader(IngestRequest.class);
+        writer(IngestResult.class);
+        writer(TableInfo.class);
+    }
+
+    private JsonCodec() {
+    }
+
+    public static ObjectMapper mapper() {
+        return mapper;
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    public static ObjectWriter writer(Class<?> type) {
+        return writers.computeIfAbsent(type, mapper::writerFor);
+    }
+
+    public static <T> T read(InputStream in, Class<T> type) throws IOException {
+        return reader(type).readValue(in);
+    }
+
+    public static <T> T read(String json, Class<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
+    }
+
+    public static String write(Object value) throws JsonProcessingException {
+        return writerFor(value).writeValueAsString(value);
+    }
+
+    public static void write(JsonGenerator generator, Object value) throws IOException {
+        writerFor(value).writeValue(generator, value);
+    }
+
+    /**
+     * Writes the value to a temporary file and moves it into place, so a crash never
+     * leaves a half-written file behind. Each call has its own temporary file, so
+     * concurrent writers of one file never write into each other's.
+     */
+    public static void writeFile(Path file, Object value) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName() + ".", ".tmp");
+        try {
+            writerFor(value).writeValue(temp.toFile(), value);
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static ObjectWriter writerFor(Object value) {
+        return value == null ? mapper.writer() : writer(value.getClass());
+    }
+
+    private static ObjectMapper newMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        if (BLACKBIRD) {
+            try {
+                objectMapper.registerModule(new BlackbirdModule());
+            } catch (RuntimeException | LinkageError e) {
+                log.warn("Blackbird module unavailable, using reflective JSON access", "error", String.valueOf(e));
+            }
+        }
+        return objectMapper;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.app.util;
+
+import java.sql.Statement;
+import java.util.function.Consumer;
+
+/**
+ * Tells whoever is waiting on the current thread which JDBC statements it runs, so they
+ * can be cancelled from another thread. Interrupting a thread blocked in the driver
+ * doesn't stop it; {@link Statement#cancel()} asks the server to kill the query.
+ * Threads without a listener register nothing.
+ */
+public final class RunningStatements {
+
+    private static final ThreadLocal<Consumer<Statement>> listener = new ThreadLocal<>();
+
+    private RunningStatements() {
+    }
+
+    /**
+     * Sends the statements this thread registers to the listener until {@link #clear()}
+     */
+    public static void listen(Consumer<Statement> statements) {
+        listener.set(statements);
+    }
+
+    public static void clear() {
+        listener.remove();
+    }
+
+    /**
+     * Hands a statement that is about to run to this thread's listener, if any
+     */
+    public static <T extends Statement> T register(T statement) {
+        Consumer<Statement> statements = listener.get();
+        if (statements != null) {
+            statements.accept(statement);
+        }
+        return statement;
+    }
+}
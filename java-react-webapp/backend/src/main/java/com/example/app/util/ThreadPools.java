@@ -0,0 +1,109 @@
+package com.example.app.util;
+
+import com.example.app.logging.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking ingest work (JDBC calls, HTTP streams, file I/O). On JDK 21+
+ * every task gets its own virtual thread, so a job parked on the network doesn't hold
+ * a platform thread; older JVMs get fixed pools of named platform threads. Virtual
+ * threads are reached through reflection because the code is compiled for Java 11.
+ *
+ * The mode comes from the {@code app.threads} system property: {@code auto} (default,
+ * virtual when the JVM supports them), {@code virtual} or {@code platform}.
+ */
+public final class ThreadPools {
+
+    private static final Logger log = Logger.getLogger(ThreadPools.class);
+
+    private static final Method OF_VIRTUAL = virtualThreadMethod(Thread.class, "ofVirtual");
+    private static final Method BUILDER_NAME = virtualThreadMethod("java.lang.Thread$Builder", "name",
+            String.class, long.class);
+    private static final Method BUILDER_FACTORY = virtualThreadMethod("java.lang.Thread$Builder", "factory");
+    private static final Method THREAD_PER_TASK = virtualThreadMethod(Executors.class, "newThreadPerTaskExecutor",
+            ThreadFactory.class);
+    private static final boolean VIRTUAL = chooseVirtual(System.getProperty("app.threads", "auto"));
+
+    private ThreadPools() {
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    public static String getMode() {
+        return VIRTUAL ? "virtual" : "platform";
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or a fixed pool of
+     * platformThreads threads in platform mode. Threads are named name-1, name-2, ...
+     * Callers bound their own concurrency (e.g. with a semaphore) in virtual mode.
+     */
+    public static ExecutorService newTaskExecutor(String name, int platformThreads) {
+        if (VIRTUAL) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+                return (ExecutorService) THREAD_PER_TASK.invoke(null, BUILDER_FACTORY.invoke(builder));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create virtual thread executor", e);
+            }
+        }
+        return Executors.newFixedThreadPool(platformThreads, namedThreads(name));
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + counter.incrementAndGet());
+    }
+
+    private static boolean chooseVirtual(String mode) {
+        if ("platform".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        boolean supported = virtualThreadsSupported();
+        if (!supported && "virtual".equalsIgnoreCase(mode)) {
+            log.warn("Virtual threads requested but not supported by this JVM, using platform threads",
+                    "java", System.getProperty("java.version"));
+        }
+        return supported;
+    }
+
+    /**
+     * Checks that virtual threads can actually be started; on JDK 19/20 the API
+     * exists but throws unless preview features are enabled
+     */
+    private static boolean virtualThreadsSupported() {
+        if (OF_VIRTUAL == null || BUILDER_NAME == null || BUILDER_FACTORY == null || THREAD_PER_TASK == null) {
+            return false;
+        }
+        try {
+            ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(OF_VIRTUAL.invoke(null));
+            factory.newThread(() -> { });
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static Method virtualThreadMethod(String className, String name, Class<?>... parameterTypes) {
+        try {
+            return virtualThreadMethod(Class.forName(className), name, parameterTypes);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method virtualThreadMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
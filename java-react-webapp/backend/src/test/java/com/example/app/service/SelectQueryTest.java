@@ -0,0 +1,131 @@
+package com.example.app.service;
+
+import com.example.app.model.IngestRequest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filter and orderBy validation, which is all that keeps request text from changing
+ * the statement it is pasted into.
+ */
+public class SelectQueryTest {
+
+    @Test
+    public void testValidateFilter_AcceptsSingleExpressions() {
+        SelectQuery.validateFilter("id > 7 AND (name = 'a' OR name IN ('b', 'c'))");
+        SelectQuery.validateFilter("name = 'it''s'");
+        SelectQuery.validateFilter("name = 'it\\'s' AND `weird col` = \"x\"");
+        SelectQuery.validateFilter("note = '-- not a comment; /* nor this */ # or this'");
+        SelectQuery.validateFilter("note = ')' AND other = '('");
+    }
+
+    @Test
+    public void testValidateFilter_RejectsComments() {
+        assertRejected("id = 1 -- AND secret = 0", "comments");
+        assertRejected("id = 1 /* AND secret = 0 */", "comments");
+        assertRejected("id = 1 # AND secret = 0", "comments");
+    }
+
+    @Test
+    public void testValidateFilter_RejectsStatementSeparators() {
+        assertRejected("id = 1; DROP TABLE orders", "';'");
+        assertRejected("name = 'x'; SELECT 1", "';'");
+    }
+
+    @Test
+    public void testValidateFilter_RejectsUnbalancedQuotes() {
+        assertRejected("name = 'x", "unterminated ' quote");
+        assertRejected("`name = 1", "unterminated ` quote");
+        // The escaped quote doesn't close the literal, so the separator is still inside it
+        assertRejected("name = 'x\\'; DROP TABLE orders", "unterminated ' quote");
+    }
+
+    @Test
+    public void testValidateFilter_EscapedQuoteDoesNotHideWhatFollowsTheLiteral() {
+        assertRejected("name = 'x\\'' ; DROP TABLE orders", "';'");
+        assertRejected("name = 'x\\\\' ; DROP TABLE orders", "';'");
+    }
+
+    @Test
+    public void testValidateFilter_RejectsUnbalancedParentheses() {
+        assertRejected("id = 1) UNION ALL SELECT secret FROM other WHERE (1", "unmatched ')'");
+        assertRejected("(id = 1", "unmatched '('");
+        assertRejected(")(", "unmatched ')'");
+    }
+
+    @Test
+    public void testToSql_SettingsAndFormatStayInsideTheCondition() {
+        // Without ')' or ';' a clause can't end the WHERE; the server rejects it as a syntax error
+        SelectQuery query = SelectQuery.forRequest(request("1 SETTINGS max_threads = 100 FORMAT JSON", null));
+
+        assertEquals("SELECT `id`, `name` FROM default.orders WHERE (1 SETTINGS max_threads = 100 FORMAT JSON)",
+                query.toSql(qualify()));
+        assertRejected("1) SETTINGS max_threads = 100 --", "unmatched ')'");
+        assertRejected("1) FORMAT TabSeparated", "unmatched ')'");
+    }
+
+    @Test
+    public void testValidateOrderBy_AcceptsColumnsWithDirections() {
+        SelectQuery.validateOrderBy("id");
+        SelectQuery.validateOrderBy("id DESC, `weird col` asc NULLS LAST, customers.name NULLS FIRST");
+
+        SelectQuery query = SelectQuery.forRequest(request(null, " id DESC "));
+        assertEquals("SELECT `id`, `name` FROM default.orders ORDER BY id DESC", query.toSql(qualify()));
+    }
+
+    @Test
+    public void testValidateOrderBy_RejectsExpressionsAndExtraClauses() {
+        assertOrderByRejected("cityHash64(id)");
+        assertOrderByRejected("id + 1");
+        assertOrderByRejected("id DESC LIMIT 1");
+        assertOrderByRejected("id SETTINGS max_threads = 100");
+        assertOrderByRejected("id FORMAT JSON");
+        assertOrderByRejected("id; DROP TABLE orders");
+        assertOrderByRejected("id -- comment");
+        assertOrderByRejected("id,");
+    }
+
+    @Test
+    public void testToSql_BackquotesAndBackslashesInColumnNamesAreEscaped() {
+        SelectQuery query = new SelectQuery("orders", Arrays.asList("id` FROM secrets --", "back\\slash\\"));
+
+        assertEquals("SELECT `id\\` FROM secrets --`, `back\\\\slash\\\\` FROM default.orders",
+                query.toSql(qualify()));
+        assertEquals("`a\\`b`", query.quoteColumn("a`b"));
+    }
+
+    private static void assertRejected(String filter, String message) {
+        try {
+            SelectQuery.validateFilter(filter);
+            fail("Filter should be rejected: " + filter);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static void assertOrderByRejected(String orderBy) {
+        try {
+            SelectQuery.validateOrderBy(orderBy);
+            fail("orderBy should be rejected: " + orderBy);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("orderBy must list columns"));
+        }
+    }
+
+    private static IngestRequest request(String filter, String orderBy) {
+        IngestRequest request = new IngestRequest();
+        request.setTableName("orders");
+        request.setSelectedColumns(Arrays.asList("id", "name"));
+        request.setFilter(filter);
+        request.setOrderBy(orderBy);
+        return request;
+    }
+
+    private static UnaryOperator<String> qualify() {
+        return table -> "default." + table;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.app.service.integration;
+
+import com.example.app.filter.CORSFilter;
+import com.example.app.model.ConnectionConfig;
+import com.example.app.service.ClickHouseService;
+import com.example.app.servlet.AsyncRequestExecutor;
+import com.example.app.servlet.ClickHouseServlet;
+import com.example.app.servlet.PreviewServlet;
+import com.example.app.util.ClickHouseStandInServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the servlets in an embedded Jetty to check that blocking work is handed to the
+ * async I/O pool and that deadlines are enforced.
+ */
+public class AsyncServletIntegrationTest {
+
+    private static final String TABLE = "async_table";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ClickHouseStandInServer clickHouse;
+    private Server server;
+    private int port;
+    private Path csvFile;
+
+    @Before
+    public void setUp() throws Exception {
+        clickHouse = new ClickHouseStandInServer().start();
+        clickHouse.createTable(TABLE, Arrays.asList("id", "name"), Arrays.asList("Int32", "String"));
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        FilterHolder cors = context.addFilter(CORSFilter.class, "/api/*", EnumSet.of(DispatcherType.REQUEST));
+        cors.setAsyncSupported(true);
+        addAsyncServlet(context, new ClickHouseServlet(), "/api/clickhouse/*");
+        addAsyncServlet(context, new PreviewServlet(), "/api/preview");
+        addAsyncServlet(context, new SlowServlet(), "/api/slow");
+        addAsyncServlet(context, new SlowQueryServlet(clickHouse.connectionConfig()), "/api/slow-query");
+
+        server = new Server(0);
+        server.setHandler(context);
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        csvFile = Files.createTempFile("async_servlet_test", ".csv");
+        Files.write(csvFile, "id,name\n1,alpha\n2,beta\n3,gamma\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        clickHouse.close();
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Test
+    public void testPreviewFlatFile_RespondsFromIoPool() throws IOException {
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "FlatFile");
+        request.put("sourceFilePath", csvFile.toString());
+        request.put("selectedColumns", Arrays.asList("name"));
+        request.put("maxRows", 2);
+
+        HttpURLConnection connection = post("/api/preview", objectMapper.writeValueAsString(request));
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+        List<?> rows = objectMapper.readValue(read(connection.getInputStream()), List.class);
+        assertEquals(Arrays.asList(Arrays.asList("alpha"), Arrays.asList("beta")), rows);
+    }
+
+    @Test
+    public void testPreviewClickHouse_StreamsGzippedRows() throws IOException {
+        clickHouse.addRow(TABLE, Arrays.asList("1", "alpha"));
+        clickHouse.addRow(TABLE, Arrays.asList("2", "beta"));
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "ClickHouse");
+        request.put("connectionConfig", clickHouse.connectionConfig());
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", Arrays.asList("id", "name"));
+        request.put("maxRows", 10);
+
+        HttpURLConnection connection = open("/api/preview");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        send(connection, objectMapper.writeValueAsString(request));
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        List<?> rows = objectMapper.readValue(read(new GZIPInputStream(connection.getInputStream())), List.class);
+        assertEquals(Arrays.asList(Arrays.asList(1, "alpha"), Arrays.asList(2, "beta")), rows);
+    }
+
+    @Test
+    public void testPreviewFlatFile_EmptyResultIsEmptyArray() throws IOException {
+        Files.write(csvFile, "id,name\n".getBytes(StandardCharsets.UTF_8));
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "FlatFile");
+        request.put("sourceFilePath", csvFile.toString());
+        request.put("selectedColumns", Arrays.asList("name"));
+
+        HttpURLConnection connection = post("/api/preview", objectMapper.writeValueAsString(request));
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("[]", read(connection.getInputStream()));
+    }
+
+    @Test
+    public void testPreviewClickHouse_InvalidFilterIsBadRequest() throws IOException {
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "ClickHouse");
+        request.put("connectionConfig", clickHouse.connectionConfig());
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", Arrays.asList("id"));
+        request.put("filter", "id = 1) UNION ALL SELECT name FROM other WHERE (1");
+
+        HttpURLConnection connection = post("/api/preview", objectMapper.writeValueAsString(request));
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, connection.getResponseCode());
+        Map<?, ?> body = objectMapper.readValue(read(connection.getErrorStream()), Map.class);
+        assertTrue(String.valueOf(body.get("message")), String.valueOf(body.get("message")).contains("unmatched ')'"));
+        assertTrue("Nothing should reach ClickHouse", clickHouse.getStatements().stream()
+                .noneMatch(sql -> sql.contains("UNION")));
+    }
+
+    @Test
+    public void testClickHouseTables_RespondsFromIoPool() throws IOException {
+        ConnectionConfig config = clickHouse.connectionConfig();
+
+        HttpURLConnection connection = post("/api/clickhouse/tables", objectMapper.writeValueAsString(config));
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(Arrays.asList(TABLE), objectMapper.readValue(read(connection.getInputStream()), List.class));
+    }
+
+    @Test
+    public void testClickHouseConnect_FailureReplyIsJson() throws IOException {
+        ConnectionConfig config = clickHouse.connectionConfig();
+        config.setPort(1);
+
+        HttpURLConnection connection = post("/api/clickhouse/connect", objectMapper.writeValueAsString(config));
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, connection.getResponseCode());
+        Map<?, ?> body = objectMapper.readValue(read(connection.getErrorStream()), Map.class);
+        assertEquals("Failed to connect", body.get("message"));
+    }
+
+    @Test
+    public void testSlowHandler_TimesOutWith504() throws IOException {
+        long start = System.nanoTime();
+
+        HttpURLConnection connection = post("/api/slow", "{}");
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, connection.getResponseCode());
+        assertTrue("Deadline should cut the request short, took " + elapsedMs, elapsedMs < 3000);
+        Map<?, ?> body = objectMapper.readValue(read(connection.getErrorStream()), Map.class);
+        assertEquals("Request timed out", body.get("message"));
+    }
+
+    @Test
+    public void testSlowQuery_TimeoutKillsTheQuery() throws Exception {
+        clickHouse.setLatencyMs(1000);
+
+        HttpURLConnection connection = post("/api/slow-query", "{}");
+
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, connection.getResponseCode());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (clickHouse.getStatements().stream().noneMatch(sql -> sql.startsWith("KILL QUERY"))) {
+            assertTrue("The timed out query should be killed, saw " + clickHouse.getStatements(),
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static void addAsyncServlet(ServletContextHandler context, HttpServlet servlet, String path) {
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, path);
+    }
+
+    private HttpURLConnection post(String path, String json) throws IOException {
+        HttpURLConnection connection = open(path);
+        send(connection, json);
+        return connection;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        return connection;
+    }
+
+    private static void send(HttpURLConnection connection, String json) throws IOException {
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            stream.transferTo(buffer);
+            return buffer.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    /**
+     * Takes longer than its 200ms deadline before responding
+     */
+    public static class SlowServlet extends HttpServlet {
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+            AsyncRequestExecutor.dispatch(req, resp, 200, call -> {
+                Thread.sleep(10000);
+                call.respond().getWriter().write("{}");
+            });
+        }
+    }
+
+    /**
+     * Runs a query that outlasts its 1500ms deadline: with 1s of latency per request
+     * the deadline passes half way through the query, after connecting
+     */
+    public static class SlowQueryServlet extends HttpServlet {
+        private final ConnectionConfig config;
+
+        SlowQueryServlet(ConnectionConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+            AsyncRequestExecutor.dispatch(req, resp, 1500, call -> {
+                new ClickHouseService().executeQuery(config, "SELECT id FROM " + TABLE);
+                call.respond().getWriter().write("{}");
+            });
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.app.service.integration;
+
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.model.IngestResult;
+import com.example.app.model.ShardConfig;
+import com.example.app.service.ClickHouseHttpClient;
+import com.example.app.service.ClickHouseService;
+import com.example.app.util.ClickHouseStandInServer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replicated and sharded connections: failover, load balancing and shard-local inserts,
+ * with one stand-in server per replica.
+ */
+public class ClusterIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testLatency_AppliedToEveryRequest() throws Exception {
+        server.setLatencyMs(100);
+        long start = System.nanoTime();
+
+        List<String> tables = new ClickHouseService().getTables(config);
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(Arrays.asList(TABLE), tables);
+        // Connection handshake plus SHOW TABLES
+        assertTrue("Expected at least 200ms, took " + elapsedMs, elapsedMs >= 200);
+    }
+
+    @Test
+    public void testReplicas_DeadHostFailsOverAndLeavesRotation() throws Exception {
+        Path csv = writeCsv(".csv", false);
+        // The configured host refuses connections; the stand-in is its replica
+        config.setReplicas(Arrays.asList("localhost:" + server.getPort()));
+        config.setPort(1);
+
+        IngestResult result = ingestService.streamFromFileToClickHouse(
+                csv.toString(), config, TABLE, COLUMNS, startOperation());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Arrays.asList(TABLE), new ClickHouseService().getTables(config));
+        }
+
+        assertTrue("Import should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(ROW_COUNT, server.getTable(TABLE).getRows().size());
+        StringWriter prometheus = new StringWriter();
+        MetricsRegistry.getInstance().writePrometheus(prometheus);
+        assertTrue(prometheus.toString().contains("clickhouse_replica_available{replica=\"localhost:1\"} 0"));
+        assertTrue(prometheus.toString().contains(
+                "clickhouse_replica_available{replica=\"localhost:" + server.getPort() + "\"} 1"));
+    }
+
+    @Test
+    public void testReplicas_ReplicaThatAcceptsButNeverAnswersLeavesRotation() throws Exception {
+        // Connecting to it works, so only the requests' own outcomes can tell it is down
+        try (ServerSocket silent = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                while (true) {
+                    try {
+                        silent.accept().close();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            config.setPort(silent.getLocalPort());
+            config.setReplicas(Arrays.asList("localhost:" + server.getPort()));
+            ClickHouseHttpClient client = new ClickHouseHttpClient();
+
+            int failures = 0;
+            for (int i = 0; i < 8; i++) {
+                try {
+                    client.insert(config, "INSERT INTO " + TABLE + " (id, name, value) FORMAT CSV", null,
+                            new ByteArrayInputStream((i + ",a,1.5\n").getBytes(StandardCharsets.UTF_8)), null, null);
+                } catch (IOException e) {
+                    failures++;
+                }
+            }
+
+            // Round robin sends every other request to it until the third failure opens its breaker
+            assertEquals(3, failures);
+            assertEquals(5, server.getTable(TABLE).getRows().size());
+            StringWriter prometheus = new StringWriter();
+            MetricsRegistry.getInstance().writePrometheus(prometheus);
+            assertTrue(prometheus.toString().contains(
+                    "clickhouse_replica_available{replica=\"localhost:" + silent.getLocalPort() + "\"} 0"));
+        }
+    }
+
+    @Test
+    public void testReplicas_LatencyPolicyPrefersTheFasterReplica() throws Exception {
+        try (ClickHouseStandInServer fast = new ClickHouseStandInServer().start()) {
+            fast.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+            server.setLatencyMs(150);
+            config.setReplicas(Arrays.asList("localhost:" + fast.getPort()));
+            config.setLoadBalancing("latency");
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Arrays.asList(TABLE), new ClickHouseService().getTables(config));
+            }
+
+            long slowQueries = server.getStatements().stream().filter(sql -> sql.startsWith("SHOW")).count();
+            long fastQueries = fast.getStatements().stream().filter(sql -> sql.startsWith("SHOW")).count();
+            assertEquals(10, slowQueries + fastQueries);
+            assertTrue("Slow replica got " + slowQueries + " of 10", slowQueries <= 2);
+        }
+    }
+
+    @Test
+    public void testStreamFromFileToClickHouse_ShardedInsertsGoToLocalTablesWithFailover() throws Exception {
+        Path csv = writeCsv(".csv", false);
+        try (ClickHouseStandInServer shard1 = new ClickHouseStandInServer().start();
+             ClickHouseStandInServer shard2 = new ClickHouseStandInServer().start()) {
+            List<String> types = Arrays.asList("Int32", "String", "Nullable(Float64)");
+            shard1.createTable(TABLE + "_local", COLUMNS, types);
+            shard2.createTable(TABLE + "_local", COLUMNS, types);
+            ShardConfig first = new ShardConfig();
+            // The first replica refuses connections, so its rows fail over to the second
+            first.setReplicas(Arrays.asList("localhost:1", "localhost:" + shard1.getPort()));
+            ShardConfig second = new ShardConfig();
+            second.setReplicas(Arrays.asList("localhost:" + shard2.getPort()));
+            config.setShards(Arrays.asList(first, second));
+            config.setShardingKey("id");
+            config.setLocalTableSuffix("_local");
+
+            IngestResult result = ingestService.streamFromFileToClickHouse(
+                    csv.toString(), config, TABLE, COLUMNS, startOperation());
+
+            assertTrue("Import should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(ROW_COUNT, result.getRecordsProcessed());
+            assertEquals(ROW_COUNT / 2, shard1.getTable(TABLE + "_local").getRows().size());
+            assertEquals(ROW_COUNT / 2, shard2.getTable(TABLE + "_local").getRows().size());
+            assertTrue(shard1.getTable(TABLE + "_local").getRows().stream()
+                    .allMatch(row -> Integer.parseInt(row.get(0)) % 2 == 0));
+            assertTrue(shard2.getTable(TABLE + "_local").getRows().stream()
+                    .allMatch(row -> Integer.parseInt(row.get(0)) % 2 == 1));
+            assertTrue("Nothing should go through the coordinator", server.getTable(TABLE).getRows().isEmpty());
+        }
+    }
+
+    @Test
+    public void testInsertData_ShardedBlockSentAgainWithItsTokenIsStoredOnce() throws Exception {
+        try (ClickHouseStandInServer shard1 = new ClickHouseStandInServer().start();
+             ClickHouseStandInServer shard2 = new ClickHouseStandInServer().start()) {
+            List<String> types = Arrays.asList("Int32", "String", "Nullable(Float64)");
+            shard1.createTable(TABLE + "_local", COLUMNS, types);
+            shard2.createTable(TABLE + "_local", COLUMNS, types);
+            ShardConfig first = new ShardConfig();
+            first.setReplicas(Arrays.asList("localhost:" + shard1.getPort()));
+            ShardConfig second = new ShardConfig();
+            second.setReplicas(Arrays.asList("localhost:" + shard2.getPort()));
+            config.setShards(Arrays.asList(first, second));
+            config.setLocalTableSuffix("_local");
+            List<List<Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                rows.add(Arrays.asList(i, "name-" + i, i + 0.5));
+            }
+            ClickHouseService service = new ClickHouseService();
+
+            // Split by key, then whole blocks, which must go back to the shard that has them
+            config.setShardingKey("id");
+            service.insertData(config, TABLE, COLUMNS, rows, "task-0-0-10");
+            service.insertData(config, TABLE, COLUMNS, rows, "task-0-0-10");
+            config.setShardingKey(null);
+            for (int i = 0; i < 4; i++) {
+                service.insertData(config, TABLE, COLUMNS, rows, "task-1-0-10");
+            }
+
+            int stored1 = shard1.getTable(TABLE + "_local").getRows().size();
+            int stored2 = shard2.getTable(TABLE + "_local").getRows().size();
+            assertEquals(20, stored1 + stored2);
+            assertTrue("Each shard keeps its part of the keyed block", stored1 >= 5 && stored2 >= 5);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.app.service.integration;
+
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import com.example.app.util.ClickHouseStandInServer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copies between two stand-in servers, through remote() and as streamed Native data.
+ */
+public class CopyTableIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testCopyTable_StreamsNativeByPartitionWhenTargetCantReachSource() throws Exception {
+        fillTable();
+        try (ClickHouseStandInServer target = new ClickHouseStandInServer().start()) {
+            target.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+
+            IngestRequest request = copyRequest(target);
+            request.setCopyMode("auto");
+            request.setCopyParallelism(4);
+            IngestResult result = ingestService.copyTable(request, startOperation());
+
+            assertTrue("Copy should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(ROW_COUNT, result.getRecordsProcessed());
+            assertEquals(4, result.getShards().size());
+            assertEquals(new HashSet<>(server.getTable(TABLE).getRows()),
+                    new HashSet<>(target.getTable(TABLE).getRows()));
+            assertEquals(ROW_COUNT, target.getTable(TABLE).getRows().size());
+            assertTrue("Remote access should have been tried first", target.getStatements().stream()
+                    .anyMatch(sql -> sql.contains("remote('localhost:9000'")));
+            assertEquals(4, target.getStatements().stream()
+                    .filter(sql -> sql.endsWith("(`id`, `name`, `value`) FORMAT Native")).count());
+        }
+    }
+
+    @Test
+    public void testCopyTable_InsertSelectFromRemoteWhenTargetReachesSource() throws Exception {
+        fillTable();
+        try (ClickHouseStandInServer target = new ClickHouseStandInServer().start()) {
+            target.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+            target.addRemote("source:9000", server);
+
+            IngestRequest request = copyRequest(target);
+            request.setCopyMode("remote");
+            request.setRemoteAddress("source:9000");
+            request.setFilter("id > '200'");
+            IngestResult result = ingestService.copyTable(request, startOperation());
+
+            assertTrue("Copy should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(50, result.getRecordsProcessed());
+            assertEquals(50, target.getTable(TABLE).getRows().size());
+            assertTrue(target.getStatements().stream().anyMatch(sql -> sql.startsWith(
+                    "INSERT INTO default.standin_table (`id`, `name`, `value`) SELECT")));
+            assertTrue("No rows should pass through the app", server.getStatements().stream()
+                    .noneMatch(sql -> sql.contains("FORMAT Native")));
+        }
+    }
+
+    @Test
+    public void testCopyTable_RemoteWithNamedCollectionKeepsCredentialsOutOfTheStatement() throws Exception {
+        fillTable();
+        try (ClickHouseStandInServer target = new ClickHouseStandInServer().start()) {
+            target.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+            target.addRemote("source_cluster", server);
+
+            IngestRequest request = copyRequest(target);
+            request.setCopyMode("remote");
+            request.setRemoteCollection("source_cluster");
+            IngestResult result = ingestService.copyTable(request, startOperation());
+
+            assertTrue("Copy should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(ROW_COUNT, target.getTable(TABLE).getRows().size());
+            assertTrue(target.getStatements().stream().anyMatch(sql -> sql.startsWith("INSERT INTO")
+                    && sql.contains("remote(source_cluster, database = 'default', table = '" + TABLE + "')")));
+            assertTrue("No address or credentials in the statements", target.getStatements().stream()
+                    .noneMatch(sql -> sql.contains("remote('")));
+        }
+    }
+
+    @Test
+    public void testCopyTable_StreamsByDefaultEvenWhenTargetCouldReachSource() throws Exception {
+        fillTable();
+        try (ClickHouseStandInServer target = new ClickHouseStandInServer().start()) {
+            target.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+            target.addRemote("localhost:9000", server);
+
+            IngestResult result = ingestService.copyTable(copyRequest(target), startOperation());
+
+            assertTrue("Copy should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(ROW_COUNT, target.getTable(TABLE).getRows().size());
+            assertTrue("remote() is opt-in", target.getStatements().stream().noneMatch(sql -> sql.contains("remote(")));
+        }
+    }
+
+    private IngestRequest copyRequest(ClickHouseStandInServer target) {
+        IngestRequest request = new IngestRequest();
+        request.setSourceType("ClickHouse");
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setTargetConnectionConfig(target.connectionConfig());
+        return request;
+    }
+}
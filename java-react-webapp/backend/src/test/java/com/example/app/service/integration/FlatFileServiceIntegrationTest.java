@@ -1,20 +1,40 @@
 package com.example.app.service.integration;
 
+import com.example.app.metrics.BatchTrace;
+import com.example.app.metrics.OperationMetrics;
 import com.example.app.model.ColumnInfo;
 import com.example.app.model.TableInfo;
+import com.example.app.service.ExportFormat;
 import com.example.app.service.FlatFileService;
+import com.example.app.util.AsyncDecompressingInputStream;
+import com.example.app.util.CompressionType;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -146,6 +166,198 @@ public class FlatFileServiceIntegrationTest {
         }
     }
     
+    @Test
+    public void testReadFileData_GzipFile_ReadsDecompressedData() throws IOException {
+        String gzipFilePath = tempFilePath(".csv.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFilePath))) {
+            Files.copy(Paths.get(testFilePath), out);
+        }
+        
+        try {
+            assertEquals("Should detect gzip", CompressionType.GZIP,
+                    flatFileService.detectCompression(gzipFilePath));
+            assertEquals("Should count decompressed lines", 4, flatFileService.countLines(gzipFilePath));
+            
+            List<List<Object>> data = flatFileService.readFileData(
+                    gzipFilePath, ",", Arrays.asList("id", "name"));
+            assertEquals("Should have 3 rows", 3, data.size());
+            assertEquals("Second column of first row should be 'John'", "John", data.get(0).get(1));
+        } finally {
+            deleteFileIfExists(gzipFilePath);
+        }
+    }
+    
+    @Test
+    public void testProcessFileDataInBatches_ZstdFile_ReadsAllBatches() throws IOException {
+        String zstdFilePath = tempFilePath(".csv.zst");
+        try (OutputStream out = new ZstdOutputStream(new FileOutputStream(zstdFilePath))) {
+            Files.copy(Paths.get(testFilePath), out);
+        }
+        
+        try {
+            assertEquals("Should detect zstd", CompressionType.ZSTD,
+                    flatFileService.detectCompression(zstdFilePath));
+            
+            List<List<Object>> rows = new ArrayList<>();
+            int total = flatFileService.processFileDataInBatches(
+                    zstdFilePath, ",", Arrays.asList("value", "id"), 2, rows::addAll);
+            assertEquals("Should process 3 records", 3, total);
+            assertEquals("Last row should be read", Arrays.asList("15.2", "3"), rows.get(2));
+        } finally {
+            deleteFileIfExists(zstdFilePath);
+        }
+    }
+    
+    @Test
+    public void testProcessFileDataInBatches_BatchBytesCoverEachBatchsOwnRecords() throws IOException {
+        List<BatchTrace> traces = new ArrayList<>();
+        flatFileService.processFileDataInBatches(testFilePath, ",", Arrays.asList("id"), 2,
+                (batch, trace) -> traces.add(trace), new OperationMetrics("import"));
+        
+        assertEquals(2, traces.size());
+        assertEquals("1,John,10.5\n2,Jane,20.7\n".length(), traces.get(0).getBytes());
+        assertEquals("3,Bob,15.2\n".length(), traces.get(1).getBytes());
+    }
+    
+    @Test(timeout = 10000)
+    public void testProcessFileDataInBatches_CorruptLz4File_FailsInsteadOfHanging() throws IOException {
+        String lz4FilePath = tempFilePath(".csv.lz4");
+        StringBuilder csv = new StringBuilder("id,name,value\n");
+        for (int i = 1; i <= 5000; i++) {
+            csv.append(i).append(",name-").append(i % 10).append(",10.5\n");
+        }
+        try (OutputStream out = new LZ4FrameOutputStream(new FileOutputStream(lz4FilePath))) {
+            out.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        // Append a second frame with garbled flags: lz4-java rejects it with a RuntimeException
+        // on the decompressing thread, after the first frame has been handed to the reader
+        byte[] corrupt = Files.readAllBytes(Paths.get(lz4FilePath));
+        corrupt[4] = 0;
+        Files.write(Paths.get(lz4FilePath), corrupt, StandardOpenOption.APPEND);
+        
+        try {
+            flatFileService.processFileDataInBatches(lz4FilePath, ",", Arrays.asList("id"), 100, rows -> { });
+            fail("A corrupt lz4 file should fail the read");
+        } catch (IOException | IllegalStateException expected) {
+            // The CSV parser reports read errors in the middle of a file as IllegalStateException
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Failed to decompress"));
+        } finally {
+            deleteFileIfExists(lz4FilePath);
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testAsyncDecompressingStream_CloseMidStream_SourceIsClosedByTheDecodingThread() throws IOException {
+        AtomicReference<String> closedBy = new AtomicReference<>();
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'x';
+            }
+
+            @Override
+            public void close() {
+                closedBy.set(Thread.currentThread().getName());
+            }
+        };
+        
+        InputStream stream = new AsyncDecompressingInputStream(endless, "endless");
+        assertEquals('x', stream.read());
+        stream.close();
+        
+        // Decoders aren't thread-safe, so close() must not close the source under a running read
+        assertEquals("decompress-endless", closedBy.get());
+    }
+    
+    @Test
+    public void testDetectCompression_PlainFile_ReturnsNone() throws IOException {
+        assertEquals("Plain CSV should not be detected as compressed", CompressionType.NONE,
+                flatFileService.detectCompression(testFilePath));
+    }
+    
+    @Test
+    public void testWriteToFile_ZstdCsv_RoundTripsThroughCompressedReader() throws IOException {
+        String zstdOutputPath = tempFilePath("_output.csv.zst");
+        List<String> columns = Arrays.asList("id", "name", "value");
+        List<List<Object>> originalData = flatFileService.readFileData(testFilePath, ",", columns);
+        
+        try {
+            flatFileService.writeToFile(zstdOutputPath, columns, originalData, ",",
+                    ExportFormat.CSV, CompressionType.ZSTD);
+            
+            assertEquals("Output should be zstd compressed", CompressionType.ZSTD,
+                    flatFileService.detectCompression(zstdOutputPath));
+            assertEquals("Data should survive the round trip", originalData,
+                    flatFileService.readFileData(zstdOutputPath, ",", columns));
+        } finally {
+            deleteFileIfExists(zstdOutputPath);
+        }
+    }
+    
+    @Test
+    public void testWriteToFile_GzipTsv_EscapesTabsAndNulls() throws IOException {
+        String tsvOutputPath = tempFilePath("_output.tsv.gz");
+        List<String> headers = Arrays.asList("id", "comment");
+        List<List<Object>> data = Arrays.asList(
+            Arrays.asList(1, "tab\there"),
+            Arrays.asList(2, null)
+        );
+        
+        try {
+            flatFileService.writeToFile(tsvOutputPath, headers, data, ",",
+                    ExportFormat.TSV, CompressionType.GZIP);
+            
+            List<String> lines;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(tsvOutputPath)), StandardCharsets.UTF_8))) {
+                lines = reader.lines().collect(Collectors.toList());
+            }
+            assertEquals("Should have 3 lines (1 header + 2 data)", 3, lines.size());
+            assertEquals("Header should be tab separated", "id\tcomment", lines.get(0));
+            assertEquals("Tabs inside values should be escaped", "1\ttab\\there", lines.get(1));
+            assertEquals("NULL should be written as \\N", "2\t\\N", lines.get(2));
+        } finally {
+            deleteFileIfExists(tsvOutputPath);
+        }
+    }
+    
+    @Test
+    public void testResolveSourceFiles_DirectoryAndGlob_ExpandToSortedFiles() throws IOException {
+        Path dir = Files.createTempDirectory("resolve_test");
+        Path nested = Files.createDirectory(dir.resolve("nested"));
+        try {
+            Files.write(dir.resolve("b.csv"), "id\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("a.csv"), "id\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("notes.txt"), "x\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve(".hidden.csv"), "id\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(nested.resolve("c.csv"), "id\n".getBytes(StandardCharsets.UTF_8));
+            
+            List<String> inDirectory = flatFileService.resolveSourceFiles(Arrays.asList(dir.toString()));
+            List<String> globbed = flatFileService.resolveSourceFiles(Arrays.asList(dir + "/*.csv"));
+            List<String> recursive = flatFileService.resolveSourceFiles(Arrays.asList(dir + "/**.csv"));
+            
+            assertEquals(Arrays.asList(dir.resolve("a.csv").toString(), dir.resolve("b.csv").toString(),
+                    dir.resolve("notes.txt").toString()), inDirectory);
+            assertEquals(Arrays.asList(dir.resolve("a.csv").toString(), dir.resolve("b.csv").toString()), globbed);
+            assertTrue("** should reach nested files", recursive.contains(nested.resolve("c.csv").toString()));
+            try {
+                flatFileService.resolveSourceFiles(Arrays.asList(dir + "/*.parquet"));
+                fail("A source matching nothing should be rejected");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("*.parquet"));
+            }
+        } finally {
+            for (Path file : new Path[] {nested.resolve("c.csv"), nested, dir.resolve("a.csv"), dir.resolve("b.csv"),
+                    dir.resolve("notes.txt"), dir.resolve(".hidden.csv"), dir}) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    private String tempFilePath(String extension) {
+        return System.getProperty("java.io.tmpdir") + File.separator + "test_data" + extension;
+    }
+    
     // Helper method to create a test CSV file
     private String createTestCsvFile() throws IOException {
         // Create a file in the temp directory with a fixed name
@@ -0,0 +1,113 @@
+package com.example.app.service.integration;
+
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Incremental exports that only write rows from the saved watermark up to below the
+ * newest value.
+ */
+public class IncrementalExportIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testIncrementalExport_EachRunRollsToNewFileWithOnlyNewerRows() throws IOException {
+        fillTable();
+        Path dir = Files.createTempDirectory("standin_incremental");
+        Path target = dir.resolve("sync.csv");
+        tempFiles.add(dir.resolve("sync.run-0001.csv"));
+        tempFiles.add(dir.resolve("sync.run-0002.csv"));
+        tempFiles.add(dir.resolve("sync.csv.watermark.json"));
+        tempFiles.add(dir);
+
+        IngestResult first = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "roll"), startOperation());
+        for (int i = ROW_COUNT + 1; i <= ROW_COUNT + 10; i++) {
+            server.addRow(TABLE, Arrays.asList(String.valueOf(i), "name-" + i, null));
+        }
+        IngestResult second = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "roll"), startOperation());
+        IngestResult third = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "roll"), startOperation());
+
+        assertTrue("Export should succeed: " + first.getMessage(), first.isSuccess());
+        assertEquals("The newest row waits for the next run", ROW_COUNT - 1, first.getRecordsProcessed());
+        assertEquals(String.valueOf(ROW_COUNT), first.getWatermark());
+        assertEquals(ROW_COUNT, Files.readAllLines(dir.resolve("sync.run-0001.csv")).size());
+        assertEquals(10, second.getRecordsProcessed());
+        List<String> secondRun = Files.readAllLines(dir.resolve("sync.run-0002.csv"));
+        assertEquals("id,name,value", secondRun.get(0));
+        assertTrue(secondRun.get(1), secondRun.get(1).startsWith(ROW_COUNT + ","));
+        assertEquals("260", second.getWatermark());
+        assertTrue("Run without new rows should succeed: " + third.getMessage(), third.isSuccess());
+        assertEquals(0, third.getRecordsProcessed());
+        assertFalse(Files.exists(dir.resolve("sync.run-0003.csv")));
+    }
+
+    @Test
+    public void testIncrementalExport_AppendDropsUnrecordedPartialAppend() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv");
+        tempFiles.add(Path.of(target + ".watermark.json"));
+
+        ingestService.streamFromClickHouseToFile(incrementalRequest(target, "append"), startOperation());
+        // A run that crashed after appending but before saving its watermark
+        Files.write(target, "999,partial".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        server.addRow(TABLE, Arrays.asList("251", "name-251", "251.5"));
+        IngestResult result = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "append"),
+                startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(1, result.getRecordsProcessed());
+        List<String> lines = Files.readAllLines(target);
+        assertEquals("Header only once", "id,name,value", lines.get(0));
+        assertEquals(ROW_COUNT + 1, lines.size());
+        assertEquals("250,name-250,", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void testIncrementalExport_LateRowsWithTheNewestValueAreNotLost() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv");
+        tempFiles.add(Path.of(target + ".watermark.json"));
+
+        IngestResult first = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "append"),
+                startOperation());
+        // Inserted after the first run with the value it stopped at
+        server.addRow(TABLE, Arrays.asList(String.valueOf(ROW_COUNT), "late", "0.5"));
+        IngestResult waiting = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "append"),
+                startOperation());
+        server.addRow(TABLE, Arrays.asList(String.valueOf(ROW_COUNT + 1), "newer", "1.5"));
+        IngestResult second = ingestService.streamFromClickHouseToFile(incrementalRequest(target, "append"),
+                startOperation());
+
+        assertTrue("Export should succeed: " + first.getMessage(), first.isSuccess());
+        assertTrue("Run without rows below the newest value should succeed: " + waiting.getMessage(),
+                waiting.isSuccess());
+        assertEquals(0, waiting.getRecordsProcessed());
+        assertEquals(2, second.getRecordsProcessed());
+        List<String> lines = Files.readAllLines(target);
+        assertEquals(ROW_COUNT + 2, lines.size());
+        assertTrue(lines.contains("250,name-250,"));
+        assertTrue(lines.contains("250,late,0.5"));
+        assertFalse("The newest row waits for the next run", lines.contains("251,newer,1.5"));
+    }
+
+    private IngestRequest incrementalRequest(Path target, String output) {
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setTargetFilePath(target.toString());
+        request.setWatermarkColumn("id");
+        request.setIncrementalOutput(output);
+        return request;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.app.service.integration;
+
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.servlet.IngestServlet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives operations the way the UI does: POST /api/ingest, then poll the status
+ * endpoint until the operation finishes, with the servlet in an embedded Jetty.
+ */
+public class IngestServletIntegrationTest extends StandInIntegrationTestBase {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Server jetty;
+    private int port;
+
+    @Before
+    public void startJetty() throws Exception {
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new IngestServlet()), "/api/ingest/*");
+        jetty = new Server(0);
+        jetty.setHandler(context);
+        jetty.start();
+        port = ((ServerConnector) jetty.getConnectors()[0]).getLocalPort();
+    }
+
+    @After
+    public void stopJetty() throws Exception {
+        jetty.stop();
+    }
+
+    @Test
+    public void testPostIngest_ImportRunsInBackgroundAndIsPolledToCompletion() throws Exception {
+        Path csv = writeCsv(".csv", false);
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "FlatFile");
+        request.put("sourceFilePath", csv.toString());
+        request.put("connectionConfig", config);
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", COLUMNS);
+
+        HttpURLConnection connection = post("/api/ingest", objectMapper.writeValueAsString(request));
+
+        assertEquals(200, connection.getResponseCode());
+        Map<?, ?> started = objectMapper.readValue(read(connection.getInputStream()), Map.class);
+        assertEquals("running", started.get("status"));
+        Map<?, ?> status = awaitStatus((String) started.get("operationId"));
+        assertEquals(status.toString(), "completed", status.get("status"));
+        assertEquals(ROW_COUNT, ((Number) status.get("recordsProcessed")).intValue());
+        assertEquals(ROW_COUNT, server.getTable(TABLE).getRows().size());
+    }
+
+    @Test
+    public void testPostIngest_ExportWritesTheFileAndReportsRecords() throws Exception {
+        fillTable();
+        Path target = tempFile(".csv");
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "ClickHouse");
+        request.put("connectionConfig", config);
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", Arrays.asList("id", "name"));
+        request.put("targetFilePath", target.toString());
+
+        HttpURLConnection connection = post("/api/ingest", objectMapper.writeValueAsString(request));
+
+        assertEquals(200, connection.getResponseCode());
+        Map<?, ?> started = objectMapper.readValue(read(connection.getInputStream()), Map.class);
+        Map<?, ?> status = awaitStatus((String) started.get("operationId"));
+        assertEquals(status.toString(), "completed", status.get("status"));
+        assertEquals(ROW_COUNT, ((Number) status.get("recordsProcessed")).intValue());
+        List<String> lines = Files.readAllLines(target);
+        assertEquals("id,name", lines.get(0));
+        assertEquals(ROW_COUNT + 1, lines.size());
+    }
+
+    @Test
+    public void testPostIngest_OperationsBeyondTheJobLimitWaitForASlot() throws Exception {
+        Path csv = writeCsv(".csv", false);
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "FlatFile");
+        request.put("sourceFilePath", csv.toString());
+        request.put("connectionConfig", config);
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", COLUMNS);
+        server.setLatencyMs(200);
+
+        List<String> operationIds = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            HttpURLConnection connection = post("/api/ingest", objectMapper.writeValueAsString(request));
+            assertEquals(200, connection.getResponseCode());
+            operationIds.add((String) objectMapper.readValue(read(connection.getInputStream()), Map.class)
+                    .get("operationId"));
+        }
+
+        assertTrue("Three of eight operations should wait for the default five slots",
+                gauge("ingest_executor_queued_tasks") > 0);
+        for (String operationId : operationIds) {
+            Map<?, ?> status = awaitStatus(operationId);
+            assertEquals(status.toString(), "completed", status.get("status"));
+        }
+        assertEquals(0, gauge("ingest_executor_queued_tasks"));
+        assertEquals(8 * ROW_COUNT, server.getTable(TABLE).getRows().size());
+    }
+
+    @Test
+    public void testPostIngest_MalformedReplicaIsRejectedUpFront() throws Exception {
+        Path csv = writeCsv(".csv", false);
+        Map<String, Object> request = new HashMap<>();
+        request.put("sourceType", "FlatFile");
+        request.put("sourceFilePath", csv.toString());
+        request.put("tableName", TABLE);
+        request.put("selectedColumns", COLUMNS);
+
+        for (String replica : Arrays.asList("localhost:abc", "::1", "localhost:70000", ":8123")) {
+            config.setReplicas(Arrays.asList(replica));
+            request.put("connectionConfig", config);
+            HttpURLConnection connection = post("/api/ingest", objectMapper.writeValueAsString(request));
+
+            assertEquals(replica, HttpServletResponse.SC_BAD_REQUEST, connection.getResponseCode());
+            Map<?, ?> body = objectMapper.readValue(read(connection.getErrorStream()), Map.class);
+            assertTrue(String.valueOf(body.get("message")), String.valueOf(body.get("message")).contains(replica));
+        }
+        assertTrue("Nothing should reach ClickHouse", server.getStatements().isEmpty());
+    }
+
+    @Test
+    public void testStatus_UnknownOperationIsNotFound() throws IOException {
+        HttpURLConnection connection = get("/api/ingest?operationId=missing");
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, connection.getResponseCode());
+    }
+
+    private Map<?, ?> awaitStatus(String operationId) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (true) {
+            HttpURLConnection connection = get("/api/ingest?operationId=" + operationId);
+            assertEquals(200, connection.getResponseCode());
+            Map<?, ?> status = objectMapper.readValue(read(connection.getInputStream()), Map.class);
+            if ("completed".equals(status.get("status")) || "error".equals(status.get("status"))) {
+                return status;
+            }
+            assertTrue("Operation still " + status.get("status"), System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static long gauge(String name) throws IOException {
+        StringWriter metrics = new StringWriter();
+        MetricsRegistry.getInstance().writePrometheus(metrics);
+        for (String line : metrics.toString().split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return (long) Double.parseDouble(line.substring(name.length() + 1).trim());
+            }
+        }
+        throw new AssertionError("No gauge " + name);
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    }
+
+    private HttpURLConnection post(String path, String json) throws IOException {
+        HttpURLConnection connection = get(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            stream.transferTo(buffer);
+            return buffer.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.app.service.integration;
+
+import com.example.app.model.FileProgress;
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import com.example.app.model.JobTask;
+import com.example.app.service.ClickHouseService;
+import com.example.app.service.DirectoryJobStore;
+import com.example.app.service.FlatFileService;
+import com.example.app.service.IngestService;
+import com.example.app.service.JobWorker;
+import com.example.app.service.JournalJobStore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Jobs queued in a job store and run by workers, as several instances or across a restart.
+ */
+public class JobStoreIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testJobs_WorkersShareTasksAndAnyInstanceReportsStatus() throws Exception {
+        Path dir = Files.createTempDirectory("standin_jobs");
+        try {
+            Path input = Files.createDirectories(dir.resolve("input"));
+            for (int f = 0; f < 4; f++) {
+                StringBuilder csv = new StringBuilder("id,name,value\n");
+                for (int i = 1; i <= 50; i++) {
+                    int id = f * 50 + i;
+                    csv.append(id).append(",name-").append(id).append(',').append(id).append(".5\n");
+                }
+                Files.write(input.resolve("part-" + f + ".csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            // Instances that share the store directory: one only accepts jobs, two run them
+            IngestService coordinator = new IngestService(new ClickHouseService(), new FlatFileService(),
+                    new DirectoryJobStore(dir.resolve("jobs")));
+            IngestRequest request = new IngestRequest();
+            request.setSourceType("FlatFile");
+            request.setSourceFilePath(input + "/*.csv");
+            request.setConnectionConfig(config);
+            request.setTableName(TABLE);
+            request.setSelectedColumns(COLUMNS);
+
+            IngestResult queued = coordinator.submitJob(request);
+            assertEquals("queued", queued.getStatus());
+            assertEquals("One task per file", 4, queued.getFiles().size());
+            IngestResult status;
+            try (JobWorker first = startWorker(dir.resolve("jobs"), "worker-a");
+                 JobWorker second = startWorker(dir.resolve("jobs"), "worker-b")) {
+                status = awaitJob(coordinator, queued.getOperationId());
+            }
+
+            assertTrue("Job should succeed: " + status.getMessage(), status.isSuccess());
+            assertEquals(200, status.getRecordsProcessed());
+            Set<String> ids = new HashSet<>();
+            for (List<String> row : server.getTable(TABLE).getRows()) {
+                ids.add(row.get(0));
+            }
+            assertEquals(200, server.getTable(TABLE).getRows().size());
+            assertEquals("Every row should arrive exactly once", 200, ids.size());
+            IngestResult elsewhere = new IngestService(new ClickHouseService(), new FlatFileService(),
+                    new DirectoryJobStore(dir.resolve("jobs"))).getOperationStatus(queued.getOperationId());
+            assertEquals("completed", elsewhere.getStatus());
+            for (FileProgress file : elsewhere.getFiles()) {
+                assertEquals(file.getFilePath(), "completed", file.getStatus());
+                assertEquals(50, file.getRecordsProcessed());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testJobs_TaskOfDeadWorkerIsTakenOverWhenItsLeaseExpires() throws Exception {
+        Path dir = Files.createTempDirectory("standin_jobs");
+        try {
+            DirectoryJobStore store = new DirectoryJobStore(dir);
+            IngestService coordinator = new IngestService(new ClickHouseService(), new FlatFileService(), store);
+            IngestRequest request = new IngestRequest();
+            request.setSourceType("FlatFile");
+            request.setSourceFilePath(writeCsv(".csv", false).toString());
+            request.setConnectionConfig(config);
+            request.setTableName(TABLE);
+            request.setSelectedColumns(COLUMNS);
+            String jobId = coordinator.submitJob(request).getOperationId();
+
+            // A worker claims the task and dies without renewing its lease
+            JobTask claimed = store.claim("dead-worker", 300);
+            assertNotNull(claimed);
+            assertNull("The task is leased", store.claim("worker-a", 300));
+            assertEquals("running", coordinator.getOperationStatus(jobId).getStatus());
+            IngestResult status;
+            try (JobWorker worker = startWorker(dir, "worker-a")) {
+                status = awaitJob(coordinator, jobId);
+            }
+
+            assertTrue("Job should succeed: " + status.getMessage(), status.isSuccess());
+            assertEquals(ROW_COUNT, status.getRecordsProcessed());
+            assertEquals(ROW_COUNT, server.getTable(TABLE).getRows().size());
+            JobTask task = store.get(jobId).getTasks().get(0);
+            assertEquals("worker-a", task.getWorker());
+            assertEquals(2, task.getAttempts());
+            assertFalse("The dead worker's lease is gone", store.update(claimed, "dead-worker", 300));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testJobs_JournalRecoversAndResumesInterruptedImport() throws Exception {
+        Path dir = Files.createTempDirectory("standin_journal");
+        try {
+            Path journal = dir.resolve("jobs.journal");
+            IngestRequest request = new IngestRequest();
+            request.setSourceType("FlatFile");
+            request.setSourceFilePath(writeCsv(".csv", false).toString());
+            request.setConnectionConfig(config);
+            request.setTableName(TABLE);
+            request.setSelectedColumns(COLUMNS);
+            String jobId;
+            try (JournalJobStore before = new JournalJobStore(journal)) {
+                jobId = new IngestService(new ClickHouseService(), new FlatFileService(), before)
+                        .submitJob(request).getOperationId();
+                // The process inserts the first 100 rows, checkpoints them and dies
+                JobTask task = before.claim("old-worker", 30000);
+                IngestResult progress = new IngestResult();
+                progress.setRecordsProcessed(100);
+                task.setResult(progress);
+                assertTrue(before.update(task, "old-worker", 30000));
+            }
+            for (int id = 1; id <= 100; id++) {
+                server.addRow(TABLE, Arrays.asList(String.valueOf(id), "name-" + id, id + ".5"));
+            }
+            Files.write(journal, "{\"task\":{\"jobId\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            IngestResult status;
+            try (JournalJobStore after = new JournalJobStore(journal)) {
+                IngestService restarted = new IngestService(new ClickHouseService(), new FlatFileService(), after);
+                JobTask recovered = after.get(jobId).getTasks().get(0);
+                assertEquals("queued", recovered.getStatus());
+                assertEquals(100, recovered.getResult().getRecordsProcessed());
+                assertEquals("Compacted to one line per job", 1, Files.readAllLines(journal).size());
+                try (JobWorker worker = new JobWorker(restarted, after, "new-worker", 2).start()) {
+                    status = awaitJob(restarted, jobId);
+                }
+            }
+
+            assertTrue("Job should succeed: " + status.getMessage(), status.isSuccess());
+            assertEquals(ROW_COUNT, status.getRecordsProcessed());
+            Set<String> ids = new HashSet<>();
+            for (List<String> row : server.getTable(TABLE).getRows()) {
+                ids.add(row.get(0));
+            }
+            assertEquals("Rows already inserted aren't sent again", ROW_COUNT, server.getTable(TABLE).getRows().size());
+            assertEquals(ROW_COUNT, ids.size());
+            try (JournalJobStore reopened = new JournalJobStore(journal)) {
+                assertEquals("completed", reopened.get(jobId).getTasks().get(0).getStatus());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testJobs_BlocksInsertedAfterTheLastCheckpointAreDeduplicatedOnResume() throws Exception {
+        Path dir = Files.createTempDirectory("standin_journal");
+        try {
+            Path journal = dir.resolve("jobs.journal");
+            IngestRequest request = new IngestRequest();
+            request.setSourceType("FlatFile");
+            request.setSourceFilePath(writeCsv(".csv", false).toString());
+            request.setConnectionConfig(config);
+            request.setTableName(TABLE);
+            request.setSelectedColumns(COLUMNS);
+            String jobId;
+            try (JournalJobStore before = new JournalJobStore(journal)) {
+                IngestService service = new IngestService(new ClickHouseService(), new FlatFileService(), before);
+                jobId = service.submitJob(request).getOperationId();
+                // The process inserts every row and dies before its progress is checkpointed
+                JobTask task = before.claim("old-worker", 30000);
+                IngestResult progress = new IngestResult();
+                progress.setOperationId(jobId + "-0");
+                service.trackOperation(progress);
+                assertTrue(service.runOperation(task.getRequest(), jobId + "-0").isSuccess());
+            }
+            // A line that parses but doesn't fit the job
+            Files.write(journal, ("{\"task\":{\"jobId\":\"" + jobId + "\",\"index\":5}}\n")
+                    .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            IngestResult status;
+            try (JournalJobStore after = new JournalJobStore(journal)) {
+                IngestService restarted = new IngestService(new ClickHouseService(), new FlatFileService(), after);
+                try (JobWorker worker = new JobWorker(restarted, after, "new-worker", 2).start()) {
+                    status = awaitJob(restarted, jobId);
+                }
+            }
+
+            assertTrue("Job should succeed: " + status.getMessage(), status.isSuccess());
+            assertEquals(2, server.getBlocksReceived());
+            assertEquals("The block sent again is stored once", ROW_COUNT, server.getTable(TABLE).getRows().size());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testJobs_WatchJobsAreStoppedThroughTheStore() throws Exception {
+        Path dir = Files.createTempDirectory("standin_jobs");
+        try {
+            Path input = Files.createDirectories(dir.resolve("input"));
+            Files.write(input.resolve("events.csv"), "id,name,value\n1,name-1,1.5\n2,name-2,2.5\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            IngestService coordinator = new IngestService(new ClickHouseService(), new FlatFileService(),
+                    new DirectoryJobStore(dir.resolve("jobs")));
+            IngestRequest request = new IngestRequest();
+            request.setSourceType("FlatFile");
+            request.setSourceFilePath(input.toString());
+            request.setConnectionConfig(config);
+            request.setTableName(TABLE);
+            request.setSelectedColumns(COLUMNS);
+            request.setWatch(true);
+            request.setFlushIntervalMs(50);
+            request.setPollIntervalMs(50);
+
+            // Stopped while queued: the watch never starts
+            String queuedId = coordinator.submitJob(request).getOperationId();
+            assertTrue(coordinator.stopOperation(queuedId));
+            DirectoryJobStore store = new DirectoryJobStore(dir.resolve("jobs"));
+            IngestService instance = new IngestService(new ClickHouseService(), new FlatFileService(), store);
+            try (JobWorker worker = new JobWorker(instance, store, "worker-a", 2).start()) {
+                IngestResult stopped = awaitJob(coordinator, queuedId);
+                assertEquals("completed", stopped.getStatus());
+                assertEquals(0, server.getTable(TABLE).getRows().size());
+
+                // Stopped while running, from an instance other than the worker's
+                String runningId = coordinator.submitJob(request).getOperationId();
+                long deadline = System.currentTimeMillis() + 10000;
+                while (server.getTable(TABLE).getRows().size() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                assertEquals(2, server.getTable(TABLE).getRows().size());
+                assertTrue(coordinator.stopOperation(runningId));
+                IngestResult status = awaitJob(coordinator, runningId);
+
+                assertTrue("Watch should succeed: " + status.getMessage(), status.isSuccess());
+                assertEquals(2, status.getRecordsProcessed());
+                assertFalse("A finished job can't be stopped", coordinator.stopOperation(runningId));
+                assertNotNull("The job id finds its task's trace", instance.getOperationTrace(runningId));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static JobWorker startWorker(Path jobs, String workerId) throws IOException {
+        DirectoryJobStore store = new DirectoryJobStore(jobs);
+        return new JobWorker(new IngestService(new ClickHouseService(), new FlatFileService(), store),
+                store, workerId, 2).start();
+    }
+
+    private static IngestResult awaitJob(IngestService service, String jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        IngestResult status = service.getOperationStatus(jobId);
+        while (!"completed".equals(status.getStatus()) && !"error".equals(status.getStatus())) {
+            assertTrue("Job still " + status.getStatus() + ": " + status.getMessage(),
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+            status = service.getOperationStatus(jobId);
+        }
+        return status;
+    }
+}
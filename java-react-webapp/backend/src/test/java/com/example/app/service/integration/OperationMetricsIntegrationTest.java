@@ -0,0 +1,77 @@
+package com.example.app.service.integration;
+
+import com.example.app.metrics.BatchTrace;
+import com.example.app.metrics.MetricsRegistry;
+import com.example.app.metrics.OperationMetrics;
+import com.example.app.metrics.OperationTrace;
+import com.example.app.model.IngestResult;
+import com.example.app.model.MetricsSummary;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stage metrics, batch traces and the Prometheus output recorded while ingesting.
+ */
+public class OperationMetricsIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testStreamFromFileToClickHouse_RecordsStageMetrics() throws IOException {
+        Path csv = writeCsv(".csv", false);
+
+        IngestResult result = ingestService.streamFromFileToClickHouse(
+                csv.toString(), config, TABLE, COLUMNS, startOperation());
+
+        MetricsSummary metrics = result.getMetrics();
+        assertNotNull("Metrics should be attached to the result", metrics);
+        for (String stage : Arrays.asList(OperationMetrics.PARSE, OperationMetrics.BATCH_BUILD,
+                OperationMetrics.INSERT)) {
+            assertTrue("Missing stage " + stage, metrics.getStages().containsKey(stage));
+            assertEquals("One sample per batch", 1, metrics.getStages().get(stage).getCount());
+        }
+        assertEquals(Files.size(csv), metrics.getBytesRead());
+
+        StringWriter prometheus = new StringWriter();
+        MetricsRegistry.getInstance().writePrometheus(prometheus);
+        assertTrue(prometheus.toString().contains("# TYPE ingest_stage_seconds summary"));
+        assertTrue(prometheus.toString().contains(
+                "ingest_stage_seconds_count{direction=\"import\",stage=\"insert\"}"));
+        assertTrue(prometheus.toString().contains("ingest_rows_total{direction=\"import\"}"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamFromFileToClickHouse_RecordsBatchTrace() throws IOException {
+        Path csv = writeCsv(".csv", false);
+        String operationId = startOperation();
+
+        ingestService.streamFromFileToClickHouse(csv.toString(), config, TABLE, COLUMNS, operationId);
+
+        OperationTrace trace = ingestService.getOperationTrace(operationId);
+        assertNotNull("Trace should be kept for the operation", trace);
+        List<BatchTrace> batches = trace.getBatches();
+        assertEquals("One batch of " + ROW_COUNT + " rows", 1, batches.size());
+        BatchTrace batch = batches.get(0);
+        assertEquals(ROW_COUNT, batch.getRows());
+        assertTrue("Bytes read should be recorded", batch.getBytes() > 0);
+        List<String> spans = new ArrayList<>();
+        for (BatchTrace.Span span : batch.getSpans()) {
+            spans.add(span.getName());
+            assertTrue("Span should not end before it starts", span.getEndNanos() >= span.getStartNanos());
+        }
+        assertEquals(Arrays.asList(BatchTrace.READ, BatchTrace.QUEUE_WAIT, BatchTrace.INSERT), spans);
+
+        List<Map<String, Object>> events = (List<Map<String, Object>>) trace.toChromeTrace(operationId).get("traceEvents");
+        long completeEvents = events.stream().filter(event -> "X".equals(event.get("ph"))).count();
+        assertEquals("One complete event per span", 3, completeEvents);
+    }
+}
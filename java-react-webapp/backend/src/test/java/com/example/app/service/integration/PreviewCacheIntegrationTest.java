@@ -0,0 +1,71 @@
+package com.example.app.service.integration;
+
+import com.example.app.service.ClickHouseService;
+import com.example.app.service.PreviewCache;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Table previews served from the preview cache and invalidated by writes.
+ */
+public class PreviewCacheIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testPreviewTable_ColumnToggleServedFromCacheUntilWrite() throws Exception {
+        fillTable();
+        ClickHouseService clickHouseService = new ClickHouseService();
+
+        List<List<Object>> first = new ArrayList<>();
+        clickHouseService.previewTable(config, TABLE, Arrays.asList("name"), 3, first::add);
+        int selects = countSelects();
+        List<List<Object>> toggled = new ArrayList<>();
+        clickHouseService.previewTable(config, TABLE, Arrays.asList("id", "name"), 3, toggled::add);
+
+        assertEquals(Arrays.asList(Arrays.asList("name-1"), Arrays.asList("name-2"), Arrays.asList("name-3")), first);
+        assertEquals(Arrays.asList(1, "name-1"), toggled.get(0));
+        assertEquals("Column toggle should not query ClickHouse", selects, countSelects());
+
+        clickHouseService.insertData(config, TABLE, COLUMNS,
+                Arrays.asList(Arrays.<Object>asList(0, "inserted", 0.5)));
+        List<List<Object>> afterWrite = new ArrayList<>();
+        clickHouseService.previewTable(config, TABLE, Arrays.asList("name"), 3, afterWrite::add);
+
+        assertEquals("Write should invalidate the cached preview", selects + 1, countSelects());
+        assertEquals(first, afterWrite);
+    }
+
+    @Test
+    public void testPreviewTable_PreviewLargerThanTheBudgetIsStreamed() throws Exception {
+        // 40 rows of a million characters are estimated at 80 MB, over the default 32 MB budget
+        char[] large = new char[1_000_000];
+        Arrays.fill(large, 'x');
+        for (int id = 1; id <= 40; id++) {
+            server.addRow(TABLE, Arrays.asList(String.valueOf(id), new String(large), id + ".5"));
+        }
+        PreviewCache.getInstance().clear();
+        ClickHouseService clickHouseService = new ClickHouseService();
+
+        List<List<Object>> rows = new ArrayList<>();
+        long written = clickHouseService.previewTable(config, TABLE, Arrays.asList("id"), 40, rows::add);
+
+        assertEquals(40, written);
+        assertEquals(40, rows.size());
+        assertEquals(Arrays.asList(40), rows.get(39));
+        assertEquals("Nothing should be cached", 0, PreviewCache.getInstance().size());
+    }
+
+    private int countSelects() {
+        int selects = 0;
+        for (String statement : server.getStatements()) {
+            if (statement.trim().toUpperCase().startsWith("SELECT *")) {
+                selects++;
+            }
+        }
+        return selects;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.app.service.integration;
+
+import com.example.app.model.ConnectionConfig;
+import com.example.app.model.IngestResult;
+import com.example.app.service.ClickHouseService;
+import com.example.app.service.FlatFileService;
+import com.example.app.service.IngestService;
+import com.example.app.util.ClickHouseStandInServer;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Starts a ClickHouse stand-in with one empty table for each test and cleans up the
+ * files the test created.
+ */
+public abstract class StandInIntegrationTestBase {
+
+    protected static final String TABLE = "standin_table";
+    protected static final List<String> COLUMNS = Arrays.asList("id", "name", "value");
+    protected static final int ROW_COUNT = 250;
+
+    protected ClickHouseStandInServer server;
+    protected IngestService ingestService;
+    protected ConnectionConfig config;
+    protected final List<Path> tempFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ClickHouseStandInServer().start();
+        server.createTable(TABLE, COLUMNS, Arrays.asList("Int32", "String", "Nullable(Float64)"));
+        config = server.connectionConfig();
+        ingestService = new IngestService(new ClickHouseService(), new FlatFileService());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        for (Path file : tempFiles) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    protected String startOperation() {
+        IngestResult initial = new IngestResult();
+        initial.setStatus("running");
+        ingestService.trackOperation(initial);
+        return initial.getOperationId();
+    }
+
+    protected void fillTable() {
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            server.addRow(TABLE, Arrays.asList(String.valueOf(i), "name-" + i, (i % 10 == 0) ? null : i + ".5"));
+        }
+    }
+
+    protected Path writeCsv(String extension, boolean gzip) throws IOException {
+        return writeCsv(extension, gzip, ROW_COUNT);
+    }
+
+    protected Path writeCsv(String extension, boolean gzip, int rows) throws IOException {
+        Path file = tempFile(extension);
+        try (Writer writer = new OutputStreamWriter(gzip
+                ? new GZIPOutputStream(Files.newOutputStream(file))
+                : Files.newOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("id,name,value\n");
+            for (int i = 1; i <= rows; i++) {
+                writer.write(i + ",name-" + i + "," + i + ".5\n");
+            }
+        }
+        return file;
+    }
+
+    protected Path tempFile(String extension) throws IOException {
+        Path file = Files.createTempFile("standin_test", extension);
+        tempFiles.add(file);
+        return file;
+    }
+
+    protected static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
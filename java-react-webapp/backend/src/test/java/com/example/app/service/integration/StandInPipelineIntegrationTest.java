@@ -0,0 +1,350 @@
+package com.example.app.service.integration;
+
+import com.example.app.metrics.BatchTrace;
+import com.example.app.model.FileProgress;
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import com.example.app.model.JoinTable;
+import com.example.app.model.ShardProgress;
+import com.example.app.service.SelectQuery;
+import com.example.app.util.CompressedFiles;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end tests of the ingest pipeline against the embedded ClickHouse stand-in,
+ * so the JDBC and HTTP paths run without a real server.
+ */
+public class StandInPipelineIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testStreamFromFileToClickHouse_InsertsAllRows() throws IOException {
+        Path csv = writeCsv(".csv", false);
+
+        IngestResult result = ingestService.streamFromFileToClickHouse(
+                csv.toString(), config, TABLE, COLUMNS, startOperation());
+
+        assertTrue("Ingestion should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(ROW_COUNT, result.getRecordsProcessed());
+        assertEquals(ROW_COUNT, server.getRowsReceived());
+        assertEquals(Arrays.asList("1", "name-1", "1.5"), server.getTable(TABLE).getRows().get(0));
+        assertTrue("Bytes should be recorded", server.getBytesReceived() > 0);
+    }
+
+    @Test
+    public void testStreamFromFileToClickHouse_CompressedPassthrough_SendsCompressedBytes() throws IOException {
+        Path gzip = writeCsv(".csv.gz", true);
+
+        IngestResult result = ingestService.streamFromFileToClickHouse(
+                gzip.toString(), config, TABLE, COLUMNS, startOperation(), true);
+
+        assertTrue("Ingestion should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(ROW_COUNT, result.getRecordsProcessed());
+        assertEquals("Whole file should arrive as one block", 1, server.getBlocksReceived());
+        assertEquals("File should be sent as-is", Files.size(gzip), server.getBytesReceived());
+        assertEquals(ROW_COUNT, server.getTable(TABLE).getRows().size());
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_RowsMode_WritesAllRows() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv");
+
+        IngestResult result = ingestService.streamFromClickHouseToFile(
+                config, TABLE, COLUMNS, target.toString(), startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(ROW_COUNT, result.getRecordsProcessed());
+        List<String> lines = Files.readAllLines(target);
+        assertEquals("id,name,value", lines.get(0));
+        assertEquals(ROW_COUNT + 1, lines.size());
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_DirectGzip_WritesServerOutput() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv.gz");
+
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setTargetFilePath(target.toString());
+        request.setExportMode("direct");
+        request.setExportCompression("gzip");
+        IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(ROW_COUNT, result.getRecordsProcessed());
+        try (BufferedReader reader = CompressedFiles.openReader(target)) {
+            assertEquals("id,name,value", reader.readLine());
+            assertEquals(ROW_COUNT, reader.lines().count());
+        }
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_PushesFilterOrderAndLimitToClickHouse() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv");
+
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(Arrays.asList("id", "name"));
+        request.setTargetFilePath(target.toString());
+        request.setFilter("id > '200'");
+        request.setOrderBy("id DESC");
+        request.setLimit(5);
+        IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(5, result.getTotalRecords());
+        assertEquals(Arrays.asList("id,name", "250,name-250", "249,name-249", "248,name-248", "247,name-247",
+                "246,name-246"), Files.readAllLines(target));
+        assertTrue("Filter, order and limit should reach ClickHouse", server.getStatements().stream()
+                .anyMatch(sql -> sql.contains("WHERE (id > '200') ORDER BY id DESC LIMIT 5")));
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_DirectExportWithSample() throws IOException {
+        fillTable();
+        Path target = tempFile(".csv");
+
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setTargetFilePath(target.toString());
+        request.setExportMode("direct");
+        request.setFilter("value >= '240'");
+        request.setSampleRatio(0.5);
+        IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertTrue(server.getStatements().stream()
+                .anyMatch(sql -> sql.contains("SAMPLE 0.5 WHERE (value >= '240')")));
+        // The stand-in ignores SAMPLE; rows 240-250 without the null every tenth row
+        assertEquals(10, Files.readAllLines(target).size());
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_JoinRunsInsideClickHouse() throws IOException {
+        server.createTable("orders", Arrays.asList("id", "customer_id"), Arrays.asList("Int32", "Int32"));
+        server.createTable("customers", Arrays.asList("id", "name"), Arrays.asList("Int32", "String"));
+        server.addRow("orders", Arrays.asList("1", "10"));
+        server.addRow("orders", Arrays.asList("2", "20"));
+        server.addRow("orders", Arrays.asList("3", "99"));
+        server.addRow("customers", Arrays.asList("10", "alice"));
+        server.addRow("customers", Arrays.asList("20", "bob"));
+        Path target = tempFile(".csv");
+
+        JoinTable customers = new JoinTable();
+        customers.setTableName("customers");
+        customers.setLeftKeys(Arrays.asList("customer_id"));
+        customers.setRightKeys(Arrays.asList("id"));
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName("orders");
+        request.setSelectedColumns(Arrays.asList("orders.id", "customers.name"));
+        request.setJoins(Arrays.asList(customers));
+        request.setOrderBy("orders.id");
+        request.setTargetFilePath(target.toString());
+        IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(Arrays.asList("orders.id,customers.name", "1,alice", "2,bob", "3,"), Files.readAllLines(target));
+        assertTrue("The join should be one statement", server.getStatements().stream()
+                .anyMatch(sql -> sql.contains("AS `orders` LEFT JOIN") && sql.contains(
+                        "ON `orders`.`customer_id` = `customers`.`id`")));
+        assertEquals(3, result.getRecordsProcessed());
+        assertEquals("The join should run once, not once per page", 1, server.getStatements().stream()
+                .filter(sql -> sql.contains("LEFT JOIN")).count());
+        assertTrue(server.getStatements().stream().noneMatch(sql -> sql.contains("OFFSET")));
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_DirectJoinReportsTheRowsReturned() throws IOException {
+        server.createTable("orders", Arrays.asList("id", "customer_id"), Arrays.asList("Int32", "Int32"));
+        server.createTable("customers", Arrays.asList("id", "name"), Arrays.asList("Int32", "String"));
+        for (int i = 1; i <= 10; i++) {
+            server.addRow("orders", Arrays.asList(String.valueOf(i), "10"));
+        }
+        server.addRow("customers", Arrays.asList("10", "alice"));
+        Path target = tempFile(".csv");
+
+        JoinTable customers = new JoinTable();
+        customers.setTableName("customers");
+        customers.setLeftKeys(Arrays.asList("customer_id"));
+        customers.setRightKeys(Arrays.asList("id"));
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName("orders");
+        request.setSelectedColumns(Arrays.asList("orders.id", "customers.name"));
+        request.setJoins(Arrays.asList(customers));
+        request.setFilter("orders.id > '7'");
+        request.setExportMode("direct");
+        request.setTargetFilePath(target.toString());
+        IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+        assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+        // The stand-in reports all 10 joined rows as read, as ClickHouse does for a filter
+        assertEquals(Files.readAllLines(target).size() - 1, result.getRecordsProcessed());
+        assertEquals(3, result.getRecordsProcessed());
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_ParallelExportCountsOnlyEachShardsRows() throws IOException {
+        fillTable();
+        Path dir = Files.createTempDirectory("standin_shards");
+        try {
+            IngestRequest request = shardedExportRequest(dir.resolve("out.csv"));
+            request.setFilter("id > '200'");
+            IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+            assertTrue("Export should succeed: " + result.getMessage(), result.isSuccess());
+            assertEquals(50, result.getRecordsProcessed());
+            long shardRecords = 0;
+            for (ShardProgress shard : result.getShards()) {
+                // The stand-in reports the whole table as rows to read, as ClickHouse does for a hash filter
+                assertEquals(shard.getFilePath(), Files.readAllLines(Path.of(shard.getFilePath())).size() - 1,
+                        shard.getRecordsProcessed());
+                shardRecords += shard.getRecordsProcessed();
+            }
+            assertEquals(50, shardRecords);
+            // One count for the whole export, none per shard
+            assertEquals(1, server.getStatements().stream().filter(sql -> sql.contains("count()")).count());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_FailedParallelExportLeavesNoFiles() throws IOException {
+        fillTable();
+        Path dir = Files.createTempDirectory("standin_shards");
+        try {
+            server.failStatements("% 4 = 3\\).* FORMAT ");
+            IngestRequest request = shardedExportRequest(dir.resolve("out.csv"));
+            IngestResult result = ingestService.streamFromClickHouseToFile(request, startOperation());
+
+            assertFalse("One failed shard fails the export", result.isSuccess());
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals("Partial part files should be removed", 0, files.count());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testStreamFromClickHouseToFile_JoinOnUnknownAliasIsRejected() {
+        JoinTable customers = new JoinTable();
+        customers.setTableName("customers");
+        customers.setLeftKeys(Arrays.asList("customer_id"));
+        customers.setRightKeys(Arrays.asList("id"));
+        IngestRequest request = new IngestRequest();
+        request.setTableName("orders");
+        request.setSelectedColumns(Arrays.asList("orders.id", "clients.name"));
+        request.setJoins(Arrays.asList(customers));
+
+        try {
+            SelectQuery.forRequest(request);
+            fail("A column of a table that isn't joined should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("clients.name"));
+        }
+    }
+
+    @Test
+    public void testStreamFromFileToClickHouse_ParallelInserts_InsertsEveryBatch() throws IOException {
+        int rows = 5000;
+        Path csv = writeCsv(".csv", false, rows);
+        server.setLatencyMs(20);
+        String operationId = startOperation();
+
+        IngestRequest request = new IngestRequest();
+        request.setSourceFilePath(csv.toString());
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setInsertParallelism(4);
+        IngestResult result = ingestService.streamFromFileToClickHouse(request, operationId);
+
+        assertTrue("Ingestion should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(rows, result.getRecordsProcessed());
+        assertEquals("One block per batch", 5, server.getBlocksReceived());
+        Set<String> ids = new HashSet<>();
+        for (List<String> row : server.getTable(TABLE).getRows()) {
+            ids.add(row.get(0));
+        }
+        assertEquals("Every row should arrive exactly once", rows, ids.size());
+        for (BatchTrace batch : ingestService.getOperationTrace(operationId).getBatches()) {
+            BatchTrace.Span insert = batch.getSpans().get(batch.getSpans().size() - 1);
+            assertEquals(BatchTrace.INSERT, insert.getName());
+            assertTrue("Inserts should run off the parsing thread: " + insert.getThreadName(),
+                    insert.getThreadName().startsWith("ingest-insert-"));
+        }
+    }
+
+    @Test
+    public void testStreamFromFileToClickHouse_Glob_CombinesSmallFilesIntoSharedBlocks() throws IOException {
+        Path dir = Files.createTempDirectory("standin_multi");
+        tempFiles.add(dir);
+        for (int f = 0; f < 6; f++) {
+            Path file = dir.resolve("part-" + f + ".csv");
+            tempFiles.add(0, file);
+            StringBuilder csv = new StringBuilder("value,name,id\n");
+            for (int i = 1; i <= 40; i++) {
+                int id = f * 40 + i;
+                csv.append(id).append(".5,name-").append(id).append(',').append(id).append('\n');
+            }
+            Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        String operationId = startOperation();
+
+        IngestRequest request = new IngestRequest();
+        request.setSourceFilePath(dir + "/*.csv");
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setFileParallelism(3);
+        IngestResult result = ingestService.streamFromFileToClickHouse(request, operationId);
+
+        assertTrue("Ingestion should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(240, result.getRecordsProcessed());
+        assertEquals("Small files should share one insert block", 1, server.getBlocksReceived());
+        Set<String> ids = new HashSet<>();
+        for (List<String> row : server.getTable(TABLE).getRows()) {
+            ids.add(row.get(0));
+        }
+        assertEquals("Every row should arrive exactly once", 240, ids.size());
+        assertEquals(6, result.getFiles().size());
+        for (FileProgress file : result.getFiles()) {
+            assertEquals(file.getFilePath(), "completed", file.getStatus());
+            assertEquals(40, file.getRecordsProcessed());
+        }
+    }
+
+    private IngestRequest shardedExportRequest(Path target) {
+        IngestRequest request = new IngestRequest();
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setTargetFilePath(target.toString());
+        request.setExportParallelism(4);
+        request.setPartitionStrategy("hash");
+        return request;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.app.service.integration;
+
+import com.example.app.model.FileProgress;
+import com.example.app.model.IngestRequest;
+import com.example.app.model.IngestResult;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Watch operations that tail a folder and load appended rows.
+ */
+public class WatchFolderIntegrationTest extends StandInIntegrationTestBase {
+
+    @Test
+    public void testWatchFolder_TailsAppendsAndResumesFromSavedOffsets() throws Exception {
+        Path dir = Files.createTempDirectory("standin_watch");
+        Path file = dir.resolve("events.csv");
+        Path offsets = dir.resolve("offsets.json");
+        tempFiles.add(file);
+        tempFiles.add(offsets);
+        tempFiles.add(dir);
+        Files.write(file, "id,name,value\n1,name-1,1.5\n2,name-2,2.5\n3,name-3,".getBytes(StandardCharsets.UTF_8));
+
+        String operationId = startOperation();
+        Future<IngestResult> watch = startWatch(dir, offsets, operationId);
+        awaitRows(2);
+        // The partial third line is only loaded once it is finished
+        Files.write(file, "3.5\n4,name-4,4.5\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        awaitRows(4);
+        assertTrue(ingestService.stopOperation(operationId));
+        IngestResult result = watch.get(10, TimeUnit.SECONDS);
+
+        assertTrue("Watch should succeed: " + result.getMessage(), result.isSuccess());
+        assertEquals(4, result.getRecordsProcessed());
+        assertEquals(Files.size(file), result.getBytesProcessed());
+        assertEquals(Arrays.asList("3", "name-3", "3.5"), server.getTable(TABLE).getRows().get(2));
+
+        // A new watch picks up after the saved offsets instead of reloading the file
+        Files.write(file, "5,name-5,5.5\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        String resumedId = startOperation();
+        Future<IngestResult> resumed = startWatch(dir, offsets, resumedId);
+        awaitRows(5);
+        ingestService.stopOperation(resumedId);
+
+        assertEquals(1, resumed.get(10, TimeUnit.SECONDS).getRecordsProcessed());
+        assertEquals(5, server.getTable(TABLE).getRows().size());
+    }
+
+    @Test
+    public void testWatchFolder_BadRecordsDontStallTheWatch() throws Exception {
+        Path dir = Files.createTempDirectory("standin_watch");
+        Path malformed = dir.resolve("malformed.csv");
+        Path unbalanced = dir.resolve("unbalanced.csv");
+        Path offsets = dir.resolve("offsets.json");
+        tempFiles.add(malformed);
+        tempFiles.add(unbalanced);
+        tempFiles.add(offsets);
+        tempFiles.add(dir);
+        Files.write(malformed, ("id,name,value\n1,name-1,1.5\n2,\"name\"-2,2.5\n3,\"name\n3\",3.5\n")
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(unbalanced, "id,name,value\n10,name-10,10.5\n11,\"name-11,11.5\n12,name-12,12.5\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        String operationId = startOperation();
+        Future<IngestResult> watch = startWatch(dir, offsets, operationId);
+        // The malformed record is skipped; the unbalanced quote holds back everything after it
+        awaitRows(3);
+        Thread.sleep(200);
+        Files.write(malformed, "4,name-4,4.5\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.write(unbalanced, "13,name-13,13.5\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        awaitRows(4);
+        ingestService.stopOperation(operationId);
+        IngestResult result = watch.get(10, TimeUnit.SECONDS);
+
+        assertTrue("Watch should succeed: " + result.getMessage(), result.isSuccess());
+        Set<String> ids = new HashSet<>();
+        for (List<String> row : server.getTable(TABLE).getRows()) {
+            ids.add(row.get(0));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("1", "3", "4", "10")), ids);
+        FileProgress failed = result.getFiles().stream()
+                .filter(file -> file.getFilePath().endsWith("unbalanced.csv")).findFirst().get();
+        assertEquals("error", failed.getStatus());
+        assertTrue(failed.getMessage(), failed.getMessage().contains("unbalanced quote"));
+    }
+
+    private Future<IngestResult> startWatch(Path dir, Path offsets, String operationId) {
+        IngestRequest request = new IngestRequest();
+        request.setSourceFilePath(dir.toString());
+        request.setConnectionConfig(config);
+        request.setTableName(TABLE);
+        request.setSelectedColumns(COLUMNS);
+        request.setWatch(true);
+        request.setOffsetsFile(offsets.toString());
+        request.setFlushIntervalMs(50);
+        request.setPollIntervalMs(50);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<IngestResult> watch = executor.submit(() -> ingestService.streamFromFileToClickHouse(request, operationId));
+        executor.shutdown();
+        return watch;
+    }
+
+    private void awaitRows(int rows) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getTable(TABLE).getRows().size() < rows && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(rows, server.getTable(TABLE).getRows().size());
+    }
+}
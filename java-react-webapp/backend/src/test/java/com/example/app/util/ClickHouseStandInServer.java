@@ -0,0 +1,1294 @@
+package com.example.app.util;
+
+import com.clickhouse.data.stream.Lz4InputStream;
+import com.clickhouse.data.stream.Lz4OutputStream;
+import com.example.app.model.ConnectionConfig;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.UrlEncoded;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded stand-in for a ClickHouse server that speaks enough of the HTTP
+ * protocol for this app: the JDBC driver's handshake, SHOW TABLES, DESCRIBE,
+ * simple SELECT ... [INNER|LEFT JOIN ... ON key equalities] [ORDER BY columns]
+ * [LIMIT n [OFFSET m]] (SAMPLE is accepted and ignored), count()/min()/max() and the system.tables/parts
+ * metadata lookups, and INSERT in RowBinary, Native, CSV or TabSeparated formats
+ * (optionally gzip/zstd/lz4 encoded). An INSERT whose insert_deduplication_token was
+ * already used for the table is dropped, as a table with deduplication enabled would
+ * do. Tables live in memory. Another stand-in can be
+ * registered under an address or a named collection, which remote('address', ...) or
+ * remote(collection, database = ..., table = ...) in a SELECT or an INSERT ... SELECT
+ * then reads from; unregistered ones can't be reached.
+ *
+ * Artificial latency and a throughput cap can be set to simulate a remote
+ * server, and the bytes, insert blocks and rows received are recorded so load
+ * tests can check what actually reached "ClickHouse".
+ *
+ * WHERE clauses on user tables are only evaluated when they consist of column-to-literal
+ * comparisons joined by AND; any other WHERE is ignored.
+ */
+public class ClickHouseStandInServer implements AutoCloseable {
+
+    private static final Pattern SHOW_TABLES = Pattern.compile(
+            "(?is)SHOW\\s+TABLES(?:\\s+FROM\\s+(\\S+))?\\s*");
+    private static final Pattern DESCRIBE = Pattern.compile(
+            "(?is)(?:DESCRIBE|DESC)(?:\\s+TABLE)?\\s+(\\S+)\\s*");
+    private static final Pattern INSERT = Pattern.compile(
+            "(?is)INSERT\\s+INTO\\s+(\\S+)\\s*(?:\\(([^)]*)\\))?\\s*FORMAT\\s+(\\w+)\\s*");
+    private static final Pattern INSERT_HEADER = Pattern.compile(
+            "(?is)\\s*INSERT\\s+INTO\\s+\\S+\\s*(?:\\([^)]*\\))?\\s*FORMAT\\s+\\w+");
+    private static final Pattern SELECT = Pattern.compile(
+            "(?is)SELECT\\s+(.+?)\\s+FROM\\s+(\\S+)(?:\\s+SAMPLE\\s+[\\d.]+)?(?:\\s+WHERE\\s+(.+?))?" +
+            "(?:\\s+ORDER\\s+BY\\s+(.+?))?(?:\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?)?" +
+            "(?:\\s+FORMAT\\s+(\\w+))?\\s*;?\\s*");
+    private static final Pattern JOIN_FROM = Pattern.compile(
+            "(?is)(SELECT\\s+.+?\\s+FROM\\s+)(\\S+)\\s+AS\\s+(\\S+)((?:\\s+(?:INNER|LEFT|RIGHT|FULL)\\b.+?)??)" +
+            "((?:\\s+(?:WHERE|ORDER|LIMIT|FORMAT)\\b.*)?)");
+    private static final Pattern JOIN_CLAUSE = Pattern.compile(
+            "(?is)\\s*(INNER|LEFT|RIGHT|FULL)(?:\\s+(OUTER|ANY|ALL|SEMI|ANTI))?\\s+JOIN\\s+(\\S+)\\s+AS\\s+(\\S+)" +
+            "\\s+ON\\s+(.+?)(?=\\s+(?:INNER|LEFT|RIGHT|FULL)\\b|$)");
+    private static final Pattern KEY_EQUALITY = Pattern.compile("\\s*(\\S+)\\s*=\\s*(\\S+)\\s*");
+    private static final Pattern INSERT_SELECT = Pattern.compile(
+            "(?is)INSERT\\s+INTO\\s+(\\S+)\\s*\\(([^)]*)\\)\\s*(SELECT\\s+.*)");
+    private static final Pattern REMOTE = Pattern.compile(
+            "(?i)remote(?:Secure)?\\(\\s*'([^']*)'\\s*,\\s*'([^']*)'\\s*,\\s*'([^']*)'(?:\\s*,\\s*'(?:[^'\\\\]|\\\\.)*')*\\s*\\)");
+    private static final Pattern REMOTE_COLLECTION = Pattern.compile(
+            "(?i)remote(?:Secure)?\\(\\s*(\\w+)\\s*,\\s*database\\s*=\\s*'([^']*)'\\s*,\\s*table\\s*=\\s*'([^']*)'\\s*\\)");
+    private static final Pattern CREATE_TABLE = Pattern.compile(
+            "(?is)CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\S+)\\s*\\((.*)\\)\\s*ENGINE.*");
+    private static final Pattern TRAILING_FORMAT = Pattern.compile("(?is)\\s+FORMAT\\s+(\\w+)\\s*$");
+    private static final Pattern AGGREGATE = Pattern.compile(
+            "(?i)(toString\\()?(count|min|max)\\(`?(\\w*|\\*)`?\\)\\)?");
+    private static final Pattern COMPARISON = Pattern.compile(
+            "\\(*(`?\\w+`?(?:\\.`?\\w+`?)?)\\s*(>=|<=|!=|=|>|<)\\s*'((?:[^'\\\\]|\\\\.)*)'\\)*");
+    private static final Pattern HASH_BUCKET = Pattern.compile(
+            "\\(*cityHash64\\(([^)]*)\\)\\s*%\\s*(\\d+)\\s*=\\s*(\\d+)\\)*");
+    private static final Pattern WHERE_EQUALS = Pattern.compile("(?i)(\\w+)\\s*=\\s*'([^']*)'");
+
+    private static final int LZ4_BLOCK_SIZE = 64 * 1024;
+
+    private final Server server;
+    private final Map<String, StandInTable> tables = new ConcurrentHashMap<>();
+    private final Map<String, ClickHouseStandInServer> remotes = new ConcurrentHashMap<>();
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> deduplicationTokens = ConcurrentHashMap.newKeySet();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong blocksReceived = new AtomicLong();
+    private final AtomicLong rowsReceived = new AtomicLong();
+
+    private volatile long latencyMs;
+    private volatile long bytesPerSecond;
+    private volatile Pattern failingStatements;
+
+    /**
+     * In-memory table: column names and types plus rows held as text values
+     */
+    public static class StandInTable {
+        private final List<String> columnNames;
+        private final List<String> columnTypes;
+        private final List<List<String>> rows = Collections.synchronizedList(new ArrayList<>());
+
+        StandInTable(List<String> columnNames, List<String> columnTypes) {
+            this.columnNames = columnNames;
+            this.columnTypes = columnTypes;
+        }
+
+        public List<String> getColumnNames() {
+            return columnNames;
+        }
+
+        public List<String> getColumnTypes() {
+            return columnTypes;
+        }
+
+        public List<List<String>> getRows() {
+            synchronized (rows) {
+                return new ArrayList<>(rows);
+            }
+        }
+    }
+
+    public ClickHouseStandInServer() {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                handleRequest(request, response);
+            }
+        });
+    }
+
+    public ClickHouseStandInServer start() throws Exception {
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stop();
+    }
+
+    public int getPort() {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * Connection settings pointing at this server
+     */
+    public ConnectionConfig connectionConfig() {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setHost("localhost");
+        config.setPort(getPort());
+        config.setDatabase("default");
+        config.setUser("default");
+        return config;
+    }
+
+    /**
+     * Delay added before every response, to simulate network round trips
+     */
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Caps request and response transfer rate; 0 means unlimited
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes statements containing a match of the regex fail with a server error, to
+     * exercise failure paths; null lets every statement run again
+     */
+    public void failStatements(String regex) {
+        this.failingStatements = regex != null ? Pattern.compile(regex) : null;
+    }
+
+    public StandInTable createTable(String tableName, List<String> columnNames, List<String> columnTypes) {
+        StandInTable table = new StandInTable(new ArrayList<>(columnNames), new ArrayList<>(columnTypes));
+        tables.put(qualify(tableName, "default"), table);
+        return table;
+    }
+
+    /**
+     * Lets remote('address', ...), or remote(collection, ...) with the name of a named
+     * collection, read from another stand-in, as if this server could reach it over the
+     * native protocol
+     */
+    public void addRemote(String address, ClickHouseStandInServer peer) {
+        remotes.put(address, peer);
+    }
+
+    public StandInTable getTable(String tableName) {
+        return tables.get(qualify(tableName, "default"));
+    }
+
+    public void addRow(String tableName, List<String> values) {
+        getTable(tableName).rows.add(new ArrayList<>(values));
+    }
+
+    /** Raw request body bytes received, as sent on the wire (before decompression) */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Number of INSERT requests, i.e. blocks, received */
+    public long getBlocksReceived() {
+        return blocksReceived.get();
+    }
+
+    public long getRowsReceived() {
+        return rowsReceived.get();
+    }
+
+    public List<String> getStatements() {
+        synchronized (statements) {
+            return new ArrayList<>(statements);
+        }
+    }
+
+    public void resetStats() {
+        bytesReceived.set(0);
+        bytesSent.set(0);
+        blocksReceived.set(0);
+        rowsReceived.set(0);
+        statements.clear();
+    }
+
+    private void handleRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String database = parameter(request, "database") != null ? parameter(request, "database") : "default";
+        String queryParam = parameter(request, "query");
+
+        InputStream body = new CountingInputStream(throttle(request.getInputStream()), bytesReceived);
+        String encoding = request.getHeader("Content-Encoding");
+        if (encoding != null) {
+            body = CompressionType.fromName(encoding).decompress(body);
+        } else if ("1".equals(parameter(request, "decompress"))) {
+            // The JDBC driver's own LZ4 block framing
+            body = new Lz4InputStream(body);
+        }
+
+        sleep(latencyMs);
+        if ("/ping".equals(request.getRequestURI())) {
+            // Health check, answered like ClickHouse does
+            response.getOutputStream().write("Ok.\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        try {
+            String sql;
+            InputStream data = null;
+            if (queryParam != null && INSERT.matcher(queryParam.trim()).matches()) {
+                sql = queryParam.trim();
+                data = body;
+            } else {
+                // As in ClickHouse, the query parameter and the body form one statement; for an
+                // INSERT the data starts after the format name and one whitespace character
+                byte[] bodyBytes = body.readAllBytes();
+                Matcher insertHeader = INSERT_HEADER.matcher(new String(bodyBytes, StandardCharsets.ISO_8859_1));
+                if (queryParam == null && insertHeader.lookingAt()) {
+                    sql = new String(bodyBytes, 0, insertHeader.end(), StandardCharsets.UTF_8).trim();
+                    int dataStart = Math.min(insertHeader.end() + 1, bodyBytes.length);
+                    data = new ByteArrayInputStream(bodyBytes, dataStart, bodyBytes.length - dataStart);
+                } else {
+                    String bodyText = new String(bodyBytes, StandardCharsets.UTF_8);
+                    sql = ((queryParam != null ? queryParam + " " : "") + bodyText).trim();
+                }
+            }
+            statements.add(sql);
+            Pattern failing = failingStatements;
+            if (failing != null && failing.matcher(sql).find()) {
+                throw new StandInException(999, "Failing on purpose: " + sql);
+            }
+
+            String format = parameter(request, "default_format");
+            if (format == null) {
+                format = request.getHeader("X-ClickHouse-Format");
+            }
+            execute(sql, data, database, format, request, response);
+        } catch (StandInException e) {
+            response.setStatus(e.status);
+            response.setHeader("X-ClickHouse-Exception-Code", String.valueOf(e.code));
+            response.setContentType("text/plain; charset=UTF-8");
+            response.getOutputStream().write(("Code: " + e.code + ". DB::Exception: " + e.getMessage())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads a URL parameter. getParameter() can't be used because Jetty would try to
+     * parse an encoded POST body as a form and reject it.
+     */
+    private static String parameter(HttpServletRequest request, String name) {
+        if (request.getQueryString() == null) {
+            return null;
+        }
+        MultiMap<String> parameters = new MultiMap<>();
+        UrlEncoded.decodeUtf8To(request.getQueryString(), parameters);
+        return parameters.getValue(name, 0);
+    }
+
+    private void execute(String sql, InputStream data, String database, String defaultFormat,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Matcher matcher;
+        if (sql.toLowerCase().startsWith("select currentuser()")) {
+            writeServerInfo(request, response);
+        } else if ((matcher = INSERT.matcher(sql)).matches()) {
+            insert(matcher, data, database, parameter(request, "insert_deduplication_token"), response);
+        } else if ((matcher = INSERT_SELECT.matcher(sql)).matches()) {
+            insertSelect(matcher, database, response);
+        } else if ((matcher = CREATE_TABLE.matcher(sql)).matches()) {
+            createTable(matcher, database);
+            response.setStatus(HttpServletResponse.SC_OK);
+        } else {
+            String format = defaultFormat;
+            Matcher trailingFormat = TRAILING_FORMAT.matcher(sql);
+            if (trailingFormat.find()) {
+                format = trailingFormat.group(1);
+                sql = sql.substring(0, trailingFormat.start());
+            }
+            ResultTable result = query(sql, database);
+            writeResult(result, format != null ? format : "TabSeparated", request, response);
+        }
+    }
+
+    private ResultTable query(String sql, String database) {
+        Matcher matcher;
+        if ((matcher = REMOTE.matcher(sql)).find() || (matcher = REMOTE_COLLECTION.matcher(sql)).find()) {
+            ClickHouseStandInServer peer = remotes.get(matcher.group(1));
+            if (peer == null) {
+                throw new StandInException(279, "All connection tries failed to " + matcher.group(1));
+            }
+            String local = sql.substring(0, matcher.start()) + matcher.group(2) + "." + matcher.group(3)
+                    + sql.substring(matcher.end());
+            peer.statements.add(local);
+            return peer.query(local, matcher.group(2));
+        }
+        if ((matcher = SHOW_TABLES.matcher(sql)).matches()) {
+            String db = matcher.group(1) != null ? unquote(matcher.group(1)) : database;
+            ResultTable result = new ResultTable(Collections.singletonList("name"),
+                    Collections.singletonList("String"));
+            for (String name : tables.keySet()) {
+                if (name.startsWith(db + ".")) {
+                    result.rows.add(Collections.singletonList(name.substring(db.length() + 1)));
+                }
+            }
+            return result;
+        }
+        if ((matcher = DESCRIBE.matcher(sql)).matches()) {
+            StandInTable table = requireTable(matcher.group(1), database);
+            List<String> names = Arrays.asList("name", "type", "default_type", "default_expression",
+                    "comment", "codec_expression", "ttl_expression");
+            ResultTable result = new ResultTable(names, Collections.nCopies(names.size(), "String"));
+            for (int i = 0; i < table.columnNames.size(); i++) {
+                result.rows.add(Arrays.asList(table.columnNames.get(i), table.columnTypes.get(i), "", "", "", "", ""));
+            }
+            return result;
+        }
+        if ((matcher = JOIN_FROM.matcher(sql)).matches() && !matcher.group(4).isEmpty()) {
+            StandInTable joined = join(matcher.group(2), unquote(matcher.group(3)), matcher.group(4), database);
+            Matcher select = SELECT.matcher(matcher.group(1) + "joined" + matcher.group(5));
+            if (select.matches()) {
+                return select(select, joined);
+            }
+        }
+        if ((matcher = SELECT.matcher(sql)).matches()) {
+            return select(matcher, database);
+        }
+        throw new StandInException(62, "Stand-in server can't parse query: " + sql);
+    }
+
+    private ResultTable select(Matcher matcher, String database) {
+        String tableName = unquote(matcher.group(2));
+        String where = matcher.group(3);
+        String selectList = matcher.group(1).trim();
+
+        if (tableName.equalsIgnoreCase("system.tables") || tableName.equalsIgnoreCase("system.parts")) {
+            return selectSystemTable(tableName.toLowerCase(), selectList, where);
+        }
+
+        return select(matcher, requireTable(matcher.group(2), database));
+    }
+
+    private ResultTable select(Matcher matcher, StandInTable table) {
+        String where = matcher.group(3);
+        String selectList = matcher.group(1).trim();
+        List<List<String>> rows = filterRows(table, where);
+
+        String[] items = selectList.split(",");
+        if (AGGREGATE.matcher(items[0].trim()).matches()) {
+            return aggregate(table, rows, items);
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (String column : selectList.split(",")) {
+            // `orders`.`id` AS `orders.id` reads column orders.id and names it orders.id
+            String[] aliased = column.trim().split("(?i)\\s+AS\\s+");
+            String name = unquote(aliased[0]);
+            if (name.equals("*")) {
+                for (int i = 0; i < table.columnNames.size(); i++) {
+                    indexes.add(i);
+                    names.add(table.columnNames.get(i));
+                    types.add(table.columnTypes.get(i));
+                }
+                continue;
+            }
+            int index = table.columnNames.indexOf(name);
+            if (index < 0) {
+                throw new StandInException(47, "Missing columns: '" + name + "'");
+            }
+            indexes.add(index);
+            names.add(unquote(aliased[aliased.length - 1]));
+            types.add(table.columnTypes.get(index));
+        }
+
+        if (where != null && where.trim().matches("0|1\\s*=\\s*0")) {
+            // Used by the JDBC driver to look up column types before an INSERT
+            return new ResultTable(names, types);
+        }
+        if (matcher.group(4) != null) {
+            rows = sortRows(table, rows, matcher.group(4));
+        }
+        int offset = matcher.group(6) != null ? Integer.parseInt(matcher.group(6)) : 0;
+        long limit = matcher.group(5) != null ? Long.parseLong(matcher.group(5)) : Long.MAX_VALUE;
+        ResultTable result = new ResultTable(names, types);
+        // Like ClickHouse without a usable index, every row is read before filtering
+        result.scannedRows = table.getRows().size();
+        for (int r = offset; r < rows.size() && r - offset < limit; r++) {
+            List<String> row = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                row.add(rows.get(r).get(index));
+            }
+            result.rows.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * Applies a WHERE made only of column-to-literal comparisons and cityHash64(columns) % n = i
+     * shard filters joined by AND, comparing numerically when both sides are numbers; any
+     * other WHERE returns every row. The hash is a stand-in, not ClickHouse's, but it is
+     * stable, so shard filters still split the rows disjointly.
+     */
+    private static List<List<String>> filterRows(StandInTable table, String where) {
+        List<List<String>> rows = table.getRows();
+        if (where == null) {
+            return rows;
+        }
+        List<Predicate<List<String>>> conditions = new ArrayList<>();
+        for (String condition : where.trim().split("(?i)\\s+AND\\s+")) {
+            Predicate<List<String>> predicate = parseCondition(table, condition.trim());
+            if (predicate == null) {
+                return rows;
+            }
+            conditions.add(predicate);
+        }
+        List<List<String>> matching = new ArrayList<>();
+        for (List<String> row : rows) {
+            if (conditions.stream().allMatch(condition -> condition.test(row))) {
+                matching.add(row);
+            }
+        }
+        return matching;
+    }
+
+    private static Predicate<List<String>> parseCondition(StandInTable table, String condition) {
+        Matcher comparison = COMPARISON.matcher(condition);
+        if (comparison.matches()) {
+            int index = table.columnNames.indexOf(unquote(comparison.group(1)));
+            String operator = comparison.group(2);
+            String literal = comparison.group(3).replace("\\'", "'").replace("\\\\", "\\");
+            return index < 0 ? null : row -> row.get(index) != null && compare(row.get(index), operator, literal);
+        }
+        Matcher bucket = HASH_BUCKET.matcher(condition);
+        if (bucket.matches()) {
+            List<Integer> indexes = new ArrayList<>();
+            for (String column : bucket.group(1).split(",")) {
+                indexes.add(table.columnNames.indexOf(unquote(column.trim())));
+            }
+            if (indexes.contains(-1)) {
+                return null;
+            }
+            int buckets = Integer.parseInt(bucket.group(2));
+            int wanted = Integer.parseInt(bucket.group(3));
+            return row -> {
+                List<String> key = new ArrayList<>();
+                for (int index : indexes) {
+                    key.add(row.get(index));
+                }
+                return Math.floorMod(key.hashCode(), buckets) == wanted;
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates INNER and LEFT joins on key equalities into a table whose columns are
+     * named "alias.column". ANY joins keep the first match; LEFT joins fill the columns
+     * of a missing match with NULL.
+     */
+    private StandInTable join(String baseTable, String baseAlias, String clauses, String database) {
+        StandInTable base = requireTable(baseTable, database);
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>(base.columnTypes);
+        for (String column : base.columnNames) {
+            names.add(baseAlias + "." + column);
+        }
+        List<List<String>> rows = base.getRows();
+
+        Matcher clause = JOIN_CLAUSE.matcher(clauses);
+        while (clause.find()) {
+            String type = clause.group(1).toUpperCase();
+            if (!type.equals("INNER") && !type.equals("LEFT")) {
+                throw new StandInException(48, "Stand-in server only supports INNER and LEFT joins");
+            }
+            boolean any = "ANY".equalsIgnoreCase(clause.group(2));
+            StandInTable right = requireTable(clause.group(3), database);
+            String alias = unquote(clause.group(4));
+            List<int[]> keys = new ArrayList<>();
+            for (String equality : clause.group(5).split("(?i)\\s+AND\\s+")) {
+                Matcher key = KEY_EQUALITY.matcher(equality);
+                if (!key.matches()) {
+                    throw new StandInException(62, "Stand-in server can't parse join condition: " + equality);
+                }
+                String left = unquote(key.group(1));
+                String rightColumn = unquote(key.group(2)).substring(alias.length() + 1);
+                keys.add(new int[] {names.indexOf(left), right.columnNames.indexOf(rightColumn)});
+            }
+
+            List<List<String>> joined = new ArrayList<>();
+            for (List<String> row : rows) {
+                boolean matched = false;
+                for (List<String> candidate : right.getRows()) {
+                    boolean equal = true;
+                    for (int[] key : keys) {
+                        equal &= row.get(key[0]) != null && row.get(key[0]).equals(candidate.get(key[1]));
+                    }
+                    if (equal && !(any && matched)) {
+                        List<String> combined = new ArrayList<>(row);
+                        combined.addAll(candidate);
+                        joined.add(combined);
+                        matched = true;
+                    }
+                }
+                if (!matched && type.equals("LEFT")) {
+                    List<String> combined = new ArrayList<>(row);
+                    combined.addAll(Collections.nCopies(right.columnNames.size(), null));
+                    joined.add(combined);
+                }
+            }
+            for (int i = 0; i < right.columnNames.size(); i++) {
+                names.add(alias + "." + right.columnNames.get(i));
+                types.add("Nullable(" + right.columnTypes.get(i).replaceAll("^Nullable\\((.*)\\)$", "$1") + ")");
+            }
+            rows = joined;
+        }
+
+        StandInTable result = new StandInTable(names, types);
+        result.rows.addAll(rows);
+        return result;
+    }
+
+    /**
+     * Orders rows by a list of columns with optional ASC/DESC; NULLs sort last
+     */
+    private static List<List<String>> sortRows(StandInTable table, List<List<String>> rows, String orderBy) {
+        Comparator<List<String>> order = null;
+        for (String item : orderBy.split(",")) {
+            String[] parts = item.trim().split("\\s+");
+            int index = table.columnNames.indexOf(unquote(parts[0]));
+            if (index < 0) {
+                throw new StandInException(47, "Missing columns: '" + parts[0] + "'");
+            }
+            Comparator<String> values = ClickHouseStandInServer::compareValues;
+            if (parts.length > 1 && parts[1].equalsIgnoreCase("DESC")) {
+                values = values.reversed();
+            }
+            Comparator<List<String>> byColumn = Comparator.comparing(row -> row.get(index),
+                    Comparator.nullsLast(values));
+            order = order == null ? byColumn : order.thenComparing(byColumn);
+        }
+        List<List<String>> sorted = new ArrayList<>(rows);
+        sorted.sort(order);
+        return sorted;
+    }
+
+    private static boolean compare(String value, String operator, String literal) {
+        int order = compareValues(value, literal);
+        switch (operator) {
+            case ">": return order > 0;
+            case ">=": return order >= 0;
+            case "<": return order < 0;
+            case "<=": return order <= 0;
+            case "=": return order == 0;
+            default: return order != 0;
+        }
+    }
+
+    private static int compareValues(String a, String b) {
+        try {
+            return new BigDecimal(a).compareTo(new BigDecimal(b));
+        } catch (NumberFormatException e) {
+            return a.compareTo(b);
+        }
+    }
+
+    /**
+     * Computes a select list of count(), min(col) and max(col), each optionally wrapped
+     * in toString(), over the matching rows
+     */
+    private static ResultTable aggregate(StandInTable table, List<List<String>> rows, String[] items) {
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (String item : items) {
+            Matcher aggregate = AGGREGATE.matcher(item.trim());
+            if (!aggregate.matches()) {
+                throw new StandInException(62, "Stand-in server can't mix aggregates and columns: " + item);
+            }
+            names.add(item.trim());
+            String function = aggregate.group(2).toLowerCase();
+            if (function.equals("count")) {
+                types.add("UInt64");
+                values.add(String.valueOf(rows.size()));
+                continue;
+            }
+            int index = table.columnNames.indexOf(aggregate.group(3));
+            if (index < 0) {
+                throw new StandInException(47, "Missing columns: '" + aggregate.group(3) + "'");
+            }
+            String type = aggregate.group(1) != null ? "String" : table.columnTypes.get(index);
+            String extreme = null;
+            for (List<String> row : rows) {
+                String value = row.get(index);
+                if (value != null && (extreme == null
+                        || compareValues(value, extreme) * (function.equals("max") ? 1 : -1) > 0)) {
+                    extreme = value;
+                }
+            }
+            types.add(type);
+            // Like ClickHouse, an empty set gives the type's default value
+            values.add(extreme != null ? extreme : type.equals("String") ? "" : "0");
+        }
+        ResultTable result = new ResultTable(names, types);
+        result.rows.add(values);
+        return result;
+    }
+
+    /**
+     * Answers the metadata lookups the app makes: total_rows and sorting_key from
+     * system.tables, and per-partition row counts from system.parts (one partition "all")
+     */
+    private ResultTable selectSystemTable(String systemTable, String selectList, String where) {
+        Map<String, String> filters = new LinkedHashMap<>();
+        if (where != null) {
+            Matcher equals = WHERE_EQUALS.matcher(where);
+            while (equals.find()) {
+                filters.put(equals.group(1).toLowerCase(), equals.group(2));
+            }
+        }
+        String tableKey = filters.get("database") + "." + filters.getOrDefault("name", filters.get("table"));
+        StandInTable table = tables.get(tableKey);
+
+        if (systemTable.equals("system.tables")) {
+            if (selectList.equalsIgnoreCase("total_rows")) {
+                ResultTable result = new ResultTable(Collections.singletonList("total_rows"),
+                        Collections.singletonList("Nullable(UInt64)"));
+                if (table != null) {
+                    result.rows.add(Collections.singletonList(String.valueOf(table.getRows().size())));
+                }
+                return result;
+            }
+            ResultTable result = new ResultTable(Collections.singletonList("sorting_key"),
+                    Collections.singletonList("String"));
+            if (table != null) {
+                result.rows.add(Collections.singletonList(""));
+            }
+            return result;
+        }
+
+        ResultTable result = new ResultTable(Arrays.asList("partition_id", "sum(rows)"),
+                Arrays.asList("String", "UInt64"));
+        if (table != null && !table.getRows().isEmpty()) {
+            result.rows.add(Arrays.asList("all", String.valueOf(table.getRows().size())));
+        }
+        return result;
+    }
+
+    private void insert(Matcher matcher, InputStream data, String database, String deduplicationToken,
+                        HttpServletResponse response) throws IOException {
+        StandInTable table = requireTable(matcher.group(1), database);
+        String format = matcher.group(3);
+
+        List<Integer> indexes = new ArrayList<>();
+        if (matcher.group(2) != null && !matcher.group(2).trim().isEmpty()) {
+            for (String column : matcher.group(2).split(",")) {
+                int index = table.columnNames.indexOf(unquote(column.trim()));
+                if (index < 0) {
+                    throw new StandInException(16, "No such column " + column.trim());
+                }
+                indexes.add(index);
+            }
+        } else {
+            for (int i = 0; i < table.columnNames.size(); i++) {
+                indexes.add(i);
+            }
+        }
+
+        List<List<String>> parsed;
+        if (format.equalsIgnoreCase("RowBinary")) {
+            parsed = readRowBinary(data, table, indexes);
+        } else if (format.equalsIgnoreCase("Native")) {
+            parsed = Native.read(new DataInputStream(data));
+        } else if (format.toUpperCase().startsWith("CSV") || format.toUpperCase().startsWith("TSV") ||
+                format.toUpperCase().startsWith("TABSEPARATED")) {
+            parsed = readText(data, format, table, indexes);
+        } else {
+            throw new StandInException(73, "Stand-in server doesn't support input format " + format);
+        }
+
+        List<List<String>> fullRows = new ArrayList<>(parsed.size());
+        for (List<String> values : parsed) {
+            List<String> row = new ArrayList<>(Collections.nCopies(table.columnNames.size(), (String) null));
+            for (int i = 0; i < indexes.size(); i++) {
+                row.set(indexes.get(i), values.get(i));
+            }
+            fullRows.add(row);
+        }
+        if (deduplicationToken == null
+                || deduplicationTokens.add(qualify(matcher.group(1), database) + "/" + deduplicationToken)) {
+            table.rows.addAll(fullRows);
+        }
+        blocksReceived.incrementAndGet();
+        rowsReceived.addAndGet(fullRows.size());
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("X-ClickHouse-Summary", "{\"read_rows\":\"" + fullRows.size() +
+                "\",\"written_rows\":\"" + fullRows.size() + "\"}");
+    }
+
+    private void insertSelect(Matcher matcher, String database, HttpServletResponse response) {
+        StandInTable table = requireTable(matcher.group(1), database);
+        ResultTable selected = query(matcher.group(3), database);
+        List<Integer> indexes = new ArrayList<>();
+        for (String column : matcher.group(2).split(",")) {
+            int index = table.columnNames.indexOf(unquote(column.trim()));
+            if (index < 0) {
+                throw new StandInException(16, "No such column " + column.trim());
+            }
+            indexes.add(index);
+        }
+        for (List<String> values : selected.rows) {
+            List<String> row = new ArrayList<>(Collections.nCopies(table.columnNames.size(), (String) null));
+            for (int i = 0; i < indexes.size(); i++) {
+                row.set(indexes.get(i), values.get(i));
+            }
+            table.rows.add(row);
+        }
+        blocksReceived.incrementAndGet();
+        rowsReceived.addAndGet(selected.rows.size());
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("X-ClickHouse-Summary", "{\"read_rows\":\"" + selected.rows.size() +
+                "\",\"written_rows\":\"" + selected.rows.size() + "\"}");
+    }
+
+    private List<List<String>> readRowBinary(InputStream data, StandInTable table, List<Integer> indexes)
+            throws IOException {
+        DataInputStream in = new DataInputStream(data);
+        List<List<String>> rows = new ArrayList<>();
+        while (true) {
+            List<String> row = new ArrayList<>(indexes.size());
+            for (int i = 0; i < indexes.size(); i++) {
+                String type = table.columnTypes.get(indexes.get(i));
+                try {
+                    row.add(RowBinary.read(in, type));
+                } catch (EOFException e) {
+                    if (i == 0) {
+                        return rows;
+                    }
+                    throw new StandInException(33, "Cannot read all data in RowBinary format");
+                }
+            }
+            rows.add(row);
+        }
+    }
+
+    private List<List<String>> readText(InputStream data, String format, StandInTable table,
+                                        List<Integer> indexes) throws IOException {
+        boolean tabSeparated = !format.toUpperCase().startsWith("CSV");
+        boolean withNames = format.toLowerCase().contains("withnames");
+        CSVFormat csvFormat = tabSeparated
+                ? CSVFormat.TDF.builder().setQuote(null).setEscape('\\').build()
+                : CSVFormat.DEFAULT;
+
+        List<List<String>> rows = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(data, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, csvFormat)) {
+            List<Integer> sourceColumns = null;
+            for (CSVRecord record : parser) {
+                if (withNames && sourceColumns == null) {
+                    // Map the header to the requested insert columns, skipping unknown ones
+                    sourceColumns = new ArrayList<>();
+                    List<String> header = new ArrayList<>();
+                    record.forEach(header::add);
+                    for (int index : indexes) {
+                        sourceColumns.add(header.indexOf(table.columnNames.get(index)));
+                    }
+                    continue;
+                }
+                List<String> row = new ArrayList<>(indexes.size());
+                for (int i = 0; i < indexes.size(); i++) {
+                    int source = sourceColumns != null ? sourceColumns.get(i) : i;
+                    String value = source >= 0 && source < record.size() ? record.get(source) : null;
+                    row.add(tabSeparated && "N".equals(value) ? null : value);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void createTable(Matcher matcher, String database) {
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (String column : matcher.group(2).split(",")) {
+            String[] parts = column.trim().split("\\s+", 2);
+            names.add(unquote(parts[0]));
+            types.add(parts.length > 1 ? parts[1].trim() : "String");
+        }
+        tables.putIfAbsent(qualify(matcher.group(1), database), new StandInTable(names, types));
+    }
+
+    private void writeServerInfo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        List<String> names = Arrays.asList("user", "timezone", "version", "readonly",
+                "throw_on_unsupported_query_inside_transaction", "wait_changes_become_visible_after_commit_mode",
+                "implicit_transaction", "max_insert_block_size", "allow_experimental_lightweight_delete",
+                "custom_jdbc_config");
+        List<String> types = Arrays.asList("String", "String", "String", "UInt8", "Int8", "String",
+                "Int8", "UInt64", "Int8", "String");
+        ResultTable result = new ResultTable(names, types);
+        result.rows.add(Arrays.asList("default", "UTC", "23.3.1.1", "0", "-1", "", "-1", "1048576", "-1", ""));
+        writeResult(result, "RowBinaryWithNamesAndTypes", request, response);
+    }
+
+    private void writeResult(ResultTable result, String format, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("X-ClickHouse-Format", format);
+        long scanned = result.scannedRows >= 0 ? result.scannedRows : result.rows.size();
+        response.setHeader("X-ClickHouse-Progress", "{\"read_rows\":\"" + scanned +
+                "\",\"total_rows_to_read\":\"" + scanned + "\"}");
+        // A streamed result's summary goes out with the headers, before any row is read
+        response.setHeader("X-ClickHouse-Summary", "{\"read_rows\":\"0\",\"result_rows\":\"0\"}");
+
+        OutputStream out = new CountingOutputStream(throttle(response.getOutputStream()), bytesSent);
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if ("1".equals(parameter(request, "compress"))) {
+            out = new Lz4OutputStream(out, LZ4_BLOCK_SIZE, null);
+        } else if ("1".equals(parameter(request, "enable_http_compression")) && acceptEncoding != null) {
+            for (CompressionType type : CompressionType.values()) {
+                if (type.isCompressed() && acceptEncoding.toLowerCase().contains(type.getContentEncoding())) {
+                    response.setHeader("Content-Encoding", type.getContentEncoding());
+                    out = type.compress(out);
+                    break;
+                }
+            }
+        }
+
+        try (OutputStream body = out) {
+            String normalized = format.toLowerCase();
+            if (normalized.startsWith("rowbinary")) {
+                RowBinary.write(body, result, normalized.contains("withnamesandtypes"));
+            } else if (normalized.equals("native")) {
+                Native.write(body, result);
+            } else if (normalized.startsWith("csv") || normalized.startsWith("tsv") ||
+                    normalized.startsWith("tabseparated")) {
+                writeText(body, result, normalized);
+            } else {
+                throw new StandInException(73, "Stand-in server doesn't support output format " + format);
+            }
+        }
+    }
+
+    private void writeText(OutputStream out, ResultTable result, String format) throws IOException {
+        boolean tabSeparated = !format.startsWith("csv");
+        CSVFormat csvFormat = tabSeparated
+                ? CSVFormat.TDF.builder().setQuote(null).setEscape('\\').setNullString("\\N")
+                        .setRecordSeparator('\n').build()
+                : CSVFormat.DEFAULT.builder().setRecordSeparator('\n').build();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        CSVPrinter printer = new CSVPrinter(writer, csvFormat);
+        if (format.contains("withnames")) {
+            printer.printRecord(result.names);
+        }
+        for (List<String> row : result.rows) {
+            printer.printRecord(row);
+        }
+        printer.flush();
+    }
+
+    private StandInTable requireTable(String name, String database) {
+        StandInTable table = tables.get(qualify(name, database));
+        if (table == null) {
+            throw new StandInException(60, "Table " + qualify(name, database) + " doesn't exist");
+        }
+        return table;
+    }
+
+    private static String qualify(String name, String database) {
+        String unquoted = unquote(name);
+        return unquoted.contains(".") ? unquoted : database + "." + unquoted;
+    }
+
+    private static String unquote(String identifier) {
+        return identifier.replace("`", "").replace("\"", "");
+    }
+
+    private InputStream throttle(InputStream in) {
+        return new FilterInputStream(in) {
+            private final long started = System.nanoTime();
+            private long transferred;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    transferred += read;
+                    pace(started, transferred);
+                }
+                return read;
+            }
+        };
+    }
+
+    private OutputStream throttle(OutputStream out) {
+        return new FilterOutputStream(out) {
+            private final long started = System.nanoTime();
+            private long transferred;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                transferred += len;
+                pace(started, transferred);
+            }
+        };
+    }
+
+    /**
+     * Sleeps long enough to keep a transfer under the configured byte rate
+     */
+    private void pace(long startedNanos, long transferred) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long dueMs = transferred * 1000 / rate;
+        long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000;
+        sleep(dueMs - elapsedMs);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ResultTable {
+        private final List<String> names;
+        private final List<String> types;
+        private final List<List<String>> rows = new ArrayList<>();
+        // Rows the query had to scan, reported as total_rows_to_read; -1 means the result's size
+        private long scannedRows = -1;
+
+        ResultTable(List<String> names, List<String> types) {
+            this.names = names;
+            this.types = types;
+        }
+    }
+
+    private static class StandInException extends RuntimeException {
+        private final int code;
+        private final int status;
+
+        StandInException(int code, String message) {
+            super(message);
+            this.code = code;
+            this.status = code == 60 ? HttpServletResponse.SC_NOT_FOUND : HttpServletResponse.SC_BAD_REQUEST;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong counter;
+
+        CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+
+    /**
+     * RowBinary encoding for the handful of types the tests use. Unknown types are
+     * treated as String.
+     */
+    /**
+     * Native format: blocks of columns, each with its name, type and values; a Nullable
+     * column's null map comes before its values. Results are written as one block.
+     */
+    private static final class Native {
+
+        static void write(OutputStream out, ResultTable result) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            RowBinary.writeVarInt(buffer, result.names.size());
+            RowBinary.writeVarInt(buffer, result.rows.size());
+            for (int column = 0; column < result.names.size(); column++) {
+                String type = result.types.get(column);
+                RowBinary.writeString(buffer, result.names.get(column));
+                RowBinary.writeString(buffer, type);
+                if (type.startsWith("Nullable(")) {
+                    for (List<String> row : result.rows) {
+                        buffer.write(row.get(column) == null ? 1 : 0);
+                    }
+                    type = type.substring("Nullable(".length(), type.length() - 1);
+                }
+                for (List<String> row : result.rows) {
+                    String value = row.get(column);
+                    RowBinary.writeValue(buffer, type, value != null ? value : defaultValue(type));
+                }
+            }
+            buffer.writeTo(out);
+        }
+
+        static List<List<String>> read(DataInputStream in) throws IOException {
+            List<List<String>> rows = new ArrayList<>();
+            while (true) {
+                int columns;
+                try {
+                    columns = (int) RowBinary.readVarInt(in);
+                } catch (EOFException e) {
+                    return rows;
+                }
+                int rowCount = (int) RowBinary.readVarInt(in);
+                int first = rows.size();
+                for (int i = 0; i < rowCount; i++) {
+                    rows.add(new ArrayList<>(Collections.nCopies(columns, (String) null)));
+                }
+                for (int column = 0; column < columns; column++) {
+                    RowBinary.read(in, "String");
+                    String type = RowBinary.read(in, "String");
+                    boolean[] nulls = new boolean[rowCount];
+                    if (type.startsWith("Nullable(")) {
+                        for (int i = 0; i < rowCount; i++) {
+                            nulls[i] = in.readUnsignedByte() == 1;
+                        }
+                        type = type.substring("Nullable(".length(), type.length() - 1);
+                    }
+                    for (int i = 0; i < rowCount; i++) {
+                        String value = RowBinary.read(in, type);
+                        rows.get(first + i).set(column, nulls[i] ? null : value);
+                    }
+                }
+            }
+        }
+
+        private static String defaultValue(String type) {
+            if (type.equals("Bool")) {
+                return "false";
+            }
+            return type.matches("U?Int\\d+|Float\\d+") ? "0" : "";
+        }
+    }
+
+    private static final class RowBinary {
+
+        static void write(OutputStream out, ResultTable result, boolean withNamesAndTypes) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if (withNamesAndTypes) {
+                writeVarInt(buffer, result.names.size());
+                for (String name : result.names) {
+                    writeString(buffer, name);
+                }
+                for (String type : result.types) {
+                    writeString(buffer, type);
+                }
+            }
+            for (List<String> row : result.rows) {
+                for (int i = 0; i < row.size(); i++) {
+                    writeValue(buffer, result.types.get(i), row.get(i));
+                }
+                if (buffer.size() > 64 * 1024) {
+                    buffer.writeTo(out);
+                    buffer.reset();
+                }
+            }
+            buffer.writeTo(out);
+        }
+
+        static void writeValue(ByteArrayOutputStream out, String type, String value) throws IOException {
+            if (type.startsWith("Nullable(")) {
+                out.write(value == null ? 1 : 0);
+                if (value == null) {
+                    return;
+                }
+                type = type.substring("Nullable(".length(), type.length() - 1);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            switch (type) {
+                case "UInt8":
+                case "Int8":
+                case "Bool":
+                    out.write(type.equals("Bool") ? (Boolean.parseBoolean(value) ? 1 : 0) : (int) Long.parseLong(value));
+                    return;
+                case "UInt16":
+                case "Int16":
+                    out.write(bytes.putShort((short) Long.parseLong(value)).array(), 0, 2);
+                    return;
+                case "UInt32":
+                case "Int32":
+                    out.write(bytes.putInt((int) Long.parseLong(value)).array(), 0, 4);
+                    return;
+                case "UInt64":
+                case "Int64":
+                    long number = type.startsWith("U") ? Long.parseUnsignedLong(value) : Long.parseLong(value);
+                    out.write(bytes.putLong(number).array(), 0, 8);
+                    return;
+                case "Float32":
+                    out.write(bytes.putFloat(Float.parseFloat(value)).array(), 0, 4);
+                    return;
+                case "Float64":
+                    out.write(bytes.putDouble(Double.parseDouble(value)).array(), 0, 8);
+                    return;
+                default:
+                    writeString(out, value != null ? value : "");
+            }
+        }
+
+        static String read(DataInputStream in, String type) throws IOException {
+            if (type.startsWith("Nullable(")) {
+                if (in.readUnsignedByte() == 1) {
+                    return null;
+                }
+                type = type.substring("Nullable(".length(), type.length() - 1);
+            }
+            byte[] bytes;
+            switch (type) {
+                case "UInt8":
+                    return String.valueOf(in.readUnsignedByte());
+                case "Int8":
+                    return String.valueOf(in.readByte());
+                case "Bool":
+                    return String.valueOf(in.readUnsignedByte() != 0);
+                case "UInt16":
+                case "Int16":
+                    bytes = readFully(in, 2);
+                    short s = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getShort();
+                    return String.valueOf(type.startsWith("U") ? s & 0xFFFF : s);
+                case "UInt32":
+                case "Int32":
+                    bytes = readFully(in, 4);
+                    int i = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    return String.valueOf(type.startsWith("U") ? i & 0xFFFFFFFFL : i);
+                case "UInt64":
+                case "Int64":
+                    bytes = readFully(in, 8);
+                    long l = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
+                    return type.startsWith("U") ? Long.toUnsignedString(l) : String.valueOf(l);
+                case "Float32":
+                    return String.valueOf(ByteBuffer.wrap(readFully(in, 4)).order(ByteOrder.LITTLE_ENDIAN).getFloat());
+                case "Float64":
+                    return String.valueOf(ByteBuffer.wrap(readFully(in, 8)).order(ByteOrder.LITTLE_ENDIAN).getDouble());
+                default:
+                    int length = (int) readVarInt(in);
+                    return new String(readFully(in, length), StandardCharsets.UTF_8);
+            }
+        }
+
+        private static byte[] readFully(DataInputStream in, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        static void writeString(OutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        static void writeVarInt(OutputStream out, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        static long readVarInt(DataInputStream in) throws IOException {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+    }
+}